@@ -56,6 +56,7 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
 
         URL initScript = config.isInitDb() ? config.getInitScript() : null;
         configDatabase.initDb(initScript);
+        configDatabase.startChangePolling(config.getChangePollInterval());
 
         config.setInitDb(false);
         config.save();
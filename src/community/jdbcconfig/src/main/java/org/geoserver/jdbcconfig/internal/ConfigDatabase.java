@@ -15,17 +15,31 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +47,9 @@ import javax.annotation.Nullable;
 import javax.sql.DataSource;
 
 import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.Info;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
@@ -40,13 +57,19 @@ import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.ResourcePool;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.catalog.impl.ClassMappings;
+import org.geoserver.catalog.impl.CoverageStoreInfoImpl;
+import org.geoserver.catalog.impl.DataStoreInfoImpl;
+import org.geoserver.catalog.impl.FeatureTypeInfoImpl;
 import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.impl.ResourceInfoImpl;
 import org.geoserver.catalog.impl.StoreInfoImpl;
 import org.geoserver.catalog.impl.StyleInfoImpl;
+import org.geoserver.catalog.impl.WMSStoreInfoImpl;
 import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.config.GeoServer;
@@ -67,6 +90,8 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.sort.SortBy;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -112,6 +137,58 @@ public class ConfigDatabase {
 
     private InfoRowMapper<Info> configRowMapper;
 
+    /**
+     * Number of changes kept in the change log behind the last one applied, for the benefit of
+     * the instances lagging behind
+     */
+    static final int KEEP_CHANGES = 10000;
+
+    /**
+     * Number of polls a missing change is waited for before giving up on it
+     */
+    static final int MAX_GAP_POLLS = 10;
+
+    /**
+     * Tells apart the changes made by this instance in the change log, so that they're not
+     * applied twice
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * Whether the database has the change log table, databases created by older versions don't
+     */
+    private volatile boolean changeLog;
+
+    /**
+     * Sequence number up to which all the changes in the change log have been applied
+     */
+    private long lastChange;
+
+    /**
+     * Changes applied past {@link #lastChange}, waiting for the changes before them to show up
+     */
+    private final Set<Long> changesAhead = new HashSet<Long>();
+
+    private int gapPolls;
+
+    private long lastPruned;
+
+    private ScheduledExecutorService changePoller;
+
+    /**
+     * Maximum number of objects loaded with a single query, bounded by the length of the IN lists
+     * some databases accept
+     */
+    static final int LOAD_BATCH_SIZE = 100;
+
+    /**
+     * Minimum number of objects loaded at once for their deserialization to be spread over many
+     * threads
+     */
+    static final int PARALLEL_LOAD_THRESHOLD = 8;
+
+    private ExecutorService loadExecutor;
+
     /**
      * Protected default constructor needed by spring-jdbc instrumentation
      */
@@ -146,6 +223,43 @@ public class ConfigDatabase {
             runInitScript(initScript);
         }
         dbMappings.initDb(template);
+        initChangeLog();
+    }
+
+    private void initChangeLog() {
+        // look up the table in the metadata, a failed query would abort the transaction
+        changeLog = template.getJdbcOperations().execute(new ConnectionCallback<Boolean>() {
+            @Override
+            public Boolean doInConnection(Connection con) throws SQLException {
+                DatabaseMetaData metaData = con.getMetaData();
+                for (String name : new String[] { "object_change", "OBJECT_CHANGE" }) {
+                    ResultSet tables = metaData.getTables(null, null, name, null);
+                    try {
+                        if (tables.next()) {
+                            return true;
+                        }
+                    } finally {
+                        tables.close();
+                    }
+                }
+                return false;
+            }
+        });
+        if (!changeLog) {
+            LOGGER.warning("No object_change table in the catalog database, changes made by "
+                    + "other GeoServer instances sharing it won't be noticed. Re-create the "
+                    + "database with the current init script to enable them");
+            return;
+        }
+        synchronized (this) {
+            String sql = "select coalesce(max(seq), 0) from object_change";
+            Map<String, ?> params = params();
+            logStatement(sql, params);
+            lastChange = template.queryForLong(sql, params);
+            lastPruned = lastChange;
+            changesAhead.clear();
+            gapPolls = 0;
+        }
     }
 
     private void runInitScript(URL initScript) throws IOException {
@@ -265,27 +379,30 @@ public class ConfigDatabase {
                     sw.toString()));
         }
 
-        List<T> lazyTransformed = Lists.transform(ids, new Function<String, T>() {
-            @Override
-            public T apply(String id) {
-                return getById(id, of);
-            }
-        });
+        // load the objects a batch at a time, as they're iterated over
+        Iterator<List<String>> batches = Iterators.partition(ids.iterator(), LOAD_BATCH_SIZE);
+        Iterator<T> iterator = Iterators.concat(Iterators.transform(batches,
+                new Function<List<String>, Iterator<T>>() {
+                    @Override
+                    public Iterator<T> apply(List<String> batch) {
+                        return getByIds(batch, of).iterator();
+                    }
+                }));
 
         CloseableIterator<T> result;
 
         if (fullySupported) {
-            Iterator<T> iterator = lazyTransformed.iterator();
             result = new CloseableIteratorAdapter<T>(iterator);
         } else {
-            Iterator<T> iterator = lazyTransformed.iterator();
+            // paging could not be done by the database, do it over the filtered objects
+            iterator = CloseableIteratorAdapter.filter(iterator, filter);
             if (offset != null) {
                 Iterators.skip(iterator, offset.intValue());
             }
             if (limit != null) {
                 iterator = Iterators.limit(iterator, limit.intValue());
             }
-            result = CloseableIteratorAdapter.filter(iterator, filter);
+            result = new CloseableIteratorAdapter<T>(iterator);
         }
 
         return result;
@@ -543,6 +660,10 @@ public class ConfigDatabase {
         }
         cache.invalidate(info.getId());
 
+        // once the object is gone the other instances cannot find what referred to it
+        final Map<String, Integer> referring = changeLog ? referring(info.getId())
+                : Collections.<String, Integer> emptyMap();
+
         String deleteObject = "delete from object where id = :id";
         String deleteRelatedProperties = "delete from object_property where related_oid = :oid";
 
@@ -553,6 +674,10 @@ public class ConfigDatabase {
         }
         final int relatedPropCount = template.update(deleteRelatedProperties, params("oid", oid));
         LOGGER.fine("Removed " + relatedPropCount + " related properties of " + info.getId());
+        logChange(info);
+        for (Map.Entry<String, Integer> e : referring.entrySet()) {
+            logChange(e.getKey(), e.getValue());
+        }
 
         cache.invalidate(info.getId());
     }
@@ -602,6 +727,7 @@ public class ConfigDatabase {
         template.update(updateStatement, params);
 
         updateQueryableProperties(oldObject, objectId, changedProperties);
+        logChange(info);
 
         cache.invalidate(id);
         Class<T> clazz = ClassMappings.fromImpl(oldObject.getClass()).getInterface();
@@ -619,6 +745,183 @@ public class ConfigDatabase {
         return getById(id, clazz);
     }
 
+    /**
+     * Records the change of an object in the change log, within the transaction changing it, for
+     * the other instances sharing the database to pick it up
+     */
+    private void logChange(final Info info) {
+        if (!changeLog) {
+            return;
+        }
+        ClassMappings mappings = ClassMappings.fromImpl(ModificationProxy.unwrap(info).getClass());
+        Integer typeId = mappings == null ? null : dbMappings.getTypeId(mappings.getInterface());
+        logChange(info.getId(), typeId);
+    }
+
+    private void logChange(final String id, @Nullable final Integer typeId) {
+        String sql = "insert into object_change (id, type_id, node) values (:id, :type_id, :node)";
+        Map<String, ?> params = params("id", id, "type_id", typeId, "node", nodeId);
+        logStatement(sql, params);
+        template.update(sql, params);
+    }
+
+    /**
+     * Returns the ids and type ids of the objects referring to the given one, directly or through
+     * other objects
+     */
+    private Map<String, Integer> referring(final String id) {
+        final String sql = "select distinct r.id, r.type_id from object_property p, object o, "
+                + "object r where p.related_oid = o.oid and o.id = :id and r.oid = p.oid";
+        Map<String, Integer> referring = new LinkedHashMap<String, Integer>();
+        LinkedList<String> pending = new LinkedList<String>();
+        pending.add(id);
+        while (!pending.isEmpty()) {
+            Map<String, ?> params = params("id", pending.removeFirst());
+            logStatement(sql, params);
+            for (Map<String, Object> row : template.queryForList(sql, params)) {
+                String referringId = (String) row.get("id");
+                Number typeId = (Number) row.get("type_id");
+                if (!id.equals(referringId) && !referring.containsKey(referringId)) {
+                    referring.put(referringId, typeId == null ? null : typeId.intValue());
+                    pending.add(referringId);
+                }
+            }
+        }
+        return referring;
+    }
+
+    /**
+     * Applies the changes other instances sharing the database made since the last call. The
+     * changed objects, and the ones referring to them, are evicted from the cache, and the
+     * resources the catalog {@link ResourcePool} holds for changed stores and feature types are
+     * released. Removals are logged along with the objects that referred to the removed one, as
+     * they cannot be looked up once it is gone.
+     * <p>
+     * No catalog event is fired for the changes made by other instances, so the listeners keeping
+     * their own state, such as the GeoWebCache integration or the capabilities caches, are not
+     * notified. They pick up the changes only when their own state expires, or the instance is
+     * restarted or reloaded.
+     * </p>
+     * <p>
+     * Changes are applied in sequence order. A missing sequence number is either a transaction
+     * still in progress, waited for up to {@link #MAX_GAP_POLLS} polls, or a rolled back or pruned
+     * change, in which case the whole cache is evicted to be on the safe side.
+     * </p>
+     * 
+     * @return the number of changes applied
+     */
+    public synchronized int pollChanges() {
+        if (!changeLog) {
+            return 0;
+        }
+        String sql = "select seq, id, type_id, node from object_change where seq > :seq order by seq";
+        Map<String, ?> params = params("seq", lastChange);
+        logStatement(sql, params);
+        List<Map<String, Object>> changes = template.queryForList(sql, params);
+
+        int applied = 0;
+        for (Map<String, Object> change : changes) {
+            Long seq = ((Number) change.get("seq")).longValue();
+            if (!changesAhead.add(seq) || nodeId.equals(change.get("node"))) {
+                continue;
+            }
+            Number typeId = (Number) change.get("type_id");
+            applyChange((String) change.get("id"), typeId == null ? null : typeId.intValue());
+            applied++;
+        }
+
+        boolean advanced = advanceLastChange();
+        if (changesAhead.isEmpty() || advanced) {
+            gapPolls = 0;
+        } else if (++gapPolls >= MAX_GAP_POLLS) {
+            LOGGER.fine("Change " + (lastChange + 1) + " never showed up, evicting the cache");
+            cache.invalidateAll();
+            lastChange = Collections.min(changesAhead) - 1;
+            advanceLastChange();
+            gapPolls = 0;
+        }
+
+        if (lastChange - lastPruned >= KEEP_CHANGES) {
+            sql = "delete from object_change where seq <= :seq";
+            params = params("seq", lastChange - KEEP_CHANGES);
+            logStatement(sql, params);
+            template.update(sql, params);
+            lastPruned = lastChange;
+        }
+        return applied;
+    }
+
+    private boolean advanceLastChange() {
+        boolean advanced = false;
+        while (changesAhead.remove(lastChange + 1)) {
+            lastChange++;
+            advanced = true;
+        }
+        return advanced;
+    }
+
+    private void applyChange(final String id, @Nullable final Integer typeId) {
+        cache.invalidate(id);
+
+        // the cached objects referring to the changed one hold its former state. Removed objects
+        // are no longer there to look them up, their referring ones have their own changes logged
+        for (String referring : referring(id).keySet()) {
+            cache.invalidate(referring);
+        }
+
+        final Class<?> type = typeId == null ? null : dbMappings.getType(typeId);
+        if (type == null || catalog == null) {
+            return;
+        }
+        // the pool only looks at the id to find the cached resources
+        ResourcePool resourcePool = catalog.getResourcePool();
+        if (DataStoreInfo.class.equals(type)) {
+            resourcePool.clear(new DataStoreInfoImpl(catalog, id));
+        } else if (CoverageStoreInfo.class.equals(type)) {
+            resourcePool.clear(new CoverageStoreInfoImpl(catalog, id));
+        } else if (WMSStoreInfo.class.equals(type)) {
+            WMSStoreInfoImpl store = new WMSStoreInfoImpl(catalog);
+            store.setId(id);
+            resourcePool.clear(store);
+        } else if (FeatureTypeInfo.class.equals(type)) {
+            resourcePool.clear(new FeatureTypeInfoImpl(catalog, id));
+        }
+    }
+
+    /**
+     * Starts polling the change log every {@code interval} milliseconds, for the changes made by
+     * other instances sharing the database, see {@link #pollChanges()}.
+     * 
+     * @param interval the polling interval, zero or less not to poll
+     */
+    public synchronized void startChangePolling(final long interval) {
+        if (changePoller != null) {
+            changePoller.shutdownNow();
+            changePoller = null;
+        }
+        if (!changeLog || interval <= 0) {
+            return;
+        }
+        changePoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JDBC config change poller");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        changePoller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pollChanges();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to poll the catalog change log", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
     private <T> void updateResourceLayerName(ResourceInfo info) {
         final Object newValue = info.getName();
         Filter filter = Predicates.equal("resource.id", info.getId());
@@ -743,6 +1046,114 @@ public class ConfigDatabase {
             Throwables.propagate(e.getCause());
         }
 
+        return resolve(info, type);
+    }
+
+    /**
+     * Batch version of {@link #getById(String, Class)}, the objects not in the cache are loaded
+     * with a single query.
+     * 
+     * @return the objects found, in the order of {@code ids}
+     */
+    public <T extends Info> List<T> getByIds(final List<String> ids, final Class<T> type) {
+        Map<String, Info> found = new HashMap<String, Info>();
+        List<String> missing = new ArrayList<String>();
+        for (String id : ids) {
+            Info info = cache.getIfPresent(id);
+            if (info == null) {
+                missing.add(id);
+            } else {
+                found.put(id, info);
+            }
+        }
+        if (!missing.isEmpty()) {
+            found.putAll(load(missing, CatalogInfo.class.isAssignableFrom(type)));
+        }
+
+        List<T> result = new ArrayList<T>(ids.size());
+        for (String id : ids) {
+            T info = resolve(found.get(id), type);
+            if (info != null) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Info> load(final List<String> ids, final boolean catalogInfo) {
+        final String sql = "select id, blob from object where id in (:ids)";
+        Map<String, ?> params = params("ids", ids);
+        logStatement(sql, params);
+        final List<String[]> rows = template.query(sql, params, new RowMapper<String[]>() {
+            @Override
+            public String[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return new String[] { rs.getString(1), rs.getString(2) };
+            }
+        });
+
+        List<Info> loaded = new ArrayList<Info>(rows.size());
+        if (rows.size() < PARALLEL_LOAD_THRESHOLD) {
+            for (String[] row : rows) {
+                loaded.add(deserialize(row[1], catalogInfo));
+            }
+        } else {
+            // XStream unmarshalling is thread safe, it already happens concurrently in getById
+            List<Future<Info>> futures = new ArrayList<Future<Info>>(rows.size());
+            ExecutorService executor = getLoadExecutor();
+            for (final String[] row : rows) {
+                futures.add(executor.submit(new Callable<Info>() {
+                    @Override
+                    public Info call() throws Exception {
+                        return deserialize(row[1], catalogInfo);
+                    }
+                }));
+            }
+            try {
+                for (Future<Info> future : futures) {
+                    loaded.add(future.get());
+                }
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+        }
+
+        Map<String, Info> result = new HashMap<String, Info>();
+        for (int i = 0; i < rows.size(); i++) {
+            String id = rows.get(i)[0];
+            Info info = loaded.get(i);
+            // someone else may have loaded it in the meantime, stick to a single instance
+            Info cached = cache.asMap().putIfAbsent(id, info);
+            result.put(id, cached == null ? info : cached);
+        }
+        return result;
+    }
+
+    private Info deserialize(final String blob, final boolean catalogInfo) {
+        if (catalogInfo) {
+            return catalogRowMapper.map(blob);
+        }
+        return initConfig(configRowMapper.map(blob));
+    }
+
+    private synchronized ExecutorService getLoadExecutor() {
+        if (loadExecutor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            loadExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "JDBC config loader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return loadExecutor;
+    }
+
+    private <T extends Info> T resolve(Info info, final Class<T> type) {
         if (info == null) {
             return null;
         }
@@ -817,13 +1228,11 @@ public class ConfigDatabase {
 
         List<String> ids = template.queryForList(sql, params, String.class);
 
-        List<T> transformed = Lists.transform(ids, new Function<String, T>() {
-            @Override
-            public T apply(String input) {
-                return getById(input, clazz);
-            }
-        });
-        return Collections.unmodifiableList(transformed);
+        List<T> all = new ArrayList<T>(ids.size());
+        for (List<String> batch : Lists.partition(ids, LOAD_BATCH_SIZE)) {
+            all.addAll(getByIds(batch, clazz));
+        }
+        return Collections.unmodifiableList(all);
     }
 
     private <T extends Info> List<Integer> typesParam(final Class<T> clazz) {
@@ -852,6 +1261,16 @@ public class ConfigDatabase {
     }
 
     public void dispose() {
+        synchronized (this) {
+            if (changePoller != null) {
+                changePoller.shutdownNow();
+                changePoller = null;
+            }
+            if (loadExecutor != null) {
+                loadExecutor.shutdown();
+                loadExecutor = null;
+            }
+        }
         cache.invalidateAll();
         cache.cleanUp();
     }
@@ -896,29 +1315,33 @@ public class ConfigDatabase {
             } catch (EmptyResultDataAccessException noSuchObject) {
                 return null;
             }
-            OwsUtils.resolveCollections(info);
-            if (info instanceof GeoServerInfo) {
+            return initConfig(info);
+        }
+    }
 
-                GeoServerInfoImpl global = (GeoServerInfoImpl) info;
-                if (global.getMetadata() == null) {
-                    global.setMetadata(new MetadataMap());
-                }
-                if (global.getClientProperties() == null) {
-                    global.setClientProperties(new HashMap<Object, Object>());
-                }
-                if (global.getCoverageAccess() == null) {
-                    global.setCoverageAccess(new CoverageAccessInfoImpl());
-                }
-                if (global.getJAI() == null) {
-                    global.setJAI(new JAIInfoImpl());
-                }
+    private Info initConfig(final Info info) {
+        OwsUtils.resolveCollections(info);
+        if (info instanceof GeoServerInfo) {
+
+            GeoServerInfoImpl global = (GeoServerInfoImpl) info;
+            if (global.getMetadata() == null) {
+                global.setMetadata(new MetadataMap());
             }
-            if (info instanceof ServiceInfo) {
-                ((ServiceInfo)info).setGeoServer(geoServer);
+            if (global.getClientProperties() == null) {
+                global.setClientProperties(new HashMap<Object, Object>());
+            }
+            if (global.getCoverageAccess() == null) {
+                global.setCoverageAccess(new CoverageAccessInfoImpl());
+            }
+            if (global.getJAI() == null) {
+                global.setJAI(new JAIInfoImpl());
             }
-
-            return info;
         }
+        if (info instanceof ServiceInfo) {
+            ((ServiceInfo)info).setGeoServer(geoServer);
+        }
+
+        return info;
     }
 
     /**
@@ -46,6 +46,13 @@ public final class InfoRowMapper<T extends Info> implements RowMapper<T> {
     public T mapRow(final ResultSet rs, final int rowNum) throws SQLException {
         // InputStream binaryStream = lobHandler.getBlobAsBinaryStream(rs, colNum);
         String xml = rs.getString(colNum);
+        return map(xml);
+    }
+
+    /**
+     * Deserializes an object from its stored XML representation
+     */
+    public T map(final String xml) {
         ByteArrayInputStream in;
         try {
             byte[] bytes = xml.getBytes("UTF-8");
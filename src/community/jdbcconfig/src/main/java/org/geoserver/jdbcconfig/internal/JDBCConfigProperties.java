@@ -67,6 +67,18 @@ public class JDBCConfigProperties extends Properties {
         return DataUtilities.fileToURL(file);
     }
     
+    /**
+     * The interval, in milliseconds, of the polling for changes made by other instances sharing
+     * the database, 0 or less not to poll.
+     */
+    public long getChangePollInterval() {
+        return Long.parseLong(getProperty("changePollInterval", "5000"));
+    }
+
+    public void setChangePollInterval(long interval) {
+        setProperty("changePollInterval", String.valueOf(interval));
+    }
+
     public boolean isImport() {
         return Boolean.parseBoolean(getProperty("import", "false"));
     }
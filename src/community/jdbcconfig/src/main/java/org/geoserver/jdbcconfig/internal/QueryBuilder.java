@@ -181,7 +181,10 @@ class QueryBuilder<T extends Info> {
                 query.append(" ORDER BY value ").append(
                         SortOrder.ASCENDING.equals(order.getSortOrder()) ? "ASC" : "DESC");
             }
-            applyOffsetLimit(query);
+            // with a post filter the page can only be taken from the filtered objects
+            if (Filter.INCLUDE.equals(this.unsupportedFilter)) {
+                applyOffsetLimit(query);
+            }
 
         }
 
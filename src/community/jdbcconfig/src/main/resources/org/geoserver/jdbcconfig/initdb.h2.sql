@@ -39,6 +39,14 @@ CREATE TABLE default_object (
   id varchar(255) NOT NULL
 );
 
+CREATE TABLE object_change (
+  seq bigint GENERATED BY DEFAULT AS IDENTITY, 
+  id varchar(255) NOT NULL, 
+  type_id int, 
+  node varchar(64) NOT NULL, 
+  PRIMARY KEY (seq)
+);
+
 -- foriegn keys
 ALTER TABLE object_property ADD CONSTRAINT 
   fk_object_property FOREIGN KEY (oid) REFERENCES object (oid) ON DELETE CASCADE;
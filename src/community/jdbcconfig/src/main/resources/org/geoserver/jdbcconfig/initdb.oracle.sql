@@ -1,11 +1,14 @@
 CREATE SEQUENCE seq_OBJECT;
 CREATE SEQUENCE seq_TYPE;
 CREATE SEQUENCE seq_PROPERTY_TYPE;
+CREATE SEQUENCE seq_OBJECT_CHANGE;
 CREATE TABLE OBJECT (OID number(10) NOT NULL, TYPE_ID number(10) NOT NULL, ID varchar2(255) NOT NULL, BLOB clob NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE OBJECT_PROPERTY (OID number(10) NOT NULL, PROPERTY_TYPE number(10) NOT NULL, ID varchar2(255) NOT NULL, RELATED_OID number(10), RELATED_PROPERTY_TYPE number(10), COLINDEX number(10) NOT NULL, VALUE varchar2(255), PRIMARY KEY (OID, PROPERTY_TYPE, COLINDEX));
 CREATE TABLE TYPE (OID number(10) NOT NULL, TYPENAME varchar2(255) NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE PROPERTY_TYPE (OID number(10) NOT NULL, TARGET_PROPERTY number(10), TYPE_ID number(10) NOT NULL, NAME varchar2(255) NOT NULL, COLLECTION number(1) NOT NULL, TEXT number(1) NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE DEFAULT_OBJECT (DEF_KEY varchar2(255) NOT NULL, ID varchar2(255) NOT NULL);
+CREATE TABLE OBJECT_CHANGE (SEQ number(19) NOT NULL, ID varchar2(255) NOT NULL, TYPE_ID number(10), NODE varchar2(64) NOT NULL, PRIMARY KEY (SEQ));
+CREATE OR REPLACE TRIGGER trg_OBJECT_CHANGE BEFORE INSERT ON OBJECT_CHANGE FOR EACH ROW WHEN (new.SEQ IS NULL) BEGIN SELECT seq_OBJECT_CHANGE.NEXTVAL INTO :new.SEQ FROM dual; END;
 ALTER TABLE OBJECT_PROPERTY ADD CONSTRAINT FK_OBJECT_PROPERTY FOREIGN KEY (OID) REFERENCES OBJECT (OID) ON DELETE Cascade;
 ALTER TABLE PROPERTY_TYPE ADD CONSTRAINT FK_TYPE_PROPERTY_TYPE FOREIGN KEY (TYPE_ID) REFERENCES TYPE (OID);
 ALTER TABLE OBJECT ADD CONSTRAINT FK_OBJECT_TYPE FOREIGN KEY (TYPE_ID) REFERENCES TYPE (OID);
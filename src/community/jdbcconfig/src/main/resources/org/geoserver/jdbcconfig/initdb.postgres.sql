@@ -40,6 +40,14 @@ CREATE TABLE default_object (
 
 );
 
+CREATE TABLE object_change (
+  seq bigserial NOT NULL, 
+  id varchar(255) NOT NULL, 
+  type_id int4, 
+  node varchar(64) NOT NULL, 
+  PRIMARY KEY (seq)
+);
+
 -- foreign keys
 ALTER TABLE object_property ADD CONSTRAINT fk_object_property 
   FOREIGN KEY (oid) REFERENCES object (oid) ON DELETE CASCADE;
@@ -0,0 +1,133 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jdbcconfig.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.jdbcconfig.JDBCConfigTestSupport;
+import org.geoserver.jdbcconfig.catalog.JDBCCatalogFacade;
+
+/**
+ * Two catalogs sharing the same database, as two GeoServer instances in a cluster would
+ */
+public class ConfigDatabaseChangeLogTest extends TestCase {
+
+    private JDBCConfigTestSupport testSupport;
+
+    private ConfigDatabase database;
+
+    private CatalogImpl catalog;
+
+    private ConfigDatabase otherDatabase;
+
+    private CatalogImpl otherCatalog;
+
+    private List<String> cleared = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        testSupport = new JDBCConfigTestSupport();
+        testSupport.setUp();
+        database = testSupport.getDatabase();
+        catalog = testSupport.getCatalog();
+        catalog.setFacade(new JDBCCatalogFacade(database));
+
+        otherDatabase = new ConfigDatabase(testSupport.getDataSource(),
+                new XStreamInfoSerialBinding(new XStreamPersisterFactory()));
+        otherCatalog = new CatalogImpl();
+        otherCatalog.setFacade(new JDBCCatalogFacade(otherDatabase));
+        otherCatalog.setResourcePool(new ResourcePool(otherCatalog) {
+            @Override
+            public void clear(DataStoreInfo info) {
+                cleared.add(info.getId());
+                super.clear(info);
+            }
+        });
+        otherDatabase.initDb(null);
+
+        CatalogFactory factory = catalog.getFactory();
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("ws1");
+        catalog.add(ws);
+        DataStoreInfo ds = factory.createDataStore();
+        ds.setName("ds1");
+        ds.setWorkspace(ws);
+        ds.setEnabled(true);
+        catalog.add(ds);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        otherDatabase.dispose();
+        database.dispose();
+        testSupport.tearDown();
+    }
+
+    public void testModifiedReferencedObject() {
+        DataStoreInfo cached = otherCatalog.getDataStoreByName("ws1", "ds1");
+        assertNotNull(cached);
+
+        WorkspaceInfo ws = catalog.getWorkspaceByName("ws1");
+        ws.setName("ws2");
+        catalog.save(ws);
+
+        // not seen until polled
+        assertEquals("ws1", otherCatalog.getDataStore(cached.getId()).getWorkspace().getName());
+
+        assertEquals(1, otherDatabase.pollChanges());
+        assertEquals("ws2", otherCatalog.getDataStore(cached.getId()).getWorkspace().getName());
+        assertTrue(cleared.isEmpty());
+
+        // own changes are not applied again
+        assertEquals(0, database.pollChanges());
+        assertEquals(0, otherDatabase.pollChanges());
+    }
+
+    public void testModifiedStore() {
+        DataStoreInfo cached = otherCatalog.getDataStoreByName("ws1", "ds1");
+        assertNull(cached.getDescription());
+
+        DataStoreInfo ds = catalog.getDataStoreByName("ws1", "ds1");
+        ds.setDescription("changed");
+        catalog.save(ds);
+
+        assertEquals(1, otherDatabase.pollChanges());
+        assertEquals("changed", otherCatalog.getDataStore(cached.getId()).getDescription());
+        assertEquals(Arrays.asList(cached.getId()), cleared);
+    }
+
+    public void testRemovedStore() {
+        DataStoreInfo cached = otherCatalog.getDataStoreByName("ws1", "ds1");
+        assertNotNull(otherCatalog.getDataStore(cached.getId()));
+
+        catalog.remove(catalog.getDataStoreByName("ws1", "ds1"));
+
+        assertEquals(1, otherDatabase.pollChanges());
+        assertNull(otherCatalog.getDataStore(cached.getId()));
+        assertEquals(Arrays.asList(cached.getId()), cleared);
+    }
+
+    public void testRemovedReferencedObject() {
+        DataStoreInfo cached = otherCatalog.getDataStoreByName("ws1", "ds1");
+        assertNotNull(cached);
+
+        // the catalog checks are bypassed, the store refers to the removed workspace
+        database.remove(catalog.getWorkspaceByName("ws1"));
+
+        // the store change is logged along with the removal, it can't be found afterwards
+        assertEquals(2, otherDatabase.pollChanges());
+        assertEquals(Arrays.asList(cached.getId()), cleared);
+    }
+}
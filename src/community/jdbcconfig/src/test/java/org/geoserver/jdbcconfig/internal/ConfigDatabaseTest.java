@@ -17,6 +17,7 @@
 package org.geoserver.jdbcconfig.internal;
 
 import java.lang.reflect.Proxy;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -27,6 +28,10 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.DataStoreInfoImpl;
 import org.geoserver.catalog.impl.WorkspaceInfoImpl;
 import org.geoserver.jdbcconfig.JDBCConfigTestSupport;
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
 
 /**
  * @author groldan
@@ -102,6 +107,30 @@ public class ConfigDatabaseTest extends TestCase {
         return ws;
     }
 
+    public void testLoadInBatches() throws Exception {
+        final int count = 2 * ConfigDatabase.LOAD_BATCH_SIZE + 10;
+        for (int i = 0; i < count; i++) {
+            WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+            ws.setId("wsid" + i);
+            ws.setName(String.format("ws%03d", i));
+            database.add(ws);
+        }
+
+        // empty the cache for the objects to be loaded from the database
+        database.dispose();
+        List<WorkspaceInfo> all = database.getAll(WorkspaceInfo.class);
+        assertEquals(count, all.size());
+
+        database.dispose();
+        SortBy byName = CommonFactoryFinder.getFilterFactory().sort("name", SortOrder.DESCENDING);
+        List<WorkspaceInfo> page = database.queryAsList(WorkspaceInfo.class, Filter.INCLUDE, 5,
+                150, byName);
+        assertEquals(150, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(String.format("ws%03d", count - 6 - i), page.get(i).getName());
+        }
+    }
+
     /**
      * @param info
      */
@@ -393,6 +393,21 @@ public class FeatureChainingWfsTest extends AbstractAppSchemaTestSupport {
         assertXpathCount(3, "//gsml:GeologicUnit", doc);
     }
 
+    /**
+     * The number of features of complex feature responses is counted before encoding them, it has
+     * to match the features actually encoded when their number is limited too.
+     */
+    @Test
+    public void testGetFeatureNumberOfFeaturesLimited() {
+        Document doc = getAsDOM("wfs?request=GetFeature&version=1.1.0&typename=gsml:GeologicUnit"
+                + "&maxFeatures=2");
+        LOGGER.info("WFS GetFeature&typename=gsml:GeologicUnit&maxFeatures=2 response:\n"
+                + prettyString(doc));
+        assertEquals("wfs:FeatureCollection", doc.getDocumentElement().getNodeName());
+        assertXpathEvaluatesTo("2", "/wfs:FeatureCollection/@numberOfFeatures", doc);
+        assertXpathCount(2, "//gsml:GeologicUnit", doc);
+    }
+
     /**
      * Test nesting features of complex types with simple content. Previously the nested features
      * attributes weren't encoded, so this is to ensure that this works. This also tests that a
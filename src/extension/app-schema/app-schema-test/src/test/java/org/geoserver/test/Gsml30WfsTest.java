@@ -100,6 +100,21 @@ public class Gsml30WfsTest extends AbstractAppSchemaTestSupport {
                         + "/gmd:MD_RepresentativeFraction/gmd:denominator/gco:Integer", doc);
     }
 
+    /**
+     * Test the feature counts of a GetFeature response limited to fewer features than available.
+     */
+    @Test
+    public void testGetFeatureCountLimited() throws Exception {
+        String path = "wfs?request=GetFeature&typename=gsml:MappedFeature&outputFormat=gml32"
+                + "&count=1";
+        String newline = System.getProperty("line.separator");
+        Document doc = getAsDOM(path);
+        LOGGER.info("Response for " + path + " :" + newline + prettyString(doc));
+        assertXpathEvaluatesTo("1", "/wfs:FeatureCollection/@numberReturned", doc);
+        assertXpathEvaluatesTo("unknown", "/wfs:FeatureCollection/@numberMatched", doc);
+        assertXpathCount(1, "//gsml:MappedFeature", doc);
+    }
+
     /**
      * Test namespace of GetFeature response.
      */
@@ -110,7 +110,9 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
                             if(!flowController.requestIncoming(request, maxWait)) 
                                 throw new HttpErrorCodeException(503, "Requested timeout out while waiting to be executed");
                          } else {
-                            flowController.requestIncoming(request, -1);
+                            // controllers with a bounded queue reject the request when it's full
+                            if(!flowController.requestIncoming(request, -1))
+                                throw new HttpErrorCodeException(503, "Too many requests waiting to be executed");
                         }
                     }
                 }
@@ -13,9 +13,12 @@ import java.util.logging.Logger;
 
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveOWSController;
 import org.geoserver.flow.controller.BasicOWSController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
+import org.geoserver.flow.controller.PriorityFlowController;
+import org.geoserver.flow.controller.PriorityFlowController.PriorityClass;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserFlowController;
 import org.geoserver.security.PropertyFileWatcher;
@@ -54,6 +57,8 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        int priorityRunning = 0;
+        List<PriorityClass> priorityClasses = new ArrayList<PriorityClass>();
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
@@ -64,11 +69,11 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
             int queueSize = 0;
             StringTokenizer tokenizer = new StringTokenizer(value, ",");
             try {
-                if (tokenizer.countTokens() == 1) {
-                    queueSize = Integer.parseInt(value);
-                } else {
-                    queueSize = Integer.parseInt(tokenizer.nextToken());
+                if (!tokenizer.hasMoreTokens()) {
+                    throw new NumberFormatException("Empty value");
                 }
+                // consume the first token, some rules have more parameters following it
+                queueSize = Integer.parseInt(tokenizer.nextToken().trim());
             } catch (NumberFormatException e) {
                 LOGGER.severe("Rules should be assigned just a queue size, instead " + okey
                         + " is associated to " + value);
@@ -80,7 +85,39 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 timeout = queueSize * 1000;
                 continue;
             }
-            if ("ows.global".equalsIgnoreCase(key)) {
+            if ("priority".equalsIgnoreCase(key)) {
+                priorityRunning = queueSize;
+                continue;
+            } else if ("priority".equals(keys[0])) {
+                // priority.<service>[.<request>[.<outputFormat>]]=<weight>[,<maxQueued>]
+                try {
+                    int maxQueued = tokenizer.hasMoreTokens() ? Integer.parseInt(tokenizer
+                            .nextToken().trim()) : -1;
+                    if (keys.length == 2 && "default".equalsIgnoreCase(keys[1])) {
+                        priorityClasses.add(new PriorityClass(null, null, null, queueSize,
+                                maxQueued));
+                    } else {
+                        priorityClasses.add(new PriorityClass(keys[1],
+                                keys.length > 2 ? keys[2] : null, keys.length > 3 ? keys[3]
+                                        : null, queueSize, maxQueued));
+                    }
+                    continue;
+                } catch (RuntimeException e) {
+                    // bad weight or max queued, reported below
+                }
+            } else if ("adaptive".equals(keys[0]) && keys.length >= 2) {
+                // adaptive.<service>[.<request>[.<outputFormat>]]=<min>,<max>[,<tolerance>]
+                try {
+                    int maxLimit = Integer.parseInt(tokenizer.nextToken().trim());
+                    double tolerance = tokenizer.hasMoreTokens() ? Double.parseDouble(tokenizer
+                            .nextToken().trim()) : 2;
+                    controller = new AdaptiveOWSController(keys[1], keys.length > 2 ? keys[2]
+                            : null, keys.length > 3 ? keys[3] : null, queueSize, maxLimit,
+                            tolerance);
+                } catch (RuntimeException e) {
+                    // missing or bad ceiling or tolerance, reported below
+                }
+            } else if ("ows.global".equalsIgnoreCase(key)) {
                 controller = new GlobalFlowController(queueSize);
             } else if ("ows".equals(keys[0])) {
                 // todo: check, if possible, if the service, method and output format actually exist
@@ -108,6 +145,13 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
             }
         }
 
+        if (priorityRunning > 0) {
+            newControllers.add(new PriorityFlowController(priorityRunning, priorityClasses));
+        } else if (!priorityClasses.isEmpty()) {
+            LOGGER.severe("Priority classes have been configured, but the number of requests "
+                    + "running in parallel has not been set with the 'priority' key, ignoring them");
+        }
+
         return newControllers;
     }
 
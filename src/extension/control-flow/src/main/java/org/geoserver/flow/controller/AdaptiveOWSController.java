@@ -0,0 +1,340 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.ServiceException;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller that categorizes requests by service, method and output format like
+ * {@link BasicOWSController}, but adapts the number of requests allowed to run in parallel to the
+ * response times and errors it observes, instead of using a fixed one.
+ * <p>
+ * The limit follows an additive increase, multiplicative decrease scheme: while requests complete
+ * successfully in no more than <code>tolerance</code> times the latency seen with no load, and
+ * the limit is fully used, it grows by one every <code>limit</code> requests. When requests take
+ * longer, or fail for reasons other than a bad request, it is scaled down by
+ * {@link #BACKOFF}, at most once per observed latency so that a burst of slow requests does not
+ * collapse it. The limit never goes out of the configured floor and ceiling.
+ * </p>
+ * <p>
+ * The no load latency is the minimum latency observed. So that it follows the backends getting
+ * slower, every {@link #WINDOW} requests it moves by {@link #DRIFT} towards the minimum latency of
+ * the requests that ran with no more than the floor number of requests in parallel. Requests
+ * running at higher concurrency can only lower it, otherwise an overloaded server would raise its
+ * own reference and never back off.
+ * </p>
+ */
+public class AdaptiveOWSController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * Factor the limit is multiplied by when congestion is detected
+     */
+    static final double BACKOFF = 0.9;
+
+    /**
+     * Number of requests after which the no load latency is re-evaluated
+     */
+    static final int WINDOW = 100;
+
+    /**
+     * Fraction of the distance to the window low concurrency minimum the no load latency moves
+     * up by at the end of each window
+     */
+    static final double DRIFT = 0.1;
+
+    /**
+     * Latencies below this number of milliseconds are considered noise
+     */
+    static final long MIN_LATENCY = 10;
+
+    /**
+     * Weight of the last sample in the smoothed latency
+     */
+    static final double SMOOTHING = 0.1;
+
+    String service;
+
+    String method;
+
+    String outputFormat;
+
+    int minLimit;
+
+    int maxLimit;
+
+    double tolerance;
+
+    /**
+     * Start time of the request running in the current thread, if it went through this controller
+     */
+    ThreadLocal<Long> requestStart = new ThreadLocal<Long>();
+
+    ReentrantLock lock = new ReentrantLock();
+
+    Condition slotAvailable = lock.newCondition();
+
+    double limit;
+
+    int running;
+
+    long samples;
+
+    long baselineLatency = Long.MAX_VALUE;
+
+    /**
+     * Minimum latency of the low concurrency requests in the current window
+     */
+    long windowMinLatency = Long.MAX_VALUE;
+
+    double smoothedLatency;
+
+    long lastDecrease;
+
+    /**
+     * Builds a new controller
+     *
+     * @param service the matched service
+     * @param method the matched method, or null to match all of them
+     * @param outputFormat the matched output format, or null to match all of them
+     * @param minLimit the minimum number of requests allowed to run in parallel
+     * @param maxLimit the maximum number of requests allowed to run in parallel
+     * @param tolerance how many times the no load latency a request can take before the server
+     *        is considered overloaded
+     */
+    public AdaptiveOWSController(String service, String method, String outputFormat,
+            int minLimit, int maxLimit, double tolerance) {
+        if (service == null)
+            throw new IllegalArgumentException("Invalid OWS definition, service cannot be non null");
+        else if (method == null && outputFormat != null)
+            throw new IllegalArgumentException(
+                    "Invalid OWS definition, output format cannot be null if method is not provided");
+        if (minLimit <= 0 || maxLimit < minLimit)
+            throw new IllegalArgumentException("Invalid limits, the floor must be positive and "
+                    + "not greater than the ceiling: " + minLimit + "," + maxLimit);
+        if (tolerance <= 1)
+            throw new IllegalArgumentException("Tolerance must be greater than 1: " + tolerance);
+
+        this.service = service;
+        this.method = method;
+        this.outputFormat = outputFormat;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = minLimit;
+    }
+
+    boolean matchesRequest(Request request) {
+        if (!service.equalsIgnoreCase(request.getService()))
+            return false;
+
+        if (method == null)
+            return true;
+        else if (!method.equalsIgnoreCase(request.getRequest()))
+            return false;
+
+        if (outputFormat == null)
+            return true;
+        else if (!outputFormat.equalsIgnoreCase(request.getOutputFormat()))
+            return false;
+
+        return true;
+    }
+
+    /**
+     * The ceiling is used as the priority, as the actual limit varies over time
+     */
+    public int getPriority() {
+        return maxLimit;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matchesRequest(request)) {
+            return true;
+        }
+
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (running >= (int) limit) {
+                if (timeout > 0) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = slotAvailable.awaitNanos(nanos);
+                } else {
+                    slotAvailable.await();
+                }
+            }
+            running++;
+            requestStart.set(System.currentTimeMillis());
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " running " + running);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Unexpected interruption while waiting to run");
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void requestComplete(Request request) {
+        Long start = requestStart.get();
+        if (start == null) {
+            // the request did not go through this controller
+            return;
+        }
+        requestStart.remove();
+
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            running--;
+            update(now - start, isFailure(request.getError()), now);
+            slotAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Errors with an exception code are the client's fault, they do not tell anything about the
+     * server load
+     */
+    boolean isFailure(Throwable error) {
+        if (error == null) {
+            return false;
+        }
+        return !(error instanceof ServiceException) || ((ServiceException) error).getCode() == null;
+    }
+
+    /**
+     * Updates the limit based on the latency and the outcome of a request that just completed.
+     * Must be called while holding the lock, after the request has been removed from the running
+     * ones
+     */
+    void update(long latency, boolean failed, long now) {
+        samples++;
+        smoothedLatency = samples == 1 ? latency : smoothedLatency * (1 - SMOOTHING) + latency
+                * SMOOTHING;
+        baselineLatency = Math.min(baselineLatency, latency);
+        if (running < minLimit) {
+            // ran along with no more than the floor number of requests
+            windowMinLatency = Math.min(windowMinLatency, latency);
+        }
+        if (samples % WINDOW == 0) {
+            if (windowMinLatency != Long.MAX_VALUE && windowMinLatency > baselineLatency) {
+                baselineLatency += Math.max(1,
+                        Math.round((windowMinLatency - baselineLatency) * DRIFT));
+            }
+            windowMinLatency = Long.MAX_VALUE;
+        }
+
+        double oldLimit = limit;
+        if (failed || latency > tolerance * Math.max(baselineLatency, MIN_LATENCY)) {
+            if (now - lastDecrease > latency) {
+                limit = Math.max(minLimit, limit * BACKOFF);
+                lastDecrease = now;
+            }
+        } else if (running + 1 >= (int) limit) {
+            // grow only if the current limit is actually being used
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+
+        if (LOGGER.isLoggable(Level.FINE) && (int) oldLimit != (int) limit) {
+            LOGGER.fine(this + " limit moved from " + (int) oldLimit + " to " + (int) limit
+                    + ", latency " + latency + "ms, no load latency " + baselineLatency + "ms");
+        }
+    }
+
+    /**
+     * Returns the current number of requests allowed to run in parallel
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests currently running
+     */
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the smoothed latency of the requests, in milliseconds
+     */
+    public long getLatency() {
+        lock.lock();
+        try {
+            return Math.round(smoothedLatency);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Returns the matched service (case insensitive)
+     */
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * Returns the matched method (case insensitive)
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the matched output format (case insensitive)
+     */
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveOWSController(" + service + "," + method + "," + outputFormat + ","
+                + minLimit + "," + maxLimit + ")";
+    }
+
+}
@@ -37,7 +37,23 @@ public class IpFlowController extends QueueController {
     static final Logger LOGGER = Logging.getLogger(IpFlowController.class);
 
     public IpFlowController(int queueSize) {
+        this(queueSize, 100, 10000);
+    }
+
+    /**
+     * Builds a new {@link IpFlowController}
+     * 
+     * @param queueSize
+     *            the maximum amount of per ip concurrent requests
+     * @param maxQueues
+     *            the number of accumulated ip queues that will trigger a queue cleanup
+     * @param maxAge
+     *            the max quiet time for an empty queue to be considered stale and removed
+     */
+    public IpFlowController(int queueSize, int maxQueues, int maxAge) {
         this.queueSize = queueSize;
+        this.maxQueues = maxQueues;
+        this.maxAge = maxAge;
     }
     
     @Override
@@ -100,6 +116,9 @@ public class IpFlowController extends QueueController {
             LOGGER.fine("IpFlowController(" + queueSize + "," + incomingIp + ") total queues "
                     + queues.size());
         }
+
+        // cleanup the queues of the clients that went away
+        cleanupQueues(System.currentTimeMillis());
         return retval;
     }
 
@@ -0,0 +1,452 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller limiting the number of requests running in parallel, sharing the slots among
+ * classes of requests according to their weight.
+ * <p>
+ * Requests are assigned to the most specific class matching their service, request and output
+ * format, or to the default class if none matches. When all slots are busy requests wait in line
+ * and, as slots free up, are let go in weighted fair queuing order: a class of weight 4 gets four
+ * times the slots of a class of weight 1 when both have requests waiting, while an idle class does
+ * not hold slots back from the others. Each class also limits the number of requests waiting, the
+ * ones over the limit are refused right away instead of holding a thread while they wait.
+ * </p>
+ * <p>
+ * The controller keeps live counters of the requests running and waiting, and of the time spent
+ * waiting, for each class.
+ * </p>
+ */
+public class PriorityFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * Thread local holding the class of the running request
+     */
+    static ThreadLocal<PriorityClass> REQUEST_CLASS = new ThreadLocal<PriorityClass>();
+
+    /**
+     * A class of requests, matched by service, request and output format, with its weight and
+     * statistics
+     */
+    public static class PriorityClass {
+        String name;
+
+        String service;
+
+        String method;
+
+        String outputFormat;
+
+        int weight;
+
+        int maxQueued;
+
+        /**
+         * virtual finish time of the last request of this class that got in line
+         */
+        double lastTag;
+
+        int running;
+
+        int queued;
+
+        long admitted;
+
+        long rejected;
+
+        long timedOut;
+
+        long totalWait;
+
+        long maxWait;
+
+        /**
+         * Builds a class matching the specified service, and optionally request and output
+         * format.
+         *
+         * @param weight share of the slots the class gets when competing with others
+         * @param maxQueued maximum number of requests waiting in line, or a negative number for
+         *        no limit
+         */
+        public PriorityClass(String service, String method, String outputFormat, int weight,
+                int maxQueued) {
+            if (service == null && (method != null || outputFormat != null)) {
+                throw new IllegalArgumentException("Request and output format can only be "
+                        + "specified along with the service");
+            }
+            if (method == null && outputFormat != null) {
+                throw new IllegalArgumentException(
+                        "Output format cannot be specified if the request is not");
+            }
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be positive, it is " + weight);
+            }
+            this.service = service;
+            this.method = method;
+            this.outputFormat = outputFormat;
+            this.weight = weight;
+            this.maxQueued = maxQueued;
+
+            StringBuilder sb = new StringBuilder(service == null ? "default" : service);
+            if (method != null) {
+                sb.append('.').append(method);
+            }
+            if (outputFormat != null) {
+                sb.append('.').append(outputFormat);
+            }
+            this.name = sb.toString();
+        }
+
+        boolean matches(Request request) {
+            if (service == null) {
+                return true;
+            }
+            if (!service.equalsIgnoreCase(request.getService())) {
+                return false;
+            }
+            if (method != null && !method.equalsIgnoreCase(request.getRequest())) {
+                return false;
+            }
+            if (outputFormat != null && !outputFormat.equalsIgnoreCase(request.getOutputFormat())) {
+                return false;
+            }
+            return true;
+        }
+
+        int specificity() {
+            return (service != null ? 1 : 0) + (method != null ? 1 : 0)
+                    + (outputFormat != null ? 1 : 0);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        PriorityClass snapshot() {
+            PriorityClass copy = new PriorityClass(service, method, outputFormat, weight,
+                    maxQueued);
+            copy.running = running;
+            copy.queued = queued;
+            copy.admitted = admitted;
+            copy.rejected = rejected;
+            copy.timedOut = timedOut;
+            copy.totalWait = totalWait;
+            copy.maxWait = maxWait;
+            return copy;
+        }
+
+        /**
+         * Number of requests of this class currently running
+         */
+        public int getRunning() {
+            return running;
+        }
+
+        /**
+         * Number of requests of this class currently waiting in line
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        /**
+         * Number of requests of this class that were let run
+         */
+        public long getAdmitted() {
+            return admitted;
+        }
+
+        /**
+         * Number of requests of this class refused because too many were waiting already
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Number of requests of this class that gave up waiting
+         */
+        public long getTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * Average time the requests of this class waited before running, in milliseconds
+         */
+        public long getAverageWait() {
+            return admitted == 0 ? 0 : totalWait / admitted;
+        }
+
+        /**
+         * Longest time a request of this class waited before running, in milliseconds
+         */
+        public long getMaxWait() {
+            return maxWait;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(weight=" + weight + ", maxQueued=" + maxQueued + ")";
+        }
+    }
+
+    /**
+     * A request waiting in line
+     */
+    static class Waiter {
+        PriorityClass priorityClass;
+
+        double tag;
+
+        long sequence;
+
+        long start = System.currentTimeMillis();
+
+        Condition admission;
+
+        boolean admitted;
+    }
+
+    static final Comparator<Waiter> WAITER_ORDER = new Comparator<Waiter>() {
+        public int compare(Waiter w1, Waiter w2) {
+            if (w1.tag != w2.tag) {
+                return w1.tag < w2.tag ? -1 : 1;
+            }
+            return w1.sequence < w2.sequence ? -1 : (w1.sequence == w2.sequence ? 0 : 1);
+        }
+    };
+
+    int maxRunning;
+
+    /**
+     * the classes, most specific first, the last one is the default class
+     */
+    List<PriorityClass> classes;
+
+    ReentrantLock lock = new ReentrantLock();
+
+    PriorityQueue<Waiter> waiting = new PriorityQueue<Waiter>(16, WAITER_ORDER);
+
+    int running;
+
+    /**
+     * virtual time, the tag of the last request let go
+     */
+    double virtualTime;
+
+    long sequence;
+
+    /**
+     * Builds the controller
+     *
+     * @param maxRunning the maximum number of requests running in parallel
+     * @param classes the request classes, a class without service is used as the default one
+     *        and one of weight 1 and no queue limit is added if missing
+     */
+    public PriorityFlowController(int maxRunning, List<PriorityClass> classes) {
+        if (maxRunning <= 0) {
+            throw new IllegalArgumentException("The number of parallel requests must be positive");
+        }
+        this.maxRunning = maxRunning;
+        this.classes = new ArrayList<PriorityClass>(classes);
+        Collections.sort(this.classes, new Comparator<PriorityClass>() {
+            public int compare(PriorityClass c1, PriorityClass c2) {
+                return c2.specificity() - c1.specificity();
+            }
+        });
+        PriorityClass last = this.classes.isEmpty() ? null : this.classes.get(this.classes
+                .size() - 1);
+        if (last == null || last.service != null) {
+            this.classes.add(new PriorityClass(null, null, null, 1, -1));
+        }
+    }
+
+    public int getPriority() {
+        return maxRunning;
+    }
+
+    /**
+     * The maximum number of requests running in parallel
+     */
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+
+    /**
+     * Returns a snapshot of the request classes and their counters, most specific first
+     */
+    public List<PriorityClass> getClasses() {
+        lock.lock();
+        try {
+            List<PriorityClass> result = new ArrayList<PriorityClass>();
+            for (PriorityClass pc : classes) {
+                result.add(pc.snapshot());
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of requests currently running
+     */
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of requests currently waiting in line
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    PriorityClass classify(Request request) {
+        for (PriorityClass pc : classes) {
+            if (pc.matches(request)) {
+                return pc;
+            }
+        }
+        // not reached, the last class is the default one
+        return classes.get(classes.size() - 1);
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        PriorityClass pc = classify(request);
+        Waiter waiter;
+        lock.lock();
+        try {
+            if (running < maxRunning && waiting.isEmpty()) {
+                running++;
+                pc.running++;
+                pc.admitted++;
+                REQUEST_CLASS.set(pc);
+                return true;
+            }
+            if (pc.maxQueued >= 0 && pc.queued >= pc.maxQueued) {
+                pc.rejected++;
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine(this + " refusing request, " + pc.queued + " requests of class "
+                            + pc.name + " already waiting");
+                }
+                return false;
+            }
+
+            // start time fair queuing, the class tag advances by the inverse of the weight
+            waiter = new Waiter();
+            waiter.priorityClass = pc;
+            waiter.tag = Math.max(virtualTime, pc.lastTag) + 1d / pc.weight;
+            waiter.sequence = sequence++;
+            waiter.admission = lock.newCondition();
+            pc.lastTag = waiter.tag;
+            pc.queued++;
+            waiting.add(waiter);
+
+            try {
+                if (timeout > 0) {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+                    while (!waiter.admitted && nanos > 0) {
+                        nanos = waiter.admission.awaitNanos(nanos);
+                    }
+                } else {
+                    while (!waiter.admitted) {
+                        waiter.admission.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Unexpected interruption while waiting to run");
+                Thread.currentThread().interrupt();
+            }
+
+            if (!waiter.admitted) {
+                waiting.remove(waiter);
+                pc.queued--;
+                pc.timedOut++;
+                return false;
+            }
+
+            long wait = System.currentTimeMillis() - waiter.start;
+            pc.totalWait += wait;
+            pc.maxWait = Math.max(pc.maxWait, wait);
+            REQUEST_CLASS.set(pc);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " request of class " + pc.name + " waited " + wait + "ms");
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void requestComplete(Request request) {
+        PriorityClass pc = REQUEST_CLASS.get();
+        REQUEST_CLASS.remove();
+        if (pc == null) {
+            // the request did not run, it was refused or timed out
+            return;
+        }
+        lock.lock();
+        try {
+            running--;
+            pc.running--;
+            // let the next requests in line go
+            while (running < maxRunning && !waiting.isEmpty()) {
+                Waiter next = waiting.poll();
+                virtualTime = next.tag;
+                next.admitted = true;
+                next.priorityClass.queued--;
+                next.priorityClass.running++;
+                next.priorityClass.admitted++;
+                running++;
+                next.admission.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityFlowController(" + maxRunning + "," + classes + ")";
+    }
+
+}
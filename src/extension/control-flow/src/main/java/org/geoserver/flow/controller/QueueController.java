@@ -9,9 +9,14 @@ import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.geoserver.flow.ControlFlowCallback;
 import org.geoserver.flow.FlowController;
 import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
 
 /**
  * Base class for flow controllers using a queue
@@ -21,6 +26,8 @@ import org.geoserver.ows.Request;
  */
 
 public abstract class QueueController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
     /**
      * The size of each queue
      */
@@ -31,6 +38,46 @@ public abstract class QueueController implements FlowController {
      */
     Map<String, TimedBlockingQueue> queues = new ConcurrentHashMap<String, TimedBlockingQueue>();
 
+    /**
+     * Last time we've performed a queue cleanup
+     */
+    long lastCleanup = System.currentTimeMillis();
+
+    /**
+     * Number of queues at which we start looking for purging stale ones
+     */
+    int maxQueues = 100;
+
+    /**
+     * Time it takes for an inactive queue to be considered stale
+     */
+    int maxAge = 10000;
+
+    /**
+     * Purges the queues that are empty and have not been touched for more than maxAge, if more
+     * than maxQueues have been accumulated or no cleanup happened in the last maxAge
+     */
+    void cleanupQueues(long now) {
+        if ((queues.size() > maxQueues && (now - lastCleanup) > (maxAge / 10))
+                || (now - lastCleanup) > maxAge) {
+            int cleanupCount = 0;
+            synchronized (queues) {
+                for (String key : queues.keySet()) {
+                    TimedBlockingQueue tbq = queues.get(key);
+                    if (now - tbq.lastModified > maxAge && tbq.size() == 0) {
+                        queues.remove(key);
+                        cleanupCount++;
+                    }
+                }
+                lastCleanup = now;
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine(getClass().getSimpleName() + "(" + queueSize + ") purged "
+                            + cleanupCount + " stale queues");
+                }
+            }
+        }
+    }
+
     @Override
     public boolean requestIncoming(Request request, long timeout) {
         return false;
@@ -43,7 +90,7 @@ public abstract class QueueController implements FlowController {
 
     @SuppressWarnings("serial")
     protected static class TimedBlockingQueue extends ArrayBlockingQueue<Request> {
-        long lastModified;
+        volatile long lastModified = System.currentTimeMillis();
 
         public TimedBlockingQueue(int capacity, boolean fair) {
             super(capacity, fair);
@@ -55,6 +102,13 @@ public abstract class QueueController implements FlowController {
             lastModified = System.currentTimeMillis();
         }
 
+        @Override
+        public boolean offer(Request o, long timeout, TimeUnit unit) throws InterruptedException {
+            boolean result = super.offer(o, timeout, unit);
+            lastModified = System.currentTimeMillis();
+            return result;
+        }
+
         @Override
         public boolean remove(Object o) {
             lastModified = System.currentTimeMillis();
@@ -39,23 +39,6 @@ public class UserFlowController extends QueueController {
      */
     static ThreadLocal<String> QUEUE_ID = new ThreadLocal<String>();
     
-    /**
-     * Last time we've performed a queue cleanup
-     */
-    long lastCleanup = System.currentTimeMillis();
-
-    /**
-     * Number of queues at which we start looking for purging stale ones
-     */
-    int maxQueues = 100;
-
-    /**
-     * Time it takes for an inactive queue to be considered stale
-     */
-    int maxAge = 10000;
-
-    
-
     /**
      * Builds a UserFlowController that will trigger stale queue expiration once 100 queues have
      * been accumulated and
@@ -143,24 +126,7 @@ public class UserFlowController extends QueueController {
         }
 
         // cleanup stale queues if necessary
-        if ((queues.size() > maxQueues && (now - lastCleanup) > (maxAge / 10))
-                || (now - lastCleanup) > maxAge) {
-            int cleanupCount = 0;
-            synchronized (queues) {
-                for (String key : queues.keySet()) {
-                    TimedBlockingQueue tbq = queues.get(key);
-                    if (now - tbq.lastModified > maxAge && tbq.size() == 0) {
-                        queues.remove(key);
-                        cleanupCount++;
-                    }
-                }
-                lastCleanup = now;
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    LOGGER.fine("UserFlowController(" + queueSize + ") purged " + cleanupCount
-                            + " stale queues");
-                }
-            }
-        }
+        cleanupQueues(now);
         
         return retval;
     }
@@ -57,6 +57,25 @@ public class ControlFlowCallbackTest {
         callback.finished(null);
     }
 
+    @Test
+    public void testRejectedWithoutTimeout() {
+        ControlFlowCallback callback = new ControlFlowCallback();
+        TestingConfigurator tc = new TestingConfigurator();
+        // no timeout, the controller refuses the request as a full queue would
+        CountingController controller = new CountingController(1, 200);
+        tc.controllers.add(controller);
+        callback.configurator = tc;
+
+        try {
+            callback.operationDispatched(null, null);
+            fail("A HTTP 503 should have been raised!");
+        } catch(HttpErrorCodeException e) {
+            assertEquals(503, e.getErrorCode());
+        }
+        assertEquals(1, controller.requestIncomingCalls);
+        callback.finished(null);
+    }
+
     /**
      * A wide open configurator to be used for testing
      */
@@ -13,9 +13,12 @@ import java.util.Properties;
 
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveOWSController;
 import org.geoserver.flow.controller.BasicOWSController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
+import org.geoserver.flow.controller.PriorityFlowController;
+import org.geoserver.flow.controller.PriorityFlowController.PriorityClass;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserFlowController;
 import org.geoserver.security.PropertyFileWatcher;
@@ -67,6 +70,87 @@ public class DefaultControlFlowConfigurationTest {
         assertEquals(14, ipSc.getPriority());
     }
 
+    @Test
+    public void testPriorityParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("priority", "16");
+        p.put("priority.wms.getmap", "4, 20");
+        p.put("priority.wfs", "1");
+        p.put("priority.default", "2,5");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        PriorityFlowController pc = (PriorityFlowController) controllers.get(0);
+        assertEquals(16, pc.getMaxRunning());
+
+        List<PriorityClass> classes = pc.getClasses();
+        assertEquals(3, classes.size());
+        assertEquals("wms.getmap", classes.get(0).getName());
+        assertEquals(4, classes.get(0).getWeight());
+        assertEquals(20, classes.get(0).getMaxQueued());
+        assertEquals("wfs", classes.get(1).getName());
+        assertEquals(1, classes.get(1).getWeight());
+        assertEquals(-1, classes.get(1).getMaxQueued());
+        assertEquals("default", classes.get(2).getName());
+        assertEquals(2, classes.get(2).getWeight());
+        assertEquals(5, classes.get(2).getMaxQueued());
+    }
+
+    @Test
+    public void testPriorityClassesWithoutLimit() throws Exception {
+        Properties p = new Properties();
+        p.put("priority.wms", "4");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        assertEquals(0, configurator.buildFlowControllers().size());
+    }
+
+    @Test
+    public void testAdaptiveParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("adaptive.wms.getmap", "4,32");
+        p.put("adaptive.wfs", "2,8,3");
+        p.put("adaptive.wcs", "2");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        Collections.sort(controllers, new ControllerPriorityComparator());
+
+        // the wcs one misses the ceiling
+        assertEquals(2, controllers.size());
+        AdaptiveOWSController wfs = (AdaptiveOWSController) controllers.get(0);
+        assertEquals("wfs", wfs.getService());
+        assertNull(wfs.getMethod());
+        assertEquals(2, wfs.getMinLimit());
+        assertEquals(8, wfs.getMaxLimit());
+        assertEquals(3, wfs.getTolerance(), 0d);
+        AdaptiveOWSController wms = (AdaptiveOWSController) controllers.get(1);
+        assertEquals("wms", wms.getService());
+        assertEquals("getmap", wms.getMethod());
+        assertEquals(4, wms.getLimit());
+        assertEquals(32, wms.getMaxLimit());
+        assertEquals(2, wms.getTolerance(), 0d);
+    }
+
+    @Test
+    public void testEmptyValues() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.global", "");
+        p.put("ows.wms", " ");
+        p.put("adaptive.wfs", ",");
+        p.put("user", "6");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        assertTrue(controllers.get(0) instanceof UserFlowController);
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
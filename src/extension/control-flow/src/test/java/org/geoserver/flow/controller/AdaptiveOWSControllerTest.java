@@ -0,0 +1,174 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.ServiceException;
+import org.junit.Test;
+
+public class AdaptiveOWSControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    @Test
+    public void testMatching() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", "GetMap", null, 1,
+                4, 2);
+        assertEquals(4, controller.getPriority());
+        assertTrue(controller.matchesRequest(buildRequest("WMS", "getmap")));
+        assertFalse(controller.matchesRequest(buildRequest("WMS", "GetFeatureInfo")));
+        assertFalse(controller.matchesRequest(buildRequest("WFS", "GetMap")));
+    }
+
+    @Test
+    public void testIncreaseUpToCeiling() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", null, null, 2, 5, 2);
+        assertEquals(2, controller.getLimit());
+
+        // fast requests with the limit fully used make it grow, but not past the ceiling
+        long now = 0;
+        for (int i = 0; i < 1000; i++) {
+            controller.running = controller.getLimit() - 1;
+            controller.update(20, false, now += 20);
+        }
+        assertEquals(5, controller.getLimit());
+    }
+
+    @Test
+    public void testNoIncreaseWhenUnused() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", null, null, 2, 5, 2);
+        long now = 0;
+        for (int i = 0; i < 1000; i++) {
+            controller.running = 0;
+            controller.update(20, false, now += 20);
+        }
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void testDecreaseDownToFloor() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", null, null, 2, 20, 2);
+        controller.limit = 20;
+        long now = 0;
+        controller.update(50, false, now += 50);
+
+        // slow requests back off
+        controller.update(500, false, now += 1000);
+        assertEquals(18, controller.getLimit());
+        // but only once per latency
+        controller.update(500, false, now += 10);
+        assertEquals(18, controller.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            controller.update(500, false, now += 1000);
+        }
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void testFailures() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", null, null, 2, 20, 2);
+        controller.limit = 10;
+        long now = 0;
+        controller.update(50, false, now += 50);
+
+        controller.update(50, true, now += 1000);
+        assertEquals(9, controller.getLimit());
+
+        // client errors are not a sign of overload
+        assertFalse(controller.isFailure(null));
+        assertFalse(controller.isFailure(new ServiceException("bad param", "InvalidParameterValue")));
+        assertTrue(controller.isFailure(new ServiceException("failed")));
+        assertTrue(controller.isFailure(new RuntimeException("failed")));
+    }
+
+    @Test
+    public void testBaselineNotRaisedUnderLoad() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", null, null, 2, 20, 2);
+        controller.limit = 20;
+        long now = 0;
+        controller.running = 0;
+        controller.update(50, false, now += 50);
+
+        // many slow requests running in parallel do not move the no load latency
+        for (int i = 0; i < 1000; i++) {
+            controller.running = 10;
+            controller.update(500, false, now += 1000);
+        }
+        assertEquals(50, controller.baselineLatency);
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void testBaselineDriftsSlowly() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", null, null, 2, 20, 2);
+        long now = 0;
+        controller.running = 0;
+        controller.update(50, false, now += 50);
+
+        // the backend got slower, requests running alone move the baseline up a bit per window
+        for (int i = 1; i < 2 * AdaptiveOWSController.WINDOW; i++) {
+            controller.update(150, false, now += 1000);
+        }
+        assertEquals(60, controller.baselineLatency);
+        for (int i = 0; i < 50 * AdaptiveOWSController.WINDOW; i++) {
+            controller.update(150, false, now += 1000);
+        }
+        assertTrue(controller.baselineLatency > 140);
+        assertTrue(controller.baselineLatency <= 150);
+
+        // while a faster request lowers it right away
+        controller.update(40, false, now += 1000);
+        assertEquals(40, controller.baselineLatency);
+    }
+
+    @Test
+    public void testLimitEnforced() {
+        AdaptiveOWSController controller = new AdaptiveOWSController("wms", null, null, 1, 4, 2);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildRequest("wms",
+                "GetMap"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildRequest("wms",
+                "GetMap"), 100, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(buildRequest("wfs",
+                "GetFeature"), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(1, controller.getRunning());
+
+            // over the limit, times out
+            t2.start();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+
+            // not matched, goes through
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t3.state);
+            assertEquals(1, controller.getRunning());
+
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(0, controller.getRunning());
+            t3.interrupt();
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    Request buildRequest(String service, String method) {
+        Request request = new Request();
+        request.setService(service);
+        request.setRequest(method);
+        return request;
+    }
+}
@@ -165,6 +165,29 @@ public class IpFlowControllerTest extends AbstractFlowControllerTest {
 
     }
 
+    @Test
+    public void testStaleQueuesPurged() throws Exception {
+        // purge empty queues as soon as they are not used anymore
+        IpFlowController controller = new IpFlowController(1, 0, 0);
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildRequest(
+                "192.168.1.1", ""), 0, 0, controller);
+        t1.start();
+        waitTerminated(t1, MAX_WAIT);
+        assertEquals(ThreadState.COMPLETE, t1.state);
+        assertEquals(1, controller.queues.size());
+
+        Thread.sleep(20);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildRequest(
+                "192.168.1.2", ""), 0, 0, controller);
+        t2.start();
+        waitTerminated(t2, MAX_WAIT);
+        assertEquals(ThreadState.COMPLETE, t2.state);
+
+        // the first client queue went away
+        assertEquals(1, controller.queues.size());
+        assertTrue(controller.queues.containsKey("192.168.1.2"));
+    }
+
     Request buildRequest(String ipAddress, String proxyIp) {
         Request request = new Request();
         MockHttpServletRequest httpRequest = new MockHttpServletRequest();
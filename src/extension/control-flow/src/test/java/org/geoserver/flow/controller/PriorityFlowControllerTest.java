@@ -0,0 +1,200 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.flow.controller.PriorityFlowController.PriorityClass;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+public class PriorityFlowControllerTest extends AbstractFlowControllerTest {
+    private static final long MAX_WAIT = 1000;
+
+    @Test
+    public void testClasses() {
+        PriorityFlowController controller = new PriorityFlowController(2, Arrays.asList(
+                new PriorityClass("wms", null, null, 4, -1),
+                new PriorityClass("wms", "GetMap", "image/png", 8, 10)));
+        assertEquals(2, controller.getPriority());
+
+        // most specific first, default class added at the end
+        List<PriorityClass> classes = controller.getClasses();
+        assertEquals(3, classes.size());
+        assertEquals("wms.GetMap.image/png", classes.get(0).getName());
+        assertEquals("wms", classes.get(1).getName());
+        assertEquals("default", classes.get(2).getName());
+        assertEquals(1, classes.get(2).getWeight());
+
+        assertEquals("wms.GetMap.image/png",
+                controller.classify(buildRequest("WMS", "GetMap", "image/png")).getName());
+        assertEquals("wms", controller.classify(buildRequest("WMS", "GetMap", "image/jpeg"))
+                .getName());
+        assertEquals("default", controller.classify(buildRequest("WFS", "GetFeature", null))
+                .getName());
+    }
+
+    @Test
+    public void testWeightedOrder() {
+        PriorityFlowController controller = new PriorityFlowController(1, Arrays.asList(
+                new PriorityClass("wms", null, null, 4, -1),
+                new PriorityClass("wfs", null, null, 1, -1)));
+
+        // t1 takes the only slot, t2 and t3 (wfs) get in line before t4 (wms)
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildRequest("wfs",
+                "GetFeature", null), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildRequest("wfs",
+                "GetFeature", null), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(buildRequest("wfs",
+                "GetFeature", null), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t4 = new FlowControllerTestingThread(buildRequest("wms",
+                "GetMap", null), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+            t4.start();
+            waitBlocked(t4, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+            assertEquals(ThreadState.STARTED, t4.state);
+            assertEquals(1, controller.getRunning());
+            assertEquals(3, controller.getQueued());
+
+            // the heavier wms class overtakes the wfs requests waiting in line
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitProcessing(t4, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+
+            // then the wfs ones go in arrival order
+            t4.interrupt();
+            waitTerminated(t4, MAX_WAIT);
+            waitProcessing(t2, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t3.state);
+
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            waitProcessing(t3, MAX_WAIT);
+            t3.interrupt();
+            waitTerminated(t3, MAX_WAIT);
+
+            assertEquals(0, controller.getRunning());
+            assertEquals(0, controller.getQueued());
+            PriorityClass wfs = controller.getClasses().get(1);
+            assertEquals("wfs", wfs.getName());
+            assertEquals(3, wfs.getAdmitted());
+            assertTrue(wfs.getMaxWait() > 0);
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+            waitAndKill(t4, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testQueueLimit() {
+        PriorityFlowController controller = new PriorityFlowController(1, Arrays.asList(
+                new PriorityClass("wms", null, null, 1, 1)));
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildRequest("wms",
+                "GetMap", null), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildRequest("wms",
+                "GetMap", null), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(buildRequest("wms",
+                "GetMap", null), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+
+            // no room left in line, t3 is refused right away
+            t3.start();
+            waitTerminated(t3, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(ThreadState.TIMED_OUT, t3.state);
+
+            PriorityClass wms = controller.getClasses().get(0);
+            assertEquals(1, wms.getRunning());
+            assertEquals(1, wms.getQueued());
+            assertEquals(1, wms.getRejected());
+
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t2.state);
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        PriorityFlowController controller = new PriorityFlowController(1,
+                Arrays.<PriorityClass> asList());
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(new Request(), 100,
+                400, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(new Request(), 100,
+                400, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+
+            waitTerminated(t1, MAX_WAIT);
+            waitTerminated(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(1, controller.getClasses().get(0).getTimedOut());
+            assertEquals(0, controller.getQueued());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    /**
+     * Waits until the thread got past the flow controller
+     */
+    void waitProcessing(FlowControllerTestingThread t, long maxWait) {
+        long start = System.currentTimeMillis();
+        while (t.state != ThreadState.PROCESSING) {
+            if (System.currentTimeMillis() > (start + maxWait)) {
+                fail("Waited for the thread to be processing more than maxWait: " + maxWait);
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                fail("Sometime interrupeted our wait: " + e);
+            }
+        }
+    }
+
+    Request buildRequest(String service, String method, String outputFormat) {
+        Request request = new Request();
+        request.setService(service);
+        request.setRequest(method);
+        request.setOutputFormat(outputFormat);
+        return request;
+    }
+}
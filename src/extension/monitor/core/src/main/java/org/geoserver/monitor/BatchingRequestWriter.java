@@ -0,0 +1,364 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Writes requests to a storage in batches, from a single background thread.
+ * <p>
+ * Requests are queued until either {@link #getBatchSize()} of them are waiting or
+ * {@link #getFlushInterval()} milliseconds went by, and then handed to the storage all at once.
+ * A request queued again before being written, as it happens when it is inserted, updated and
+ * saved in a short time, is written only once with its latest state.
+ * </p>
+ * <p>
+ * The number of queued requests is bounded. When the storage falls behind and the queue is full,
+ * the {@link Overflow#BLOCK} policy makes the threads queuing requests wait for room, up to
+ * {@link #getMaxWait()} milliseconds, while {@link Overflow#DROP} discards the request right away.
+ * Discarded requests are counted, along with the ones written, coalesced and failed.
+ * </p>
+ */
+public class BatchingRequestWriter implements Runnable {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver.monitor");
+
+    /**
+     * The storage the batches are written to
+     */
+    public static interface Storage {
+
+        /**
+         * Writes the requests, all or none of them
+         */
+        void write(List<RequestData> requests) throws Exception;
+    }
+
+    /**
+     * What to do with requests when the queue is full
+     */
+    public static enum Overflow {
+        BLOCK, DROP
+    }
+
+    Storage storage;
+
+    int batchSize = 100;
+
+    long flushInterval = 1000;
+
+    int maxQueued = 10000;
+
+    Overflow overflow = Overflow.BLOCK;
+
+    long maxWait = 1000;
+
+    /**
+     * The requests waiting to be written, by internal id, in queuing order
+     */
+    LinkedHashMap<Long, RequestData> queue = new LinkedHashMap<Long, RequestData>();
+
+    ReentrantLock lock = new ReentrantLock();
+
+    Condition batchReady = lock.newCondition();
+
+    Condition notFull = lock.newCondition();
+
+    Thread flusher;
+
+    volatile boolean running;
+
+    long queued;
+
+    long coalesced;
+
+    long dropped;
+
+    volatile long written;
+
+    volatile long failed;
+
+    volatile long batches;
+
+    public BatchingRequestWriter(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Starts the background thread writing the batches
+     */
+    public void start() {
+        running = true;
+        flusher = new Thread(this, "Monitor batch writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Writes the requests still queued and stops the background thread, waiting at most the
+     * given number of milliseconds for it to complete
+     */
+    public void shutdown(long timeout) {
+        lock.lock();
+        try {
+            running = false;
+            batchReady.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flusher = null;
+        }
+    }
+
+    /**
+     * Queues a request to be written, or updates the queued one
+     */
+    public void write(RequestData data) {
+        lock.lock();
+        try {
+            queued++;
+            Long key = data.internalid;
+            if (queue.containsKey(key)) {
+                // not written yet, the latest state will be written in one go
+                queue.put(key, data);
+                coalesced++;
+                return;
+            }
+
+            if (queue.size() >= maxQueued && overflow == Overflow.BLOCK && running) {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+                while (queue.size() >= maxQueued && nanos > 0 && running) {
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            }
+            if (queue.size() >= maxQueued) {
+                drop(data);
+                return;
+            }
+
+            queue.put(key, data);
+            if (queue.size() >= batchSize) {
+                batchReady.signal();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drop(data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void drop(RequestData data) {
+        dropped++;
+        // log the first drop of each burst
+        if (Long.bitCount(dropped) == 1) {
+            LOGGER.warning("Monitoring storage is falling behind, " + dropped
+                    + " requests dropped so far, last one: " + data.internalid);
+        }
+    }
+
+    public void run() {
+        while (true) {
+            List<RequestData> batch;
+            lock.lock();
+            try {
+                if (running && queue.size() < batchSize) {
+                    batchReady.await(flushInterval, TimeUnit.MILLISECONDS);
+                }
+                if (queue.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+                batch = new ArrayList<RequestData>(Math.min(batchSize, queue.size()));
+                for (Iterator<RequestData> it = queue.values().iterator(); it.hasNext()
+                        && batch.size() < batchSize;) {
+                    batch.add(it.next());
+                    it.remove();
+                }
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                // shutting down, write what is left
+                running = false;
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            flush(batch);
+        }
+    }
+
+    void flush(List<RequestData> batch) {
+        try {
+            storage.write(batch);
+            written += batch.size();
+            batches++;
+            return;
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to write a batch of " + batch.size()
+                    + " requests, writing them one by one", e);
+        }
+
+        // do not let a single bad request take down the others
+        for (RequestData data : batch) {
+            try {
+                storage.write(Collections.singletonList(data));
+                written++;
+            } catch (Exception e) {
+                failed++;
+                LOGGER.log(Level.WARNING, "Failed to write request " + data.getId(), e);
+            }
+        }
+        batches++;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The maximum time, in milliseconds, a request waits to be written
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * The maximum number of requests waiting to be written
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public void setMaxQueued(int maxQueued) {
+        if (maxQueued <= 0) {
+            throw new IllegalArgumentException("Queue size must be positive");
+        }
+        this.maxQueued = maxQueued;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(Overflow overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * The maximum time, in milliseconds, a thread waits for room in the queue with the
+     * {@link Overflow#BLOCK} policy, before dropping the request
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Number of requests currently waiting to be written
+     */
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of times a request has been queued
+     */
+    public long getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of times a request was queued while already waiting to be written
+     */
+    public long getCoalesced() {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of requests dropped because the queue was full
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of requests written
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Number of requests the storage failed to write
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Number of batches written
+     */
+    public long getBatches() {
+        return batches;
+    }
+}
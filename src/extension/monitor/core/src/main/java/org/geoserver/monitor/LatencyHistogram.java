@@ -0,0 +1,88 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non negative values with logarithmic buckets, used to estimate percentiles in
+ * constant memory.
+ * <p>
+ * Each bucket is {@link #GROWTH} times wider than the previous one, so that percentiles are
+ * estimated within about 2.5% of their actual value whatever the magnitude of the values, with a
+ * few hundred buckets at most.
+ * </p>
+ */
+class LatencyHistogram {
+
+    /**
+     * Ratio between the bounds of a bucket
+     */
+    static final double GROWTH = 1.05;
+
+    static final double LOG_GROWTH = Math.log(GROWTH);
+
+    long[] counts = new long[64];
+
+    long count;
+
+    long min = Long.MAX_VALUE;
+
+    long max = Long.MIN_VALUE;
+
+    long sum;
+
+    void add(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = index(value);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        counts[index]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Bucket 0 holds zeroes, bucket i > 0 holds the values in [GROWTH^(i-1), GROWTH^i)
+     */
+    static int index(long value) {
+        return value == 0 ? 0 : 1 + (int) (Math.log(value) / LOG_GROWTH);
+    }
+
+    /**
+     * Returns the estimated value below which the given fraction of the values fall, or 0 if
+     * the histogram is empty
+     *
+     * @param fraction the percentile, between 0 and 1
+     */
+    long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                if (i == 0) {
+                    return 0;
+                }
+                // middle of the bucket, on a log scale
+                double estimate = Math.pow(GROWTH, i - 0.5);
+                return Math.min(max, Math.max(min, Math.round(estimate)));
+            }
+        }
+        return max;
+    }
+
+    double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+}
@@ -0,0 +1,1254 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.monitor.MemoryMonitorDAO.PropertyCompare;
+import org.geoserver.monitor.MemoryMonitorDAO.Sorter;
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.Query.SortOrder;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A monitor DAO keeping the completed requests off the heap, in memory mapped files used as an
+ * append only ring buffer.
+ * <p>
+ * Requests are written in segments, each one a memory mapped file of fixed size covering a limited
+ * time span. When the maximum number of segments is reached the oldest one is dropped, so that
+ * memory use is bounded by the segment size times the number of segments. Updates of completed
+ * requests, such as the ones made by the post processors, append a new version of the request and
+ * mark the previous one as deleted. Request errors are stored as their class name and message
+ * only, as the exceptions themselves might not be serializable.
+ * </p>
+ * <p>
+ * Each segment keeps on heap the ids and start times of its requests and indexes on the service,
+ * operation, status, category and resource columns, so that queries only read the requests they
+ * might match, and counts on the indexed columns do not read any request at all. Requests still
+ * running are kept on the heap. The segments are read back, and their indexes rebuilt, on
+ * startup.
+ * </p>
+ * <p>
+ * The store is configured with the following properties in <code>monitor.properties</code>:
+ * <ul>
+ * <li><code>mapped.directory</code>: the directory holding the segment files,
+ * <code>monitoring/mapped</code> in the data directory by default</li>
+ * <li><code>mapped.segmentSize</code>: the size of each segment, in bytes, 16MB by default</li>
+ * <li><code>mapped.maxSegments</code>: the number of segments kept, 16 by default</li>
+ * <li><code>mapped.segmentSpan</code>: the number of seconds a segment is written to before
+ * starting a new one, one hour by default</li>
+ * </ul>
+ * </p>
+ */
+public class MappedMonitorDAO implements MonitorDAO {
+
+    static final Logger LOGGER = Logging.getLogger(MappedMonitorDAO.class);
+
+    public static final String NAME = "mapped";
+
+    static final String PREFIX = "mapped";
+
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    static final long DEFAULT_SEGMENT_SPAN = 3600;
+
+    /**
+     * Number of stored requests read at a time while holding the lock, before visiting them
+     */
+    static final int BATCH_SIZE = 256;
+
+    static final Pattern SEGMENT_FILE = Pattern.compile("requests-(\\d+)\\.dat");
+
+    /**
+     * The indexed columns, "resource" matches any of the request resources
+     */
+    static final List<String> INDEXED = Arrays.asList("service", "operation", "status",
+            "category", "resource");
+
+    GeoServerResourceLoader resourceLoader;
+
+    File directory;
+
+    boolean temporary;
+
+    int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    int maxSegments = DEFAULT_MAX_SEGMENTS;
+
+    long segmentSpan = DEFAULT_SEGMENT_SPAN * 1000;
+
+    AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
+
+    Map<Long, RequestData> live = new ConcurrentHashMap<Long, RequestData>();
+
+    /**
+     * The segments, oldest first
+     */
+    LinkedList<Segment> segments = new LinkedList<Segment>();
+
+    int segmentNumber;
+
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    public void setResourceLoader(GeoServerResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    @Override
+    public void init(MonitorConfig config) {
+        Integer size = config.getProperty(PREFIX, "segmentSize", Integer.class);
+        if (size != null) {
+            segmentSize = size;
+        }
+        Integer max = config.getProperty(PREFIX, "maxSegments", Integer.class);
+        if (max != null) {
+            maxSegments = max;
+        }
+        Long span = config.getProperty(PREFIX, "segmentSpan", Long.class);
+        if (span != null) {
+            segmentSpan = span * 1000;
+        }
+        if (segmentSize <= 4 || maxSegments <= 0 || segmentSpan <= 0) {
+            throw new IllegalArgumentException("Invalid mapped monitor storage configuration, "
+                    + "segment size, number and span must be positive");
+        }
+
+        String path = config.getProperty(PREFIX, "directory", String.class);
+        try {
+            if (path != null) {
+                directory = new File(path);
+                if (!directory.exists() && !directory.mkdirs()) {
+                    throw new IOException("Could not create directory " + directory);
+                }
+            } else if (resourceLoader != null) {
+                directory = resourceLoader.findOrCreateDirectory("monitoring", "mapped");
+            } else {
+                // not running in GeoServer, nowhere to keep the requests across restarts
+                directory = File.createTempFile("monitor", "");
+                directory.delete();
+                if (!directory.mkdir()) {
+                    throw new IOException("Could not create directory " + directory);
+                }
+                temporary = true;
+            }
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads back the segments found in the directory, rebuilding their indexes. Only the last
+     * {@link #maxSegments} are kept
+     */
+    void load() throws IOException {
+        TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File file : children) {
+                Matcher matcher = SEGMENT_FILE.matcher(file.getName());
+                if (matcher.matches()) {
+                    files.put(Integer.valueOf(matcher.group(1)), file);
+                }
+            }
+        }
+        while (files.size() > maxSegments) {
+            File oldest = files.remove(files.firstKey());
+            if (!oldest.delete()) {
+                LOGGER.warning("Could not delete old monitor segment " + oldest);
+            }
+        }
+
+        // last version of each request, only needed while loading
+        Map<Long, Long> locations = new HashMap<Long, Long>();
+        long maxId = 0;
+        for (Map.Entry<Integer, File> e : files.entrySet()) {
+            int number = segments.isEmpty() ? e.getKey() : segmentNumber;
+            File file = e.getValue();
+            if (number != e.getKey()) {
+                // segments are looked up by number, keep them contiguous
+                File renamed = new File(directory, "requests-" + number + ".dat");
+                if (!file.renameTo(renamed)) {
+                    throw new IOException("Could not rename " + file + " to " + renamed);
+                }
+                file = renamed;
+            }
+            Segment segment = Segment.load(number, file);
+            segments.add(segment);
+            for (int i = 0; i < segment.size; i++) {
+                long id = segment.ids[i];
+                Long previous = locations.put(id, location(segment.number, i));
+                if (previous != null) {
+                    getSegment(segmentNumber(previous)).deleted.set(position(previous));
+                }
+                maxId = Math.max(maxId, id);
+            }
+            segmentNumber = segment.number + 1;
+        }
+        REQUEST_ID_GEN.set(maxId + 1);
+        if (!segments.isEmpty()) {
+            LOGGER.info("Loaded " + locations.size() + " monitored requests from " + directory);
+        }
+    }
+
+    public RequestData init(RequestData data) {
+        data.setId(REQUEST_ID_GEN.getAndIncrement());
+        return data;
+    }
+
+    public void add(RequestData data) {
+        live.put(data.getId(), data);
+    }
+
+    public void update(RequestData data) {
+        if (live.containsKey(data.getId())) {
+            // still running, the live object is the one being updated
+            return;
+        }
+
+        boolean stored;
+        lock.readLock().lock();
+        try {
+            stored = find(data.getId()) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (stored) {
+            append(data);
+        }
+    }
+
+    public void save(RequestData data) {
+        append(data);
+        live.remove(data.getId());
+    }
+
+    void append(RequestData data) {
+        byte[] bytes;
+        try {
+            bytes = serialize(data);
+            if (bytes.length + 4 > segmentSize && data.getBody() != null) {
+                // try again without the body
+                RequestData copy = deserialize(bytes);
+                copy.setBody(null);
+                bytes = serialize(copy);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to serialize request " + data.getId(), e);
+            return;
+        }
+        if (bytes.length + 4 > segmentSize) {
+            LOGGER.warning("Request " + data.getId() + " does not fit in a monitor segment, "
+                    + "it is not stored");
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            long now = System.currentTimeMillis();
+            Segment current = segments.isEmpty() ? null : segments.getLast();
+            if (current == null || !current.fits(bytes.length)
+                    || now - current.created > segmentSpan) {
+                current = roll();
+            }
+            Long previous = find(data.getId());
+            current.append(bytes, data);
+            if (previous != null) {
+                Segment old = getSegment(segmentNumber(previous));
+                if (old != null) {
+                    old.deleted.set(position(previous));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to store request " + data.getId(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment, dropping the oldest one if the maximum number is reached. Must be
+     * called holding the write lock
+     */
+    Segment roll() throws IOException {
+        while (segments.size() >= maxSegments) {
+            segments.removeFirst().dispose();
+        }
+
+        int number = segmentNumber++;
+        Segment segment = new Segment(number, new File(directory, "requests-" + number + ".dat"),
+                segmentSize);
+        segments.add(segment);
+        return segment;
+    }
+
+    Segment getSegment(int number) {
+        if (segments.isEmpty()) {
+            return null;
+        }
+        int index = number - segments.getFirst().number;
+        return index >= 0 && index < segments.size() ? segments.get(index) : null;
+    }
+
+    /**
+     * Returns the location of the last stored version of the request, the segment number in the
+     * high 32 bits and the request position in the segment in the low ones, or null if not found.
+     * Must be called holding the lock.
+     * <p>
+     * The segments are scanned newest first, each from its latest request, as the requests looked
+     * up, such as the ones updated by the post processors, are usually the latest stored.
+     * </p>
+     */
+    Long find(long id) {
+        for (Iterator<Segment> it = segments.descendingIterator(); it.hasNext();) {
+            Segment segment = it.next();
+            if (segment.size == 0 || id < segment.minId || id > segment.maxId) {
+                continue;
+            }
+            for (int i = segment.size - 1; i >= 0; i--) {
+                if (segment.ids[i] == id && !segment.deleted.get(i)) {
+                    return location(segment.number, i);
+                }
+            }
+        }
+        return null;
+    }
+
+    static long location(int segment, int position) {
+        return ((long) segment << 32) | position;
+    }
+
+    static int segmentNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int position(long location) {
+        return (int) location;
+    }
+
+    public RequestData getRequest(long id) {
+        RequestData data = live.get(id);
+        if (data != null) {
+            return data;
+        }
+
+        lock.readLock().lock();
+        try {
+            Long location = find(id);
+            if (location == null) {
+                return null;
+            }
+            return getSegment(segmentNumber(location)).read(position(location));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<RequestData> getRequests() {
+        return getRequests(new Query());
+    }
+
+    public List<RequestData> getRequests(Query q) {
+        final List<RequestData> requests = new ArrayList<RequestData>();
+        query(q, true, new RequestDataVisitor() {
+            public void visit(RequestData data, Object... aggregates) {
+                requests.add(data);
+            }
+        });
+        return requests;
+    }
+
+    /**
+     * Visits the requests matching the query. Unless the query is sorted or paged, in no
+     * particular order
+     */
+    public void getRequests(Query query, RequestDataVisitor visitor) {
+        query(query, false, visitor);
+    }
+
+    /**
+     * Runs the query, visiting the requests out of the lock.
+     * <p>
+     * Queries sorted on the id or start time, which are on the heap, are sorted and paged before
+     * reading only the requests in the page. Queries that need no particular order are visited as
+     * the requests are read. Only queries sorted on other properties read all the matching
+     * requests in memory.
+     * </p>
+     * 
+     * @param ordered whether the default order applies if the query is not sorted
+     */
+    void query(Query q, boolean ordered, RequestDataVisitor visitor) {
+        Filter filter = q.getFilter();
+        long from = q.getFromDate() != null ? q.getFromDate().getTime() : Long.MIN_VALUE;
+        long to = q.getToDate() != null ? q.getToDate().getTime() : Long.MAX_VALUE;
+        Comparator<Match> order = indexOrder(q);
+        boolean paged = q.getOffset() != null || q.getCount() != null;
+
+        List<Match> matches = new ArrayList<Match>();
+        for (RequestData r : live.values()) {
+            if (inRange(r, from, to) && (filter == null || matches(filter, r))) {
+                matches.add(new Match(r));
+            }
+        }
+
+        if (order == null) {
+            List<RequestData> requests = new ArrayList<RequestData>(matches.size());
+            for (Match m : matches) {
+                requests.add(m.data);
+            }
+            lock.readLock().lock();
+            try {
+                for (Segment segment : segments) {
+                    if (segment.size == 0 || segment.maxTime < from || segment.minTime > to) {
+                        continue;
+                    }
+                    Selection selection = segment.select(filter);
+                    BitSet candidates = selection.candidates;
+                    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates
+                            .nextSetBit(i + 1)) {
+                        if (isOutOfRange(segment, i, from, to)) {
+                            continue;
+                        }
+                        RequestData r = segment.read(i);
+                        if (selection.exact || matches(filter, r)) {
+                            requests.add(r);
+                        }
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            Collections.sort(requests, new Sorter(q.getSortBy(), q.getSortOrder()));
+            for (RequestData r : page(requests, q)) {
+                visitor.visit(r);
+            }
+            return;
+        }
+
+        if (!ordered && !paged && q.getSortBy() == null) {
+            for (Match m : matches) {
+                visitor.visit(m.data);
+            }
+            scan(filter, from, to, visitor);
+            return;
+        }
+
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.size == 0 || segment.maxTime < from || segment.minTime > to) {
+                    continue;
+                }
+                Selection selection = segment.select(filter);
+                BitSet candidates = selection.candidates;
+                for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                    if (isOutOfRange(segment, i, from, to)) {
+                        continue;
+                    }
+                    if (selection.exact || matches(filter, segment.read(i))) {
+                        matches.add(new Match(segment, i));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.sort(matches, order);
+        visit(page(matches, q), visitor);
+    }
+
+    /**
+     * Out of the time range, or being saved and already considered among the live ones
+     */
+    boolean isOutOfRange(Segment segment, int position, long from, long to) {
+        return segment.startTimes[position] < from || segment.startTimes[position] > to
+                || live.containsKey(segment.ids[position]);
+    }
+
+    /**
+     * Visits the stored requests matching the filter, segment by segment. The requests are read in
+     * batches holding the lock and visited out of it, so that a slow visitor does not hold back
+     * the requests being stored
+     */
+    void scan(Filter filter, long from, long to, RequestDataVisitor visitor) {
+        int first;
+        int last;
+        lock.readLock().lock();
+        try {
+            if (segments.isEmpty()) {
+                return;
+            }
+            first = segments.getFirst().number;
+            last = segments.getLast().number;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (int number = first; number <= last; number++) {
+            Selection selection = null;
+            int next = 0;
+            while (next >= 0) {
+                List<RequestData> batch = new ArrayList<RequestData>();
+                lock.readLock().lock();
+                try {
+                    Segment segment = getSegment(number);
+                    if (segment == null) {
+                        // dropped meanwhile
+                        break;
+                    }
+                    if (selection == null) {
+                        if (segment.size == 0 || segment.maxTime < from || segment.minTime > to) {
+                            break;
+                        }
+                        selection = segment.select(filter);
+                    }
+                    BitSet candidates = selection.candidates;
+                    int i = candidates.nextSetBit(next);
+                    for (; i >= 0 && batch.size() < BATCH_SIZE; i = candidates.nextSetBit(i + 1)) {
+                        if (segment.deleted.get(i) || isOutOfRange(segment, i, from, to)) {
+                            continue;
+                        }
+                        RequestData r = segment.read(i);
+                        if (selection.exact || matches(filter, r)) {
+                            batch.add(r);
+                        }
+                    }
+                    next = i;
+                } finally {
+                    lock.readLock().unlock();
+                }
+                for (RequestData r : batch) {
+                    visitor.visit(r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads and visits the matches in batches, skipping the ones whose segment has been dropped
+     * meanwhile
+     */
+    void visit(List<Match> matches, RequestDataVisitor visitor) {
+        for (int start = 0; start < matches.size(); start += BATCH_SIZE) {
+            List<Match> page = matches.subList(start, Math.min(start + BATCH_SIZE,
+                    matches.size()));
+            List<RequestData> batch = new ArrayList<RequestData>(page.size());
+            lock.readLock().lock();
+            try {
+                for (Match m : page) {
+                    if (m.data != null) {
+                        batch.add(m.data);
+                    } else if (getSegment(m.segment.number) == m.segment) {
+                        batch.add(m.segment.read(m.position));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (RequestData r : batch) {
+                visitor.visit(r);
+            }
+        }
+    }
+
+    /**
+     * Returns the ordering of the query if it can be computed from the in memory request ids and
+     * start times, null otherwise
+     */
+    static Comparator<Match> indexOrder(Query q) {
+        if (q.getSortBy() == null) {
+            if (q.getFromDate() != null || q.getToDate() != null) {
+                return new MatchOrder(true, false);
+            }
+            return new MatchOrder(false, true);
+        }
+        // same as the Sorter, any order but ascending is descending
+        boolean ascending = q.getSortOrder() == SortOrder.ASC;
+        if ("startTime".equalsIgnoreCase(q.getSortBy())) {
+            return new MatchOrder(true, ascending);
+        }
+        if ("id".equalsIgnoreCase(q.getSortBy())) {
+            return new MatchOrder(false, ascending);
+        }
+        return null;
+    }
+
+    static <T> List<T> page(List<T> list, Query q) {
+        int offset = q.getOffset() != null ? (int) Math.min(q.getOffset(), list.size()) : 0;
+        int end = q.getCount() != null ? (int) Math.min(offset + q.getCount(), list.size())
+                : list.size();
+        if (offset > 0 || end < list.size()) {
+            return new ArrayList<T>(list.subList(offset, end));
+        }
+        return list;
+    }
+
+    public long getCount(Query query) {
+        Filter filter = query.getFilter();
+        long from = query.getFromDate() != null ? query.getFromDate().getTime() : Long.MIN_VALUE;
+        long to = query.getToDate() != null ? query.getToDate().getTime() : Long.MAX_VALUE;
+
+        long count = 0;
+        for (RequestData r : live.values()) {
+            if (inRange(r, from, to) && (filter == null || matches(filter, r))) {
+                count++;
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.size == 0 || segment.maxTime < from || segment.minTime > to) {
+                    continue;
+                }
+                Selection selection = segment.select(filter);
+                BitSet candidates = selection.candidates;
+                for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                    if (isOutOfRange(segment, i, from, to)) {
+                        continue;
+                    }
+                    // indexes answer the query alone, no need to read the request
+                    if (selection.exact || matches(filter, segment.read(i))) {
+                        count++;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (query.getOffset() != null) {
+            count = Math.max(0, count - query.getOffset());
+        }
+        if (query.getCount() != null) {
+            count = Math.min(count, query.getCount());
+        }
+        return count;
+    }
+
+    public Iterator<RequestData> getIterator(Query query) {
+        return getRequests(query).iterator();
+    }
+
+    public ResourceData getLayer(String name) {
+        for (ResourceData layer : getLayers()) {
+            if (layer.getName().equals(name)) {
+                return layer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the requested resources along with their access count, computed from the resource
+     * index
+     */
+    public List<ResourceData> getLayers() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (RequestData r : live.values()) {
+            countResources(r, counts);
+        }
+
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                Map<Object, BitSet> index = segment.indexes.get("resource");
+                for (Map.Entry<Object, BitSet> e : index.entrySet()) {
+                    BitSet bits = (BitSet) e.getValue().clone();
+                    bits.andNot(segment.deleted);
+                    increment(counts, (String) e.getKey(), bits.cardinality());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return toResources(counts);
+    }
+
+    public List<ResourceData> getLayers(Query query) {
+        final Map<String, Long> counts = new TreeMap<String, Long>();
+        query(query, false, new RequestDataVisitor() {
+            public void visit(RequestData data, Object... aggregates) {
+                countResources(data, counts);
+            }
+        });
+        return toResources(counts);
+    }
+
+    public void getLayers(Query query, MonitorVisitor<ResourceData> visitor) {
+        for (ResourceData layer : getLayers(query)) {
+            visitor.visit(layer);
+        }
+    }
+
+    void countResources(RequestData r, Map<String, Long> counts) {
+        if (r.getResources() != null) {
+            for (String resource : r.getResources()) {
+                increment(counts, resource, 1);
+            }
+        }
+    }
+
+    void increment(Map<String, Long> counts, String key, long delta) {
+        if (delta > 0) {
+            Long count = counts.get(key);
+            counts.put(key, count == null ? delta : count + delta);
+        }
+    }
+
+    List<ResourceData> toResources(Map<String, Long> counts) {
+        List<ResourceData> resources = new ArrayList<ResourceData>();
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            ResourceData resource = new ResourceData();
+            resource.setName(e.getKey());
+            resource.setAccessCount(e.getValue());
+            resources.add(resource);
+        }
+        return resources;
+    }
+
+    public List<RequestData> getOwsRequests() {
+        return getRequests(new Query().filter("category", RequestData.Category.OWS,
+                Comparison.EQ));
+    }
+
+    public List<RequestData> getOwsRequests(String service, String operation, String version) {
+        Query q = new Query().filter("category", RequestData.Category.OWS, Comparison.EQ);
+        if (service != null) {
+            q.and("service", service, Comparison.EQ);
+        }
+        if (operation != null) {
+            q.and("operation", operation, Comparison.EQ);
+        }
+        if (version != null) {
+            q.and("owsVersion", version, Comparison.EQ);
+        }
+        return getRequests(q);
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.dispose();
+            }
+            segments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        live.clear();
+    }
+
+    /**
+     * Closes the segments, keeping their files to be read back on restart unless the directory
+     * is a temporary one
+     */
+    public void dispose() {
+        if (temporary) {
+            clear();
+            if (directory != null) {
+                directory.delete();
+            }
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        live.clear();
+    }
+
+    static boolean inRange(RequestData r, long from, long to) {
+        if (from == Long.MIN_VALUE && to == Long.MAX_VALUE) {
+            return true;
+        }
+        Date time = r.getStartTime();
+        return time != null && time.getTime() >= from && time.getTime() <= to;
+    }
+
+    /**
+     * Evaluates a filter against a request
+     */
+    static boolean matches(Filter filter, RequestData r) {
+        if (filter == null) {
+            return true;
+        }
+        if (filter instanceof And) {
+            for (Filter f : ((And) filter).getFilters()) {
+                if (!matches(f, r)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (filter instanceof Or) {
+            for (Filter f : ((Or) filter).getFilters()) {
+                if (matches(f, r)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if ("resource".equals(filter.getLeft())) {
+            List<String> resources = r.getResources() != null ? r.getResources() : Collections
+                    .<String> emptyList();
+            Object value = filter.getRight();
+            switch (filter.getType()) {
+            case EQ:
+                return resources.contains(value);
+            case NEQ:
+                return !resources.contains(value);
+            case IN:
+                for (Object v : (Collection) value) {
+                    if (resources.contains(v)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                throw new UnsupportedOperationException(
+                        "Resources only support equality, non-equality and IN comparison");
+            }
+        }
+        return new PropertyCompare(filter.getLeft(), filter.getType(), filter.getRight())
+                .matches(r);
+    }
+
+    static byte[] serialize(RequestData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new RequestOutputStream(bytes);
+        out.writeObject(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static RequestData deserialize(byte[] bytes) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            return (RequestData) in.readObject();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to read back a stored request", e);
+        }
+    }
+
+    /**
+     * Writes the request errors as {@link StoredError}s, as the error or what it refers to might
+     * not be serializable
+     */
+    static class RequestOutputStream extends ObjectOutputStream {
+
+        RequestOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Throwable && !(obj instanceof StoredError)) {
+                Throwable error = (Throwable) obj;
+                return new StoredError(error.getClass().getName(), error.getMessage());
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * A stored request error, only the class name and message of the original one are kept
+     */
+    static class StoredError extends Exception {
+
+        private static final long serialVersionUID = 6085381318937207093L;
+
+        String className;
+
+        StoredError(String className, String message) {
+            super(message);
+            this.className = className;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // the original stack trace is not stored
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            String message = getLocalizedMessage();
+            return message != null ? className + ": " + message : className;
+        }
+    }
+
+    /**
+     * A request matching a query, either a live one or one stored in a segment, which is read
+     * only if needed
+     */
+    static class Match {
+        Segment segment;
+
+        int position;
+
+        long id;
+
+        /**
+         * the start time, null if unknown
+         */
+        Long startTime;
+
+        RequestData data;
+
+        Match(RequestData data) {
+            this.data = data;
+            this.id = data.getId();
+            this.startTime = data.getStartTime() != null ? data.getStartTime().getTime() : null;
+        }
+
+        Match(Segment segment, int position) {
+            this.segment = segment;
+            this.position = position;
+            this.id = segment.ids[position];
+            long time = segment.startTimes[position];
+            this.startTime = time != Long.MIN_VALUE ? time : null;
+        }
+    }
+
+    /**
+     * Sorts matches by id or start time, the latter with the unknown ones last, as the
+     * {@link Sorter} does
+     */
+    static class MatchOrder implements Comparator<Match> {
+        boolean byStartTime;
+
+        boolean ascending;
+
+        MatchOrder(boolean byStartTime, boolean ascending) {
+            this.byStartTime = byStartTime;
+            this.ascending = ascending;
+        }
+
+        public int compare(Match m1, Match m2) {
+            int c;
+            if (!byStartTime) {
+                c = m1.id < m2.id ? -1 : (m1.id == m2.id ? 0 : 1);
+            } else if (m1.startTime == null) {
+                c = m2.startTime == null ? 0 : 1;
+            } else if (m2.startTime == null) {
+                c = -1;
+            } else {
+                c = m1.startTime.compareTo(m2.startTime);
+            }
+            return ascending ? c : -c;
+        }
+    }
+
+    /**
+     * The requests of a segment a filter might match. If exact, the filter has been fully
+     * evaluated against the indexes
+     */
+    static class Selection {
+        BitSet candidates;
+
+        boolean exact;
+
+        Selection(BitSet candidates, boolean exact) {
+            this.candidates = candidates;
+            this.exact = exact;
+        }
+    }
+
+    /**
+     * A memory mapped file holding requests, each one serialized and prefixed by its length
+     */
+    static class Segment {
+
+        int number;
+
+        File file;
+
+        RandomAccessFile raf;
+
+        MappedByteBuffer buffer;
+
+        long created = System.currentTimeMillis();
+
+        int size;
+
+        int[] offsets = new int[256];
+
+        long[] ids = new long[256];
+
+        long[] startTimes = new long[256];
+
+        long minTime = Long.MAX_VALUE;
+
+        long maxTime = Long.MIN_VALUE;
+
+        long minId = Long.MAX_VALUE;
+
+        long maxId = Long.MIN_VALUE;
+
+        BitSet deleted = new BitSet();
+
+        Map<String, Map<Object, BitSet>> indexes = new HashMap<String, Map<Object, BitSet>>();
+
+        Segment(int number, File file, int capacity) throws IOException {
+            this.number = number;
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            for (String column : INDEXED) {
+                indexes.put(column, new HashMap<Object, BitSet>());
+            }
+        }
+
+        /**
+         * Maps an existing segment file, rebuilding the indexes from the requests it holds. The
+         * file is truncated at the first request that cannot be read back, a partial write
+         */
+        static Segment load(int number, File file) throws IOException {
+            Segment segment = new Segment(number, file, (int) file.length());
+            segment.created = file.lastModified();
+            MappedByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + 4 <= buffer.capacity()) {
+                int length = buffer.getInt(offset);
+                if (length <= 0 || length > buffer.capacity() - offset - 4) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                ByteBuffer b = buffer.duplicate();
+                b.position(offset + 4);
+                b.get(bytes);
+                RequestData data;
+                try {
+                    data = deserialize(bytes);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read back a request from " + file
+                            + ", ignoring the rest of the file", e);
+                    break;
+                }
+                segment.register(offset, data);
+                offset += length + 4;
+            }
+            if (offset + 4 <= buffer.capacity()) {
+                // mark the end, in case the rest is garbage
+                buffer.putInt(offset, 0);
+            }
+            buffer.position(offset);
+            return segment;
+        }
+
+        boolean fits(int length) {
+            return buffer.remaining() >= length + 4;
+        }
+
+        int append(byte[] bytes, RequestData data) {
+            int offset = buffer.position();
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+            if (buffer.remaining() >= 4) {
+                // the end marker read back on startup
+                buffer.putInt(buffer.position(), 0);
+            }
+            return register(offset, data);
+        }
+
+        /**
+         * Adds the request stored at the given offset to the in memory indexes
+         */
+        int register(int offset, RequestData data) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+                startTimes = Arrays.copyOf(startTimes, size * 2);
+            }
+            int position = size++;
+            offsets[position] = offset;
+
+            ids[position] = data.getId();
+            minId = Math.min(minId, data.getId());
+            maxId = Math.max(maxId, data.getId());
+            long time = data.getStartTime() != null ? data.getStartTime().getTime()
+                    : Long.MIN_VALUE;
+            startTimes[position] = time;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+
+            index("service", data.getService(), position);
+            index("operation", data.getOperation(), position);
+            index("status", data.getStatus(), position);
+            index("category", data.getCategory(), position);
+            if (data.getResources() != null) {
+                for (String resource : data.getResources()) {
+                    index("resource", resource, position);
+                }
+            }
+            return position;
+        }
+
+        void index(String column, Object value, int position) {
+            if (value == null) {
+                return;
+            }
+            Map<Object, BitSet> index = indexes.get(column);
+            String key = value.toString();
+            BitSet bits = index.get(key);
+            if (bits == null) {
+                bits = new BitSet();
+                index.put(key, bits);
+            }
+            bits.set(position);
+        }
+
+        RequestData read(int position) {
+            ByteBuffer b = buffer.duplicate();
+            b.position(offsets[position]);
+            byte[] bytes = new byte[b.getInt()];
+            b.get(bytes);
+            return deserialize(bytes);
+        }
+
+        /**
+         * Returns the live requests of the segment the filter might match
+         */
+        Selection select(Filter filter) {
+            Selection selection = lookup(filter);
+            if (selection == null) {
+                BitSet all = new BitSet();
+                all.set(0, size);
+                selection = new Selection(all, filter == null);
+            }
+            selection.candidates.andNot(deleted);
+            return selection;
+        }
+
+        /**
+         * Evaluates the filter against the indexes, returns null if they cannot narrow the search
+         */
+        Selection lookup(Filter filter) {
+            if (filter == null) {
+                return null;
+            }
+            if (filter instanceof And) {
+                Selection result = null;
+                boolean exact = true;
+                for (Filter f : ((And) filter).getFilters()) {
+                    Selection s = lookup(f);
+                    if (s == null) {
+                        exact = false;
+                    } else if (result == null) {
+                        result = s;
+                        exact &= s.exact;
+                    } else {
+                        result.candidates.and(s.candidates);
+                        exact &= s.exact;
+                    }
+                }
+                if (result != null) {
+                    result.exact = exact;
+                }
+                return result;
+            }
+            if (filter instanceof Or) {
+                Selection result = new Selection(new BitSet(), true);
+                for (Filter f : ((Or) filter).getFilters()) {
+                    Selection s = lookup(f);
+                    if (s == null) {
+                        return null;
+                    }
+                    result.candidates.or(s.candidates);
+                    result.exact &= s.exact;
+                }
+                return result;
+            }
+
+            Map<Object, BitSet> index = indexes.get(filter.getLeft());
+            Object value = filter.getRight();
+            if (index == null || value == null) {
+                return null;
+            }
+            if (filter.getType() == Comparison.EQ) {
+                BitSet bits = index.get(value.toString());
+                return new Selection(bits != null ? (BitSet) bits.clone() : new BitSet(), true);
+            }
+            if (filter.getType() == Comparison.IN && value instanceof Collection) {
+                BitSet result = new BitSet();
+                for (Object v : (Collection) value) {
+                    BitSet bits = v != null ? index.get(v.toString()) : null;
+                    if (bits != null) {
+                        result.or(bits);
+                    }
+                }
+                return new Selection(result, true);
+            }
+            return null;
+        }
+
+        void close() {
+            buffer.force();
+            try {
+                raf.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close " + file, e);
+            }
+            // the mapping is released when the buffer is garbage collected
+            buffer = null;
+        }
+
+        void dispose() {
+            close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.monitor.RequestData.Status;
+
+/**
+ * Statistics of a group of requests, as computed by {@link RequestAggregator}.
+ *
+ * <p>
+ * Times are in milliseconds, percentiles are estimated within a few percents of their actual
+ * value.
+ * </p>
+ */
+public class RequestAggregate implements Serializable {
+
+    private static final long serialVersionUID = -2853400311046315281L;
+
+    /**
+     * The values of the grouping properties
+     */
+    Map<String, String> group = new LinkedHashMap<String, String>();
+
+    /**
+     * Start of the time bucket, if aggregating over time
+     */
+    Date interval;
+
+    long count;
+
+    long failed;
+
+    long responseLength;
+
+    double rate;
+
+    long minTime;
+
+    long maxTime;
+
+    double averageTime;
+
+    long medianTime;
+
+    long time90;
+
+    long time95;
+
+    long time99;
+
+    transient LatencyHistogram times = new LatencyHistogram();
+
+    void add(RequestData data) {
+        count++;
+        if (data.getStatus() == Status.FAILED) {
+            failed++;
+        }
+        responseLength += data.getResponseLength();
+        times.add(data.getTotalTime());
+    }
+
+    /**
+     * Computes the statistics out of the collected times
+     *
+     * @param intervalLength the length of the time bucket in milliseconds, or 0 if not
+     *        aggregating over time
+     */
+    void complete(long intervalLength) {
+        minTime = times.count > 0 ? times.min : 0;
+        maxTime = times.count > 0 ? times.max : 0;
+        averageTime = times.mean();
+        medianTime = times.percentile(0.5);
+        time90 = times.percentile(0.9);
+        time95 = times.percentile(0.95);
+        time99 = times.percentile(0.99);
+        if (intervalLength > 0) {
+            rate = count * 1000d / intervalLength;
+        }
+        times = null;
+    }
+
+    /**
+     * The values of the grouping properties, by property name
+     */
+    public Map<String, String> getGroup() {
+        return group;
+    }
+
+    /**
+     * Start of the time interval the requests started in, or {@code null} if not aggregating
+     * over time
+     */
+    public Date getInterval() {
+        return interval;
+    }
+
+    /**
+     * Number of requests
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Number of failed requests
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Total length of the responses, in bytes
+     */
+    public long getResponseLength() {
+        return responseLength;
+    }
+
+    /**
+     * Requests per second over the time interval, 0 if not aggregating over time
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public double getAverageTime() {
+        return averageTime;
+    }
+
+    public long getMedianTime() {
+        return medianTime;
+    }
+
+    /**
+     * 90th percentile of the request times
+     */
+    public long getTime90() {
+        return time90;
+    }
+
+    /**
+     * 95th percentile of the request times
+     */
+    public long getTime95() {
+        return time95;
+    }
+
+    /**
+     * 99th percentile of the request times
+     */
+    public long getTime99() {
+        return time99;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestAggregate(" + group + (interval != null ? ", " + interval : "")
+                + ", count=" + count + ")";
+    }
+}
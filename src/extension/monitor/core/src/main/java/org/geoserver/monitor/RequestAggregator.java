@@ -0,0 +1,153 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.ows.util.OwsUtils;
+
+/**
+ * Visitor aggregating requests into groups as they are visited, so that statistics over large
+ * amounts of requests are computed in a single pass without keeping the requests around.
+ * <p>
+ * Requests are grouped by the values of a list of properties, and optionally by the time interval
+ * they started in. The "resource" (or "layer") property is multi valued, a request accessing
+ * many resources is accounted in the group of each one of them.
+ * </p>
+ * <p>
+ * Usage:
+ * <pre>
+ * RequestAggregator aggregator = new RequestAggregator(Arrays.asList("service", "operation"), 0);
+ * monitor.query(query, aggregator);
+ * List&lt;RequestAggregate> results = aggregator.getAggregates();
+ * </pre>
+ * </p>
+ */
+public class RequestAggregator implements RequestDataVisitor {
+
+    List<String> groupBy;
+
+    long interval;
+
+    Map<List<Object>, RequestAggregate> aggregates = new HashMap<List<Object>, RequestAggregate>();
+
+    /**
+     * @param groupBy the properties to group by
+     * @param interval length of the time intervals to group by, in milliseconds, or 0 not to
+     *        group by time
+     */
+    public RequestAggregator(List<String> groupBy, long interval) {
+        RequestData sample = new RequestData();
+        for (String property : groupBy) {
+            if (!isResource(property) && !OwsUtils.has(sample, property)) {
+                throw new IllegalArgumentException("No such request property: " + property);
+            }
+        }
+        if (interval < 0) {
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        }
+        this.groupBy = groupBy;
+        this.interval = interval;
+    }
+
+    static boolean isResource(String property) {
+        return "resource".equalsIgnoreCase(property) || "layer".equalsIgnoreCase(property);
+    }
+
+    public void visit(RequestData data, Object... aggregates) {
+        List<Object> key = new ArrayList<Object>(groupBy.size() + 1);
+        if (interval > 0) {
+            if (data.getStartTime() == null) {
+                return;
+            }
+            long time = data.getStartTime().getTime();
+            key.add(time - time % interval);
+        }
+        accumulate(data, key, 0);
+    }
+
+    void accumulate(RequestData data, List<Object> key, int i) {
+        if (i == groupBy.size()) {
+            RequestAggregate aggregate = aggregates.get(key);
+            if (aggregate == null) {
+                aggregate = new RequestAggregate();
+                int offset = 0;
+                if (interval > 0) {
+                    aggregate.interval = new Date((Long) key.get(0));
+                    offset = 1;
+                }
+                for (int j = 0; j < groupBy.size(); j++) {
+                    Object value = key.get(j + offset);
+                    aggregate.group.put(groupBy.get(j), value != null ? value.toString() : null);
+                }
+                aggregates.put(new ArrayList<Object>(key), aggregate);
+            }
+            aggregate.add(data);
+            return;
+        }
+
+        String property = groupBy.get(i);
+        if (isResource(property)) {
+            List<String> resources = data.getResources();
+            if (resources == null || resources.isEmpty()) {
+                resources = Collections.singletonList(null);
+            }
+            for (String resource : resources) {
+                key.add(resource);
+                accumulate(data, key, i + 1);
+                key.remove(key.size() - 1);
+            }
+        } else {
+            key.add(OwsUtils.get(data, property));
+            accumulate(data, key, i + 1);
+            key.remove(key.size() - 1);
+        }
+    }
+
+    /**
+     * Returns the statistics of each group, sorted by time interval and group values
+     */
+    public List<RequestAggregate> getAggregates() {
+        List<RequestAggregate> result = new ArrayList<RequestAggregate>();
+        for (RequestAggregate aggregate : aggregates.values()) {
+            aggregate.complete(interval);
+            result.add(aggregate);
+        }
+        aggregates.clear();
+
+        Collections.sort(result, new Comparator<RequestAggregate>() {
+            public int compare(RequestAggregate a1, RequestAggregate a2) {
+                if (a1.interval != null && a2.interval != null) {
+                    int c = a1.interval.compareTo(a2.interval);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                for (String property : groupBy) {
+                    String v1 = a1.group.get(property);
+                    String v2 = a2.group.get(property);
+                    if (v1 == null || v2 == null) {
+                        if (v1 != v2) {
+                            return v1 == null ? 1 : -1;
+                        }
+                        continue;
+                    }
+                    int c = v1.compareTo(v2);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            }
+        });
+        return result;
+    }
+}
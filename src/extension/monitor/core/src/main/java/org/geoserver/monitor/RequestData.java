@@ -493,9 +493,12 @@ public class RequestData implements Serializable {
         RequestData clone = new RequestData();
         clone.setId(id);
         clone.setStatus(status);
+        clone.setCategory(category);
         clone.setPath(path);
         clone.setQueryString(queryString);
         clone.setBody(body);
+        clone.setBodyContentLength(bodyContentLength);
+        clone.setBodyContentType(bodyContentType);
         clone.setHttpMethod(httpMethod);
         clone.setStartTime(startTime);
         clone.setEndTime(endTime);
@@ -505,6 +508,11 @@ public class RequestData implements Serializable {
         clone.setHost(host);
         clone.setInternalHost(internalHost);
         clone.setRemoteUser(remoteUser);
+        clone.setRemoteUserAgent(remoteUserAgent);
+        clone.setRemoteCountry(remoteCountry);
+        clone.setRemoteCity(remoteCity);
+        clone.setRemoteLat(remoteLat);
+        clone.setRemoteLon(remoteLon);
         clone.setService(service);
         clone.setOperation(operation);
         clone.setSubOperation(subOperation);
@@ -0,0 +1,154 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.geoserver.monitor.Monitor;
+import org.geoserver.monitor.Query;
+import org.geoserver.monitor.RequestAggregate;
+import org.geoserver.monitor.RequestAggregator;
+import org.geoserver.rest.RestletException;
+import org.geoserver.rest.format.DataFormat;
+import org.geoserver.rest.format.StreamDataFormat;
+import org.geotools.feature.type.DateUtil;
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Resource returning statistics over the monitored requests, computed on the server in a single
+ * pass over them.
+ * <p>
+ * The requests are selected with the same parameters as {@link RequestResource} and grouped by
+ * the properties listed in the <code>group</code> parameter, separated by semicolons, such as
+ * <code>group=service;operation</code>. The <code>interval</code> parameter, in seconds, further
+ * groups them by the time interval they started in.
+ * </p>
+ */
+public class AggregateResource extends RequestResource {
+
+    public AggregateResource(Monitor monitor) {
+        super(monitor);
+    }
+
+    @Override
+    protected List<DataFormat> createSupportedFormats(Request request, Response response) {
+        List<DataFormat> formats = new ArrayList<DataFormat>();
+        formats.add(createXMLFormat(request, response));
+        formats.add(createJSONFormat(request, response));
+        formats.add(new AggregateCSVFormat());
+        return formats;
+    }
+
+    @Override
+    protected void configureXStream(XStream xstream) {
+        xstream.alias("aggregate", RequestAggregate.class);
+    }
+
+    @Override
+    public boolean allowDelete() {
+        return false;
+    }
+
+    @Override
+    protected Object handleObjectGet() throws Exception {
+        Query q = (Query) super.handleObjectGet();
+
+        Form form = getRequest().getResourceRef() != null ? getRequest().getResourceRef()
+                .getQueryAsForm() : new Form();
+        String group = form.getFirstValue("group");
+        List<String> groupBy = group != null && group.trim().length() > 0 ? Arrays.asList(group
+                .split(";")) : Collections.<String> emptyList();
+        String interval = form.getFirstValue("interval");
+
+        RequestAggregator aggregator;
+        try {
+            aggregator = new RequestAggregator(groupBy, interval != null ? Long
+                    .parseLong(interval) * 1000 : 0);
+        } catch (IllegalArgumentException e) {
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST, e);
+        }
+        monitor.query(q, aggregator);
+        return aggregator.getAggregates();
+    }
+
+    static class AggregateCSVFormat extends StreamDataFormat {
+
+        static final String[] STATISTICS = { "count", "failed", "responseLength", "rate",
+                "minTime", "maxTime", "averageTime", "medianTime", "time90", "time95", "time99" };
+
+        protected AggregateCSVFormat() {
+            super(new MediaType("application/csv"));
+        }
+
+        @Override
+        protected void write(Object object, OutputStream out) throws IOException {
+            BufferedWriter w = new BufferedWriter(new OutputStreamWriter(out));
+            List<RequestAggregate> aggregates = (List<RequestAggregate>) object;
+
+            // the group columns come first, they are the same for all the aggregates
+            StringBuilder sb = new StringBuilder();
+            if (!aggregates.isEmpty()) {
+                if (aggregates.get(0).getInterval() != null) {
+                    sb.append("interval,");
+                }
+                for (String property : aggregates.get(0).getGroup().keySet()) {
+                    sb.append(property).append(",");
+                }
+            }
+            for (String statistic : STATISTICS) {
+                sb.append(statistic).append(",");
+            }
+            sb.setLength(sb.length() - 1);
+            w.write(sb.append("\n").toString());
+
+            for (RequestAggregate a : aggregates) {
+                sb.setLength(0);
+                if (a.getInterval() != null) {
+                    sb.append(DateUtil.serializeDateTime(a.getInterval())).append(",");
+                }
+                for (String value : a.getGroup().values()) {
+                    if (value != null) {
+                        sb.append(escape(value));
+                    }
+                    sb.append(",");
+                }
+                sb.append(a.getCount()).append(",").append(a.getFailed()).append(",");
+                sb.append(a.getResponseLength()).append(",").append(a.getRate()).append(",");
+                sb.append(a.getMinTime()).append(",").append(a.getMaxTime()).append(",");
+                sb.append(a.getAverageTime()).append(",").append(a.getMedianTime()).append(",");
+                sb.append(a.getTime90()).append(",").append(a.getTime95()).append(",");
+                sb.append(a.getTime99()).append("\n");
+                w.write(sb.toString());
+            }
+            w.flush();
+        }
+
+        static String escape(String value) {
+            if (RequestResource.CSVFormat.escapeRequired.matcher(value).find()) {
+                return "\"" + value.replaceAll("\"", "\"\"") + "\"";
+            }
+            return value;
+        }
+
+        @Override
+        protected Object read(InputStream in) throws IOException {
+            return null;
+        }
+    }
+}
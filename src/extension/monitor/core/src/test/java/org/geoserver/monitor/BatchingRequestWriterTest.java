@@ -0,0 +1,125 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.monitor.BatchingRequestWriter.Overflow;
+import org.geoserver.monitor.BatchingRequestWriter.Storage;
+import org.junit.Test;
+
+public class BatchingRequestWriterTest {
+
+    static class RecordingStorage implements Storage {
+        List<List<RequestData>> batches = new ArrayList<List<RequestData>>();
+
+        CountDownLatch latch;
+
+        RequestData failing;
+
+        RecordingStorage(int expectedBatches) {
+            latch = new CountDownLatch(expectedBatches);
+        }
+
+        public synchronized void write(List<RequestData> requests) throws Exception {
+            if (failing != null && requests.contains(failing)) {
+                throw new Exception("Cannot write " + failing.getId());
+            }
+            batches.add(new ArrayList<RequestData>(requests));
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        RecordingStorage storage = new RecordingStorage(1);
+        BatchingRequestWriter writer = new BatchingRequestWriter(storage);
+        writer.setBatchSize(2);
+        writer.setFlushInterval(60000);
+        writer.start();
+        try {
+            RequestData r1 = new RequestData();
+            RequestData r2 = new RequestData();
+            writer.write(r1);
+            writer.write(r1);
+            writer.write(r2);
+
+            assertTrue(storage.latch.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(r1, r2), storage.batches.get(0));
+            assertEquals(3, writer.getQueued());
+            assertEquals(1, writer.getCoalesced());
+        } finally {
+            writer.shutdown(10000);
+        }
+        assertEquals(2, writer.getWritten());
+        assertEquals(1, writer.getBatches());
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception {
+        RecordingStorage storage = new RecordingStorage(1);
+        BatchingRequestWriter writer = new BatchingRequestWriter(storage);
+        writer.setBatchSize(100);
+        writer.setFlushInterval(50);
+        writer.start();
+        try {
+            writer.write(new RequestData());
+            // written well before the batch fills up
+            assertTrue(storage.latch.await(10, TimeUnit.SECONDS));
+            assertEquals(1, storage.batches.get(0).size());
+        } finally {
+            writer.shutdown(10000);
+        }
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        RecordingStorage storage = new RecordingStorage(1);
+        BatchingRequestWriter writer = new BatchingRequestWriter(storage);
+        writer.setMaxQueued(2);
+        writer.setOverflow(Overflow.DROP);
+
+        // not started, nothing gets written
+        writer.write(new RequestData());
+        writer.write(new RequestData());
+        writer.write(new RequestData());
+        assertEquals(2, writer.getQueueSize());
+        assertEquals(1, writer.getDropped());
+
+        // the queued ones are written on shutdown
+        writer.start();
+        writer.shutdown(10000);
+        assertEquals(2, writer.getWritten());
+        assertEquals(0, writer.getQueueSize());
+    }
+
+    @Test
+    public void testFailedRequest() throws Exception {
+        RecordingStorage storage = new RecordingStorage(2);
+        RequestData r1 = new RequestData();
+        RequestData r2 = new RequestData();
+        RequestData r3 = new RequestData();
+        storage.failing = r2;
+
+        BatchingRequestWriter writer = new BatchingRequestWriter(storage);
+        writer.write(r1);
+        writer.write(r2);
+        writer.write(r3);
+        writer.start();
+        writer.shutdown(10000);
+
+        // the batch failed, the others have been written one by one
+        assertEquals(2, storage.batches.size());
+        assertEquals(2, writer.getWritten());
+        assertEquals(1, writer.getFailed());
+    }
+}
@@ -0,0 +1,198 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.geoserver.monitor.MonitorTestData.assertCovered;
+import static org.geoserver.monitor.MonitorTestData.assertCoveredInOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.Query.SortOrder;
+import org.geoserver.monitor.RequestData.Status;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MappedMonitorDAOTest extends MonitorDAOTestSupport {
+
+    @BeforeClass
+    public static void createDAO() throws Exception {
+        dao = new MappedMonitorDAO();
+        dao.init(new MonitorConfig());
+        setUpData();
+    }
+
+    @AfterClass
+    public static void disposeDAO() throws Exception {
+        dao.dispose();
+    }
+
+    @Test
+    public void testGetRequestsByResource() throws Exception {
+        Query q = new Query().filter("resource", "widgets", Comparison.EQ);
+        assertCovered(dao.getRequests(q), 11, 14, 18);
+        assertEquals(3, dao.getCount(q));
+
+        q = new Query().filter("resource", "widgets", Comparison.EQ).and("service", "bam",
+                Comparison.EQ);
+        assertCovered(dao.getRequests(q), 14, 18);
+        assertEquals(2, dao.getCount(q));
+    }
+
+    @Test
+    public void testGetRequestsPagedByIndex() throws Exception {
+        // sorted and paged on the ids and start times kept on the heap
+        Query q = new Query().filter("resource", "widgets", Comparison.EQ)
+                .sort("id", SortOrder.DESC).page(1l, 1l);
+        assertCoveredInOrder(dao.getRequests(q), 14);
+
+        q = new Query().filter("service", "foo", Comparison.EQ).and("path", "/foo",
+                Comparison.EQ).sort("startTime", SortOrder.ASC).page(0l, 2l);
+        assertEquals(2, dao.getRequests(q).size());
+    }
+
+    @Test
+    public void testGetCountMixedFilter() throws Exception {
+        // the path is not indexed, the requests have to be read back
+        Query q = new Query().filter("service", "foo", Comparison.EQ).and("path", "/foo",
+                Comparison.EQ);
+        assertEquals(4, dao.getCount(q));
+    }
+
+    @Test
+    public void testGetLayers() throws Exception {
+        ResourceData layer = ((MappedMonitorDAO) dao).getLayer("things");
+        assertNotNull(layer);
+        assertEquals(5, layer.getAccessCount());
+    }
+
+    @Test
+    public void testSegmentsRecycled() throws Exception {
+        MonitorConfig config = new MonitorConfig();
+        config.getProperties().put("mapped.segmentSize", "16384");
+        config.getProperties().put("mapped.maxSegments", "2");
+        MappedMonitorDAO mapped = new MappedMonitorDAO();
+        mapped.init(config);
+        try {
+            for (int i = 0; i < 200; i++) {
+                RequestData data = mapped.init(new RequestData());
+                data.setPath("/request" + i);
+                data.setStartTime(new Date());
+                data.setService("WMS");
+                data.setResources(Arrays.asList("layer"));
+                mapped.save(data);
+            }
+            assertTrue(mapped.segments.size() <= 2);
+
+            // the oldest requests are gone, the latest are still there
+            assertNull(mapped.getRequest(1));
+            assertEquals("/request199", mapped.getRequest(200).getPath());
+
+            long count = mapped.getCount(new Query().filter("service", "WMS", Comparison.EQ));
+            assertTrue(count < 200);
+            assertEquals(count, mapped.getRequests().size());
+            assertEquals(count, mapped.getLayer("layer").getAccessCount());
+        } finally {
+            mapped.dispose();
+        }
+    }
+
+    @Test
+    public void testVisitRequests() throws Exception {
+        final List<Long> ids = new ArrayList<Long>();
+        Query q = new Query().filter("service", "foo", Comparison.EQ).and("path", "/foo",
+                Comparison.EQ);
+        dao.getRequests(q, new RequestDataVisitor() {
+            public void visit(RequestData data, Object... aggregates) {
+                ids.add(data.getId());
+            }
+        });
+        assertEquals(4, ids.size());
+        assertEquals(dao.getCount(q), ids.size());
+    }
+
+    @Test
+    public void testErrorStored() throws Exception {
+        MappedMonitorDAO mapped = new MappedMonitorDAO();
+        mapped.init(new MonitorConfig());
+        try {
+            RequestData data = mapped.init(new RequestData());
+            data.setStartTime(new Date());
+            data.setStatus(Status.FAILED);
+            // not serializable, the cause is the object holding it
+            data.setError(new UnserializableError("boom"));
+            mapped.save(data);
+
+            RequestData stored = mapped.getRequest(data.getId());
+            assertNotNull(stored);
+            assertEquals(Status.FAILED, stored.getStatus());
+            assertEquals("boom", stored.getError().getMessage());
+            assertTrue(stored.getError().toString().startsWith(
+                    UnserializableError.class.getName()));
+        } finally {
+            mapped.dispose();
+        }
+    }
+
+    @Test
+    public void testReloadedOnRestart() throws Exception {
+        File directory = File.createTempFile("mapped", "", new File("target"));
+        directory.delete();
+        MonitorConfig config = new MonitorConfig();
+        config.getProperties().put("mapped.directory", directory.getPath());
+        try {
+            MappedMonitorDAO mapped = new MappedMonitorDAO();
+            mapped.init(config);
+            long last = 0;
+            for (int i = 0; i < 10; i++) {
+                RequestData data = mapped.init(new RequestData());
+                data.setPath("/request" + i);
+                data.setStartTime(new Date());
+                data.setService(i % 2 == 0 ? "WMS" : "WFS");
+                mapped.save(data);
+                last = data.getId();
+            }
+            // updated after being saved, only the last version is kept
+            RequestData updated = mapped.getRequest(last);
+            updated.setPath("/updated");
+            mapped.update(updated);
+            mapped.dispose();
+
+            mapped = new MappedMonitorDAO();
+            mapped.init(config);
+            try {
+                assertEquals(10, mapped.getRequests().size());
+                assertEquals(5, mapped.getCount(new Query().filter("service", "WMS",
+                        Comparison.EQ)));
+                assertEquals("/updated", mapped.getRequest(last).getPath());
+
+                // new requests do not reuse the ids of the stored ones
+                assertTrue(mapped.init(new RequestData()).getId() > last);
+            } finally {
+                mapped.dispose();
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    static class UnserializableError extends RuntimeException {
+        Object source = new Object();
+
+        UnserializableError(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RequestAggregatorTest {
+
+    static MonitorDAO dao;
+
+    @BeforeClass
+    public static void setUpData() throws Exception {
+        dao = new MemoryMonitorDAO();
+        new MonitorTestData(dao).setup();
+    }
+
+    @Test
+    public void testGroupByService() throws Exception {
+        RequestAggregator aggregator = new RequestAggregator(Arrays.asList("service"), 0);
+        dao.getRequests(new Query(), aggregator);
+        List<RequestAggregate> aggregates = aggregator.getAggregates();
+
+        assertEquals(5, aggregates.size());
+        assertAggregate(aggregates.get(0), "bam", 3);
+        assertAggregate(aggregates.get(1), "bar", 2);
+        assertAggregate(aggregates.get(2), "baz", 1);
+        assertAggregate(aggregates.get(3), "foo", 4);
+        // requests without service come last
+        assertAggregate(aggregates.get(4), null, 10);
+    }
+
+    @Test
+    public void testGroupByLayer() throws Exception {
+        RequestAggregator aggregator = new RequestAggregator(Arrays.asList("resource"), 0);
+        dao.getRequests(new Query(), aggregator);
+        List<RequestAggregate> aggregates = aggregator.getAggregates();
+
+        // requests accessing many layers count once for each
+        assertEquals(4, aggregates.size());
+        assertAggregate(aggregates.get(0), "stuff", 5);
+        assertAggregate(aggregates.get(1), "things", 5);
+        assertAggregate(aggregates.get(2), "widgets", 3);
+        assertAggregate(aggregates.get(3), null, 10);
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        RequestAggregator aggregator = new RequestAggregator(
+                Collections.<String> emptyList(), 3600 * 1000);
+        dao.getRequests(new Query(), aggregator);
+
+        long total = 0;
+        for (RequestAggregate aggregate : aggregator.getAggregates()) {
+            assertEquals(0, aggregate.getInterval().getTime() % (3600 * 1000));
+            assertEquals(aggregate.getCount() / 3600d, aggregate.getRate(), 1e-9);
+            total += aggregate.getCount();
+        }
+        assertEquals(20, total);
+    }
+
+    @Test
+    public void testInvalidProperty() throws Exception {
+        try {
+            new RequestAggregator(Arrays.asList("notThere"), 0);
+            fail("Should have failed on an unknown property");
+        } catch (IllegalArgumentException e) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1000; i > 0; i--) {
+            histogram.add(i);
+        }
+        assertEquals(1, histogram.min);
+        assertEquals(1000, histogram.max);
+        assertEquals(500.5, histogram.mean(), 1e-9);
+        assertEquals(500, histogram.percentile(0.5), 500 * 0.03);
+        assertEquals(900, histogram.percentile(0.9), 900 * 0.03);
+        assertEquals(990, histogram.percentile(0.99), 990 * 0.03);
+    }
+
+    void assertAggregate(RequestAggregate aggregate, String service, long count) {
+        String value = aggregate.getGroup().values().iterator().next();
+        if (service == null) {
+            assertNull(value);
+        } else {
+            assertEquals(service, value);
+        }
+        assertEquals(count, aggregate.getCount());
+    }
+}
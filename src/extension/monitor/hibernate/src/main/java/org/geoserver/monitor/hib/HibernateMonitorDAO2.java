@@ -6,17 +6,21 @@ package org.geoserver.monitor.hib;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
 
+import org.geoserver.monitor.BatchingRequestWriter;
+import org.geoserver.monitor.BatchingRequestWriter.Overflow;
 import org.geoserver.monitor.CompositeFilter;
 import org.geoserver.monitor.Filter;
 import org.geoserver.monitor.FilterVisitorSupport;
 import org.geoserver.monitor.MonitorConfig;
 import org.geoserver.monitor.MonitorConfig.Mode;
 import org.geoserver.monitor.MonitorDAO;
-import org.geoserver.monitor.PipeliningTaskQueue;
 import org.geoserver.monitor.Query;
 import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
@@ -37,7 +41,14 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
     }
 
     HibernateTemplate hib;
-    PipeliningTaskQueue<Thread> tasks;
+    BatchingRequestWriter writer;
+
+    /**
+     * The live request each queued copy was taken from, weakly keyed so that copies replaced in
+     * the queue go away on their own
+     */
+    Map<RequestData, RequestData> originals =
+        Collections.synchronizedMap(new WeakHashMap<RequestData, RequestData>());
 
     Mode mode = Mode.HISTORY;
     Sync sync = Sync.ASYNC;
@@ -55,6 +66,32 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
     public void init(MonitorConfig config) {
         setMode(config.getMode());
         setSync(getSync(config));
+        if (writer != null) {
+            configure(writer, config);
+        }
+    }
+
+    void configure(BatchingRequestWriter writer, MonitorConfig config) {
+        Integer batchSize = config.getProperty("hibernate", "batchSize", Integer.class);
+        if (batchSize != null) {
+            writer.setBatchSize(batchSize);
+        }
+        Long flushInterval = config.getProperty("hibernate", "flushInterval", Long.class);
+        if (flushInterval != null) {
+            writer.setFlushInterval(flushInterval);
+        }
+        Integer maxQueued = config.getProperty("hibernate", "maxQueued", Integer.class);
+        if (maxQueued != null) {
+            writer.setMaxQueued(maxQueued);
+        }
+        String overflow = config.getProperty("hibernate", "overflow", String.class);
+        if (overflow != null) {
+            writer.setOverflow(Overflow.valueOf(overflow.toUpperCase()));
+        }
+        Long maxWait = config.getProperty("hibernate", "maxWait", Long.class);
+        if (maxWait != null) {
+            writer.setMaxWait(maxWait);
+        }
     }
 
     public Sync getSync(MonitorConfig config) {
@@ -64,13 +101,13 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
     public void setSync(Sync sync) {
         this.sync = sync;
         if (sync != Sync.SYNC) {
-            if (tasks == null) {
-                tasks = new PipeliningTaskQueue<Thread>();
-                tasks.start();
+            if (writer == null) {
+                writer = new BatchingRequestWriter(new BatchStorage());
+                writer.start();
             }
         }
         else {
-            if (tasks != null) {
+            if (writer != null) {
                 dispose();
             }
         }
@@ -87,6 +124,13 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
     public SessionFactory getSessionFactory() {
         return hib.getSessionFactory();
     }
+
+    /**
+     * The writer batching the asynchronous writes, or {@code null} in synchronous mode
+     */
+    public BatchingRequestWriter getWriter() {
+        return writer;
+    }
     
     public RequestData init(final RequestData data) {
         if (mode != Mode.HISTORY) {
@@ -133,9 +177,9 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
     }
 
     public void dispose() {
-        if (tasks != null) {
-            tasks.shutdown();
-            tasks = null;
+        if (writer != null) {
+            writer.shutdown(10000);
+            writer = null;
         }
     }
 
@@ -573,28 +617,79 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
 //    }
     
     protected void run(Task task) {
-        if (tasks != null) {
-            tasks.execute(Thread.currentThread(), new Async(task), task.desc);
+        if (writer != null) {
+            // inserts and updates both write the latest state of the request, queued ones
+            // get coalesced. The request threads keep changing the request, queue a snapshot
+            RequestData copy = task.data.clone();
+            copy.internalid = task.data.internalid;
+            originals.put(copy, task.data);
+            writer.write(copy);
         }
         else {
             task.run();
         }
     }
 
-    class Async implements Runnable {
+    /**
+     * Writes a batch of request copies in a single transaction, letting the JDBC driver batch the
+     * statements, and hands the generated ids back to the live requests.
+     * <p>
+     * Inserts are batched only when the id generator allows it, with the default
+     * <code>native</code> generator that means databases using sequences (PostgreSQL, Oracle, H2).
+     * On databases using identity columns (MySQL, SQL Server) Hibernate has to run each insert on
+     * its own to read back the id, only the updates get batched there.
+     * </p>
+     */
+    class BatchStorage implements BatchingRequestWriter.Storage {
 
-        Task task;
-        
-        Async(Task task) {
-            this.task = task;
-        }
-        
-        public void run() {
-            synchronized(task.data) {
-                task.run();
+        public void write(final List<RequestData> requests) throws Exception {
+            final long[] ids = new long[requests.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = requests.get(i).getId();
+            }
+            try {
+                hib.execute(new HibernateCallback() {
+                    public Object doInHibernate(Session session) throws HibernateException,
+                            SQLException {
+                        Transaction tx = session.beginTransaction();
+                        try {
+                            for (RequestData data : requests) {
+                                if (data.getId() == -1) {
+                                    // an earlier copy might have been inserted after this one
+                                    // was taken
+                                    RequestData original = originals.get(data);
+                                    if (original != null) {
+                                        data.setId(original.getId());
+                                    }
+                                }
+                                if (data.getId() == -1) {
+                                    data.setId((Long) session.save(data));
+                                } else {
+                                    session.update(data);
+                                }
+                            }
+                            tx.commit();
+                        } catch (HibernateException e) {
+                            tx.rollback();
+                            throw e;
+                        }
+                        return null;
+                    }
+                });
+            } catch (RuntimeException e) {
+                // the ids assigned by the rolled back inserts are not valid
+                for (int i = 0; i < ids.length; i++) {
+                    requests.get(i).setId(ids[i]);
+                }
+                throw e;
+            }
+            for (RequestData data : requests) {
+                RequestData original = originals.remove(data);
+                if (original != null) {
+                    original.setId(data.getId());
+                }
             }
         }
-        
     }
     
     static abstract class Task implements Runnable {
@@ -659,16 +754,10 @@ public class HibernateMonitorDAO2 implements MonitorDAO {
             hib.execute(new HibernateCallback() {
                 public Object doInHibernate(Session session) throws HibernateException,
                         SQLException {
-                    try {
-                        Transaction tx = session.beginTransaction();
-                        //mergeLayers(data, session);
-                        session.update(data);
-                        tx.commit();
-                    }
-                    catch(HibernateException e) {
-                        if (tasks != null) tasks.print();
-                        throw e;
-                    }
+                    Transaction tx = session.beginTransaction();
+                    //mergeLayers(data, session);
+                    session.update(data);
+                    tx.commit();
                     return null;
                 }
             });
@@ -5,8 +5,10 @@
 package org.geoserver.monitor.hib;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 import static org.geoserver.monitor.MonitorTestData.assertCovered;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -22,11 +24,15 @@ import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
 import org.geoserver.monitor.hib.HibernateMonitorDAO2.Sync;
 import org.h2.tools.DeleteDbFiles;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.web.context.support.XmlWebApplicationContext;
 
 public class HibernateMonitorDAO2Test extends MonitorDAOTestSupport {
@@ -210,6 +216,50 @@ public class HibernateMonitorDAO2Test extends MonitorDAOTestSupport {
         assertCovered(datas, 4, 11);
     }
     
+    @Test
+    public void testAsyncWritesSnapshot() throws Exception {
+        HibernateMonitorDAO2 async = new HibernateMonitorDAO2();
+        async.setSessionFactory(((HibernateMonitorDAO2) dao).getSessionFactory());
+        async.setMode(Mode.HYBRID);
+        final RequestData data = new RequestData();
+        try {
+            data.setPath("/async");
+            async.add(data);
+            // changes made after queueing are not written until queued again
+            data.setPath("/async_changed");
+            for (int i = 0; i < 100 && async.getWriter().getWritten() < 1; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(1, async.getWriter().getWritten());
+            assertTrue(data.getId() != -1);
+            assertEquals(1, dao.getRequests(new Query().filter("path", "/async", Comparison.EQ))
+                    .size());
+
+            // the id came back, the next write updates the same row
+            async.save(data);
+            async.dispose();
+            assertEquals(0, dao.getRequests(new Query().filter("path", "/async", Comparison.EQ))
+                    .size());
+            List<RequestData> datas = dao.getRequests(new Query().filter("path",
+                    "/async_changed", Comparison.EQ));
+            assertEquals(1, datas.size());
+            assertEquals(data.getId(), datas.get(0).getId());
+        } finally {
+            async.dispose();
+            if (data.getId() != -1) {
+                ((HibernateMonitorDAO2) dao).hib.execute(new HibernateCallback() {
+                    public Object doInHibernate(Session session) throws HibernateException,
+                            SQLException {
+                        Transaction tx = session.beginTransaction();
+                        session.delete(session.load(RequestData.class, data.getId()));
+                        tx.commit();
+                        return null;
+                    }
+                });
+            }
+        }
+    }
+
 //    @Test
 //    public void testFoo() throws Exception {
 //        SessionFactory sessionFactory = ((HibernateMonitorDAO2)dao).getSessionFactory();
@@ -15,6 +15,7 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -22,6 +23,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,10 +52,16 @@ import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Response;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetMap;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.GetMapKvpRequestReader;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.geometry.jts.JTS;
@@ -114,6 +123,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.densify.Densifier;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -142,6 +152,22 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
 
     static final Logger log = Logging.getLogger(GWC.class);
 
+    /**
+     * Max number of tile ranges truncated per zoom level and grid set after a transaction, past it
+     * the ranges are clustered into this many disjoint ranges
+     */
+    static final int MAX_LEVEL_RANGES = 16;
+
+    /**
+     * Max number of sort and sweep passes used to merge the tile ranges of a zoom level
+     */
+    static final int MAX_MERGE_PASSES = 4;
+
+    /**
+     * Max number of seed tasks dispatched to reseed the tiles truncated after a transaction
+     */
+    static final int MAX_RESEED_TASKS = 64;
+
     /**
      * @see #getResponseEncoder(MimeType, RenderedImageMap)
      */
@@ -172,6 +198,14 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
     private DefaultStorageFinder storageFinder;
 
     private ApplicationContext applicationContext;
+
+    /**
+     * Truncates, and optionally seeds again, the tiles touched by transactions, one transaction at
+     * a time
+     */
+    private final ExecutorService dirtyTilesExecutor = Executors
+            .newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("GWC dirty tiles truncator %d").build());
     
     public GWC(final GWCConfigPersister gwcConfigPersister, final StorageBroker sb,
             final TileLayerDispatcher tld, final GridSetBroker gridSetBroker,
@@ -263,6 +297,8 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         if (this.catalogStyleChangeListener != null) {
             catalog.removeListener(this.catalogStyleChangeListener);
         }
+        dirtyTilesExecutor.shutdown();
+        GeoServerTileLayer.shutdownEncodingPool();
         GWC.set(null);
     }
 
@@ -402,17 +438,8 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         checkNotNull(layerName, "layerName can't be null");
 
         final TileLayer layer = getTileLayerByName(layerName);
-        final Set<String> styleNames;
         final Set<String> gridSetIds;
         final List<MimeType> mimeTypes;
-        if (styleName == null) {
-            styleNames = getCachedStyles(layerName);
-            if (styleNames.size() == 0) {
-                styleNames.add("");
-            }
-        } else {
-            styleNames = Collections.singleton(styleName);
-        }
         if (gridSetName == null) {
             gridSetIds = layer.getGridSubsets();
         } else {
@@ -428,7 +455,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
             }
         }
 
-        final String defaultStyle = layer.getStyles();
+        final List<Map<String, String>> styleParameters = getStyleParameters(layer, styleName);
 
         for (String gridSetId : gridSetIds) {
             GridSubset gridSubset = layer.getGridSubset(gridSetId);
@@ -438,15 +465,7 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
                 GridSet gridSet = gridSetBroker.get(gridSetId);
                 gridSubset = GridSubsetFactory.createGridSubSet(gridSet);
             }
-            for (String style : styleNames) {
-                Map<String, String> parameters;
-                if (style.length() == 0 || style.equals(defaultStyle)) {
-                    log.finer("'" + style + "' is the layer's default style, "
-                            + "not adding a parameter filter");
-                    parameters = null;
-                } else {
-                    parameters = Collections.singletonMap("STYLES", style);
-                }
+            for (Map<String, String> parameters : styleParameters) {
                 for (MimeType mime : mimeTypes) {
                     String formatName = mime.getFormat();
                     truncate(layer, bounds, gridSubset, formatName, parameters);
@@ -455,6 +474,346 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         }
     }
 
+    /**
+     * Returns the tile parameters identifying the cached tiles of the given style, or of all the
+     * cached styles if {@code styleName} is {@code null}
+     */
+    private List<Map<String, String>> getStyleParameters(final TileLayer layer,
+            final String styleName) {
+        final Set<String> styleNames;
+        if (styleName == null) {
+            styleNames = getCachedStyles(layer.getName());
+            if (styleNames.size() == 0) {
+                styleNames.add("");
+            }
+        } else {
+            styleNames = Collections.singleton(styleName);
+        }
+
+        final String defaultStyle = layer.getStyles();
+        List<Map<String, String>> result = new ArrayList<Map<String, String>>();
+        for (String style : styleNames) {
+            if (style.length() == 0 || style.equals(defaultStyle)) {
+                log.finer("'" + style + "' is the layer's default style, "
+                        + "not adding a parameter filter");
+                result.add(null);
+            } else {
+                result.add(Collections.singletonMap("STYLES", style));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Truncates the tiles of the layer touched by the given areas, for all of its grid sets, styles
+     * and formats.
+     * <p>
+     * Rather than truncating the box enclosing all the areas, the tiles touched by each area are
+     * computed at every zoom level and merged only where their union is still a rectangle, so that
+     * scattered edits remove just the tiles they touch. Levels touched in more than
+     * {@link #MAX_LEVEL_RANGES} places are truncated over as many disjoint ranges, clustering the
+     * nearby ones so that few untouched tiles are removed along with them. The
+     * tiles are removed in background and, if {@link GWCConfig#isReseedTruncatedTiles()} is
+     * enabled, up to {@link #MAX_RESEED_TASKS} ranges are seeded again right after.
+     * </p>
+     * 
+     * @param layerName the tile layer name
+     * @param areas the affected areas, in any CRS
+     */
+    public void truncate(final String layerName, final List<ReferencedEnvelope> areas)
+            throws GeoWebCacheException {
+
+        final TileLayer tileLayer = tld.getTileLayer(layerName);
+        final List<Map<String, String>> styleParameters = getStyleParameters(tileLayer, null);
+        final List<MimeType> mimeTypes = tileLayer.getMimeTypes();
+
+        final List<TileRange> ranges = new ArrayList<TileRange>();
+        for (String gridSetId : tileLayer.getGridSubsets()) {
+            GridSubset layerGrid = tileLayer.getGridSubset(gridSetId);
+            List<BoundingBox> boxes = new ArrayList<BoundingBox>();
+            for (ReferencedEnvelope area : areas) {
+                BoundingBox intersectingBounds = getIntersectingBounds(layerName, layerGrid, area);
+                if (intersectingBounds != null) {
+                    boxes.add(intersectingBounds);
+                }
+            }
+            if (boxes.isEmpty()) {
+                continue;
+            }
+
+            for (int z = layerGrid.getZoomStart(); z <= layerGrid.getZoomStop(); z++) {
+                List<long[]> levelRanges = new ArrayList<long[]>();
+                for (BoundingBox box : boxes) {
+                    long[] coverage = layerGrid.getCoverageIntersection(z, box);
+                    if (coverage != null) {
+                        levelRanges.add(coverage);
+                    }
+                }
+                for (long[] range : coalesceTileRanges(levelRanges)) {
+                    for (Map<String, String> parameters : styleParameters) {
+                        for (MimeType mime : mimeTypes) {
+                            ranges.add(new TileRange(layerName, gridSetId, z, z,
+                                    new long[][] { range }, mime, parameters));
+                        }
+                    }
+                }
+            }
+        }
+
+        if (ranges.isEmpty()) {
+            return;
+        }
+        final boolean reseed = getConfig().isReseedTruncatedTiles();
+        dirtyTilesExecutor.execute(new Runnable() {
+
+            public void run() {
+                truncateAndReseed(ranges, reseed);
+            }
+        });
+    }
+
+    void truncateAndReseed(final List<TileRange> ranges, final boolean reseed) {
+        for (TileRange range : ranges) {
+            try {
+                storageBroker.delete(range);
+            } catch (StorageException e) {
+                log.log(Level.WARNING, "Error truncating tile range " + range, e);
+            }
+        }
+        if (!reseed) {
+            return;
+        }
+        int tasks = 0;
+        for (TileRange range : ranges) {
+            if (tasks++ >= MAX_RESEED_TASKS) {
+                log.info("Reseeded " + MAX_RESEED_TASKS + " of the " + ranges.size()
+                        + " truncated tile ranges, the others will be rendered on demand");
+                break;
+            }
+            try {
+                final int threadCount = 1;
+                final boolean filterUpdate = false;
+                GWCTask[] tasks = tileBreeder.createTasks(range, SEED, threadCount, filterUpdate);
+                tileBreeder.dispatchTasks(tasks);
+            } catch (GeoWebCacheException e) {
+                log.log(Level.WARNING, "Error seeding tile range " + range, e);
+            }
+        }
+    }
+
+    /**
+     * Merges the tile ranges of a zoom level with {@link #mergeTileRanges(List)}, clustering them
+     * into at most {@link #MAX_LEVEL_RANGES} disjoint ranges if there are still too many of them.
+     * <p>
+     * The clusters start from the range enclosing all the others and are split in halves, the one
+     * covering the most untouched tiles first, until the budget is used or no untouched tile is
+     * left. Ranges crossing a split are cut, so the clusters never overlap.
+     * </p>
+     */
+    static List<long[]> coalesceTileRanges(final List<long[]> ranges) {
+        List<long[]> merged = mergeTileRanges(ranges);
+        if (merged.size() <= MAX_LEVEL_RANGES) {
+            return merged;
+        }
+
+        List<TileCluster> clusters = new ArrayList<TileCluster>();
+        clusters.add(new TileCluster(merged));
+        while (clusters.size() < MAX_LEVEL_RANGES) {
+            TileCluster worst = null;
+            for (TileCluster cluster : clusters) {
+                if (cluster.waste > 0 && (worst == null || cluster.waste > worst.waste)) {
+                    worst = cluster;
+                }
+            }
+            if (worst == null) {
+                break;
+            }
+            clusters.remove(worst);
+            clusters.addAll(worst.split());
+        }
+
+        List<long[]> result = new ArrayList<long[]>(clusters.size());
+        for (TileCluster cluster : clusters) {
+            result.add(cluster.bounds);
+        }
+        return result;
+    }
+
+    /**
+     * A set of tile ranges truncated over the range enclosing them
+     */
+    static class TileCluster {
+
+        final List<long[]> ranges;
+
+        final long[] bounds;
+
+        /**
+         * Number of tiles in the bounds not covered by any range, approximate if ranges overlap
+         */
+        final long waste;
+
+        TileCluster(List<long[]> ranges) {
+            this.ranges = ranges;
+            long[] first = ranges.get(0);
+            bounds = new long[] { first[0], first[1], first[2], first[3], first[4] };
+            long covered = 0;
+            for (long[] range : ranges) {
+                bounds[0] = Math.min(bounds[0], range[0]);
+                bounds[1] = Math.min(bounds[1], range[1]);
+                bounds[2] = Math.max(bounds[2], range[2]);
+                bounds[3] = Math.max(bounds[3], range[3]);
+                covered += tiles(range);
+            }
+            waste = Math.max(0, tiles(bounds) - covered);
+        }
+
+        /**
+         * Splits the cluster in halves along its longest side, cutting the ranges crossing it
+         */
+        List<TileCluster> split() {
+            boolean alongX = bounds[2] - bounds[0] >= bounds[3] - bounds[1];
+            int min = alongX ? 0 : 1;
+            int max = alongX ? 2 : 3;
+            long middle = bounds[min] + (bounds[max] - bounds[min]) / 2;
+
+            List<long[]> low = new ArrayList<long[]>();
+            List<long[]> high = new ArrayList<long[]>();
+            for (long[] range : ranges) {
+                if (range[max] <= middle) {
+                    low.add(range);
+                } else if (range[min] > middle) {
+                    high.add(range);
+                } else {
+                    long[] lowPart = range.clone();
+                    lowPart[max] = middle;
+                    low.add(lowPart);
+                    long[] highPart = range.clone();
+                    highPart[min] = middle + 1;
+                    high.add(highPart);
+                }
+            }
+
+            List<TileCluster> halves = new ArrayList<TileCluster>(2);
+            if (!low.isEmpty()) {
+                halves.add(new TileCluster(low));
+            }
+            if (!high.isEmpty()) {
+                halves.add(new TileCluster(high));
+            }
+            return halves;
+        }
+
+        static long tiles(long[] range) {
+            return (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+        }
+    }
+
+    /**
+     * Merges the tile ranges, expressed as {@code minx, miny, maxx, maxy, z}, whose union is a
+     * rectangle, so that the result covers exactly the same tiles as the original ranges.
+     * <p>
+     * Each pass sorts the ranges and sweeps them once to drop the contained ones, then merges the
+     * ranges sharing the same columns and the ones sharing the same rows. Passes are repeated,
+     * since merged ranges might line up with others, at most {@link #MAX_MERGE_PASSES} times.
+     * </p>
+     */
+    static List<long[]> mergeTileRanges(final List<long[]> ranges) {
+        List<long[]> result = new ArrayList<long[]>(ranges);
+        for (int pass = 0; pass < MAX_MERGE_PASSES && result.size() > 1; pass++) {
+            int size = result.size();
+            result = removeContained(result);
+            result = mergeAdjacent(result, 0, 1);
+            result = mergeAdjacent(result, 1, 0);
+            if (result.size() == size) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sweeps the ranges by column, checking each against the ones it overlaps in columns
+     */
+    private static List<long[]> removeContained(final List<long[]> ranges) {
+        List<long[]> sorted = new ArrayList<long[]>(ranges);
+        Collections.sort(sorted, new Comparator<long[]>() {
+            public int compare(long[] r1, long[] r2) {
+                // the wider ranges first, so they are met before the ones they contain
+                int c = compare(r1[0], r2[0]);
+                return c != 0 ? c : compare(r2[2], r1[2]);
+            }
+
+            int compare(long l1, long l2) {
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+
+        List<long[]> result = new ArrayList<long[]>(sorted.size());
+        List<long[]> active = new ArrayList<long[]>();
+        for (long[] range : sorted) {
+            boolean contained = false;
+            for (Iterator<long[]> it = active.iterator(); it.hasNext();) {
+                long[] other = it.next();
+                if (other[2] < range[0]) {
+                    // ends before the current column, and before all the following ones
+                    it.remove();
+                } else if (other[2] >= range[2] && other[1] <= range[1] && other[3] >= range[3]) {
+                    contained = true;
+                    break;
+                }
+            }
+            if (!contained) {
+                active.add(range);
+                result.add(range);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges the ranges spanning the same interval on one axis and overlapping or adjacent on the
+     * other one, sorting them so that the mergeable ranges follow each other
+     * 
+     * @param same index of the minimum on the axis the merged ranges share
+     * @param along index of the minimum on the axis the ranges are merged along
+     */
+    private static List<long[]> mergeAdjacent(final List<long[]> ranges, final int same,
+            final int along) {
+        List<long[]> sorted = new ArrayList<long[]>(ranges);
+        Collections.sort(sorted, new Comparator<long[]>() {
+            public int compare(long[] r1, long[] r2) {
+                int c = compare(r1[same], r2[same]);
+                if (c == 0) {
+                    c = compare(r1[same + 2], r2[same + 2]);
+                }
+                return c != 0 ? c : compare(r1[along], r2[along]);
+            }
+
+            int compare(long l1, long l2) {
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+
+        List<long[]> result = new ArrayList<long[]>(sorted.size());
+        long[] current = null;
+        for (long[] range : sorted) {
+            if (current != null && current[same] == range[same]
+                    && current[same + 2] == range[same + 2]
+                    && range[along] <= current[along + 2] + 1) {
+                if (range[along + 2] > current[along + 2]) {
+                    current = current.clone();
+                    current[along + 2] = range[along + 2];
+                    result.set(result.size() - 1, current);
+                }
+            } else {
+                current = range;
+                result.add(current);
+            }
+        }
+        return result;
+    }
+
     private void truncate(final TileLayer layer, final BoundingBox bounds,
             final GridSubset gridSubset, String formatName, Map<String, String> parameters) {
         final int threadCount = 1;
@@ -1123,6 +1482,41 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return new ByteArrayResource(resp.getBytes());
     }
 
+    /**
+     * Runs a WMS GetMap request in process, without going through the OWS {@link Dispatcher}.
+     * <p>
+     * The request is parsed by the {@link GetMapKvpRequestReader}, so it gets the same defaults
+     * as a dispatched one, and its layers are looked up in the secured catalog on behalf of the
+     * authentication of the current thread.
+     * </p>
+     * 
+     * @param params the KVP map of GetMap parameters
+     * @return the map produced by the WMS GetMap operation
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public WebMap renderGetMap(final Map<String, String> params) throws Exception {
+        GetMapKvpRequestReader reader = GeoServerExtensions.bean(GetMapKvpRequestReader.class);
+        GetMap getMap = GeoServerExtensions.bean(GetMap.class);
+        if (reader == null || getMap == null) {
+            throw new IllegalStateException("No GetMap operation or request reader found by "
+                    + "GeoServerExtensions");
+        }
+
+        Map rawKvp = new KvpMap(params);
+        Map kvp = new KvpMap(params);
+        List<Throwable> errors = KvpUtils.parse(kvp);
+        if (!errors.isEmpty()) {
+            Throwable error = errors.get(0);
+            throw error instanceof Exception ? (Exception) error : new ServiceException(error);
+        }
+
+        // the reader shares its http request among threads, don't let it copy its headers
+        GetMapRequest request = new GetMapRequest();
+        request.setGet(true);
+        request = reader.read(request, kvp, rawKvp);
+        return getMap.run(request);
+    }
+
     public GridSetBroker getGridSetBroker() {
         return gridSetBroker;
     }
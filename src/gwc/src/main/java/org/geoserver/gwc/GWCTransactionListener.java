@@ -7,6 +7,7 @@ package org.geoserver.gwc;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +29,7 @@ import org.geoserver.wfs.TransactionEventType;
 import org.geoserver.wfs.TransactionPlugin;
 import org.geoserver.wfs.WFSException;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheException;
@@ -59,6 +61,12 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
+    /**
+     * Maximum number of separate regions truncated for a layer, above it the enclosing envelope is
+     * truncated instead
+     */
+    static final int MAX_DIRTY_REGIONS = 1000;
+
     /**
      * @param gwc
      */
@@ -114,38 +122,47 @@ public class GWCTransactionListener implements TransactionPlugin {
         }
         for (String tileLayerName : byLayerDirtyRegions.keySet()) {
             List<ReferencedEnvelope> dirtyList = byLayerDirtyRegions.get(tileLayerName);
-            ReferencedEnvelope dirtyRegion;
+            List<ReferencedEnvelope> dirtyRegions;
             try {
-                dirtyRegion = merge(tileLayerName, dirtyList);
+                dirtyRegions = transform(tileLayerName, dirtyList);
             } catch (Exception e) {
                 log.log(Level.WARNING, e.getMessage(), e);
                 continue;
             }
-            if (dirtyRegion == null) {
+            if (dirtyRegions.isEmpty()) {
                 continue;
             }
             try {
-                gwc.truncate(tileLayerName, dirtyRegion);
+                gwc.truncate(tileLayerName, dirtyRegions);
             } catch (GeoWebCacheException e) {
                 log.warning("Error truncating tile layer " + tileLayerName
-                        + " for transaction affected bounds " + dirtyRegion);
+                        + " for transaction affected regions " + dirtyRegions);
             }
         }
     }
 
-    private ReferencedEnvelope merge(final String tileLayerName,
+    /**
+     * Transforms the dirty regions to the layer's declared CRS, collapsing them into their
+     * enclosing envelope if there are too many of them to be worth truncating one by one
+     */
+    private List<ReferencedEnvelope> transform(final String tileLayerName,
             final List<ReferencedEnvelope> dirtyList) throws TransformException, FactoryException {
+        List<ReferencedEnvelope> transformed = new ArrayList<ReferencedEnvelope>(dirtyList.size());
         if (dirtyList.size() == 0) {
-            return null;
+            return transformed;
         }
 
         final CoordinateReferenceSystem declaredCrs = gwc.getDeclaredCrs(tileLayerName);
         ReferencedEnvelope merged = new ReferencedEnvelope(declaredCrs);
         for (ReferencedEnvelope env : dirtyList) {
             ReferencedEnvelope transformedDirtyRegion = env.transform(declaredCrs, true, 1000);
+            transformed.add(transformedDirtyRegion);
             merged.expandToInclude(transformedDirtyRegion);
         }
-        return merged;
+        if (transformed.size() > MAX_DIRTY_REGIONS) {
+            return Collections.singletonList(merged);
+        }
+        return transformed;
     }
 
     /**
@@ -193,13 +210,39 @@ public class GWCTransactionListener implements TransactionPlugin {
         }
 
         final SimpleFeatureCollection affectedFeatures = event.getAffectedFeatures();
-        final ReferencedEnvelope affectedBounds = affectedFeatures.getBounds();
+        final List<ReferencedEnvelope> affectedRegions = getAffectedRegions(affectedFeatures);
 
         final TransactionType transaction = event.getRequest();
 
         for (String tileLayerName : affectedTileLayers) {
-            addLayerDirtyRegion(transaction, tileLayerName, affectedBounds);
+            addLayerDirtyRegions(transaction, tileLayerName, affectedRegions);
+        }
+    }
+
+    /**
+     * Returns the bounds of each affected feature, so that features scattered over the layer do
+     * not end up truncating everything in between, or just the bounds of the whole collection if
+     * too many features are involved
+     */
+    private List<ReferencedEnvelope> getAffectedRegions(
+            final SimpleFeatureCollection affectedFeatures) {
+        List<ReferencedEnvelope> regions = new ArrayList<ReferencedEnvelope>();
+        SimpleFeatureIterator features = affectedFeatures.features();
+        try {
+            while (features.hasNext()) {
+                if (regions.size() == MAX_DIRTY_REGIONS) {
+                    return Collections.singletonList(affectedFeatures.getBounds());
+                }
+                ReferencedEnvelope bounds = ReferencedEnvelope
+                        .reference(features.next().getBounds());
+                if (bounds != null && !bounds.isEmpty()) {
+                    regions.add(bounds);
+                }
+            }
+        } finally {
+            features.close();
         }
+        return regions;
     }
 
     @SuppressWarnings("unchecked")
@@ -217,16 +260,16 @@ public class GWCTransactionListener implements TransactionPlugin {
         return byLayerDirtyRegions;
     }
 
-    private void addLayerDirtyRegion(final TransactionType transaction, final String tileLayerName,
-            final ReferencedEnvelope affectedBounds) {
+    private void addLayerDirtyRegions(final TransactionType transaction,
+            final String tileLayerName, final List<ReferencedEnvelope> affectedRegions) {
 
         Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions = getByLayerDirtyRegions(transaction);
 
         List<ReferencedEnvelope> layerDirtyRegion = byLayerDirtyRegions.get(tileLayerName);
         if (layerDirtyRegion == null) {
-            layerDirtyRegion = new ArrayList<ReferencedEnvelope>(2);
+            layerDirtyRegion = new ArrayList<ReferencedEnvelope>(affectedRegions.size());
             byLayerDirtyRegions.put(tileLayerName, layerDirtyRegion);
         }
-        layerDirtyRegion.add(affectedBounds);
+        layerDirtyRegion.addAll(affectedRegions);
     }
 }
@@ -29,6 +29,19 @@ public class GWCConfig implements Cloneable, Serializable {
 
     private boolean TMSEnabled;
 
+    /**
+     * Whether meta tiles are rendered calling the WMS GetMap operation directly, instead of going
+     * through the OWS dispatcher. Faster, but bypasses the dispatcher callbacks, such as the
+     * control-flow and monitoring ones
+     */
+    private boolean directRenderingEnabled;
+
+    /**
+     * Whether the tiles truncated after a transaction should be seeded again right away, instead
+     * of being rendered again when first requested
+     */
+    private boolean reseedTruncatedTiles;
+
     /**
      * Whether to automatically cache GeoServer layers or they should be enabled explicitly
      */
@@ -131,6 +144,22 @@ public class GWCConfig implements Cloneable, Serializable {
         this.directWMSIntegrationEnabled = directWMSIntegrationEnabled;
     }
 
+    public boolean isDirectRenderingEnabled() {
+        return directRenderingEnabled;
+    }
+
+    public void setDirectRenderingEnabled(boolean directRenderingEnabled) {
+        this.directRenderingEnabled = directRenderingEnabled;
+    }
+
+    public boolean isReseedTruncatedTiles() {
+        return reseedTruncatedTiles;
+    }
+
+    public void setReseedTruncatedTiles(boolean reseedTruncatedTiles) {
+        this.reseedTruncatedTiles = reseedTruncatedTiles;
+    }
+
     public boolean isWMSCEnabled() {
         return WMSCEnabled;
     }
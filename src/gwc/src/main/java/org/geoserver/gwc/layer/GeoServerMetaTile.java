@@ -179,8 +179,16 @@ public class GeoServerMetaTile extends MetaTile {
         return tile;
     }
 
+    /**
+     * Synchronized, as the tiles of a meta tile can be encoded by multiple threads at the same time
+     */
+    @Override
+    protected synchronized void disposeLater(RenderedImage disposableImage) {
+        super.disposeLater(disposableImage);
+    }
+
     @Override
-    public void dispose() {
+    public synchronized void dispose() {
         if (metaTileMap != null) {
             metaTileMap.dispose();
             metaTileMap = null;
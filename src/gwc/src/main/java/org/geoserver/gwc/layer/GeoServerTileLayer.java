@@ -18,6 +18,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,6 +61,7 @@ import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.grid.OutsideCoverageException;
 import org.geowebcache.grid.SRS;
+import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.layer.LayerListenerList;
 import org.geowebcache.layer.MetaTile;
@@ -65,10 +75,13 @@ import org.geowebcache.locks.LockProvider.Lock;
 import org.geowebcache.mime.FormatModifier;
 import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
 import org.geowebcache.util.GWCVars;
 import org.geowebcache.util.ServletUtils;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -82,6 +95,41 @@ public class GeoServerTileLayer extends TileLayer {
 
     public static final ThreadLocal<WebMap> WEB_MAP = new ThreadLocal<WebMap>();
 
+    /**
+     * Bounded pool encoding the tiles of a meta tile in parallel. When the queue is full, or the
+     * pool has been shut down, the encoding happens on the thread that rendered the meta tile
+     */
+    private static final ExecutorService ENCODING_POOL;
+    static {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ENCODING_POOL = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(16 * threads), new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("GWC tile encoder %d").build(),
+                new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // unlike CallerRunsPolicy, run it even after shutdown, the meta tile
+                        // completion depends on it
+                        r.run();
+                    }
+                });
+    }
+
+    /**
+     * Maximum time, in seconds, a request waits for the tiles of a meta tile being stored by
+     * another request
+     */
+    private static final int STORING_TIMEOUT = 60;
+
+    /**
+     * The meta tiles whose tiles are still being encoded and stored, by lock key. The meta tile
+     * lock is released by the rendering thread as soon as its own tile is ready, the threads
+     * getting the lock afterwards wait here for the other tiles to be stored, rather than missing
+     * them in the cache and rendering the meta tile again. The lock providers are thread bound,
+     * so the lock itself can't be released by the encoder storing the last tile.
+     */
+    private static final ConcurrentMap<String, CountDownLatch> STORING =
+        new ConcurrentHashMap<String, CountDownLatch>();
+
     private final LayerInfo layerInfo;
 
     private final LayerGroupInfo layerGroupInfo;
@@ -480,10 +528,15 @@ public class GeoServerTileLayer extends TileLayer {
 
         final GeoServerMetaTile metaTile = createMetaTile(tile, metaX, metaY);
         Lock lock = null;
+        boolean disposeLater = false;
         try {
             /** ****************** Acquire lock ******************* */
-            lock = GWC.get().getLockProvider().getLock(buildLockKey(tile, metaTile));
-            // got the lock on the meta tile, try again
+            final String lockKey = buildLockKey(tile, metaTile);
+            lock = GWC.get().getLockProvider().getLock(lockKey);
+            // got the lock on the meta tile, try again once its tiles are all stored
+            if (tryCache) {
+                awaitStoring(lockKey);
+            }
             if (tryCache && tryCacheFetch(tile)) {
                 LOGGER.finest("--> " + Thread.currentThread().getName() + " returns cache hit for "
                         + Arrays.toString(metaTile.getMetaGridPos()));
@@ -497,7 +550,9 @@ public class GeoServerTileLayer extends TileLayer {
                     map = dispatchGetMap(tile, metaTile);
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
                     metaTile.setWebMap(map);
-                    saveTiles(metaTile, tile, requestTime);
+                    // from now on the meta tile is disposed once all its tiles are saved
+                    disposeLater = true;
+                    saveTilesParallel(metaTile, tile, requestTime, lockKey);
                 } catch (Exception e) {
                     throw new GeoWebCacheException("Problem communicating with GeoServer", e);
                 } 
@@ -507,13 +562,143 @@ public class GeoServerTileLayer extends TileLayer {
             if(lock != null) {
                 lock.release();
             }
-            metaTile.dispose();
+            if (!disposeLater) {
+                metaTile.dispose();
+            }
         }
 
 
         return finalizeTile(tile);
     }
     
+    private void awaitStoring(String lockKey) {
+        CountDownLatch storing = STORING.get(lockKey);
+        if (storing != null) {
+            try {
+                if (!storing.await(STORING_TIMEOUT, TimeUnit.SECONDS)) {
+                    LOGGER.warning("Timed out waiting for the tiles of " + lockKey
+                            + " to be stored");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Encodes and stores the tiles of the meta tile. The other tiles are handed to the encoding
+     * pool first, then the requested one is encoded on the calling thread and set into
+     * {@code tileProto}, so that it can be returned without waiting for the others. The meta tile
+     * is disposed, and the requests waiting for it in {@link #STORING} released, once all the
+     * tiles are saved.
+     */
+    private void saveTilesParallel(final GeoServerMetaTile metaTile,
+            final ConveyorTile tileProto, final long requestTime, final String lockKey)
+            throws GeoWebCacheException, IOException {
+        final CountDownLatch storing = new CountDownLatch(1);
+        STORING.put(lockKey, storing);
+        final Runnable completion = new Runnable() {
+            public void run() {
+                try {
+                    metaTile.dispose();
+                } finally {
+                    STORING.remove(lockKey, storing);
+                    storing.countDown();
+                }
+            }
+        };
+
+        // whoever completes last, between the calling thread and the encoders, completes the
+        // meta tile
+        final AtomicInteger pending = new AtomicInteger(1);
+        try {
+            saveTilesParallel(metaTile, tileProto, requestTime, pending, completion);
+        } finally {
+            if (pending.decrementAndGet() == 0) {
+                completion.run();
+            }
+        }
+    }
+
+    private void saveTilesParallel(final GeoServerMetaTile metaTile,
+            final ConveyorTile tileProto, final long requestTime, final AtomicInteger pending,
+            final Runnable completion) throws GeoWebCacheException, IOException {
+        final long[][] gridPositions = metaTile.getTilesGridPositions();
+        final long[] gridLoc = tileProto.getTileIndex();
+        final GridSubset gridSubset = getGridSubset(tileProto.getGridSetId());
+        final boolean store = getExpireCache((int) gridLoc[2]) != GWCVars.CACHE_DISABLE_CACHE;
+
+        int requested = -1;
+        List<Integer> others = new ArrayList<Integer>();
+        for (int i = 0; i < gridPositions.length; i++) {
+            if (Arrays.equals(gridLoc, gridPositions[i])) {
+                requested = i;
+            } else if (store && gridSubset.covers(gridPositions[i])) {
+                others.add(i);
+            }
+        }
+
+        for (final Integer i : others) {
+            pending.incrementAndGet();
+            ENCODING_POOL.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        Resource resource = new ByteArrayResource(16 * 1024);
+                        if (metaTile.writeTileToStream(i, resource)) {
+                            storeTile(tileProto, gridPositions[i], resource, requestTime);
+                        }
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to save tile "
+                                + Arrays.toString(gridPositions[i]) + " of layer " + getName(), e);
+                    } finally {
+                        if (pending.decrementAndGet() == 0) {
+                            completion.run();
+                        }
+                    }
+                }
+            });
+        }
+
+        if (requested >= 0 && gridSubset.covers(gridLoc)) {
+            Resource resource = new ByteArrayResource(16 * 1024);
+            if (!metaTile.writeTileToStream(requested, resource)) {
+                LOGGER.severe("metaTile.writeTileToStream returned false, no tiles saved");
+            }
+            if (store) {
+                storeTile(tileProto, gridLoc, resource, requestTime);
+                tileProto.getStorageObject().setCreated(requestTime);
+            }
+            tileProto.setBlob(resource);
+        }
+    }
+
+    /**
+     * Stops the threads encoding the meta tiles, meant to be called when GeoServer shuts down.
+     * Tiles still queued are encoded before the threads exit.
+     */
+    public static void shutdownEncodingPool() {
+        ENCODING_POOL.shutdown();
+    }
+
+    private void storeTile(final ConveyorTile tileProto, final long[] gridPos,
+            final Resource resource, final long requestTime) throws GeoWebCacheException {
+        long[] idx = { gridPos[0], gridPos[1], gridPos[2] };
+        TileObject tile = TileObject.createCompleteTileObject(getName(), idx,
+                tileProto.getGridSetId(), tileProto.getMimeType().getFormat(),
+                tileProto.getParameters(), resource);
+        tile.setCreated(requestTime);
+        try {
+            if (tileProto.isMetaTileCacheOnly()) {
+                tileProto.getStorageBroker().putTransient(tile);
+            } else {
+                tileProto.getStorageBroker().put(tile);
+            }
+        } catch (StorageException e) {
+            throw new GeoWebCacheException(e);
+        }
+    }
+
     private String buildLockKey(ConveyorTile tile, GeoServerMetaTile metaTile) {
         StringBuilder metaKey = new StringBuilder();
         
@@ -545,6 +730,13 @@ public class GeoServerTileLayer extends TileLayer {
 
         Map<String, String> params = buildGetMap(tile, metaTile);
         WebMap map;
+        if (GWC.get().getConfig().isDirectRenderingEnabled()) {
+            map = GWC.get().renderGetMap(params);
+            if (!(map instanceof RenderedImageMap)) {
+                throw new IllegalStateException("Expected: RenderedImageMap, got " + map);
+            }
+            return (RenderedImageMap) map;
+        }
         try {
             HttpServletRequest actualRequest = tile.servletReq;
             Cookie[] cookies = actualRequest == null ? null : actualRequest.getCookies();
@@ -11,6 +11,8 @@ import static org.geoserver.gwc.GWC.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -23,7 +25,12 @@ import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.gwc.layer.CatalogConfiguration;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.AccessMode;
+import org.geoserver.security.impl.DataAccessRule;
+import org.geoserver.security.impl.DataAccessRuleDAO;
 import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.wms.map.RenderedImageMap;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.GeoWebCacheExtensions;
 import org.geowebcache.config.ConfigurationException;
@@ -39,6 +46,7 @@ import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.TileLayerDispatcher;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.mockrunner.mock.web.MockHttpServletResponse;
@@ -215,6 +223,40 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
                         .contains("Could not find layer cdf:BasicPolygons"));
     }
 
+    @Test public void testDirectRenderingSecuredLayer() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("SERVICE", "WMS");
+        params.put("VERSION", "1.1.1");
+        params.put("REQUEST", "GetMap");
+        params.put("LAYERS", getLayerId(BASIC_POLYGONS));
+        params.put("STYLES", "");
+        params.put("SRS", "EPSG:4326");
+        params.put("FORMAT", "image/png");
+        params.put("WIDTH", "256");
+        params.put("HEIGHT", "256");
+        params.put("BBOX", "-180,-90,0,90");
+
+        final GWC gwc = GWC.get();
+        SecurityContextHolder.getContext().setAuthentication(null);
+        assertTrue(gwc.renderGetMap(params) instanceof RenderedImageMap);
+
+        DataAccessRuleDAO dao = DataAccessRuleDAO.get();
+        DataAccessRule rule = new DataAccessRule(BASIC_POLYGONS.getPrefix(),
+                BASIC_POLYGONS.getLocalPart(), AccessMode.READ, "ROLE_SECURED");
+        dao.addRule(rule);
+        dao.storeRules();
+        try {
+            // the layer is hidden to the anonymous user, as it would be going through the dispatcher
+            gwc.renderGetMap(params);
+            fail("The secured layer should not have been rendered");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(BASIC_POLYGONS.getLocalPart()));
+        } finally {
+            dao.removeRule(rule);
+            dao.storeRules();
+        }
+    }
+
     @Test public void testReloadConfiguration() throws Exception {
         String path = "/gwc/rest/reload";
         String content = "reload_configuration=1";
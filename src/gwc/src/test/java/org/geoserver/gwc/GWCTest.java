@@ -26,15 +26,18 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -81,6 +84,7 @@ import org.geowebcache.service.Service;
 import org.geowebcache.storage.DefaultStorageFinder;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileRange;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -642,6 +646,100 @@ public class GWCTest {
         verify(tileBreeder, times(expected)).dispatchTasks(any(GWCTask[].class));
     }
 
+    @Test
+    public void testTruncateByAreas() throws Exception {
+
+        String layerName = tileLayer.getName();
+        // two distant areas inside the layer bounds (which are -180,0,0,90)
+        List<ReferencedEnvelope> areas = Arrays.asList(new ReferencedEnvelope(-170, -169, 10,
+                11, DefaultGeographicCRS.WGS84), new ReferencedEnvelope(-11, -10, 80, 81,
+                DefaultGeographicCRS.WGS84));
+
+        mediator.truncate(layerName, areas);
+
+        // the tiles are removed in background, level by level, and not seeded again by default
+        verify(storageBroker, timeout(2000).atLeast(2)).delete(any(TileRange.class));
+        verify(tileBreeder, never()).dispatchTasks(any(GWCTask[].class));
+    }
+
+    @Test
+    public void testReseedCapped() throws Exception {
+        List<TileRange> ranges = new ArrayList<TileRange>();
+        for (int i = 0; i < GWC.MAX_RESEED_TASKS + 10; i++) {
+            ranges.add(new TileRange(tileLayer.getName(), "EPSG:4326", 5, 5,
+                    new long[][] { { i, 0, i, 0, 5 } }, null, null));
+        }
+
+        mediator.truncateAndReseed(ranges, true);
+
+        verify(storageBroker, times(ranges.size())).delete(any(TileRange.class));
+        verify(tileBreeder, times(GWC.MAX_RESEED_TASKS)).dispatchTasks(any(GWCTask[].class));
+    }
+
+    @Test
+    public void testCoalesceTileRanges() {
+        // few scattered ranges are kept apart
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (int i = 0; i < GWC.MAX_LEVEL_RANGES; i++) {
+            ranges.add(new long[] { i * 2, i * 2, i * 2, i * 2, 5 });
+        }
+        assertEquals(GWC.MAX_LEVEL_RANGES, GWC.coalesceTileRanges(ranges).size());
+
+        // too many, they are clustered in disjoint ranges still covering all of them
+        ranges.add(new long[] { 100, 1, 100, 1, 5 });
+        List<long[]> coalesced = GWC.coalesceTileRanges(ranges);
+        assertEquals(GWC.MAX_LEVEL_RANGES, coalesced.size());
+        Set<String> tiles = new HashSet<String>();
+        long covered = 0;
+        for (long[] range : coalesced) {
+            for (long x = range[0]; x <= range[2]; x++) {
+                for (long y = range[1]; y <= range[3]; y++) {
+                    tiles.add(x + "_" + y);
+                }
+            }
+            covered += (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+        }
+        assertEquals(tiles.size(), covered);
+        for (long[] range : ranges) {
+            assertTrue(tiles.contains(range[0] + "_" + range[1]));
+        }
+        // far less than the 101 x 31 tiles of the range enclosing them all
+        assertTrue(String.valueOf(covered), covered < 101);
+    }
+
+    @Test
+    public void testMergeTileRangesSweep() {
+        // a row of adjacent tiles given in reverse order, and a copy of each
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (int i = 999; i >= 0; i--) {
+            ranges.add(new long[] { i, 3, i, 3, 5 });
+            ranges.add(new long[] { i, 3, i, 3, 5 });
+        }
+        List<long[]> merged = GWC.mergeTileRanges(ranges);
+        assertEquals(1, merged.size());
+        assertTrue(Arrays.equals(new long[] { 0, 3, 999, 3, 5 }, merged.get(0)));
+    }
+
+    @Test
+    public void testMergeTileRanges() {
+        // contained
+        List<long[]> merged = GWC.mergeTileRanges(Arrays.asList(new long[] { 0, 0, 9, 9, 5 },
+                new long[] { 2, 2, 3, 3, 5 }));
+        assertEquals(1, merged.size());
+        assertTrue(Arrays.equals(new long[] { 0, 0, 9, 9, 5 }, merged.get(0)));
+
+        // adjacent rows and columns, the union is a rectangle
+        merged = GWC.mergeTileRanges(Arrays.asList(new long[] { 0, 0, 1, 1, 5 }, new long[] { 2,
+                0, 3, 1, 5 }, new long[] { 0, 2, 3, 2, 5 }));
+        assertEquals(1, merged.size());
+        assertTrue(Arrays.equals(new long[] { 0, 0, 3, 2, 5 }, merged.get(0)));
+
+        // diagonal ranges are kept apart, their enclosing range would cover untouched tiles
+        merged = GWC.mergeTileRanges(Arrays.asList(new long[] { 0, 0, 1, 1, 5 }, new long[] { 5,
+                5, 6, 6, 5 }));
+        assertEquals(2, merged.size());
+    }
+
     @Test
     public void testLayerRemoved() throws Exception {
         mediator.layerRemoved("someLayer");
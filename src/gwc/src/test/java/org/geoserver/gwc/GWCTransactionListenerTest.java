@@ -4,6 +4,7 @@
  */
 package org.geoserver.gwc;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
@@ -17,6 +18,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -30,12 +32,17 @@ import net.opengis.wfs.TransactionType;
 
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionEventType;
-import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Before;
 import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 import com.google.common.collect.ImmutableSet;
+import com.vividsolutions.jts.geom.Polygon;
 
 public class GWCTransactionListenerTest {
 
@@ -155,8 +162,8 @@ public class GWCTransactionListenerTest {
 
         assertNotNull(placeHolder.get("theLayer"));
 
-        assertSame(affectedBounds, placeHolder.get("theLayer").get(0));
-        assertSame(affectedBounds, placeHolder.get("theGroup").get(0));
+        assertEquals(affectedBounds, placeHolder.get("theLayer").get(0));
+        assertEquals(affectedBounds, placeHolder.get("theGroup").get(0));
     }
 
     @Test
@@ -177,11 +184,11 @@ public class GWCTransactionListenerTest {
         when(mediator.getDeclaredCrs(anyString())).thenReturn(WGS84);
         listener.afterTransaction(request, result, true);
 
-        ReferencedEnvelope expectedEnv = new ReferencedEnvelope(affectedBounds1);
-        expectedEnv.expandToInclude(affectedBounds2);
+        // each dirty region is truncated on its own, not their enclosing envelope
+        List<ReferencedEnvelope> expected = Arrays.asList(affectedBounds1, affectedBounds2);
 
-        verify(mediator, times(1)).truncate(eq("theLayer"), eq(expectedEnv));
-        verify(mediator, times(1)).truncate(eq("theGroup"), eq(expectedEnv));
+        verify(mediator, times(1)).truncate(eq("theLayer"), eq(expected));
+        verify(mediator, times(1)).truncate(eq("theGroup"), eq(expected));
 
     }
 
@@ -213,8 +220,14 @@ public class GWCTransactionListenerTest {
 
         ImmutableSet.of("theLayer", "theGroup"));
 
-        SimpleFeatureCollection affectedFeatures = mock(SimpleFeatureCollection.class);
-        when(affectedFeatures.getBounds()).thenReturn(affectedBounds);
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName(layerName.getLocalPart());
+        tb.setCRS(WGS84);
+        tb.add("geom", Polygon.class);
+        SimpleFeatureType featureType = tb.buildFeatureType();
+        ListFeatureCollection affectedFeatures = new ListFeatureCollection(featureType);
+        affectedFeatures.add(SimpleFeatureBuilder.build(featureType,
+                new Object[] { JTS.toGeometry(affectedBounds) }, null));
         when(event.getAffectedFeatures()).thenReturn(affectedFeatures);
 
         listener.dataStoreChange(event);
@@ -18,6 +18,7 @@ import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -163,6 +164,7 @@ public class GeoServerTileLayerTest {
         layerGroup.setLayers(Collections.singletonList((PublishedInfo) layerInfo));
 
         defaults = GWCConfig.getOldDefaults();
+        when(mockGWC.getConfig()).thenReturn(defaults);
 
         catalog = mock(Catalog.class);
         when(catalog.getLayer(eq(layerInfoId))).thenReturn(layerInfo);
@@ -542,6 +544,81 @@ public class GeoServerTileLayerTest {
         verify(mockGWC, times(1)).getResponseEncoder(eq(mimeType), isA(RenderedImageMap.class));
     }
 
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testGetTileSavesMetaTile() throws Exception {
+        Resource mockResult = mock(Resource.class);
+        Mockito.when(mockGWC.dispatchOwsRequest((Map) anyObject(), (Cookie[]) anyObject()))
+                .thenReturn(mockResult);
+
+        BufferedImage image = new BufferedImage(1024, 1024, BufferedImage.TYPE_INT_ARGB);
+        RenderedImageMap fakeDispatchedMap = new RenderedImageMap(new WMSMapContent(), image,
+                "image/png");
+
+        RenderedImageMapResponse fakeResponseEncoder = mock(RenderedImageMapResponse.class);
+        MimeType mimeType = MimeType.createFromFormat("image/png");
+        when(mockGWC.getResponseEncoder(eq(mimeType), (RenderedImageMap) anyObject())).thenReturn(
+                fakeResponseEncoder);
+
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) anyObject())).thenReturn(false);
+
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+
+        long[] tileIndex = { 0, 0, 1 };
+        ConveyorTile tile = new ConveyorTile(storageBroker, layerInfoTileLayer.getName(),
+                "EPSG:4326", tileIndex, mimeType, null, new MockHttpServletRequest(),
+                new MockHttpServletResponse());
+
+        GeoServerTileLayer.WEB_MAP.set(fakeDispatchedMap);
+        ConveyorTile returned = layerInfoTileLayer.getTile(tile);
+        assertNotNull(returned.getBlob());
+        assertEquals(200, returned.getStatus());
+
+        // the requested tile and its neighbour in the layer bounds get stored, the latter in
+        // background
+        verify(storageBroker, timeout(2000).atLeast(2)).put((TileObject) anyObject());
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testGetTileDirectRendering() throws Exception {
+        defaults.setDirectRenderingEnabled(true);
+
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        RenderedImageMap fakeMap = new RenderedImageMap(new WMSMapContent(), image, "image/png");
+        ArgumentCaptor<Map> argument = ArgumentCaptor.forClass(Map.class);
+        when(mockGWC.renderGetMap(argument.capture())).thenReturn(fakeMap);
+
+        RenderedImageMapResponse fakeResponseEncoder = mock(RenderedImageMapResponse.class);
+        MimeType mimeType = MimeType.createFromFormat("image/png");
+        when(mockGWC.getResponseEncoder(eq(mimeType), (RenderedImageMap) anyObject())).thenReturn(
+                fakeResponseEncoder);
+
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) anyObject())).thenReturn(false);
+
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+
+        long[] tileIndex = { 0, 0, 0 };
+        ConveyorTile tile = new ConveyorTile(storageBroker, layerInfoTileLayer.getName(),
+                "EPSG:4326", tileIndex, mimeType, null, new MockHttpServletRequest(),
+                new MockHttpServletResponse());
+
+        ConveyorTile returned = layerInfoTileLayer.getTile(tile);
+        assertNotNull(returned);
+        assertEquals(200, returned.getStatus());
+
+        // the dispatcher has been skipped, the request is parsed from the same parameters
+        verify(mockGWC, times(0)).dispatchOwsRequest((Map) anyObject(), (Cookie[]) anyObject());
+        Map<String, String> params = argument.getValue();
+        assertEquals(layerInfoTileLayer.getName(), params.get("LAYERS"));
+        assertEquals("GetMap", params.get("REQUEST"));
+        assertEquals("EPSG:4326", params.get("SRS"));
+        assertEquals("image/png", params.get("FORMAT"));
+        assertNotNull(params.get("BBOX"));
+    }
+
     @Test
     public void testGetMimeTypes() throws Exception {
 
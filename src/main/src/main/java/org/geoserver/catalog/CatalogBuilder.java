@@ -18,6 +18,7 @@ import javax.media.jai.PlanarImage;
 
 import org.geoserver.catalog.impl.FeatureTypeInfoImpl;
 import org.geoserver.catalog.impl.LayerGroupInfoImpl;
+import org.geoserver.catalog.impl.LazyCatalogFacade;
 import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.impl.ResourceInfoImpl;
 import org.geoserver.catalog.impl.StoreInfoImpl;
@@ -1388,7 +1389,7 @@ public class CatalogBuilder {
      * Reattaches a serialized {@link ResourceInfo} to the catalog
      */
     public void attach(ResourceInfo resourceInfo) {
-        resourceInfo = ModificationProxy.unwrap(resourceInfo);
+        resourceInfo = LazyCatalogFacade.pinned(ModificationProxy.unwrap(resourceInfo));
         ((ResourceInfoImpl) resourceInfo).setCatalog(catalog);
     }
 
@@ -0,0 +1,133 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage counters of one of the {@link ResourcePool} caches.
+ * <p>
+ * Instances returned by {@link ResourcePool#getCacheStatistics()} are snapshots, they are not
+ * updated as the cache is used.
+ * </p>
+ */
+public class ResourceCacheStatistics {
+
+    AtomicLong hits = new AtomicLong();
+
+    AtomicLong misses = new AtomicLong();
+
+    AtomicLong loadFailures = new AtomicLong();
+
+    /**
+     * total load time, in nanoseconds
+     */
+    AtomicLong loadTime = new AtomicLong();
+
+    long evictions = -1;
+
+    int size = -1;
+
+    long weight = -1;
+
+    /**
+     * Number of lookups that found the resource in the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that had to load the resource, or wait for another thread loading it.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of loads that failed with an exception.
+     */
+    public long getLoadFailureCount() {
+        return loadFailures.get();
+    }
+
+    /**
+     * Total time spent loading resources, in milliseconds.
+     */
+    public long getTotalLoadTime() {
+        return loadTime.get() / 1000000;
+    }
+
+    /**
+     * Number of entries disposed of to respect the cache limits, or because the garbage collector
+     * reclaimed them, or -1 if unknown.
+     */
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Number of entries in the cache, or -1 if unknown.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Total weight of the entries in the cache, or -1 if unknown.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Ratio of lookups that found the resource in the cache.
+     */
+    public double getHitRatio() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : ((double) hits) / total;
+    }
+
+    void loaded(long nanos, boolean failed) {
+        loadTime.addAndGet(nanos);
+        if (failed) {
+            loadFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a copy of the counters, along with the current cache size, weight and evictions.
+     */
+    ResourceCacheStatistics snapshot(int size, long weight, long evictions) {
+        ResourceCacheStatistics copy = new ResourceCacheStatistics();
+        copy.hits.set(hits.get());
+        copy.misses.set(misses.get());
+        copy.loadFailures.set(loadFailures.get());
+        copy.loadTime.set(loadTime.get());
+        copy.evictions = evictions;
+        copy.size = size;
+        copy.weight = weight;
+        return copy;
+    }
+
+    /**
+     * Returns the counters as a map, keyed by name.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("size", getSize());
+        map.put("weight", getWeight());
+        map.put("hits", getHitCount());
+        map.put("misses", getMissCount());
+        map.put("hitRatio", getHitRatio());
+        map.put("loadFailures", getLoadFailureCount());
+        map.put("totalLoadTime", getTotalLoadTime());
+        map.put("evictions", getEvictionCount());
+        return map;
+    }
+}
@@ -14,6 +14,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.lang.reflect.Method;
@@ -25,11 +26,20 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -145,6 +155,33 @@ public class ResourcePool {
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
     
+    /**
+     * Prefix of the properties configuring the resource caches limits, followed by the cache 
+     * name (see {@link #getCacheStatistics()}) and one of {@link #MAX_ENTRIES}, 
+     * {@link #MAX_WEIGHT} or {@link #MAX_IDLE_TIME}, for example 
+     * <tt>org.geoserver.catalog.ResourcePool.dataStore.maxEntries</tt>.
+     */
+    public static final String CACHE_PROPERTY_PREFIX = "org.geoserver.catalog.ResourcePool.";
+    
+    /** max number of entries in a cache */
+    public static final String MAX_ENTRIES = "maxEntries";
+    
+    /**
+     * max total weight of the entries in a cache. Feature types weigh their number of attributes,
+     * feature type attribute lists their size, coverage readers the number of coverages they
+     * serve, the entries of the other caches weigh 1
+     */
+    public static final String MAX_WEIGHT = "maxWeight";
+    
+    /** time, in seconds, after which an entry that has not been used is evicted */
+    public static final String MAX_IDLE_TIME = "maxIdleTime";
+    
+    /**
+     * Comma separated list of <tt>workspace:store</tt> names of stores that are never evicted
+     * because of the cache limits.
+     */
+    public static final String PINNED_STORES = CACHE_PROPERTY_PREFIX + "pinned";
+    
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
 
@@ -158,6 +195,26 @@ public class ResourcePool {
     Map<CoverageHintReaderKey, GridCoverageReader> hintCoverageReaderCache;
     Map<StyleInfo,Style> styleCache;
     List<Listener> listeners;
+
+    /**
+     * single flight loaders for the resource caches
+     */
+    CacheLoader<String, DataAccess> dataStoreLoader = new CacheLoader<String, DataAccess>();
+    CacheLoader<String, FeatureType> featureTypeLoader = new CacheLoader<String, FeatureType>();
+    CacheLoader<String, List<AttributeTypeInfo>> featureTypeAttributeLoader = 
+        new CacheLoader<String, List<AttributeTypeInfo>>();
+    CacheLoader<String, WebMapServer> wmsLoader = new CacheLoader<String, WebMapServer>();
+    CacheLoader<String, GridCoverageReader> coverageReaderLoader = 
+        new CacheLoader<String, GridCoverageReader>();
+    CacheLoader<CoverageHintReaderKey, GridCoverageReader> hintCoverageReaderLoader = 
+        new CacheLoader<CoverageHintReaderKey, GridCoverageReader>();
+    CacheLoader<StyleInfo, Style> styleLoader = new CacheLoader<StyleInfo, Style>();
+    
+    /**
+     * ids and names of the stores that are never evicted
+     */
+    Set<String> pinned = new CopyOnWriteArraySet<String>();
+    Set<String> pinnedNames = new CopyOnWriteArraySet<String>();
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
 
@@ -196,6 +253,23 @@ public class ResourcePool {
         styleCache = createStyleCache();
 
         listeners = new CopyOnWriteArrayList<Listener>();
+        
+        String names = GeoServerExtensions.getProperty(PINNED_STORES);
+        if (names != null) {
+            for (String name : names.split(",")) {
+                if (name.trim().length() > 0) {
+                    pinnedNames.add(name.trim());
+                }
+            }
+        }
+        
+        configure(dataStoreCache, "dataStore");
+        configure(featureTypeCache, "featureType");
+        configure(featureTypeAttributeCache, "featureTypeAttribute");
+        configure(coverageReaderCache, "coverageReader");
+        configure(hintCoverageReaderCache, "hintCoverageReader");
+        configure(wmsCache, "wms");
+        configure(styleCache, "style");
     }
 
     /**
@@ -360,10 +434,14 @@ public class ResourcePool {
      */
     public void setFeatureTypeCacheSize(int featureTypeCacheSize) {
         synchronized (this) {
+            featureTypeLoader.invalidate();
+            featureTypeAttributeLoader.invalidate();
             featureTypeCache.clear();
             featureTypeCache = createFeatureTypeCache(featureTypeCacheSize);
+            configure(featureTypeCache, "featureType");
             featureTypeAttributeCache.clear();
             featureTypeAttributeCache = createFeatureTypeAttributeCache(featureTypeCacheSize);
+            configure(featureTypeAttributeCache, "featureTypeAttribute");
         }
     }
     
@@ -379,6 +457,124 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Applies the limits configured through the {@link #CACHE_PROPERTY_PREFIX} properties to a 
+     * cache, only caches extending {@link CatalogResourceCache} can be bounded.
+     * 
+     * @param cache The cache, as returned by one of the <tt>createXxxCache()</tt> methods
+     * @param name The cache name
+     */
+    protected void configure(Map<?, ?> cache, String name) {
+        if (!(cache instanceof CatalogResourceCache)) {
+            return;
+        }
+        
+        CatalogResourceCache<?, ?> c = (CatalogResourceCache<?, ?>) cache;
+        Long maxEntries = getLimit(name, MAX_ENTRIES);
+        if (maxEntries != null) {
+            c.setMaxEntries(maxEntries.intValue());
+        }
+        Long maxWeight = getLimit(name, MAX_WEIGHT);
+        if (maxWeight != null) {
+            c.setMaxWeight(maxWeight);
+        }
+        Long maxIdleTime = getLimit(name, MAX_IDLE_TIME);
+        if (maxIdleTime != null) {
+            c.setMaxIdleTime(maxIdleTime * 1000);
+        }
+    }
+    
+    Long getLimit(String cache, String limit) {
+        String property = CACHE_PROPERTY_PREFIX + cache + "." + limit;
+        String value = GeoServerExtensions.getProperty(property);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Ignoring invalid value for " + property + ": " + value);
+            return null;
+        }
+    }
+    
+    /**
+     * Pins a store, so that its data store or coverage readers are never evicted from the caches 
+     * because of the cache limits. They are still disposed when the store is modified or removed.
+     */
+    public void pin(StoreInfo store) {
+        pinned.add(store.getId());
+        refreshPins();
+    }
+    
+    /**
+     * Removes a store pinned with {@link #pin(StoreInfo)}.
+     */
+    public void unpin(StoreInfo store) {
+        pinned.remove(store.getId());
+        refreshPins();
+    }
+    
+    void refreshPins() {
+        for (Map<?, ?> cache : Arrays.asList(dataStoreCache, coverageReaderCache, 
+                hintCoverageReaderCache, wmsCache)) {
+            if (cache instanceof CatalogResourceCache) {
+                ((CatalogResourceCache<?, ?>) cache).refreshPins();
+            }
+        }
+    }
+    
+    /**
+     * Returns true if the store with the specified id is pinned, either through 
+     * {@link #pin(StoreInfo)} or the {@link #PINNED_STORES} property.
+     */
+    public boolean isPinned(String storeId) {
+        if (storeId == null) {
+            return false;
+        }
+        if (pinned.contains(storeId)) {
+            return true;
+        }
+        if (pinnedNames.isEmpty() || catalog == null) {
+            return false;
+        }
+        StoreInfo store = catalog.getStore(storeId, StoreInfo.class);
+        return store != null && store.getWorkspace() != null && 
+            pinnedNames.contains(store.getWorkspace().getName() + ":" + store.getName());
+    }
+    
+    /**
+     * Returns a snapshot of the usage counters of the resource caches, keyed by cache name.
+     */
+    public Map<String, ResourceCacheStatistics> getCacheStatistics() {
+        Map<String, ResourceCacheStatistics> stats = new LinkedHashMap<String, ResourceCacheStatistics>();
+        stats.put("dataStore", statistics(dataStoreLoader, dataStoreCache));
+        stats.put("featureType", statistics(featureTypeLoader, featureTypeCache));
+        stats.put("featureTypeAttribute", 
+                statistics(featureTypeAttributeLoader, featureTypeAttributeCache));
+        stats.put("coverageReader", statistics(coverageReaderLoader, coverageReaderCache));
+        stats.put("hintCoverageReader", 
+                statistics(hintCoverageReaderLoader, hintCoverageReaderCache));
+        stats.put("wms", statistics(wmsLoader, wmsCache));
+        stats.put("style", statistics(styleLoader, styleCache));
+        return stats;
+    }
+    
+    ResourceCacheStatistics statistics(CacheLoader<?, ?> loader, Map<?, ?> cache) {
+        int size;
+        long weight = -1;
+        long evictions = -1;
+        synchronized (cache) {
+            size = cache.size();
+            if (cache instanceof CatalogResourceCache) {
+                CatalogResourceCache<?, ?> c = (CatalogResourceCache<?, ?>) cache;
+                weight = c.getWeight();
+                evictions = c.getEvictionCount();
+            }
+        }
+        return loader.statistics.snapshot(size, weight, evictions);
+    }
+    
     /**
      * Adds a pool listener.
      */
@@ -472,96 +668,90 @@ public class ResourcePool {
      * 
      * @throws IOException Any errors that occur connecting to the resource.
      */
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
         DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
         try {
             String id = info.getId();
-            dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
-                    if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        //call this methdo to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
+            // stores returned from un-saved DataStoreInfo objects are not cached (it would be
+            // actually harmful, NPE when trying to dispose of them)
+            dataStore = dataStoreLoader.get(dataStoreCache, id, new Callable<DataAccess>() {
+                public DataAccess call() throws Exception {
+                    DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
+
+                    //create data store
+                    Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+
+                    //call this methdo to execute the hack which recognizes 
+                    // urls which are relative to the data directory
+                    // TODO: find a better way to do this
+                    connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
+
+                    // obtain the factory
+                    DataAccessFactory factory = null;
+                    try {
+                        factory = getDataStoreFactory(info);
+                    } catch(IOException e) {
+                        throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                                + ", did you forget to install the store extension jar?");
+                    }
+                    Param[] params = factory.getParametersInfo();
+
+                    //ensure that the namespace parameter is set for the datastore
+                    if (!connectionParameters.containsKey( "namespace") && params != null) {
+                        //if we grabbed the factory, check that the factory actually supports
+                        // a namespace parameter, if we could not get the factory, assume that
+                        // it does
+                        boolean supportsNamespace = true;
+                        supportsNamespace = false;
+    
+                        for ( Param p : params ) {
+                            if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                                supportsNamespace = true;
+                                break;
                             }
                         }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
+    
+                        if ( supportsNamespace ) {
+                            WorkspaceInfo ws = info.getWorkspace();
+                            NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                            if ( ns == null ) {
+                                ns = info.getCatalog().getDefaultNamespace();
                             }
+                            if ( ns != null ) {
+                                connectionParameters.put( "namespace", ns.getURI() );
+                            }    
                         }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
-                        
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
-                            dataStoreCache.put( id, dataStore );
+                    }
+
+                    // see if the store has a repository param, if so, pass the one wrapping
+                    // the store
+                    if(params != null) {
+                        for ( Param p : params ) {
+                            if(Repository.class.equals(p.getType())) {
+                                connectionParameters.put(p.getName(), repository);
+                            }
                         }
                     }
-                } 
-            }
+
+                    dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+                    if (dataStore == null) {
+                        /*
+                         * Preserve DataStore retyping behaviour by calling
+                         * DataAccessFinder.getDataStore after the call to
+                         * DataStoreUtils.getDataStore above.
+                         * 
+                         * TODO: DataAccessFinder can also find DataStores, and when retyping is
+                         * supported for DataAccess, we can use a single mechanism.
+                         */
+                        dataStore = DataAccessFinder.getDataStore(connectionParameters);
+                    }
+
+                    if ( dataStore == null ) {
+                        throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
+                    }
+                    return dataStore;
+                }
+            });
             
             return dataStore;
         } catch (Exception e) {
@@ -627,10 +817,10 @@ public class ResourcePool {
      * @param info The data store metadata.
      */
     public void clear( DataStoreInfo info ) {
-        dataStoreCache.remove( info.getId() );
+        remove(dataStoreCache, dataStoreLoader, info.getId());
     }
     
-    public List<AttributeTypeInfo> getAttributes(FeatureTypeInfo info) throws IOException {
+    public List<AttributeTypeInfo> getAttributes(final FeatureTypeInfo info) throws IOException {
         //first check the feature type itself
         //      workaround for GEOS-3294, upgrading from 2.0 data directory,
         //      simply ignore any stored attributes
@@ -642,33 +832,25 @@ public class ResourcePool {
             return info.getAttributes();
         }
         
-        //check the cache
-        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
-                    }
+        // check the cache, cache attributes only if the id is not null -> the feature type is 
+        // not new
+        return featureTypeAttributeLoader.get(featureTypeAttributeCache, info.getId(), 
+                new Callable<List<AttributeTypeInfo>>() {
+            public List<AttributeTypeInfo> call() throws Exception {
+                //load from feature type
+                List<AttributeTypeInfo> atts = loadAttributes(info);
+                
+                //check for a schema override
+                try {
+                    handleSchemaOverride(atts,info);
                 }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, 
+                        "Error occured applying schema override for "+info.getName(), e);
+                }
+                return atts;
             }
-        }
-        
-        return atts;
+        });
     }
     
     public List<AttributeTypeInfo> loadAttributes(FeatureTypeInfo info) throws IOException {
@@ -799,100 +981,107 @@ public class ResourcePool {
         return getFeatureType(info, true);
     }
     
-    FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
+    FeatureType getFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
         boolean cacheable = isCacheable(info) && handleProjectionPolicy;
-        FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
-        if ( ft == null || !cacheable ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( info.getId() );
-                if ( ft == null || !cacheable) {
-                    
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    
-                    // sql view handling
-                    VirtualTable vt = null;
-                    String vtName = null;
-                    if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
-                            (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
-                        
-                        if(!cacheable) {
-                            // use a highly random name, we don't want to actually add the
-                            // virtual table to the store as this feature type is not cacheable,
-                            // it is "dirty" or un-saved. The renaming below will take care
-                            // of making the user see the actual name
-                            final String[] typeNames = jstore.getTypeNames();
-                            do {
-                                vtName = UUID.randomUUID().toString();
-                            } while (Arrays.asList(typeNames).contains(vtName));
-    
-                            // try adding the vt and see if that works
-                            jstore.addVirtualTable(new VirtualTable(vtName, vt));
-                            ft = jstore.getSchema(vtName);
-                        } else {
-                            vtName = vt.getName();
-                            if(!jstore.getVirtualTables().containsValue(vt)) {
-                                jstore.addVirtualTable(vt);
-                            }
-                            ft = jstore.getSchema(vt.getName());
-                        }
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        if ( !cacheable ) {
+            return loadFeatureType(info, handleProjectionPolicy, false);
+        }
+        
+        return featureTypeLoader.get(featureTypeCache, info.getId(), new Callable<FeatureType>() {
+            public FeatureType call() throws Exception {
+                return loadFeatureType(info, handleProjectionPolicy, true);
+            }
+        });
+    }
+    
+    /**
+     * Loads the feature type resource, bypassing the cache.
+     */
+    FeatureType loadFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy, 
+            boolean cacheable ) throws IOException {
+        FeatureType ft;
+        
+        //grab the underlying feature type
+        DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+        
+        // sql view handling
+        VirtualTable vt = null;
+        String vtName = null;
+        if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
+                (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+            
+            if(!cacheable) {
+                // use a highly random name, we don't want to actually add the
+                // virtual table to the store as this feature type is not cacheable,
+                // it is "dirty" or un-saved. The renaming below will take care
+                // of making the user see the actual name
+                final String[] typeNames = jstore.getTypeNames();
+                do {
+                    vtName = UUID.randomUUID().toString();
+                } while (Arrays.asList(typeNames).contains(vtName));
+
+                // try adding the vt and see if that works
+                jstore.addVirtualTable(new VirtualTable(vtName, vt));
+                ft = jstore.getSchema(vtName);
+            } else {
+                vtName = vt.getName();
+                if(!jstore.getVirtualTables().containsValue(vt)) {
+                    jstore.addVirtualTable(vt);
+                }
+                ft = jstore.getSchema(vt.getName());
+            }
+        } else {
+            ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        }
+        
+        // TODO: support reprojection for non-simple FeatureType
+        if (ft instanceof SimpleFeatureType) {
+            SimpleFeatureType sft = (SimpleFeatureType) ft;
+            //create the feature type so it lines up with the "declared" schema
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.setName( info.getName() );
+            tb.setNamespaceURI( info.getNamespace().getURI() );
+
+            if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
+                //take this to mean just load all native
+                for ( PropertyDescriptor pd : ft.getDescriptors() ) {
+                    if ( !( pd instanceof AttributeDescriptor ) ) {
+                        continue;
                     }
                     
-                    // TODO: support reprojection for non-simple FeatureType
-                    if (ft instanceof SimpleFeatureType) {
-                        SimpleFeatureType sft = (SimpleFeatureType) ft;
-                        //create the feature type so it lines up with the "declared" schema
-                        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-                        tb.setName( info.getName() );
-                        tb.setNamespaceURI( info.getNamespace().getURI() );
-
-                        if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
-                            //take this to mean just load all native
-                            for ( PropertyDescriptor pd : ft.getDescriptors() ) {
-                                if ( !( pd instanceof AttributeDescriptor ) ) {
-                                    continue;
-                                }
-                                
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                if(handleProjectionPolicy) {
-                                    ad = handleDescriptor(ad, info);
-                                }
-                                tb.add( ad );
-                            }
-                        }
-                        else {
-                            //only load native attributes configured
-                            for ( AttributeTypeInfo att : info.getAttributes() ) {
-                                String attName = att.getName();
-                                
-                                //load the actual underlying attribute type
-                                PropertyDescriptor pd = ft.getDescriptor( attName );
-                                if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
-                                    throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
-                                            + " does not contains the configured attribute " + attName
-                                            + ". Check your schema configuration");
-                                }
-                            
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                ad = handleDescriptor(ad, info);
-                                tb.add( (AttributeDescriptor) ad );
-                            }
-                        }
-                        ft = tb.buildFeatureType();
-                    } // end special case for SimpleFeatureType
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    if(handleProjectionPolicy) {
+                        ad = handleDescriptor(ad, info);
+                    }
+                    tb.add( ad );
+                }
+            }
+            else {
+                //only load native attributes configured
+                for ( AttributeTypeInfo att : info.getAttributes() ) {
+                    String attName = att.getName();
                     
-                    if(cacheable) {
-                        featureTypeCache.put( info.getId(), ft );
-                    } else if(vtName != null) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        jstore.removeVirtualTable(vtName);
+                    //load the actual underlying attribute type
+                    PropertyDescriptor pd = ft.getDescriptor( attName );
+                    if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
+                        throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
+                                + " does not contains the configured attribute " + attName
+                                + ". Check your schema configuration");
                     }
+                
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    ad = handleDescriptor(ad, info);
+                    tb.add( (AttributeDescriptor) ad );
                 }
             }
+            ft = tb.buildFeatureType();
+        } // end special case for SimpleFeatureType
+        
+        if(!cacheable && vtName != null) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            jstore.removeVirtualTable(vtName);
         }
         
         return ft;
@@ -1006,8 +1195,8 @@ public class ResourcePool {
      * @param info The feature type metadata.
      */
     public void clear( FeatureTypeInfo info ) {
-        featureTypeCache.remove( info.getId() );
-        featureTypeAttributeCache.remove( info.getId() );
+        remove(featureTypeCache, featureTypeLoader, info.getId());
+        remove(featureTypeAttributeCache, featureTypeAttributeLoader, info.getId());
     }
     
     /**
@@ -1163,8 +1352,6 @@ public class ResourcePool {
             throw new IOException("Could not find the raster plugin for format " + info.getType());
         }
         
-        GridCoverageReader reader = null;
-        Object key;
         if ( hints != null && info.getId() != null) {
             // expand the hints if necessary
             final String formatName = gridFormat.getName();
@@ -1178,48 +1365,34 @@ public class ResourcePool {
                 }
             }
             
-            key = new CoverageHintReaderKey(info.getId(), hints);
-            reader = (GridCoverageReader) hintCoverageReaderCache.get( key );    
+            CoverageHintReaderKey key = new CoverageHintReaderKey(info.getId(), hints);
+            return hintCoverageReaderLoader.get(hintCoverageReaderCache, key, 
+                    new CoverageReaderLoader(info, gridFormat, hints));
         } else {
-            key = info.getId();
-            if(key != null) {
-                reader = (GridCoverageReader) coverageReaderCache.get( key );
-            }
+            return coverageReaderLoader.get(coverageReaderCache, info.getId(), 
+                    new CoverageReaderLoader(info, gridFormat, hints));
         }
+    }
+    
+    /**
+     * Loads a coverage reader using the format and the real path.
+     */
+    static class CoverageReaderLoader implements Callable<GridCoverageReader> {
+        CoverageStoreInfo info;
+        AbstractGridFormat gridFormat;
+        Hints hints;
         
-        if (reader != null) {
-            return reader;
+        CoverageReaderLoader(CoverageStoreInfo info, AbstractGridFormat gridFormat, Hints hints) {
+            this.info = info;
+            this.gridFormat = gridFormat;
+            this.hints = hints;
         }
         
-        synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
-            if (key != null) {
-                if (hints != null) {
-                    reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
-                } else {
-                    reader = (GridCoverageReader) coverageReaderCache.get(key);
-                }
-            }
-            if (reader == null) {
-                /////////////////////////////////////////////////////////
-                //
-                // Getting coverage reader using the format and the real path.
-                //
-                // /////////////////////////////////////////////////////////
-                final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
-    
-                reader = gridFormat.getReader(obj,hints);
-                if(key != null) {
-                    if(hints != null) {
-                        hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
-                    } else {
-                        coverageReaderCache.put((String) key, reader);
-                    }
-                }
-            }
+        @SuppressWarnings("deprecation")
+        public GridCoverageReader call() throws Exception {
+            final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
+            return gridFormat.getReader(obj,hints);
         }
-        
-        return reader;
-            
     }
     
     /**
@@ -1227,11 +1400,14 @@ public class ResourcePool {
      */
     public void clear(CoverageStoreInfo info) {
         String storeId = info.getId();
-        coverageReaderCache.remove(storeId);
-        HashSet<CoverageHintReaderKey> keys = new HashSet<CoverageHintReaderKey>(hintCoverageReaderCache.keySet());
+        remove(coverageReaderCache, coverageReaderLoader, storeId);
+        HashSet<CoverageHintReaderKey> keys;
+        synchronized (hintCoverageReaderCache) {
+            keys = new HashSet<CoverageHintReaderKey>(hintCoverageReaderCache.keySet());
+        }
         for (CoverageHintReaderKey key : keys) {
             if(key.id != null && key.id.equals(storeId)) {
-                hintCoverageReaderCache.remove(key);
+                remove(hintCoverageReaderCache, hintCoverageReaderLoader, key);
             }
         }
         
@@ -1384,43 +1560,35 @@ public class ResourcePool {
      * @param info The WMS configuration
      * @throws IOException
      */
-    public WebMapServer getWebMapServer(WMSStoreInfo info) throws IOException {
+    public WebMapServer getWebMapServer(final WMSStoreInfo info) throws IOException {
         try {
             String id = info.getId();
-            WebMapServer wms = (WebMapServer) wmsCache.get(id);
-            if (wms == null) {
-                synchronized (wmsCache) {
-                    wms = (WebMapServer) wmsCache.get(id);
-                    if (wms == null) {
-                        HTTPClient client;
-                        if (info.isUseConnectionPooling()) {
-                            client = new MultithreadedHttpClient();
-                            if (info.getMaxConnections() > 0) {
-                                int maxConnections = info.getMaxConnections();
-                                MultithreadedHttpClient mtClient = (MultithreadedHttpClient) client;
-                                mtClient.setMaxConnections(maxConnections);
-                            }
-                        } else {
-                            client = new SimpleHttpClient();
+            return wmsLoader.get(wmsCache, id, new Callable<WebMapServer>() {
+                public WebMapServer call() throws Exception {
+                    HTTPClient client;
+                    if (info.isUseConnectionPooling()) {
+                        client = new MultithreadedHttpClient();
+                        if (info.getMaxConnections() > 0) {
+                            int maxConnections = info.getMaxConnections();
+                            MultithreadedHttpClient mtClient = (MultithreadedHttpClient) client;
+                            mtClient.setMaxConnections(maxConnections);
                         }
-                        String username = info.getUsername();
-                        String password = info.getPassword();
-                        int connectTimeout = info.getConnectTimeout();
-                        int readTimeout = info.getReadTimeout();
-                        client.setUser(username);
-                        client.setPassword(password);
-                        client.setConnectTimeout(connectTimeout);
-                        client.setReadTimeout(readTimeout);
-
-                        URL serverURL = new URL(info.getCapabilitiesURL());
-                        wms = new WebMapServer(serverURL, client);
-                        
-                        wmsCache.put(id, wms);
+                    } else {
+                        client = new SimpleHttpClient();
                     }
+                    String username = info.getUsername();
+                    String password = info.getPassword();
+                    int connectTimeout = info.getConnectTimeout();
+                    int readTimeout = info.getReadTimeout();
+                    client.setUser(username);
+                    client.setPassword(password);
+                    client.setConnectTimeout(connectTimeout);
+                    client.setReadTimeout(readTimeout);
+
+                    URL serverURL = new URL(info.getCapabilitiesURL());
+                    return new WebMapServer(serverURL, client);
                 }
-            }
-
-            return wms;
+            });
         } catch (IOException ioe) {
             throw ioe;
         } catch (Exception e) {
@@ -1456,7 +1624,7 @@ public class ResourcePool {
      * Clears the cached resource for a web map server
      */
     public void clear( WMSStoreInfo info ) {
-        wmsCache.remove( info.getId() );
+        remove(wmsCache, wmsLoader, info.getId());
     }
     
     /**
@@ -1469,32 +1637,25 @@ public class ResourcePool {
      * 
      * @throws IOException Any parsing errors.
      */
-    public Style getStyle( StyleInfo info ) throws IOException {
-        Style style = styleCache.get( info );
-        if ( style == null ) {
-            synchronized (styleCache) {
-                style = styleCache.get( info );
-                if ( style == null ) {
-                    
-                    //JD: it is important that we call the SLDParser(File) constructor because
-                    // if not the sourceURL will not be set which will mean it will fail to 
-                    //resolve relative references to online resources
-                    File styleFile = dataDir().findStyleSldFile(info);
-                    if ( styleFile == null ){
-                        throw new IOException( "No such file: " + info.getFilename());
-                    }
-                    
-                    style = Styles.style(Styles.parse(styleFile, info.getSLDVersion()));
-                    
-                    //set the name of the style to be the name of hte style metadata
-                    // remove this when wms works off style info
-                    style.setName( info.getName() );
-                    styleCache.put( info, style );
+    public Style getStyle( final StyleInfo info ) throws IOException {
+        return styleLoader.get(styleCache, info, new Callable<Style>() {
+            public Style call() throws Exception {
+                //JD: it is important that we call the SLDParser(File) constructor because
+                // if not the sourceURL will not be set which will mean it will fail to 
+                //resolve relative references to online resources
+                File styleFile = dataDir().findStyleSldFile(info);
+                if ( styleFile == null ){
+                    throw new IOException( "No such file: " + info.getFilename());
                 }
+                
+                Style style = Styles.style(Styles.parse(styleFile, info.getSLDVersion()));
+                
+                //set the name of the style to be the name of hte style metadata
+                // remove this when wms works off style info
+                style.setName( info.getName() );
+                return style;
             }
-        }
-        
-        return style;
+        });
     }
     
     /**
@@ -1503,7 +1664,7 @@ public class ResourcePool {
      * @param info The style metadata.
      */
     public void clear(StyleInfo info) {
-        styleCache.remove( info );
+        remove(styleCache, styleLoader, info);
     }
     
     /**
@@ -1602,11 +1763,34 @@ public class ResourcePool {
         return new GeoServerDataDirectory(catalog.getResourceLoader());
     }
 
+    /**
+     * Removes an entry from one of the resource caches, see {@link CacheLoader#invalidate()}.
+     * {@link CatalogResourceCache} disposes the entry once it released its own lock, other maps
+     * are locked for the removal.
+     */
+    <K, V> void remove(Map<K, V> cache, CacheLoader<K, V> loader, K key) {
+        loader.invalidate();
+        if (cache instanceof CatalogResourceCache) {
+            cache.remove(key);
+        } else {
+            synchronized (cache) {
+                cache.remove(key);
+            }
+        }
+    }
+
     /**
      * Disposes all cached resources.
      *
      */
     public void dispose() {
+        dataStoreLoader.invalidate();
+        featureTypeLoader.invalidate();
+        featureTypeAttributeLoader.invalidate();
+        coverageReaderLoader.invalidate();
+        hintCoverageReaderLoader.invalidate();
+        wmsLoader.invalidate();
+        styleLoader.invalidate();
         crsCache.clear();
         dataStoreCache.clear();
         featureTypeCache.clear();
@@ -1621,6 +1805,18 @@ public class ResourcePool {
     /**
      * Base class for all the resource caches, ensures type safety and provides
      * an easier way to handle with resource disposal 
+     * <p>
+     * The cache can be bounded by number of entries, by total weight of the entries (see
+     * {@link Weigher}) and by idle time. Entries are evicted in least recently used order,
+     * skipping the pinned ones (see {@link ResourcePool#pin(StoreInfo)}). Limits are checked when
+     * entries are added, and idle entries are also expired on lookups. All limits are disabled by
+     * default, see {@link ResourcePool#configure(Map, String)}.
+     * </p>
+     * <p>
+     * With no limit set values are softly referenced, and the garbage collector decides which
+     * ones are released. Once a limit is set all the values are strongly referenced, so that
+     * only the limits evict them.
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
@@ -1628,6 +1824,44 @@ public class ResourcePool {
      */
     abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
 
+        /**
+         * last access time of each entry, in least recently used order
+         */
+        final LinkedHashMap<K, Long> accessed = new LinkedHashMap<K, Long>(16, 0.75f, true);
+
+        /**
+         * weight of each entry
+         */
+        final Map<K, Integer> weights = new HashMap<K, Integer>();
+
+        /**
+         * the values, when a limit is set, so that the garbage collector cannot release them
+         */
+        final Map<K, V> strong = new HashMap<K, V>();
+
+        /**
+         * keys never evicted because of the limits, computed out of the cache lock as looking
+         * them up might involve the catalog
+         */
+        final Set<K> pins = new HashSet<K>();
+
+        long weight;
+
+        int maxEntries;
+
+        long maxWeight;
+
+        /**
+         * max idle time, in milliseconds
+         */
+        long maxIdleTime;
+
+        long lastExpiration;
+
+        volatile Weigher<K, V> weigher;
+
+        final AtomicLong evictions = new AtomicLong();
+
         public CatalogResourceCache() {
             this(100);
         }
@@ -1638,14 +1872,188 @@ public class ResourcePool {
 
                 @Override
                 public void clean(Object key, Object object) {
+                    // reclaimed by the garbage collector
+                    untrack((K) key);
+                    evictions.incrementAndGet();
                     dispose((K) key, (V) object);
                 }
             };
         }
 
+        /**
+         * Sets the max number of entries, 0 or less means no limit.
+         */
+        public void setMaxEntries(int maxEntries) {
+            Map<K, V> evicted;
+            synchronized (this) {
+                this.maxEntries = maxEntries;
+                retain();
+                evicted = evict(null);
+            }
+            dispose(evicted);
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        /**
+         * Sets the max total weight of the entries, 0 or less means no limit.
+         */
+        public void setMaxWeight(long maxWeight) {
+            Map<K, V> evicted;
+            synchronized (this) {
+                this.maxWeight = maxWeight;
+                retain();
+                evicted = evict(null);
+            }
+            dispose(evicted);
+        }
+
+        public long getMaxWeight() {
+            return maxWeight;
+        }
+
+        /**
+         * Sets the time, in milliseconds, after which an entry that has not been looked up is
+         * evicted, 0 or less means entries never expire.
+         */
+        public void setMaxIdleTime(long maxIdleTime) {
+            Map<K, V> evicted;
+            synchronized (this) {
+                this.maxIdleTime = maxIdleTime;
+                retain();
+                evicted = evict(null);
+            }
+            dispose(evicted);
+        }
+
+        public long getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        /**
+         * Sets the function used to weigh entries, when <code>null</code> every entry weighs 1.
+         * Only affects entries added from now on.
+         */
+        public synchronized void setWeigher(Weigher<K, V> weigher) {
+            this.weigher = weigher;
+        }
+
+        public synchronized long getWeight() {
+            return weight;
+        }
+
+        boolean isBounded() {
+            return maxEntries > 0 || maxWeight > 0 || maxIdleTime > 0;
+        }
+
+        /**
+         * Strongly references the values if a limit is set, softly otherwise. Must be called
+         * holding the cache lock
+         */
+        void retain() {
+            if (isBounded()) {
+                strong.putAll(new HashMap<K, V>(this));
+            } else {
+                strong.clear();
+            }
+        }
+
+        /**
+         * Computes again which of the cached keys are pinned, after the pinned stores changed
+         */
+        void refreshPins() {
+            List<K> keys;
+            synchronized (this) {
+                keys = new ArrayList<K>(accessed.keySet());
+            }
+            Set<K> pinned = new HashSet<K>();
+            for (K key : keys) {
+                if (isPinned(key)) {
+                    pinned.add(key);
+                }
+            }
+            synchronized (this) {
+                pins.clear();
+                for (K key : pinned) {
+                    if (accessed.containsKey(key)) {
+                        pins.add(key);
+                    }
+                }
+            }
+        }
+
+        public long getEvictionCount() {
+            return evictions.get();
+        }
+
+        @Override
+        public V get(Object key) {
+            V object;
+            Map<K, V> evicted = null;
+            synchronized (this) {
+                object = super.get(key);
+                if (object != null) {
+                    long now = System.currentTimeMillis();
+                    accessed.put((K) key, now);
+                    if (maxIdleTime > 0 && now - lastExpiration > 1000) {
+                        evicted = evict(null);
+                    }
+                }
+            }
+            dispose(evicted);
+            return object;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            // weighers and pin lookups might be slow, keep them out of the lock
+            int w = weigh(key, value);
+            boolean pinned = isPinned(key);
+            V object;
+            Map<K, V> evicted;
+            synchronized (this) {
+                object = super.get(key);
+                evicted = putLocked(key, value, w, pinned);
+            }
+            dispose(evicted);
+            return object;
+        }
+
+        int weigh(K key, V value) {
+            Weigher<K, V> weigher = this.weigher;
+            return weigher != null ? Math.max(0, weigher.weigh(key, value)) : 1;
+        }
+
+        /**
+         * Puts an entry, the caller must hold the cache lock. Returns the entries evicted to
+         * make room for it, to be disposed with {@link #dispose(Map)} once the lock is released.
+         * 
+         * @param pinned Whether the entry is pinned, see {@link #isPinned(Object)}
+         */
+        Map<K, V> putLocked(K key, V value, int w, boolean pinned) {
+            super.put(key, value);
+            untrack(key);
+            accessed.put(key, System.currentTimeMillis());
+            weights.put(key, w);
+            weight += w;
+            if (pinned) {
+                pins.add(key);
+            }
+            if (isBounded()) {
+                strong.put(key, value);
+            }
+            return evict(key);
+        }
+
         @Override
         public V remove(Object key) {
-            V object = super.remove(key);
+            V object;
+            synchronized (this) {
+                object = super.remove(key);
+                untrack((K) key);
+            }
             if (object != null) {
                 dispose((K) key, (V) object);
             }
@@ -1654,24 +2062,328 @@ public class ResourcePool {
 
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
+            Map<K, V> removed;
+            synchronized (this) {
+                removed = new LinkedHashMap<K, V>(this);
+                super.clear();
+                accessed.clear();
+                weights.clear();
+                strong.clear();
+                pins.clear();
+                weight = 0;
+            }
+            dispose(removed);
+        }
+
+        /**
+         * Disposes entries removed from the cache. Disposing a resource can take long, so it's
+         * never done while holding the cache lock.
+         */
+        void dispose(Map<K, V> removed) {
+            if (removed == null) {
+                return;
+            }
+            for (Map.Entry<K, V> entry : removed.entrySet()) {
                 try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
+                    dispose(entry.getKey(), entry.getValue());
                 }
                 catch(Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
+                    LOGGER.log(Level.WARNING, "Error disposing entry: " + entry.getKey(), e);
                 }
             }
-            super.clear();
+        }
+
+        /**
+         * Removes idle entries, and then least recently used entries until the cache is within 
+         * its limits. Must be called holding the cache lock, the removed entries are returned
+         * to be disposed once the lock is released.
+         * 
+         * @param added The entry just added, never evicted to make room for itself
+         */
+        Map<K, V> evict(K added) {
+            long now = System.currentTimeMillis();
+            Set<K> evicted = new LinkedHashSet<K>();
+            if (maxIdleTime > 0) {
+                lastExpiration = now;
+                for (Map.Entry<K, Long> e : accessed.entrySet()) {
+                    if (now - e.getValue() <= maxIdleTime) {
+                        // the rest has been accessed more recently
+                        break;
+                    }
+                    if (!pins.contains(e.getKey())) {
+                        evicted.add(e.getKey());
+                    }
+                }
+            }
+            if (maxEntries > 0 || maxWeight > 0) {
+                int entries = accessed.size() - evicted.size();
+                long total = weight;
+                for (K key : evicted) {
+                    total -= weights.get(key);
+                }
+                for (K key : accessed.keySet()) {
+                    if ((maxEntries <= 0 || entries <= maxEntries) 
+                            && (maxWeight <= 0 || total <= maxWeight)) {
+                        break;
+                    }
+                    if (evicted.contains(key) || key.equals(added) || pins.contains(key)) {
+                        continue;
+                    }
+                    evicted.add(key);
+                    entries--;
+                    total -= weights.get(key);
+                }
+            }
+            Map<K, V> removed = new LinkedHashMap<K, V>();
+            for (K key : evicted) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Evicting " + key + " from the resource pool");
+                }
+                evictions.incrementAndGet();
+                V object = super.remove(key);
+                untrack(key);
+                if (object != null) {
+                    removed.put(key, object);
+                }
+            }
+            return removed;
+        }
+
+        void untrack(K key) {
+            accessed.remove(key);
+            strong.remove(key);
+            pins.remove(key);
+            Integer w = weights.remove(key);
+            if (w != null) {
+                weight -= w;
+            }
+        }
+
+        /**
+         * Returns true if the entry should never be evicted because of the cache limits. Called
+         * out of the cache lock.
+         */
+        protected boolean isPinned(K key) {
+            return false;
         }
 
         protected abstract void dispose(K key, V object);
     }
+
+    /**
+     * Computes the weight of a resource cache entry, for caches bounded by total weight.
+     *
+     * @see CatalogResourceCache#setMaxWeight(long)
+     */
+    public static interface Weigher<K, V> {
+
+        /**
+         * Returns the weight of the entry, such as the number of files a coverage reader keeps 
+         * open.
+         */
+        int weigh(K key, V value);
+    }
     
+    /**
+     * Loads resources into one of the resource caches so that concurrent requests for the same
+     * key wait on a single load, while resources with different keys load in parallel.
+     * <p>
+     * The cache itself is only locked for the short time it takes to look up or store an entry,
+     * never while a resource is being loaded, so any map returned by the <tt>createXxxCache()</tt>
+     * hooks can be used.
+     * </p>
+     * <p>
+     * Removing entries from the cache must be paired with a call to {@link #invalidate()}, so that
+     * resources that were being loaded at the time, possibly from the old configuration, are not
+     * cached.
+     * </p>
+     *
+     * @param <K>
+     * @param <V>
+     */
+    static class CacheLoader<K, V> {
+
+        /**
+         * times a resource is loaded again when the cache is cleared during the load
+         */
+        static final int MAX_LOAD_ATTEMPTS = 3;
+
+        /**
+         * loads in progress, by key
+         */
+        final ConcurrentHashMap<K, FutureTask<V>> loading = new ConcurrentHashMap<K, FutureTask<V>>();
+
+        /**
+         * usage counters
+         */
+        final ResourceCacheStatistics statistics = new ResourceCacheStatistics();
+
+        /**
+         * bumped each time entries are removed from the cache
+         */
+        final AtomicLong generation = new AtomicLong();
+
+        /**
+         * Prevents the loads in progress from caching their value
+         */
+        void invalidate() {
+            generation.incrementAndGet();
+        }
+
+        /**
+         * Returns the cached value for the key, loading and caching it if not present.
+         * <p>
+         * A <code>null</code> key disables caching, the value is loaded on every call.
+         * </p>
+         */
+        V get(final Map<K, V> cache, final K key, final Callable<V> loader) throws IOException {
+            if (key == null) {
+                return load(loader);
+            }
+
+            V value;
+            synchronized (cache) {
+                value = cache.get(key);
+            }
+            if (value != null) {
+                statistics.hits.incrementAndGet();
+                return value;
+            }
+            statistics.misses.incrementAndGet();
+
+            FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+                public V call() throws Exception {
+                    for (int attempt = 1;; attempt++) {
+                        long started = generation.get();
+                        // check again, the value might have been cached by a load that completed
+                        // while we were registering this one
+                        V value;
+                        synchronized (cache) {
+                            value = cache.get(key);
+                        }
+                        if (value != null) {
+                            return value;
+                        }
+                        value = load(loader);
+                        if (value == null) {
+                            return null;
+                        }
+                        if (publish(cache, key, value, started)) {
+                            return value;
+                        }
+                        // the cache was cleared while loading, the value might reflect the
+                        // configuration before the change
+                        if (attempt >= MAX_LOAD_ATTEMPTS) {
+                            LOGGER.warning("Cache cleared during each of the " + attempt
+                                    + " loads of " + key + ", returning it uncached");
+                            return value;
+                        }
+                        discard(cache, key, value);
+                    }
+                }
+            });
+            FutureTask<V> running = loading.putIfAbsent(key, task);
+            if (running != null) {
+                // somebody else is loading the same resource, wait for it
+                return get(running);
+            }
+
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+            return get(task);
+        }
+
+        /**
+         * Caches the value unless the cache was invalidated since the load started
+         */
+        boolean publish(Map<K, V> cache, K key, V value, long started) {
+            if (!(cache instanceof CatalogResourceCache)) {
+                synchronized (cache) {
+                    if (generation.get() != started) {
+                        return false;
+                    }
+                    cache.put(key, value);
+                    return true;
+                }
+            }
+
+            // dispose the entries evicted to make room for the value out of the cache lock
+            CatalogResourceCache<K, V> c = (CatalogResourceCache<K, V>) cache;
+            int weight = c.weigh(key, value);
+            boolean pinned = c.isPinned(key);
+            Map<K, V> evicted;
+            synchronized (c) {
+                if (generation.get() != started) {
+                    return false;
+                }
+                evicted = c.putLocked(key, value, weight, pinned);
+            }
+            c.dispose(evicted);
+            return true;
+        }
+
+        void discard(Map<K, V> cache, K key, V value) {
+            if (cache instanceof CatalogResourceCache) {
+                try {
+                    ((CatalogResourceCache<K, V>) cache).dispose(key, value);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Error disposing stale resource: " + key, e);
+                }
+            }
+        }
+
+        V get(FutureTask<V> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new InterruptedIOException(
+                        "Interrupted while waiting for resource to load").initCause(e);
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            }
+        }
+
+        V load(Callable<V> loader) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                V value = loader.call();
+                failed = false;
+                return value;
+            } catch (Exception e) {
+                throw rethrow(e);
+            } finally {
+                statistics.loaded(System.nanoTime() - start, failed);
+            }
+        }
+
+        IOException rethrow(Throwable t) {
+            if (t instanceof IOException) {
+                return (IOException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            return (IOException) new IOException().initCause(t);
+        }
+    }
+
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
             super(maxSize);
+            setWeigher(new Weigher<String, FeatureType>() {
+                public int weigh(String id, FeatureType featureType) {
+                    return featureType.getDescriptors().size();
+                }
+            });
         }
         
         protected void dispose(String id, FeatureType featureType) {
@@ -1682,6 +2394,11 @@ public class ResourcePool {
     }
     
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+        
+        @Override
+        protected boolean isPinned(String id) {
+            return ResourcePool.this.isPinned(id);
+        }
     	
         protected void dispose(String id, DataAccess da) {
         	DataStoreInfo info = catalog.getDataStore(id);
@@ -1703,6 +2420,15 @@ public class ResourcePool {
     }
     
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
+
+        CoverageReaderCache() {
+            setWeigher(new CoverageReaderWeigher<String>());
+        }
+        
+        @Override
+        protected boolean isPinned(String id) {
+            return ResourcePool.this.isPinned(id);
+        }
         
         protected void dispose(String id, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(id);
@@ -1723,6 +2449,15 @@ public class ResourcePool {
     }
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
+
+        CoverageHintReaderCache() {
+            setWeigher(new CoverageReaderWeigher<CoverageHintReaderKey>());
+        }
+        
+        @Override
+        protected boolean isPinned(CoverageHintReaderKey key) {
+            return ResourcePool.this.isPinned(key.id);
+        }
         
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
@@ -1743,6 +2478,21 @@ public class ResourcePool {
         
     }
     
+    /**
+     * Weighs coverage readers by the number of coverages they serve
+     */
+    static class CoverageReaderWeigher<K> implements Weigher<K, GridCoverageReader> {
+
+        public int weigh(K key, GridCoverageReader reader) {
+            try {
+                return Math.max(1, reader.getGridCoverageCount());
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not count the coverages of " + key, e);
+                return 1;
+            }
+        }
+    }
+    
     /**
      * The key in the {@link CoverageHintReaderCache}
      * 
@@ -1794,6 +2544,11 @@ public class ResourcePool {
 
         FeatureTypeAttributeCache(int size) {
             super(size);
+            setWeigher(new Weigher<String, List<AttributeTypeInfo>>() {
+                public int weigh(String id, List<AttributeTypeInfo> attributes) {
+                    return attributes.size();
+                }
+            });
         }
 
         @Override
@@ -1803,6 +2558,11 @@ public class ResourcePool {
     }
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
+        
+        @Override
+        protected boolean isPinned(String id) {
+            return ResourcePool.this.isPinned(id);
+        }
 
         @Override
         protected void dispose(String key, WebMapServer object) {
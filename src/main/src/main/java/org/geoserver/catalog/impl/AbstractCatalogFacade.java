@@ -124,7 +124,7 @@ public abstract class AbstractCatalogFacade implements CatalogFacade {
             s = unwrap(s);
             styles.add(s);
         }
-        ((LayerInfoImpl) layer).setStyles(styles);
+        ((LayerInfoImpl) LazyCatalogFacade.pinned(layer)).setStyles(styles);
     }
 
     protected void resolve(LayerGroupInfo layerGroup) {
@@ -187,7 +187,7 @@ public abstract class AbstractCatalogFacade implements CatalogFacade {
 
     protected void resolve(ResourceInfo resource) {
         setId(resource);
-        ResourceInfoImpl r = (ResourceInfoImpl) resource;
+        ResourceInfoImpl r = (ResourceInfoImpl) LazyCatalogFacade.pinned(resource);
 
         // resolve the store
         StoreInfo store = ResolvingProxy.resolve(getCatalog(), r.getStore());
@@ -98,10 +98,30 @@ public class CatalogImpl implements Catalog {
      */
     protected boolean extendedValidation = true;
 
+    /**
+     * Property used to select the catalog facade implementation, one of <tt>default</tt>,
+     * <tt>indexed</tt> or <tt>lazy</tt>
+     */
+    public static final String FACADE_PROPERTY = "GEOSERVER_CATALOG_FACADE";
+
     public CatalogImpl() {
-        facade = new DefaultCatalogFacade(this);
+        facade = createFacade();
         resourcePool = ResourcePool.create(this);
     }
+
+    /**
+     * Creates the catalog facade, as configured by the {@link #FACADE_PROPERTY} property.
+     */
+    protected CatalogFacade createFacade() {
+        String type = GeoServerExtensions.getProperty(FACADE_PROPERTY);
+        if ("indexed".equalsIgnoreCase(type)) {
+            return new IndexedCatalogFacade(this);
+        }
+        if ("lazy".equalsIgnoreCase(type)) {
+            return new LazyCatalogFacade(this);
+        }
+        return new DefaultCatalogFacade(this);
+    }
     
     public CatalogFacade getFacade() {
         return facade;
@@ -1509,17 +1529,17 @@ public class CatalogImpl implements Catalog {
 
     protected ResourceInfo resolve(ResourceInfo resource) {
         
-        ResourceInfoImpl r = (ResourceInfoImpl) resource;
+        ResourceInfoImpl r = (ResourceInfoImpl) LazyCatalogFacade.pinned(resource);
         r.setCatalog(this);
         
-        if ( resource instanceof FeatureTypeInfo ) {
-            resolve( (FeatureTypeInfo) resource );
+        if ( r instanceof FeatureTypeInfo ) {
+            resolve( (FeatureTypeInfo) r );
         }
         if(r instanceof CoverageInfo){
-            resolve((CoverageInfo) resource);
+            resolve((CoverageInfo) r);
         }
         if(r instanceof WMSLayerInfo){
-            resolve((WMSLayerInfo) resource);
+            resolve((WMSLayerInfo) r);
         }
         
         return resource;
@@ -0,0 +1,377 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.ows.util.OwsUtils;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Plans and executes {@link CatalogFacade#list} and {@link CatalogFacade#count} queries over in
+ * memory catalog contents.
+ * <p>
+ * Planning inspects the query filter looking for equality and like predicates on properties that
+ * are backed by an {@link InfoIndex}, either directly or combined through <tt>And</tt> and
+ * <tt>Or</tt>, and uses the indexes to narrow down the objects the filter has to be evaluated
+ * against. The candidates are always a superset of the matches, the full filter is still evaluated
+ * on each of them.
+ * </p>
+ * <p>
+ * Execution evaluates the filter on the raw objects, computes each sort key only once per object,
+ * applies offset and count, and only then wraps the objects of the requested page in
+ * {@link ModificationProxy}s.
+ * </p>
+ */
+class CatalogQueryPlanner {
+
+    /**
+     * A property that can be answered from an index.
+     */
+    @SuppressWarnings("rawtypes")
+    static class IndexedProperty {
+
+        final InfoIndex.Key key;
+
+        final Class<?> valueType;
+
+        final InfoIndex referenced;
+
+        final InfoIndex.Key referencedKey;
+
+        /**
+         * A property whose values are the keys of <tt>key</tt>, or the object ids if <tt>key</tt>
+         * is <code>null</code>.
+         */
+        IndexedProperty(InfoIndex.Key key, Class<?> valueType) {
+            this(key, valueType, null, null);
+        }
+
+        /**
+         * A property of an object referenced by id through <tt>key</tt>, such as the name of the
+         * workspace of a store, answered by the <tt>referencedKey</tt> index of the referenced
+         * objects.
+         */
+        IndexedProperty(InfoIndex.Key key, Class<?> valueType, InfoIndex referenced,
+                InfoIndex.Key referencedKey) {
+            this.key = key;
+            this.valueType = valueType;
+            this.referenced = referenced;
+            this.referencedKey = referencedKey;
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    final InfoIndex index;
+
+    final Map<String, IndexedProperty> properties;
+
+    @SuppressWarnings("rawtypes")
+    CatalogQueryPlanner(InfoIndex index, Map<String, IndexedProperty> properties) {
+        this.index = index;
+        this.properties = properties;
+    }
+
+    /**
+     * Returns the objects that can possibly match the filter, in insertion order, or
+     * <code>null</code> if the filter can't be answered from the indexes and all objects have to
+     * be evaluated.
+     */
+    List<CatalogInfo> candidates(Filter filter) {
+        Map<String, CatalogInfo> candidates = plan(filter);
+        if (candidates == null) {
+            return null;
+        }
+        List<CatalogInfo> list = new ArrayList<CatalogInfo>(candidates.values());
+        index.sort(list);
+        return list;
+    }
+
+    Map<String, CatalogInfo> plan(Filter filter) {
+        if (filter == null || Filter.INCLUDE.equals(filter)) {
+            return null;
+        }
+        if (Filter.EXCLUDE.equals(filter)) {
+            return Collections.emptyMap();
+        }
+        if (filter instanceof PropertyIsEqualTo) {
+            return planEqualTo((PropertyIsEqualTo) filter);
+        }
+        if (filter instanceof PropertyIsLike) {
+            return planLike((PropertyIsLike) filter);
+        }
+        if (filter instanceof And) {
+            // any child narrows the result, pick the most selective one
+            Map<String, CatalogInfo> best = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                Map<String, CatalogInfo> candidates = plan(child);
+                if (candidates != null && (best == null || candidates.size() < best.size())) {
+                    best = candidates;
+                }
+            }
+            return best;
+        }
+        if (filter instanceof Or) {
+            // all children must be answered from the indexes
+            Map<String, CatalogInfo> union = new LinkedHashMap<String, CatalogInfo>();
+            for (Filter child : ((Or) filter).getChildren()) {
+                Map<String, CatalogInfo> candidates = plan(child);
+                if (candidates == null) {
+                    return null;
+                }
+                union.putAll(candidates);
+            }
+            return union;
+        }
+        return null;
+    }
+
+    Map<String, CatalogInfo> planEqualTo(PropertyIsEqualTo filter) {
+        Expression e1 = ((BinaryComparisonOperator) filter).getExpression1();
+        Expression e2 = ((BinaryComparisonOperator) filter).getExpression2();
+        if (e1 instanceof Literal && e2 instanceof PropertyName) {
+            Expression tmp = e1;
+            e1 = e2;
+            e2 = tmp;
+        }
+        if (!(e1 instanceof PropertyName) || !(e2 instanceof Literal)) {
+            return null;
+        }
+
+        IndexedProperty property = properties.get(((PropertyName) e1).getPropertyName());
+        if (property == null) {
+            return null;
+        }
+
+        Literal literal = (Literal) e2;
+        Object value = null;
+        if (literal.getValue() != null) {
+            value = literal.evaluate(null, property.valueType);
+            if (value == null) {
+                // not convertible, can't use the index
+                return null;
+            }
+        }
+
+        List<Object> keys;
+        if (value instanceof String && !filter.isMatchingCase()) {
+            keys = new ArrayList<Object>();
+            for (Object key : keyValues(property)) {
+                if (key instanceof String && ((String) key).equalsIgnoreCase((String) value)) {
+                    keys.add(key);
+                }
+            }
+        } else {
+            keys = Collections.singletonList(value);
+        }
+        return lookup(property, keys);
+    }
+
+    Map<String, CatalogInfo> planLike(PropertyIsLike filter) {
+        if (!(filter.getExpression() instanceof PropertyName)) {
+            return null;
+        }
+        IndexedProperty property = properties.get(
+                ((PropertyName) filter.getExpression()).getPropertyName());
+        if (property == null || !String.class.equals(property.valueType)) {
+            return null;
+        }
+
+        Pattern pattern = pattern(filter);
+        List<Object> keys = new ArrayList<Object>();
+        for (Object key : keyValues(property)) {
+            if (key instanceof String && pattern.matcher((String) key).matches()) {
+                keys.add(key);
+            }
+        }
+        return lookup(property, keys);
+    }
+
+    /**
+     * Returns the distinct values the property can be matched against.
+     */
+    @SuppressWarnings("unchecked")
+    Collection<Object> keyValues(IndexedProperty property) {
+        if (property.referenced != null) {
+            return property.referenced.values(property.referencedKey);
+        }
+        if (property.key == null) {
+            return new ArrayList<Object>(index.byId.keySet());
+        }
+        return index.values(property.key);
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, CatalogInfo> lookup(IndexedProperty property, List<Object> keys) {
+        if (property.referenced != null) {
+            // translate the referenced property values into the referenced object ids
+            List<Object> ids = new ArrayList<Object>();
+            for (Object key : keys) {
+                for (Object ref : property.referenced.get(property.referencedKey, key)) {
+                    ids.add(((CatalogInfo) ref).getId());
+                }
+            }
+            keys = ids;
+        }
+
+        Map<String, CatalogInfo> result = new LinkedHashMap<String, CatalogInfo>();
+        for (Object key : keys) {
+            if (property.key == null) {
+                CatalogInfo info = index.get((String) key);
+                if (info != null) {
+                    result.put(info.getId(), info);
+                }
+            } else {
+                for (Object info : index.get(property.key, key)) {
+                    result.put(((CatalogInfo) info).getId(), (CatalogInfo) info);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Translates the like filter pattern into a regular expression.
+     */
+    static Pattern pattern(PropertyIsLike like) {
+        String wildcard = like.getWildCard();
+        String single = like.getSingleChar();
+        String escape = like.getEscape();
+        String literal = like.getLiteral();
+
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < literal.length(); i++) {
+            String c = literal.substring(i, i + 1);
+            if (escape != null && literal.startsWith(escape, i) && i + escape.length() < literal.length()) {
+                i += escape.length();
+                regex.append(Pattern.quote(literal.substring(i, i + 1)));
+            } else if (c.equals(wildcard)) {
+                regex.append(".*");
+            } else if (c.equals(single)) {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(c));
+            }
+        }
+        int flags = Pattern.DOTALL;
+        if (!like.isMatchingCase()) {
+            flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        }
+        return Pattern.compile(regex.toString(), flags);
+    }
+
+    /**
+     * Evaluates the filter on the candidate objects, sorts the matches and returns the requested
+     * page wrapped in modification proxies.
+     *
+     * @param candidates the raw (not proxied) objects to evaluate the query on, in natural order
+     */
+    static <T extends CatalogInfo> List<T> execute(Class<T> of, Iterable<?> candidates,
+            Filter filter, Integer offset, Integer count, SortBy sortBy) {
+        int first = offset != null && offset.intValue() > 0 ? offset.intValue() : 0;
+        int max = count != null && count.intValue() >= 0 ? count.intValue() : Integer.MAX_VALUE;
+        if (max == 0) {
+            return Collections.emptyList();
+        }
+
+        boolean include = filter == null || Filter.INCLUDE.equals(filter);
+        List<T> page = new ArrayList<T>();
+        if (sortBy == null) {
+            // no sorting, we can stop as soon as the page is full
+            int matched = 0;
+            for (Object o : candidates) {
+                if (of.isInstance(o) && (include || filter.evaluate(o))) {
+                    if (matched++ >= first) {
+                        page.add(of.cast(o));
+                        if (page.size() == max) {
+                            break;
+                        }
+                    }
+                }
+            }
+        } else {
+            // compute the sort keys once per object
+            String property = sortBy.getPropertyName().getPropertyName();
+            List<SortEntry> entries = new ArrayList<SortEntry>();
+            for (Object o : candidates) {
+                if (of.isInstance(o) && (include || filter.evaluate(o))) {
+                    entries.add(new SortEntry(OwsUtils.get(o, property), o));
+                }
+            }
+            Collections.sort(entries, SortOrder.DESCENDING.equals(sortBy.getSortOrder()) ?
+                Collections.reverseOrder(SortEntry.COMPARATOR) : SortEntry.COMPARATOR);
+
+            int last = (int) Math.min((long) first + max, entries.size());
+            for (int i = first; i < last; i++) {
+                page.add(of.cast(entries.get(i).info));
+            }
+        }
+
+        List<T> proxies = new ArrayList<T>(page.size());
+        for (T info : page) {
+            proxies.add(ModificationProxy.create(info, of));
+        }
+        return proxies;
+    }
+
+    /**
+     * Counts the candidate objects matching the filter.
+     */
+    static int count(Class<?> of, Iterable<?> candidates, Filter filter) {
+        boolean include = filter == null || Filter.INCLUDE.equals(filter);
+        int count = 0;
+        for (Object o : candidates) {
+            if (of.isInstance(o) && (include || filter.evaluate(o))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static class SortEntry {
+
+        static final Comparator<SortEntry> COMPARATOR = new Comparator<SortEntry>() {
+            @SuppressWarnings({ "rawtypes", "unchecked" })
+            public int compare(SortEntry e1, SortEntry e2) {
+                Object v1 = e1.key;
+                Object v2 = e2.key;
+                if (v1 == null) {
+                    return v2 == null ? 0 : -1;
+                } else if (v2 == null) {
+                    return 1;
+                }
+                return ((Comparable) v1).compareTo(v2);
+            }
+        };
+
+        final Object key;
+
+        final Object info;
+
+        SortEntry(Object key, Object info) {
+            this.key = key;
+            this.info = info;
+        }
+    }
+}
@@ -1065,7 +1065,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     @Override
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
-        return Iterables.size(iterable(of, filter, null));
+        return CatalogQueryPlanner.count(of, unwrapped(of), filter);
     }
 
     /**
@@ -1109,19 +1109,53 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                     + " by " + sortOrder.getPropertyName());
         }
 
-        Iterable<T> iterable = iterable(of, filter, sortOrder);
+        // filter, sort and page the raw objects, only the resulting page gets proxied
+        List<T> page = CatalogQueryPlanner.execute(of, unwrapped(of), filter, offset, count,
+                sortOrder);
 
-        if (offset != null && offset.intValue() > 0) {
-            iterable = Iterables.skip(iterable, offset.intValue());
-        }
+        return new CloseableIteratorAdapter<T>(page.iterator());
+    }
 
-        if (count != null && count.intValue() >= 0) {
-            iterable = Iterables.limit(iterable, count.intValue());
+    /**
+     * Returns the raw (not proxied) objects of the specified type.
+     */
+    List<?> unwrapped(final Class<?> of) {
+        if (NamespaceInfo.class.isAssignableFrom(of)) {
+            List<NamespaceInfo> ns = new ArrayList<NamespaceInfo>();
+            synchronized (namespaces) {
+                for (Map.Entry<String, NamespaceInfo> e : namespaces.entrySet()) {
+                    if (e.getKey() != null && !e.getKey().equals(Catalog.DEFAULT)) {
+                        ns.add(e.getValue());
+                    }
+                }
+            }
+            return ns;
+        } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
+            List<WorkspaceInfo> ws = new ArrayList<WorkspaceInfo>();
+            synchronized (workspaces) {
+                for (Map.Entry<String, WorkspaceInfo> e : workspaces.entrySet()) {
+                    if (e.getKey() != null && !e.getKey().equals(Catalog.DEFAULT)) {
+                        ws.add(e.getValue());
+                    }
+                }
+            }
+            return ws;
+        } else if (StoreInfo.class.isAssignableFrom(of)) {
+            return lookup(of, stores);
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            return lookup(of, resources);
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            return new ArrayList<LayerInfo>(layers);
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            return new ArrayList<LayerGroupInfo>(layerGroups);
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            return new ArrayList<StyleInfo>(styles);
+        } else if (MapInfo.class.isAssignableFrom(of)) {
+            synchronized (maps) {
+                return new ArrayList<MapInfo>(maps);
+            }
         }
-
-        Iterator<T> iterator = iterable.iterator();
-
-        return new CloseableIteratorAdapter<T>(iterator);
+        throw new IllegalArgumentException("Unknown type: " + of);
     }
 
     public <T extends CatalogInfo> Iterable<T> iterable(final Class<? super T> of,
@@ -0,0 +1,1367 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MapInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogQueryPlanner.IndexedProperty;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.catalog.util.CloseableIteratorAdapter;
+import org.geoserver.ows.util.OwsUtils;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+
+/**
+ * In memory catalog facade that maintains hash indexes over the catalog contents.
+ * <p>
+ * Objects are indexed by id and by name, and secondary indexes are kept for the relationships
+ * that are commonly navigated: stores by workspace, resources by namespace and store, layers by
+ * resource and style, layer groups and styles by workspace. All lookups that
+ * {@link DefaultCatalogFacade} performs with a linear scan are answered from the indexes instead,
+ * which matters on catalogs with tens of thousands of layers. Lookups by prefixed layer name are
+ * resolved by {@link CatalogImpl} through the namespace, resource and layer indexes.
+ * </p>
+ * <p>
+ * Indexes are updated under a write lock on add, save and remove. On save the object is unindexed
+ * before the changes are committed and reindexed right after, so readers never observe a
+ * partially updated index.
+ * </p>
+ * <p>
+ * This facade is a drop in replacement for {@link DefaultCatalogFacade}, and is used by
+ * {@link CatalogImpl} when the <tt>GEOSERVER_CATALOG_FACADE</tt> property is set to
+ * <tt>indexed</tt>.
+ * </p>
+ */
+public class IndexedCatalogFacade extends AbstractCatalogFacade implements CatalogFacade {
+
+    static final InfoIndex.Key<WorkspaceInfo> WORKSPACE_NAME = new InfoIndex.Key<WorkspaceInfo>("name") {
+        Collection<?> values(WorkspaceInfo info) {
+            return Collections.singleton(info.getName());
+        }
+    };
+
+    static final InfoIndex.Key<NamespaceInfo> NAMESPACE_PREFIX = new InfoIndex.Key<NamespaceInfo>("prefix") {
+        Collection<?> values(NamespaceInfo info) {
+            return Collections.singleton(info.getPrefix());
+        }
+    };
+
+    static final InfoIndex.Key<NamespaceInfo> NAMESPACE_URI = new InfoIndex.Key<NamespaceInfo>("uri") {
+        Collection<?> values(NamespaceInfo info) {
+            return Collections.singleton(info.getURI());
+        }
+    };
+
+    static final InfoIndex.Key<StoreInfo> STORE_NAME = new InfoIndex.Key<StoreInfo>("name") {
+        Collection<?> values(StoreInfo info) {
+            return Collections.singleton(info.getName());
+        }
+    };
+
+    static final InfoIndex.Key<StoreInfo> STORE_WORKSPACE = new InfoIndex.Key<StoreInfo>("workspace") {
+        Collection<?> values(StoreInfo info) {
+            return Collections.singleton(id(info.getWorkspace()));
+        }
+    };
+
+    static final InfoIndex.Key<StoreInfo> STORE_TYPE = new InfoIndex.Key<StoreInfo>("type") {
+        Collection<?> values(StoreInfo info) {
+            return Collections.singleton(info.getClass());
+        }
+    };
+
+    static final InfoIndex.Key<StoreInfo> STORE_ENABLED = new InfoIndex.Key<StoreInfo>("enabled") {
+        Collection<?> values(StoreInfo info) {
+            return Collections.singleton(info.isEnabled());
+        }
+    };
+
+    static final InfoIndex.Key<ResourceInfo> RESOURCE_NAME = new InfoIndex.Key<ResourceInfo>("name") {
+        Collection<?> values(ResourceInfo info) {
+            return Collections.singleton(info.getName());
+        }
+    };
+
+    static final InfoIndex.Key<ResourceInfo> RESOURCE_NAMESPACE = new InfoIndex.Key<ResourceInfo>("namespace") {
+        Collection<?> values(ResourceInfo info) {
+            return Collections.singleton(id(info.getNamespace()));
+        }
+    };
+
+    static final InfoIndex.Key<ResourceInfo> RESOURCE_STORE = new InfoIndex.Key<ResourceInfo>("store") {
+        Collection<?> values(ResourceInfo info) {
+            return Collections.singleton(id(info.getStore()));
+        }
+    };
+
+    static final InfoIndex.Key<ResourceInfo> RESOURCE_TYPE = new InfoIndex.Key<ResourceInfo>("type") {
+        Collection<?> values(ResourceInfo info) {
+            return Collections.singleton(info.getClass());
+        }
+    };
+
+    static final InfoIndex.Key<ResourceInfo> RESOURCE_ENABLED = new InfoIndex.Key<ResourceInfo>("enabled") {
+        Collection<?> values(ResourceInfo info) {
+            return Collections.singleton(info.isEnabled());
+        }
+    };
+
+    static final InfoIndex.Key<ResourceInfo> RESOURCE_ADVERTISED = new InfoIndex.Key<ResourceInfo>("advertised") {
+        Collection<?> values(ResourceInfo info) {
+            return Collections.singleton(info.isAdvertised());
+        }
+    };
+
+    static final InfoIndex.Key<LayerInfo> LAYER_NAME = new InfoIndex.Key<LayerInfo>("name") {
+        Collection<?> values(LayerInfo info) {
+            // the layer name is derived from the resource
+            return Collections.singleton(info.getResource() != null ? info.getName() : null);
+        }
+    };
+
+    static final InfoIndex.Key<LayerInfo> LAYER_RESOURCE = new InfoIndex.Key<LayerInfo>("resource") {
+        Collection<?> values(LayerInfo info) {
+            return Collections.singleton(id(info.getResource()));
+        }
+    };
+
+    static final InfoIndex.Key<LayerInfo> LAYER_STYLE = new InfoIndex.Key<LayerInfo>("style") {
+        Collection<?> values(LayerInfo info) {
+            Set<String> ids = new LinkedHashSet<String>();
+            if (info.getDefaultStyle() != null) {
+                ids.add(id(info.getDefaultStyle()));
+            }
+            for (StyleInfo style : info.getStyles()) {
+                if (style != null) {
+                    ids.add(id(style));
+                }
+            }
+            return ids;
+        }
+    };
+
+    static final InfoIndex.Key<LayerInfo> LAYER_ENABLED = new InfoIndex.Key<LayerInfo>("enabled") {
+        Collection<?> values(LayerInfo info) {
+            return Collections.singleton(info.isEnabled());
+        }
+    };
+
+    static final InfoIndex.Key<LayerInfo> LAYER_ADVERTISED = new InfoIndex.Key<LayerInfo>("advertised") {
+        Collection<?> values(LayerInfo info) {
+            return Collections.singleton(info.isAdvertised());
+        }
+    };
+
+    static final InfoIndex.Key<LayerGroupInfo> LAYERGROUP_NAME = new InfoIndex.Key<LayerGroupInfo>("name") {
+        Collection<?> values(LayerGroupInfo info) {
+            return Collections.singleton(info.getName());
+        }
+    };
+
+    static final InfoIndex.Key<LayerGroupInfo> LAYERGROUP_WORKSPACE = new InfoIndex.Key<LayerGroupInfo>("workspace") {
+        Collection<?> values(LayerGroupInfo info) {
+            return Collections.singleton(id(info.getWorkspace()));
+        }
+    };
+
+    static final InfoIndex.Key<StyleInfo> STYLE_NAME = new InfoIndex.Key<StyleInfo>("name") {
+        Collection<?> values(StyleInfo info) {
+            return Collections.singleton(info.getName());
+        }
+    };
+
+    static final InfoIndex.Key<StyleInfo> STYLE_WORKSPACE = new InfoIndex.Key<StyleInfo>("workspace") {
+        Collection<?> values(StyleInfo info) {
+            return Collections.singleton(id(info.getWorkspace()));
+        }
+    };
+
+    static final InfoIndex.Key<MapInfo> MAP_NAME = new InfoIndex.Key<MapInfo>("name") {
+        Collection<?> values(MapInfo info) {
+            return Collections.singleton(info.getName());
+        }
+    };
+
+    /**
+     * workspaces
+     */
+    protected InfoIndex<WorkspaceInfo> workspaces = new InfoIndex<WorkspaceInfo>(WORKSPACE_NAME);
+
+    /**
+     * namespaces
+     */
+    protected InfoIndex<NamespaceInfo> namespaces =
+        new InfoIndex<NamespaceInfo>(NAMESPACE_PREFIX, NAMESPACE_URI);
+
+    /**
+     * stores
+     */
+    protected InfoIndex<StoreInfo> stores =
+        new InfoIndex<StoreInfo>(STORE_NAME, STORE_WORKSPACE, STORE_TYPE, STORE_ENABLED);
+
+    /**
+     * resources
+     */
+    protected InfoIndex<ResourceInfo> resources = new InfoIndex<ResourceInfo>(RESOURCE_NAME,
+        RESOURCE_NAMESPACE, RESOURCE_STORE, RESOURCE_TYPE, RESOURCE_ENABLED, RESOURCE_ADVERTISED);
+
+    /**
+     * layers
+     */
+    protected InfoIndex<LayerInfo> layers =
+        new InfoIndex<LayerInfo>(LAYER_NAME, LAYER_RESOURCE, LAYER_STYLE, LAYER_ENABLED,
+            LAYER_ADVERTISED);
+
+    /**
+     * layer groups
+     */
+    protected InfoIndex<LayerGroupInfo> layerGroups =
+        new InfoIndex<LayerGroupInfo>(LAYERGROUP_NAME, LAYERGROUP_WORKSPACE);
+
+    /**
+     * styles
+     */
+    protected InfoIndex<StyleInfo> styles = new InfoIndex<StyleInfo>(STYLE_NAME, STYLE_WORKSPACE);
+
+    /**
+     * maps
+     */
+    protected InfoIndex<MapInfo> maps = new InfoIndex<MapInfo>(MAP_NAME);
+
+    /**
+     * The default store keyed by workspace id
+     */
+    protected Map<String, DataStoreInfo> defaultStores = new HashMap<String, DataStoreInfo>();
+
+    /**
+     * default workspace and namespace
+     */
+    protected WorkspaceInfo defaultWorkspace;
+    protected NamespaceInfo defaultNamespace;
+
+    /**
+     * guards all the indexes
+     */
+    protected ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * the catalog
+     */
+    private CatalogImpl catalog;
+
+    public IndexedCatalogFacade(Catalog catalog) {
+        setCatalog(catalog);
+    }
+
+    public void setCatalog(Catalog catalog) {
+        this.catalog = (CatalogImpl) catalog;
+    }
+
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    //
+    // Stores
+    //
+    public StoreInfo add(StoreInfo store) {
+        resolve(store);
+        added(store, stores);
+        return ModificationProxy.create(store, StoreInfo.class);
+    }
+
+    public void remove(StoreInfo store) {
+        removed(store, stores);
+    }
+
+    public void save(StoreInfo store) {
+        saved(store, stores);
+    }
+
+    public <T extends StoreInfo> T detach(T store) {
+        return store;
+    }
+
+    public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
+        lock.readLock().lock();
+        try {
+            StoreInfo store = stores.get(id);
+            return clazz.isInstance(store) ? ModificationProxy.create(clazz.cast(store), clazz) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace, String name,
+            Class<T> clazz) {
+        lock.readLock().lock();
+        try {
+            List<T> matches = filter(stores.get(STORE_NAME, name), clazz);
+            if (workspace == ANY_WORKSPACE) {
+                if (matches.size() == 1) {
+                    return ModificationProxy.create(matches.get(0), clazz);
+                }
+            } else {
+                for (T store : matches) {
+                    if (sameId(workspace, store.getWorkspace())) {
+                        return ModificationProxy.create(store, clazz);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public <T extends StoreInfo> List<T> getStoresByWorkspace(WorkspaceInfo workspace,
+            Class<T> clazz) {
+        // TODO: support ANY_WORKSPACE?
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+            if (workspace == null) {
+                return Collections.emptyList();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            List<T> matches = filter(stores.get(STORE_WORKSPACE, workspace.getId()), clazz);
+            return ModificationProxy.createList(matches, clazz);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public <T extends StoreInfo> List<T> getStores(Class<T> clazz) {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(lookup(clazz, stores, STORE_TYPE), clazz);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
+        synchronized (defaultStores) {
+            DataStoreInfo defaultStore = defaultStores.get(workspace.getId());
+            return defaultStore != null ?
+                ModificationProxy.create(defaultStore, DataStoreInfo.class) : null;
+        }
+    }
+
+    public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
+        DataStoreInfo old;
+        synchronized (defaultStores) {
+            old = defaultStores.get(workspace.getId());
+            if (store != null) {
+                defaultStores.put(workspace.getId(), store);
+            } else {
+                defaultStores.remove(workspace.getId());
+            }
+        }
+
+        // fire change event
+        catalog.fireModified(catalog,
+            Arrays.asList("defaultDataStore"), Arrays.asList(old), Arrays.asList(store));
+    }
+
+    //
+    // Resources
+    //
+    public ResourceInfo add(ResourceInfo resource) {
+        resolve(resource);
+        added(resource, resources);
+        return ModificationProxy.create(resource, ResourceInfo.class);
+    }
+
+    public void remove(ResourceInfo resource) {
+        removed(resource, resources);
+    }
+
+    public void save(ResourceInfo resource) {
+        beforeSaved(resource);
+        lock.writeLock().lock();
+        try {
+            ResourceInfo real = commitProxy(resource);
+            resources.reindex(real);
+
+            // layer names are derived from the resource name
+            for (LayerInfo layer : layers.get(LAYER_RESOURCE, real.getId())) {
+                layers.reindex(layer);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        afterSaved(resource);
+    }
+
+    public <T extends ResourceInfo> T detach(T resource) {
+        return resource;
+    }
+
+    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        lock.readLock().lock();
+        try {
+            ResourceInfo resource = resources.get(id);
+            return clazz.isInstance(resource) ?
+                ModificationProxy.create(clazz.cast(resource), clazz) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
+            Class<T> clazz) {
+        lock.readLock().lock();
+        try {
+            List<T> matches = filter(resources.get(RESOURCE_NAME, name), clazz);
+            if (namespace == ANY_NAMESPACE) {
+                if (matches.size() == 1) {
+                    return ModificationProxy.create(matches.get(0), clazz);
+                }
+            } else {
+                for (T resource : matches) {
+                    if (resource.getNamespace() != null && sameId(namespace, resource.getNamespace())) {
+                        return ModificationProxy.create(resource, clazz);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public <T extends ResourceInfo> List<T> getResources(Class<T> clazz) {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(lookup(clazz, resources, RESOURCE_TYPE), clazz);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public <T extends ResourceInfo> List<T> getResourcesByNamespace(NamespaceInfo namespace,
+            Class<T> clazz) {
+        // TODO: support ANY_NAMESPACE?
+        if (namespace == null) {
+            namespace = getDefaultNamespace();
+        }
+
+        lock.readLock().lock();
+        try {
+            List<T> matches = filter(resources.get(RESOURCE_NAMESPACE, id(namespace)), clazz);
+            return ModificationProxy.createList(matches, clazz);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name,
+            Class<T> clazz) {
+        lock.readLock().lock();
+        try {
+            for (T resource : filter(resources.get(RESOURCE_NAME, name), clazz)) {
+                if (sameId(store, resource.getStore())) {
+                    return ModificationProxy.create(resource, clazz);
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        lock.readLock().lock();
+        try {
+            List<T> matches = filter(resources.get(RESOURCE_STORE, store.getId()), clazz);
+            return ModificationProxy.createList(matches, clazz);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //
+    // Layers
+    //
+    public LayerInfo add(LayerInfo layer) {
+        resolve(layer);
+        added(layer, layers);
+        return ModificationProxy.create(layer, LayerInfo.class);
+    }
+
+    public void remove(LayerInfo layer) {
+        removed(layer, layers);
+    }
+
+    public void save(LayerInfo layer) {
+        beforeSaved(layer);
+        lock.writeLock().lock();
+        try {
+            LayerInfo real = commitProxy(layer);
+            layers.reindex(real);
+
+            // the layer propagates some changes, such as enabled, to its resource
+            if (real.getResource() != null) {
+                ResourceInfo resource = resources.get(real.getResource().getId());
+                if (resource != null) {
+                    resources.reindex(resource);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        afterSaved(layer);
+    }
+
+    public LayerInfo detach(LayerInfo layer) {
+        return layer;
+    }
+
+    public LayerInfo getLayer(String id) {
+        lock.readLock().lock();
+        try {
+            LayerInfo layer = layers.get(id);
+            return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public LayerInfo getLayerByName(String name) {
+        lock.readLock().lock();
+        try {
+            LayerInfo layer = layers.first(LAYER_NAME, name);
+            return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(layers.get(LAYER_RESOURCE, resource.getId()),
+                    LayerInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<LayerInfo> getLayers(StyleInfo style) {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(layers.get(LAYER_STYLE, style.getId()),
+                    LayerInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<LayerInfo> getLayers() {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(layers.all(), LayerInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //
+    // Maps
+    //
+    public MapInfo add(MapInfo map) {
+        resolve(map);
+        added(map, maps);
+        return ModificationProxy.create(map, MapInfo.class);
+    }
+
+    public void remove(MapInfo map) {
+        removed(map, maps);
+    }
+
+    public void save(MapInfo map) {
+        saved(map, maps);
+    }
+
+    public MapInfo detach(MapInfo map) {
+        return map;
+    }
+
+    public MapInfo getMap(String id) {
+        lock.readLock().lock();
+        try {
+            MapInfo map = maps.get(id);
+            return map != null ? ModificationProxy.create(map, MapInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public MapInfo getMapByName(String name) {
+        lock.readLock().lock();
+        try {
+            MapInfo map = maps.first(MAP_NAME, name);
+            return map != null ? ModificationProxy.create(map, MapInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<MapInfo> getMaps() {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(maps.all(), MapInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //
+    // Layer groups
+    //
+    public LayerGroupInfo add(LayerGroupInfo layerGroup) {
+        resolve(layerGroup);
+        added(layerGroup, layerGroups);
+        return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
+    }
+
+    public void remove(LayerGroupInfo layerGroup) {
+        removed(layerGroup, layerGroups);
+    }
+
+    public void save(LayerGroupInfo layerGroup) {
+        saved(layerGroup, layerGroups);
+    }
+
+    public LayerGroupInfo detach(LayerGroupInfo layerGroup) {
+        return layerGroup;
+    }
+
+    public List<LayerGroupInfo> getLayerGroups() {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(layerGroups.all(), LayerGroupInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<LayerGroupInfo> getLayerGroupsByWorkspace(WorkspaceInfo workspace) {
+        // TODO: support ANY_WORKSPACE?
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+            if (workspace == null) {
+                return Collections.emptyList();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            String wsId = workspace == NO_WORKSPACE ? null : workspace.getId();
+            return ModificationProxy.createList(layerGroups.get(LAYERGROUP_WORKSPACE, wsId),
+                    LayerGroupInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public LayerGroupInfo getLayerGroup(String id) {
+        lock.readLock().lock();
+        try {
+            LayerGroupInfo layerGroup = layerGroups.get(id);
+            return layerGroup != null ?
+                ModificationProxy.create(layerGroup, LayerGroupInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(String name) {
+        return getLayerGroupByName(NO_WORKSPACE, name);
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(WorkspaceInfo workspace, String name) {
+        List<LayerGroupInfo> matches = new ArrayList<LayerGroupInfo>(2);
+
+        lock.readLock().lock();
+        try {
+            for (LayerGroupInfo layerGroup : layerGroups.get(LAYERGROUP_NAME, name)) {
+                WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
+                if (NO_WORKSPACE == workspace) {
+                    if (lgWorkspace == null) {
+                        matches.add(layerGroup);
+                    }
+                } else if (ANY_WORKSPACE == workspace) {
+                    matches.add(layerGroup);
+                } else if (lgWorkspace != null && sameId(workspace, lgWorkspace)) {
+                    matches.add(layerGroup);
+                }
+                if (matches.size() > 1) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (matches.size() == 1) {
+            return ModificationProxy.create(matches.get(0), LayerGroupInfo.class);
+        }
+        return null;
+    }
+
+    //
+    // Namespaces
+    //
+    public NamespaceInfo add(NamespaceInfo namespace) {
+        resolve(namespace);
+        added(namespace, namespaces);
+        return ModificationProxy.create(namespace, NamespaceInfo.class);
+    }
+
+    public void remove(NamespaceInfo namespace) {
+        lock.writeLock().lock();
+        try {
+            NamespaceInfo removed = namespaces.remove(namespace.getId());
+            if (removed != null && sameId(removed, defaultNamespace)) {
+                defaultNamespace = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void save(NamespaceInfo namespace) {
+        saved(namespace, namespaces);
+    }
+
+    public NamespaceInfo detach(NamespaceInfo namespace) {
+        return namespace;
+    }
+
+    public NamespaceInfo getDefaultNamespace() {
+        NamespaceInfo ns = defaultNamespace;
+        return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+    }
+
+    public void setDefaultNamespace(NamespaceInfo namespace) {
+        NamespaceInfo old;
+        lock.writeLock().lock();
+        try {
+            old = defaultNamespace;
+            defaultNamespace = namespace != null ? lookupNamespace(namespace) : null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // fire change event
+        catalog.fireModified(catalog,
+            Arrays.asList("defaultNamespace"), Arrays.asList(old), Arrays.asList(namespace));
+    }
+
+    NamespaceInfo lookupNamespace(NamespaceInfo namespace) {
+        NamespaceInfo ns = namespaces.get(namespace.getId());
+        return ns != null ? ns : namespaces.first(NAMESPACE_PREFIX, namespace.getPrefix());
+    }
+
+    public NamespaceInfo getNamespace(String id) {
+        lock.readLock().lock();
+        try {
+            NamespaceInfo ns = namespaces.get(id);
+            return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public NamespaceInfo getNamespaceByPrefix(String prefix) {
+        if (prefix == null || Catalog.DEFAULT.equals(prefix)) {
+            return getDefaultNamespace();
+        }
+
+        lock.readLock().lock();
+        try {
+            NamespaceInfo ns = namespaces.first(NAMESPACE_PREFIX, prefix);
+            return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public NamespaceInfo getNamespaceByURI(String uri) {
+        lock.readLock().lock();
+        try {
+            NamespaceInfo ns = namespaces.first(NAMESPACE_URI, uri);
+            return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<NamespaceInfo> getNamespaces() {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(namespaces.all(), NamespaceInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //
+    // Workspaces
+    //
+    public WorkspaceInfo add(WorkspaceInfo workspace) {
+        resolve(workspace);
+        added(workspace, workspaces);
+        return ModificationProxy.create(workspace, WorkspaceInfo.class);
+    }
+
+    public void remove(WorkspaceInfo workspace) {
+        // as in the default facade the default workspace is left alone, the catalog takes care
+        // of choosing a new one
+        removed(workspace, workspaces);
+    }
+
+    public void save(WorkspaceInfo workspace) {
+        saved(workspace, workspaces);
+    }
+
+    public WorkspaceInfo detach(WorkspaceInfo workspace) {
+        return workspace;
+    }
+
+    public WorkspaceInfo getDefaultWorkspace() {
+        WorkspaceInfo ws = defaultWorkspace;
+        return ws != null ? ModificationProxy.create(ws, WorkspaceInfo.class) : null;
+    }
+
+    public void setDefaultWorkspace(WorkspaceInfo workspace) {
+        WorkspaceInfo old;
+        lock.writeLock().lock();
+        try {
+            old = defaultWorkspace;
+            if (workspace != null) {
+                WorkspaceInfo ws = workspaces.get(workspace.getId());
+                defaultWorkspace = ws != null ? ws :
+                    workspaces.first(WORKSPACE_NAME, workspace.getName());
+            } else {
+                defaultWorkspace = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // fire change event
+        catalog.fireModified(catalog,
+            Arrays.asList("defaultWorkspace"), Arrays.asList(old), Arrays.asList(workspace));
+    }
+
+    public List<WorkspaceInfo> getWorkspaces() {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(workspaces.all(), WorkspaceInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public WorkspaceInfo getWorkspace(String id) {
+        lock.readLock().lock();
+        try {
+            WorkspaceInfo ws = workspaces.get(id);
+            return ws != null ? ModificationProxy.create(ws, WorkspaceInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public WorkspaceInfo getWorkspaceByName(String name) {
+        if (name == null || Catalog.DEFAULT.equals(name)) {
+            return getDefaultWorkspace();
+        }
+
+        lock.readLock().lock();
+        try {
+            WorkspaceInfo ws = workspaces.first(WORKSPACE_NAME, name);
+            return ws != null ? ModificationProxy.create(ws, WorkspaceInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //
+    // Styles
+    //
+    public StyleInfo add(StyleInfo style) {
+        resolve(style);
+        added(style, styles);
+        return ModificationProxy.create(style, StyleInfo.class);
+    }
+
+    public void remove(StyleInfo style) {
+        removed(style, styles);
+    }
+
+    public void save(StyleInfo style) {
+        saved(style, styles);
+    }
+
+    public StyleInfo detach(StyleInfo style) {
+        return style;
+    }
+
+    public StyleInfo getStyle(String id) {
+        lock.readLock().lock();
+        try {
+            StyleInfo style = styles.get(id);
+            return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public StyleInfo getStyleByName(String name) {
+        lock.readLock().lock();
+        try {
+            for (StyleInfo style : styles.get(STYLE_NAME, name)) {
+                if (style.getWorkspace() == null) {
+                    return ModificationProxy.create(style, StyleInfo.class);
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public StyleInfo getStyleByName(WorkspaceInfo workspace, String name) {
+        if (null == workspace) {
+            throw new NullPointerException("workspace");
+        }
+        if (null == name) {
+            throw new NullPointerException("name");
+        }
+
+        lock.readLock().lock();
+        try {
+            List<StyleInfo> matches = styles.get(STYLE_NAME, name);
+            if (workspace == ANY_WORKSPACE) {
+                if (matches.size() == 1) {
+                    return ModificationProxy.create(matches.get(0), StyleInfo.class);
+                }
+            } else {
+                for (StyleInfo style : matches) {
+                    if (style.getWorkspace() != null && sameId(workspace, style.getWorkspace())
+                            || style.getWorkspace() == null && workspace == NO_WORKSPACE) {
+                        return ModificationProxy.create(style, StyleInfo.class);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<StyleInfo> getStyles() {
+        lock.readLock().lock();
+        try {
+            return ModificationProxy.createList(styles.all(), StyleInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
+        // TODO: support ANY_WORKSPACE?
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+            if (workspace == null) {
+                return Collections.emptyList();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            String wsId = workspace == NO_WORKSPACE ? null : workspace.getId();
+            return ModificationProxy.createList(styles.get(STYLE_WORKSPACE, wsId),
+                    StyleInfo.class);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //
+    // Utilities
+    //
+    <T extends CatalogInfo> void added(T info, InfoIndex<T> index) {
+        lock.writeLock().lock();
+        try {
+            index.add(info);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    <T extends CatalogInfo> void removed(T info, InfoIndex<T> index) {
+        lock.writeLock().lock();
+        try {
+            index.remove(unwrap(info).getId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    <T extends CatalogInfo> void saved(T info, InfoIndex<T> index) {
+        beforeSaved(info);
+        lock.writeLock().lock();
+        try {
+            index.reindex(commitProxy(info));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        afterSaved(info);
+    }
+
+    /**
+     * Returns all the objects in the index whose class is a sub type of the specified class.
+     */
+    <T, S extends CatalogInfo> List<T> lookup(Class<T> clazz, InfoIndex<S> index,
+            InfoIndex.Key<S> typeKey) {
+        List<T> result = new ArrayList<T>();
+        for (Object type : index.values(typeKey)) {
+            if (clazz.isAssignableFrom((Class<?>) type)) {
+                for (S info : index.get(typeKey, type)) {
+                    result.add(clazz.cast(info));
+                }
+            }
+        }
+        return result;
+    }
+
+    static <T> List<T> filter(List<?> list, Class<T> clazz) {
+        List<T> filtered = new ArrayList<T>(list.size());
+        for (Object o : list) {
+            if (clazz.isInstance(o)) {
+                filtered.add(clazz.cast(o));
+            }
+        }
+        return filtered;
+    }
+
+    static String id(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
+    static boolean sameId(CatalogInfo info1, CatalogInfo info2) {
+        if (info1 == null || info2 == null) {
+            return false;
+        }
+        String id1 = info1.getId();
+        return id1 != null ? id1.equals(info2.getId()) : info1.equals(info2);
+    }
+
+    public void dispose() {
+        lock.writeLock().lock();
+        try {
+            workspaces.clear();
+            namespaces.clear();
+            stores.clear();
+            resources.clear();
+            layers.clear();
+            layerGroups.clear();
+            styles.clear();
+            maps.clear();
+            defaultWorkspace = null;
+            defaultNamespace = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (defaultStores) {
+            defaultStores.clear();
+        }
+    }
+
+    public void resolve() {
+        lock.writeLock().lock();
+        try {
+            for (WorkspaceInfo ws : workspaces.all()) {
+                resolve(ws);
+            }
+            for (NamespaceInfo ns : namespaces.all()) {
+                resolve(ns);
+            }
+            for (StoreInfo s : stores.all()) {
+                resolve(s);
+            }
+            for (StyleInfo s : styles.all()) {
+                resolve(s);
+            }
+            for (ResourceInfo r : resources.all()) {
+                resolve(r);
+            }
+            for (LayerInfo l : layers.all()) {
+                resolve(l);
+            }
+            for (LayerGroupInfo lg : layerGroups.all()) {
+                resolve(lg);
+            }
+            for (MapInfo m : maps.all()) {
+                resolve(m);
+            }
+
+            // resolution changes references, rebuild all secondary indexes
+            reindexAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void reindexAll() {
+        workspaces.reindexAll();
+        namespaces.reindexAll();
+        stores.reindexAll();
+        styles.reindexAll();
+        resources.reindexAll();
+        layers.reindexAll();
+        layerGroups.reindexAll();
+        maps.reindexAll();
+    }
+
+    public void syncTo(CatalogFacade dao) {
+        if (dao instanceof IndexedCatalogFacade) {
+            // do an optimized sync
+            IndexedCatalogFacade other = (IndexedCatalogFacade) dao;
+
+            other.workspaces = workspaces;
+            other.namespaces = namespaces;
+            other.stores = stores;
+            other.resources = resources;
+            other.layers = layers;
+            other.layerGroups = layerGroups;
+            other.styles = styles;
+            other.maps = maps;
+            other.defaultStores = defaultStores;
+            other.defaultWorkspace = defaultWorkspace;
+            other.defaultNamespace = defaultNamespace;
+
+            // objects may have been modified in place while loading
+            other.lock.writeLock().lock();
+            try {
+                other.reindexAll();
+            } finally {
+                other.lock.writeLock().unlock();
+            }
+        } else {
+            // do a manual import
+            for (WorkspaceInfo ws : workspaces.all()) {
+                dao.add(ws);
+            }
+            for (NamespaceInfo ns : namespaces.all()) {
+                dao.add(ns);
+            }
+            for (StoreInfo s : stores.all()) {
+                dao.add(s);
+            }
+            for (ResourceInfo r : resources.all()) {
+                dao.add(r);
+            }
+            for (StyleInfo s : styles.all()) {
+                dao.add(s);
+            }
+            for (LayerInfo l : layers.all()) {
+                dao.add(l);
+            }
+            for (LayerGroupInfo lg : layerGroups.all()) {
+                dao.add(lg);
+            }
+            for (MapInfo m : maps.all()) {
+                dao.add(m);
+            }
+
+            if (defaultWorkspace != null) {
+                dao.setDefaultWorkspace(defaultWorkspace);
+            }
+            if (defaultNamespace != null) {
+                dao.setDefaultNamespace(defaultNamespace);
+            }
+
+            for (Map.Entry<String, DataStoreInfo> e : defaultStores.entrySet()) {
+                WorkspaceInfo ws = workspaces.get(e.getKey());
+                if (null != ws) {
+                    dao.setDefaultDataStore(ws, e.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
+        return CatalogQueryPlanner.count(of, candidates(of, filter), filter);
+    }
+
+    /**
+     * Supports sorting against properties (could be nested) that are either of a primitive type or
+     * implement {@link Comparable}.
+     *
+     * @see org.geoserver.catalog.CatalogFacade#canSort(java.lang.Class, java.lang.String)
+     */
+    @Override
+    public boolean canSort(final Class<? extends CatalogInfo> type, final String propertyName) {
+        final String[] path = propertyName.split("\\.");
+        Class<?> clazz = type;
+        for (int i = 0; i < path.length; i++) {
+            String property = path[i];
+            Method getter;
+            try {
+                getter = OwsUtils.getter(clazz, property, null);
+            } catch (RuntimeException e) {
+                return false;
+            }
+            clazz = getter.getReturnType();
+            if (i == path.length - 1) {
+                return clazz.isPrimitive() || Comparable.class.isAssignableFrom(clazz);
+            }
+        }
+        throw new IllegalStateException("empty property name");
+    }
+
+    @Override
+    public <T extends CatalogInfo> CloseableIterator<T> list(final Class<T> of,
+            final Filter filter, @Nullable Integer offset, @Nullable Integer count,
+            @Nullable SortBy sortOrder) {
+
+        if (null != sortOrder && !canSort(of, sortOrder.getPropertyName().getPropertyName())) {
+            throw new IllegalArgumentException("Can't sort objects of type " + of.getName()
+                    + " by " + sortOrder.getPropertyName());
+        }
+
+        List<T> page = CatalogQueryPlanner.execute(of, candidates(of, filter), filter, offset,
+                count, sortOrder);
+        return new CloseableIteratorAdapter<T>(page.iterator());
+    }
+
+    /**
+     * Returns the raw objects of the specified type that can possibly match the filter, using the
+     * indexes to narrow them down where possible.
+     */
+    List<? extends CatalogInfo> candidates(Class<?> of, Filter filter) {
+        lock.readLock().lock();
+        try {
+            CatalogQueryPlanner planner = planner(of);
+            List<CatalogInfo> candidates = planner.candidates(filter);
+            if (candidates != null) {
+                return candidates;
+            }
+            if (StoreInfo.class.isAssignableFrom(of)) {
+                return lookup(of.asSubclass(StoreInfo.class), stores, STORE_TYPE);
+            }
+            if (ResourceInfo.class.isAssignableFrom(of)) {
+                return lookup(of.asSubclass(ResourceInfo.class), resources, RESOURCE_TYPE);
+            }
+            return planner.index.all();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Creates a query planner for objects of the specified type, describing the properties that
+     * can be answered from the indexes.
+     */
+    CatalogQueryPlanner planner(Class<?> of) {
+        Map<String, IndexedProperty> props = new HashMap<String, IndexedProperty>();
+        props.put("id", new IndexedProperty(null, String.class));
+
+        InfoIndex<?> index;
+        if (WorkspaceInfo.class.isAssignableFrom(of)) {
+            index = workspaces;
+            props.put("name", new IndexedProperty(WORKSPACE_NAME, String.class));
+        } else if (NamespaceInfo.class.isAssignableFrom(of)) {
+            index = namespaces;
+            props.put("prefix", new IndexedProperty(NAMESPACE_PREFIX, String.class));
+            props.put("name", new IndexedProperty(NAMESPACE_PREFIX, String.class));
+            props.put("URI", new IndexedProperty(NAMESPACE_URI, String.class));
+        } else if (StoreInfo.class.isAssignableFrom(of)) {
+            index = stores;
+            props.put("name", new IndexedProperty(STORE_NAME, String.class));
+            props.put("enabled", new IndexedProperty(STORE_ENABLED, Boolean.class));
+            props.put("workspace.id", new IndexedProperty(STORE_WORKSPACE, String.class));
+            props.put("workspace.name", new IndexedProperty(STORE_WORKSPACE, String.class,
+                    workspaces, WORKSPACE_NAME));
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            index = resources;
+            props.put("name", new IndexedProperty(RESOURCE_NAME, String.class));
+            props.put("enabled", new IndexedProperty(RESOURCE_ENABLED, Boolean.class));
+            props.put("advertised", new IndexedProperty(RESOURCE_ADVERTISED, Boolean.class));
+            props.put("store.id", new IndexedProperty(RESOURCE_STORE, String.class));
+            props.put("store.name", new IndexedProperty(RESOURCE_STORE, String.class,
+                    stores, STORE_NAME));
+            props.put("namespace.id", new IndexedProperty(RESOURCE_NAMESPACE, String.class));
+            props.put("namespace.prefix", new IndexedProperty(RESOURCE_NAMESPACE, String.class,
+                    namespaces, NAMESPACE_PREFIX));
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            index = layers;
+            props.put("name", new IndexedProperty(LAYER_NAME, String.class));
+            props.put("resource.name", new IndexedProperty(LAYER_NAME, String.class));
+            props.put("enabled", new IndexedProperty(LAYER_ENABLED, Boolean.class));
+            props.put("advertised", new IndexedProperty(LAYER_ADVERTISED, Boolean.class));
+            props.put("resource.id", new IndexedProperty(LAYER_RESOURCE, String.class));
+            props.put("defaultStyle.id", new IndexedProperty(LAYER_STYLE, String.class));
+            props.put("styles.id", new IndexedProperty(LAYER_STYLE, String.class));
+            props.put("defaultStyle.name", new IndexedProperty(LAYER_STYLE, String.class,
+                    styles, STYLE_NAME));
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            index = layerGroups;
+            props.put("name", new IndexedProperty(LAYERGROUP_NAME, String.class));
+            props.put("workspace.id", new IndexedProperty(LAYERGROUP_WORKSPACE, String.class));
+            props.put("workspace.name", new IndexedProperty(LAYERGROUP_WORKSPACE, String.class,
+                    workspaces, WORKSPACE_NAME));
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            index = styles;
+            props.put("name", new IndexedProperty(STYLE_NAME, String.class));
+            props.put("workspace.id", new IndexedProperty(STYLE_WORKSPACE, String.class));
+            props.put("workspace.name", new IndexedProperty(STYLE_WORKSPACE, String.class,
+                    workspaces, WORKSPACE_NAME));
+        } else if (MapInfo.class.isAssignableFrom(of)) {
+            index = maps;
+            props.put("name", new IndexedProperty(MAP_NAME, String.class));
+        } else {
+            throw new IllegalArgumentException("Unknown type: " + of);
+        }
+        return new CatalogQueryPlanner(index, props);
+    }
+}
@@ -0,0 +1,246 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geoserver.catalog.CatalogInfo;
+
+/**
+ * In memory index over a set of catalog objects of the same kind.
+ * <p>
+ * Objects are stored by id, in insertion order, and can be indexed by any number of secondary
+ * {@link Key}s. The values an object was indexed under are remembered, so it can be unindexed
+ * correctly even after its properties have been modified in place.
+ * </p>
+ * <p>
+ * This class is not thread safe, callers are responsible for guarding access to it.
+ * </p>
+ *
+ * @see IndexedCatalogFacade
+ */
+class InfoIndex<T extends CatalogInfo> {
+
+    /**
+     * Extracts the values an object is indexed under for a secondary index.
+     */
+    static abstract class Key<T> {
+
+        final String name;
+
+        Key(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the values to index the object under, <code>null</code> is a valid value.
+         */
+        abstract Collection<?> values(T info);
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * objects by id
+     */
+    final Map<String, T> byId = new LinkedHashMap<String, T>();
+
+    /**
+     * secondary indexes, index value -> (id -> object)
+     */
+    final Map<Key<T>, Map<Object, Map<String, T>>> indexes =
+        new LinkedHashMap<Key<T>, Map<Object, Map<String, T>>>();
+
+    /**
+     * insertion sequence of each object, by id
+     */
+    final Map<String, Long> sequence = new HashMap<String, Long>();
+
+    long nextSequence;
+
+    /**
+     * the values each object was indexed under, by id
+     */
+    final Map<String, Map<Key<T>, Collection<?>>> indexed =
+        new HashMap<String, Map<Key<T>, Collection<?>>>();
+
+    InfoIndex(Key<T>... keys) {
+        for (Key<T> key : keys) {
+            indexes.put(key, new HashMap<Object, Map<String, T>>());
+        }
+    }
+
+    /**
+     * Adds an object to the index, replacing any object with the same id.
+     */
+    void add(T info) {
+        String id = info.getId();
+        if (byId.containsKey(id)) {
+            unindex(id);
+        } else {
+            sequence.put(id, nextSequence++);
+        }
+        byId.put(id, info);
+        index(info);
+    }
+
+    /**
+     * Removes the object with the specified id from the index.
+     *
+     * @return The removed object, or <code>null</code> if no such object was indexed.
+     */
+    T remove(String id) {
+        T removed = byId.remove(id);
+        if (removed != null) {
+            unindex(id);
+            sequence.remove(id);
+        }
+        return removed;
+    }
+
+    /**
+     * Recomputes the secondary index values of an object already in the index, to be called after
+     * the object has been modified.
+     */
+    void reindex(T info) {
+        String id = info.getId();
+        if (!byId.containsKey(id)) {
+            return;
+        }
+        unindex(id);
+        index(info);
+    }
+
+    /**
+     * Recomputes the secondary index values of all objects.
+     */
+    void reindexAll() {
+        indexed.clear();
+        for (Map<Object, Map<String, T>> index : indexes.values()) {
+            index.clear();
+        }
+        for (T info : byId.values()) {
+            index(info);
+        }
+    }
+
+    T get(String id) {
+        return id == null ? null : byId.get(id);
+    }
+
+    /**
+     * Returns the objects indexed under the specified value, as a copy.
+     */
+    List<T> get(Key<T> key, Object value) {
+        Map<String, T> bucket = indexes.get(key).get(value);
+        if (bucket == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<T>(bucket.values());
+    }
+
+    /**
+     * Returns the first object indexed under the specified value, or <code>null</code>.
+     */
+    T first(Key<T> key, Object value) {
+        Map<String, T> bucket = indexes.get(key).get(value);
+        if (bucket == null || bucket.isEmpty()) {
+            return null;
+        }
+        return bucket.values().iterator().next();
+    }
+
+    /**
+     * Sorts objects of this index in place, in insertion order.
+     */
+    void sort(List<? extends CatalogInfo> infos) {
+        Collections.sort(infos, new Comparator<CatalogInfo>() {
+            public int compare(CatalogInfo o1, CatalogInfo o2) {
+                return sequence(o1).compareTo(sequence(o2));
+            }
+        });
+    }
+
+    Long sequence(CatalogInfo info) {
+        Long seq = sequence.get(info.getId());
+        return seq != null ? seq : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the distinct values objects are currently indexed under for a key.
+     */
+    Set<Object> values(Key<T> key) {
+        return new LinkedHashSet<Object>(indexes.get(key).keySet());
+    }
+
+    /**
+     * Returns all the objects, in insertion order, as a copy.
+     */
+    List<T> all() {
+        return new ArrayList<T>(byId.values());
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    void clear() {
+        byId.clear();
+        sequence.clear();
+        indexed.clear();
+        for (Map<Object, Map<String, T>> index : indexes.values()) {
+            index.clear();
+        }
+    }
+
+    void index(T info) {
+        String id = info.getId();
+        Map<Key<T>, Collection<?>> values = new HashMap<Key<T>, Collection<?>>();
+        for (Map.Entry<Key<T>, Map<Object, Map<String, T>>> e : indexes.entrySet()) {
+            Collection<?> vals = new ArrayList<Object>(e.getKey().values(info));
+            for (Object val : vals) {
+                Map<String, T> bucket = e.getValue().get(val);
+                if (bucket == null) {
+                    bucket = new LinkedHashMap<String, T>();
+                    e.getValue().put(val, bucket);
+                }
+                bucket.put(id, info);
+            }
+            values.put(e.getKey(), vals);
+        }
+        indexed.put(id, values);
+    }
+
+    void unindex(String id) {
+        Map<Key<T>, Collection<?>> values = indexed.remove(id);
+        if (values == null) {
+            return;
+        }
+        for (Map.Entry<Key<T>, Collection<?>> e : values.entrySet()) {
+            Map<Object, Map<String, T>> index = indexes.get(e.getKey());
+            for (Object val : e.getValue()) {
+                Map<String, T> bucket = index.get(val);
+                if (bucket != null) {
+                    bucket.remove(id);
+                    if (bucket.isEmpty()) {
+                        index.remove(val);
+                    }
+                }
+            }
+        }
+    }
+}
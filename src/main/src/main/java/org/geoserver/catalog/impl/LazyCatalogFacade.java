@@ -0,0 +1,623 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Catalog facade that keeps resources and layers on disk, loading them on demand.
+ * <p>
+ * When loading the catalog, {@link #stub(File, Class, Catalog)} reads only the identifying
+ * parts of a <tt>featuretype.xml</tt>, <tt>coverage.xml</tt>, <tt>wmslayer.xml</tt> or
+ * <tt>layer.xml</tt> file: id, names, namespace, store, styles, enabled and advertised flags.
+ * Once added to the catalog the summary is wrapped in a proxy that answers these properties
+ * directly, so that the indexes of {@link IndexedCatalogFacade} and all the lookups built on them
+ * work without touching the rest of the configuration. Accessing any other property parses the
+ * file into the full object, which is kept in a bounded least recently used cache, sized by the
+ * {@link #CACHE_SIZE} property.
+ * </p>
+ * <p>
+ * Objects that get modified are loaded and kept in memory from then on, since their
+ * configuration file is only written after the change is committed. The other catalog objects,
+ * workspaces, namespaces, stores, styles and layer groups, are few and always resident.
+ * </p>
+ * <p>
+ * This facade is used by {@link CatalogImpl} when the <tt>GEOSERVER_CATALOG_FACADE</tt> property
+ * is set to <tt>lazy</tt>.
+ * </p>
+ */
+public class LazyCatalogFacade extends IndexedCatalogFacade {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.catalog");
+
+    /**
+     * Property setting the number of fully loaded resources and layers kept in memory, defaults
+     * to {@value #DEFAULT_CACHE_SIZE}
+     */
+    public static final String CACHE_SIZE = "GEOSERVER_CATALOG_LAZY_CACHE_SIZE";
+
+    static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * properties answered from the summary of a resource, without loading it
+     */
+    static final Set<String> RESOURCE_SUMMARY = new HashSet<String>(Arrays.asList("getId",
+            "getName", "getNativeName", "getNamespace", "getStore", "isEnabled", "enabled",
+            "isAdvertised", "getPrefixedName", "prefixedName", "getCatalog", "toString"));
+
+    /**
+     * properties answered from the summary of a layer, without loading it
+     */
+    static final Set<String> LAYER_SUMMARY = new HashSet<String>(Arrays.asList("getId",
+            "getName", "getResource", "getDefaultStyle", "getStyles", "getType", "isEnabled",
+            "enabled", "isAdvertised", "prefixedName", "toString"));
+
+    static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+    /**
+     * summaries created by {@link #stub(File, Class, Catalog)} and not added yet, with the file
+     * they were read from
+     */
+    Map<CatalogInfo, File> stubs = Collections.synchronizedMap(new IdentityHashMap<CatalogInfo, File>());
+
+    /**
+     * fully loaded objects, by id
+     */
+    Map<String, CatalogInfo> cache;
+
+    XStreamPersister xp;
+
+    public LazyCatalogFacade(Catalog catalog) {
+        super(catalog);
+
+        int size = DEFAULT_CACHE_SIZE;
+        String value = GeoServerExtensions.getProperty(CACHE_SIZE);
+        if (value != null) {
+            try {
+                size = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value " + value + " for " + CACHE_SIZE + ", using "
+                        + DEFAULT_CACHE_SIZE);
+            }
+        }
+        final int maxSize = Math.max(size, 1);
+        cache = new LinkedHashMap<String, CatalogInfo>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, CatalogInfo> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Reads the summary of a resource or layer from its configuration file.
+     * <p>
+     * References to the namespace, store, resource and styles are looked up in
+     * <tt>catalog</tt>, when not null, and left as {@link ResolvingProxy} otherwise. The returned
+     * object is meant to be added to the catalog as is, at which point it's replaced by a proxy
+     * loading the file on demand.
+     * </p>
+     *
+     * @return The summary, or <code>null</code> if the file can't be summarized, in which case it
+     *         should be loaded in full instead.
+     */
+    public <T extends CatalogInfo> T stub(File file, Class<T> clazz, Catalog catalog)
+            throws IOException {
+        Map<String, Object> summary = summarize(file);
+        if (summary == null || summary.get("id") == null) {
+            return null;
+        }
+
+        CatalogFactory factory = getCatalog().getFactory();
+        CatalogInfo stub;
+        if (LayerInfo.class.equals(clazz)) {
+            if (summary.get("resource") == null) {
+                return null;
+            }
+            LayerInfo l = factory.createLayer();
+            // before the resource is set, the setters write through to it and would load it
+            l.setEnabled(Boolean.valueOf((String) summary.get("enabled")));
+            if (summary.get("advertised") != null) {
+                l.setAdvertised(Boolean.valueOf((String) summary.get("advertised")));
+            }
+            l.setResource(ref(summary.get("resource"), ResourceInfo.class, catalog));
+            if (summary.get("defaultStyle") != null) {
+                l.setDefaultStyle(ref(summary.get("defaultStyle"), StyleInfo.class, catalog));
+            }
+            List<String> styles = (List<String>) summary.get("styles");
+            if (styles != null) {
+                for (String id : styles) {
+                    l.getStyles().add(ref(id, StyleInfo.class, catalog));
+                }
+            }
+            if (summary.get("type") != null) {
+                l.setType(LayerInfo.Type.valueOf((String) summary.get("type")));
+            }
+            stub = l;
+        } else {
+            ResourceInfo r;
+            if (FeatureTypeInfo.class.equals(clazz)) {
+                r = factory.createFeatureType();
+            } else if (CoverageInfo.class.equals(clazz)) {
+                r = factory.createCoverage();
+            } else if (WMSLayerInfo.class.equals(clazz)) {
+                r = factory.createWMSLayer();
+            } else {
+                return null;
+            }
+            if (summary.get("name") == null || summary.get("store") == null) {
+                return null;
+            }
+            r.setName((String) summary.get("name"));
+            r.setNativeName((String) summary.get("nativeName"));
+            r.setStore(ref(summary.get("store"), StoreInfo.class, catalog));
+            if (summary.get("namespace") != null) {
+                r.setNamespace(ref(summary.get("namespace"), NamespaceInfo.class, catalog));
+            }
+            r.setEnabled(Boolean.valueOf((String) summary.get("enabled")));
+            if (summary.get("advertised") != null) {
+                r.setAdvertised(Boolean.valueOf((String) summary.get("advertised")));
+            }
+            stub = r;
+        }
+        OwsUtils.set(stub, "id", summary.get("id"));
+
+        stubs.put(stub, file);
+        return clazz.cast(stub);
+    }
+
+    <T> T ref(Object id, Class<T> clazz, Catalog catalog) {
+        T proxy = ResolvingProxy.create((String) id, clazz);
+        if (catalog != null) {
+            T resolved = ResolvingProxy.resolve(catalog, proxy);
+            if (resolved != null) {
+                return ModificationProxy.unwrap(resolved);
+            }
+        }
+        return proxy;
+    }
+
+    /**
+     * Reads the top level properties of a configuration file that make up a summary, returning
+     * <code>null</code> if some reference is not expressed by id.
+     */
+    Map<String, Object> summarize(File file) throws IOException {
+        Map<String, Object> summary = new HashMap<String, Object>();
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            XMLStreamReader r = XML_FACTORY.createXMLStreamReader(in);
+            try {
+                r.nextTag();
+                while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    String name = r.getLocalName();
+                    if ("id".equals(name) || "name".equals(name) || "nativeName".equals(name)
+                            || "enabled".equals(name) || "advertised".equals(name)
+                            || "type".equals(name)) {
+                        summary.put(name, r.getElementText().trim());
+                    } else if ("namespace".equals(name) || "store".equals(name)
+                            || "resource".equals(name) || "defaultStyle".equals(name)) {
+                        String id = refId(r);
+                        if (id == null) {
+                            return null;
+                        }
+                        summary.put(name, id);
+                    } else if ("styles".equals(name)) {
+                        List<String> styles = new ArrayList<String>();
+                        while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                            String id = refId(r);
+                            if (id == null) {
+                                return null;
+                            }
+                            styles.add(id);
+                        }
+                        summary.put(name, styles);
+                    } else if ("metadata".equals(name)) {
+                        // layers used to keep the advertised flag in the metadata
+                        while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                            if ("advertised".equals(r.getAttributeValue(null, "key"))
+                                    && !summary.containsKey("advertised")) {
+                                summary.put("advertised", r.getElementText().trim());
+                            } else {
+                                skip(r);
+                            }
+                        }
+                    } else {
+                        skip(r);
+                    }
+                }
+            } finally {
+                r.close();
+            }
+        } catch (XMLStreamException e) {
+            LOGGER.log(Level.FINE, "Unable to summarize " + file, e);
+            return null;
+        } finally {
+            in.close();
+        }
+        return summary;
+    }
+
+    /**
+     * Reads the id out of a reference element, leaving the reader on the element end.
+     */
+    String refId(XMLStreamReader r) throws XMLStreamException {
+        String id = null;
+        while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if ("id".equals(r.getLocalName())) {
+                id = r.getElementText().trim();
+            } else {
+                skip(r);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Skips the current element, leaving the reader on its end.
+     */
+    void skip(XMLStreamReader r) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    //
+    // Resources
+    //
+    public ResourceInfo add(ResourceInfo resource) {
+        File file = stubs.remove(resource);
+        if (file == null) {
+            return super.add(resource);
+        }
+        resolve(resource);
+        ResourceInfo lazy = (ResourceInfo) lazy(resource, file);
+        added(lazy, resources);
+        return ModificationProxy.create(lazy, ResourceInfo.class);
+    }
+
+    public void remove(ResourceInfo resource) {
+        super.remove(resource);
+        evict(resource);
+    }
+
+    public void save(ResourceInfo resource) {
+        pin(resource);
+        super.save(resource);
+    }
+
+    protected void resolve(ResourceInfo resource) {
+        if (handler(resource) == null) {
+            super.resolve(resource);
+        }
+    }
+
+    //
+    // Layers
+    //
+    public LayerInfo add(LayerInfo layer) {
+        File file = stubs.remove(layer);
+        if (file == null) {
+            return super.add(layer);
+        }
+        resolve(layer);
+        LayerInfo lazy = (LayerInfo) lazy(layer, file);
+        added(lazy, layers);
+        return ModificationProxy.create(lazy, LayerInfo.class);
+    }
+
+    public void remove(LayerInfo layer) {
+        super.remove(layer);
+        evict(layer);
+    }
+
+    public void save(LayerInfo layer) {
+        pin(layer);
+        super.save(layer);
+    }
+
+    protected void resolve(LayerInfo layer) {
+        if (handler(layer) == null) {
+            super.resolve(layer);
+        }
+    }
+
+    /**
+     * Number of fully loaded resources and layers held by the cache.
+     */
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public void dispose() {
+        super.dispose();
+        synchronized (cache) {
+            cache.clear();
+        }
+        stubs.clear();
+    }
+
+    public void syncTo(CatalogFacade dao) {
+        super.syncTo(dao);
+        if (dao instanceof LazyCatalogFacade) {
+            // the proxies now load through the other facade, and its catalog
+            LazyCatalogFacade other = (LazyCatalogFacade) dao;
+            for (ResourceInfo r : other.resources.all()) {
+                LazyInfo h = handler(r);
+                if (h != null) {
+                    h.facade = other;
+                }
+            }
+            for (LayerInfo l : other.layers.all()) {
+                LazyInfo h = handler(l);
+                if (h != null) {
+                    h.facade = other;
+                }
+            }
+        }
+    }
+
+    CatalogInfo lazy(CatalogInfo stub, File file) {
+        Class<?> type;
+        if (stub instanceof FeatureTypeInfo) {
+            type = FeatureTypeInfo.class;
+        } else if (stub instanceof CoverageInfo) {
+            type = CoverageInfo.class;
+        } else if (stub instanceof WMSLayerInfo) {
+            type = WMSLayerInfo.class;
+        } else {
+            type = LayerInfo.class;
+        }
+        return (CatalogInfo) Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type },
+                new LazyInfo(this, type, stub, file));
+    }
+
+    void pin(CatalogInfo info) {
+        LazyInfo h = handler(ModificationProxy.unwrap(info));
+        if (h != null) {
+            h.pin();
+        }
+    }
+
+    void evict(CatalogInfo info) {
+        String id = ModificationProxy.unwrap(info).getId();
+        synchronized (cache) {
+            cache.remove(id);
+        }
+    }
+
+    /**
+     * Returns the full object for a lazy proxy, from the cache or loading it.
+     */
+    CatalogInfo inflate(LazyInfo h) {
+        String id = h.stub.getId();
+        synchronized (cache) {
+            CatalogInfo full = cache.get(id);
+            if (full != null) {
+                return full;
+            }
+        }
+        CatalogInfo full = load(h);
+        synchronized (cache) {
+            CatalogInfo other = cache.get(id);
+            if (other != null) {
+                // loaded concurrently, share a single copy
+                return other;
+            }
+            cache.put(id, full);
+        }
+        return full;
+    }
+
+    CatalogInfo load(LazyInfo h) {
+        File f = h.file;
+        if (!f.exists()) {
+            // directories follow the names, which may have changed since the catalog was loaded
+            f = file(h);
+        }
+        try {
+            CatalogInfo full;
+            InputStream in = new BufferedInputStream(new FileInputStream(f));
+            try {
+                full = (CatalogInfo) persister().load(in, h.type);
+            } finally {
+                in.close();
+            }
+
+            if (full instanceof ResourceInfo) {
+                super.resolve((ResourceInfo) full);
+            } else {
+                super.resolve((LayerInfo) full);
+            }
+            if (getCatalog() instanceof CatalogImpl) {
+                ((CatalogImpl) getCatalog()).resolve(full);
+            }
+            if (LOGGER.isLoggable(Level.FINER)) {
+                LOGGER.finer("Loaded " + full + " from " + f);
+            }
+            return full;
+        } catch (IOException e) {
+            throw new CatalogException("Unable to load " + h.stub + " from " + f, e);
+        }
+    }
+
+    /**
+     * Locates the configuration file of a lazy proxy by the current names of its workspace,
+     * store and resource.
+     */
+    File file(LazyInfo h) {
+        ResourceInfo r = h.stub instanceof LayerInfo ? ((LayerInfo) h.stub).getResource()
+                : (ResourceInfo) h.stub;
+        StoreInfo store = r.getStore();
+        File dir = new File(getCatalog().getResourceLoader().getBaseDirectory(), "workspaces");
+        dir = new File(new File(new File(dir, store.getWorkspace().getName()), store.getName()),
+                r.getName());
+        return new File(dir, h.file.getName());
+    }
+
+    synchronized XStreamPersister persister() {
+        if (xp == null) {
+            XStreamPersisterFactory xpf = GeoServerExtensions.bean(XStreamPersisterFactory.class);
+            if (xpf == null) {
+                xpf = new XStreamPersisterFactory();
+            }
+            xp = xpf.createXMLPersister();
+            xp.setCatalog(getCatalog());
+        }
+        return xp;
+    }
+
+    static LazyInfo handler(Object object) {
+        if (object instanceof Proxy) {
+            InvocationHandler h = Proxy.getInvocationHandler(object);
+            if (h instanceof LazyInfo) {
+                return (LazyInfo) h;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the fully loaded object behind a lazy proxy, looking through a
+     * {@link ModificationProxy} as well.
+     * <p>
+     * If the object is not a lazy proxy it is passed back.
+     * </p>
+     */
+    public static Object unwrap(Object object) {
+        LazyInfo h = handler(ModificationProxy.unwrap(object));
+        return h != null ? h.full() : object;
+    }
+
+    /**
+     * Returns the full object behind a lazy proxy, keeping it in memory from then on so that
+     * changes made directly to it are not lost, for the code that needs the implementation class.
+     * <p>
+     * If the object is not a lazy proxy it is passed back.
+     * </p>
+     */
+    public static <T> T pinned(T object) {
+        LazyInfo h = handler(object);
+        return h != null ? (T) h.pin() : object;
+    }
+
+    /**
+     * Invocation handler of the lazy proxies, answering the summary properties from the stub and
+     * anything else from the full object.
+     */
+    static class LazyInfo implements InvocationHandler {
+
+        volatile LazyCatalogFacade facade;
+
+        final Class<?> type;
+
+        final CatalogInfo stub;
+
+        final File file;
+
+        /**
+         * the full object, once modified
+         */
+        volatile CatalogInfo pinned;
+
+        LazyInfo(LazyCatalogFacade facade, Class<?> type, CatalogInfo stub, File file) {
+            this.facade = facade;
+            this.type = type;
+            this.stub = stub;
+            this.file = file;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            // identity is the id, comparing or hashing does not load the object
+            if ("equals".equals(name) && args != null && args.length == 1) {
+                Object other = ModificationProxy.unwrap(args[0]);
+                return other == proxy || (type.isInstance(other)
+                        && stub.getId().equals(((CatalogInfo) other).getId()));
+            } else if ("hashCode".equals(name) && args == null) {
+                return stub.getId().hashCode();
+            }
+
+            Object target = pinned;
+            if (target == null) {
+                Set<String> summary = stub instanceof LayerInfo ? LAYER_SUMMARY : RESOURCE_SUMMARY;
+                if (summary.contains(name) && (args == null || args.length == 0)) {
+                    target = stub;
+                } else if (name.startsWith("set")) {
+                    target = pin();
+                } else {
+                    target = full();
+                }
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+
+        CatalogInfo full() {
+            CatalogInfo full = pinned;
+            return full != null ? full : facade.inflate(this);
+        }
+
+        synchronized CatalogInfo pin() {
+            if (pinned == null) {
+                pinned = facade.inflate(this);
+            }
+            return pinned;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Binary snapshot of the catalog, used to skip parsing the xml files of the data directory on
+ * startup.
+ * <p>
+ * The snapshot is a single file in the root of the data directory holding every catalog object
+ * encoded with a binary {@link XStreamPersister}, in the order the objects have to be added back
+ * to the catalog. Its header contains a format version, a checksum of the contents and a
+ * fingerprint of the catalog files of the data directory, that is their names, sizes and
+ * modification times. The snapshot is ignored when any of those does not match, in which case
+ * the catalog is read from the xml files as usual.
+ * </p>
+ * <p>
+ * The snapshot is written after the catalog has been read from the xml files, and rewritten in
+ * the background after each change to the catalog, see {@link #updater(Catalog)}. Catalogs
+ * containing stores that were disabled because of connection errors are not written, as the
+ * snapshot would otherwise keep them disabled on the next startup.
+ * </p>
+ *
+ * @see GeoServerLoader#CATALOG_SNAPSHOT
+ */
+class CatalogSnapshot {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver");
+
+    static final String FILENAME = "catalog.snapshot";
+
+    static final int MAGIC = 0x47534353;
+
+    /**
+     * format version, to be increased whenever the record layout changes
+     */
+    static final int VERSION = 1;
+
+    /**
+     * record kinds
+     */
+    static final byte END = 0;
+    static final byte WORKSPACE = 1;
+    static final byte NAMESPACE = 2;
+    static final byte DEFAULT_WORKSPACE = 3;
+    static final byte DEFAULT_NAMESPACE = 4;
+    static final byte STYLE = 5;
+    static final byte STORE = 6;
+    static final byte DEFAULT_DATASTORE = 7;
+    static final byte RESOURCE = 8;
+    static final byte LAYER = 9;
+    static final byte LAYERGROUP = 10;
+
+    /**
+     * delay before the snapshot is rewritten after a change, to coalesce bursts of changes
+     */
+    static final long UPDATE_DELAY = 1000;
+
+    GeoServerResourceLoader resourceLoader;
+
+    XStreamPersisterFactory xpf;
+
+    ScheduledExecutorService executor;
+
+    CatalogSnapshot(GeoServerResourceLoader resourceLoader, XStreamPersisterFactory xpf) {
+        this.resourceLoader = resourceLoader;
+        this.xpf = xpf;
+    }
+
+    File getFile() {
+        return new File(resourceLoader.getBaseDirectory(), FILENAME);
+    }
+
+    /**
+     * Reads the catalog from the snapshot, connecting to the enabled data stores afterwards.
+     *
+     * @return The catalog, or <code>null</code> if there is no valid snapshot or it is stale.
+     */
+    Catalog read(int threads) {
+        File file = getFile();
+        if (!file.exists()) {
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        Catalog catalog = new CatalogImpl();
+        catalog.setResourceLoader(resourceLoader);
+        List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+        try {
+            ByteBuffer payload = map(file);
+            if (payload == null) {
+                return null;
+            }
+
+            XStreamPersister xp = xpf.createBinaryPersister();
+            xp.setCatalog(catalog);
+            while (true) {
+                byte kind = payload.get();
+                if (kind == END) {
+                    break;
+                }
+                int length = payload.getInt();
+                ByteBuffer record = payload.slice();
+                record.limit(length);
+                payload.position(payload.position() + length);
+                add(catalog, kind, record, xp, dataStores);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to read catalog snapshot " + file.getPath()
+                    + ", reading the data directory instead", e);
+            return null;
+        }
+        long read = System.currentTimeMillis();
+
+        ExecutorService connector = threads > 1 ? Executors.newFixedThreadPool(threads,
+                new ParallelCatalogReader.LoaderThreadFactory()) : null;
+        try {
+            List<Future<?>> checks = new ArrayList<Future<?>>();
+            for (DataStoreInfo ds : dataStores) {
+                if (!ds.isEnabled()) {
+                    continue;
+                }
+                ParallelCatalogReader.ConnectTask task = new ParallelCatalogReader.ConnectTask(ds);
+                if (connector != null) {
+                    checks.add(connector.submit(task));
+                } else {
+                    task.call();
+                }
+            }
+            for (Future<?> check : checks) {
+                check.get();
+            }
+        } catch (Exception e) {
+            // connection failures are handled by the task, this is unexpected
+            throw new RuntimeException(e);
+        } finally {
+            if (connector != null) {
+                connector.shutdownNow();
+            }
+        }
+        long connected = System.currentTimeMillis();
+
+        LOGGER.info("Loaded catalog from snapshot in " + (connected - start) + "ms: reading "
+                + (read - start) + "ms, connecting to data stores " + (connected - read) + "ms");
+        return catalog;
+    }
+
+    /**
+     * Maps the snapshot file in memory and validates its header and checksum.
+     *
+     * @return The buffer positioned at the first record, or <code>null</code> if the snapshot is
+     *         not valid or does not match the data directory anymore.
+     */
+    ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        // header: magic, version, data directory fingerprint, checksum and length of the records
+        if (buffer.remaining() < 24 || buffer.getInt() != MAGIC) {
+            LOGGER.warning("Ignoring invalid catalog snapshot " + file.getPath());
+            return null;
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            LOGGER.info("Ignoring catalog snapshot " + file.getPath() + " written with format "
+                    + version + ", current format is " + VERSION);
+            return null;
+        }
+        long fingerprint = buffer.getLong();
+        long checksum = buffer.getLong();
+        if (fingerprint != fingerprint()) {
+            LOGGER.info("Catalog snapshot " + file.getPath() + " is stale, the data directory "
+                    + "changed since it was written");
+            return null;
+        }
+
+        ByteBuffer payload = buffer.slice();
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        ByteBuffer data = payload.duplicate();
+        while (data.hasRemaining()) {
+            int n = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        if (crc.getValue() != checksum) {
+            LOGGER.warning("Ignoring corrupted catalog snapshot " + file.getPath());
+            return null;
+        }
+        return payload;
+    }
+
+    void add(Catalog catalog, byte kind, ByteBuffer record, XStreamPersister xp,
+            List<DataStoreInfo> dataStores) throws IOException {
+        switch (kind) {
+        case WORKSPACE:
+            catalog.add(xp.load(new BufferInputStream(record), WorkspaceInfo.class));
+            break;
+        case NAMESPACE:
+            catalog.add(xp.load(new BufferInputStream(record), NamespaceInfo.class));
+            break;
+        case DEFAULT_WORKSPACE:
+            catalog.setDefaultWorkspace(catalog.getWorkspace(string(record)));
+            break;
+        case DEFAULT_NAMESPACE:
+            catalog.setDefaultNamespace(catalog.getNamespace(string(record)));
+            break;
+        case STYLE:
+            catalog.add(xp.load(new BufferInputStream(record), StyleInfo.class));
+            break;
+        case STORE:
+            StoreInfo store = xp.load(new BufferInputStream(record), StoreInfo.class);
+            catalog.add(store);
+            if (store instanceof DataStoreInfo) {
+                dataStores.add((DataStoreInfo) store);
+            }
+            break;
+        case DEFAULT_DATASTORE:
+            DataStoreInfo ds = catalog.getDataStore(string(record));
+            catalog.setDefaultDataStore(ds.getWorkspace(), ds);
+            break;
+        case RESOURCE:
+            catalog.add(xp.load(new BufferInputStream(record), ResourceInfo.class));
+            break;
+        case LAYER:
+            catalog.add(xp.load(new BufferInputStream(record), LayerInfo.class));
+            break;
+        case LAYERGROUP:
+            catalog.add(xp.load(new BufferInputStream(record), LayerGroupInfo.class));
+            break;
+        default:
+            throw new IOException("Unknown record kind " + kind);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the catalog.
+     *
+     * @param fingerprint The fingerprint of the data directory, computed before the catalog was
+     *        read or last modified.
+     */
+    void write(Catalog catalog, long fingerprint) {
+        File file = getFile();
+        for (StoreInfo store : catalog.getStores(StoreInfo.class)) {
+            if (!store.isEnabled() && store.getError() != null) {
+                LOGGER.fine("Not writing catalog snapshot, store '" + store.getName()
+                        + "' was disabled because of an error");
+                file.delete();
+                return;
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        File tmp = new File(file.getParentFile(), FILENAME + ".tmp");
+        try {
+            XStreamPersister xp = xpf.createBinaryPersister();
+            xp.setCatalog(catalog);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream records = new DataOutputStream(bytes);
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+            for (WorkspaceInfo ws : catalog.getWorkspaces()) {
+                write(records, WORKSPACE, ws, xp, record);
+            }
+            for (NamespaceInfo ns : catalog.getNamespaces()) {
+                write(records, NAMESPACE, ns, xp, record);
+            }
+            WorkspaceInfo defaultWorkspace = catalog.getDefaultWorkspace();
+            if (defaultWorkspace != null) {
+                write(records, DEFAULT_WORKSPACE, defaultWorkspace.getId());
+            }
+            NamespaceInfo defaultNamespace = catalog.getDefaultNamespace();
+            if (defaultNamespace != null) {
+                write(records, DEFAULT_NAMESPACE, defaultNamespace.getId());
+            }
+            for (StyleInfo s : catalog.getStyles()) {
+                write(records, STYLE, s, xp, record);
+            }
+            for (StoreInfo s : catalog.getStores(StoreInfo.class)) {
+                write(records, STORE, s, xp, record);
+            }
+            for (WorkspaceInfo ws : catalog.getWorkspaces()) {
+                DataStoreInfo ds = catalog.getDefaultDataStore(ws);
+                if (ds != null) {
+                    write(records, DEFAULT_DATASTORE, ds.getId());
+                }
+            }
+            for (ResourceInfo r : catalog.getResources(ResourceInfo.class)) {
+                write(records, RESOURCE, r, xp, record);
+            }
+            for (LayerInfo l : catalog.getLayers()) {
+                write(records, LAYER, l, xp, record);
+            }
+            // nested groups have to be added before the groups containing them
+            Set<String> written = new HashSet<String>();
+            for (LayerGroupInfo lg : catalog.getLayerGroups()) {
+                writeLayerGroup(catalog, records, lg, xp, record, written);
+            }
+            records.writeByte(END);
+            records.flush();
+
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                out.writeLong(crc.getValue());
+                out.write(payload);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // some platforms do not rename over an existing file
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + tmp.getPath() + " to "
+                            + file.getPath());
+                }
+            }
+            LOGGER.fine("Wrote catalog snapshot of " + payload.length + " bytes in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to write catalog snapshot " + file.getPath(), e);
+            tmp.delete();
+            file.delete();
+        }
+    }
+
+    void writeLayerGroup(Catalog catalog, DataOutputStream records, LayerGroupInfo lg,
+            XStreamPersister xp, ByteArrayOutputStream record, Set<String> written)
+            throws IOException {
+        if (!written.add(lg.getId())) {
+            return;
+        }
+        for (PublishedInfo p : lg.getLayers()) {
+            if (p instanceof LayerGroupInfo) {
+                LayerGroupInfo nested = catalog.getLayerGroup(p.getId());
+                if (nested != null) {
+                    writeLayerGroup(catalog, records, nested, xp, record, written);
+                }
+            }
+        }
+        write(records, LAYERGROUP, lg, xp, record);
+    }
+
+    void write(DataOutputStream records, byte kind, Object obj, XStreamPersister xp,
+            ByteArrayOutputStream record) throws IOException {
+        record.reset();
+        xp.save(obj, record);
+        records.writeByte(kind);
+        records.writeInt(record.size());
+        record.writeTo(records);
+    }
+
+    void write(DataOutputStream records, byte kind, String id) throws IOException {
+        byte[] bytes = id.getBytes("UTF-8");
+        records.writeByte(kind);
+        records.writeInt(bytes.length);
+        records.write(bytes);
+    }
+
+    String string(ByteBuffer record) throws IOException {
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Computes a fingerprint of the catalog files of the data directory, from their paths, sizes
+     * and modification times.
+     */
+    long fingerprint() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw (IOException) new IOException("Unable to compute fingerprint").initCause(e);
+        }
+
+        File base = resourceLoader.getBaseDirectory();
+        fingerprint(digest, new File(base, "styles"), "styles", false);
+        fingerprint(digest, new File(base, "layergroups"), "layergroups", false);
+
+        File workspaces = new File(base, "workspaces");
+        fingerprint(digest, new File(workspaces, "default.xml"), "workspaces/default.xml");
+        for (File wsd : sorted(workspaces)) {
+            if (!wsd.isDirectory()) {
+                continue;
+            }
+            String path = "workspaces/" + wsd.getName();
+            // skip settings and services, they are not part of the catalog
+            fingerprint(digest, new File(wsd, "workspace.xml"), path + "/workspace.xml");
+            fingerprint(digest, new File(wsd, "namespace.xml"), path + "/namespace.xml");
+            for (File d : sorted(wsd)) {
+                if (d.isDirectory()) {
+                    fingerprint(digest, d, path + "/" + d.getName(), true);
+                }
+            }
+        }
+
+        byte[] md5 = digest.digest();
+        return ByteBuffer.wrap(md5).getLong();
+    }
+
+    void fingerprint(MessageDigest digest, File dir, String path, boolean recurse)
+            throws IOException {
+        for (File f : sorted(dir)) {
+            if (f.isDirectory()) {
+                if (recurse) {
+                    fingerprint(digest, f, path + "/" + f.getName(), true);
+                }
+            } else if (f.getName().endsWith(".xml")) {
+                fingerprint(digest, f, path + "/" + f.getName());
+            }
+        }
+    }
+
+    void fingerprint(MessageDigest digest, File f, String path) throws IOException {
+        if (!f.exists()) {
+            return;
+        }
+        digest.update((path + "|" + f.length() + "|" + f.lastModified() + "\n").getBytes("UTF-8"));
+    }
+
+    static File[] sorted(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Returns a listener rewriting the snapshot of the specified catalog after it changes.
+     */
+    CatalogListener updater(Catalog catalog) {
+        return new Updater(catalog);
+    }
+
+    synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new ParallelCatalogReader.LoaderThreadFactory());
+        }
+        return executor;
+    }
+
+    /**
+     * Writes the snapshot in the background.
+     */
+    void schedule(final Catalog catalog, final long fingerprint) {
+        executor().execute(new Runnable() {
+            public void run() {
+                write(catalog, fingerprint);
+            }
+        });
+    }
+
+    /**
+     * Catalog listener rewriting the snapshot after changes. The snapshot is removed as soon as
+     * the catalog changes, so that a stale one is never read even if the fingerprint did not
+     * catch the change, and is rewritten shortly afterwards.
+     */
+    class Updater implements CatalogListener {
+
+        Catalog catalog;
+
+        AtomicBoolean pending = new AtomicBoolean();
+
+        Updater(Catalog catalog) {
+            this.catalog = catalog;
+        }
+
+        public void handleAddEvent(CatalogAddEvent event) {
+            changed();
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            changed();
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            changed();
+        }
+
+        public void reloaded() {
+        }
+
+        void changed() {
+            if (!pending.compareAndSet(false, true)) {
+                return;
+            }
+            getFile().delete();
+            executor().schedule(new Runnable() {
+                public void run() {
+                    pending.set(false);
+                    try {
+                        write(catalog, fingerprint());
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to write catalog snapshot", e);
+                    }
+                }
+            }, UPDATE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Input stream over a buffer, used to read records straight from the mapped file.
+     */
+    static class BufferInputStream extends InputStream {
+
+        ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
+}
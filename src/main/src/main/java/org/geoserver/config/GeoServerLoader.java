@@ -24,6 +24,7 @@ import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
@@ -39,6 +40,7 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.Wrapper;
 import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.LazyCatalogFacade;
 import org.geoserver.catalog.util.LegacyCatalogImporter;
 import org.geoserver.catalog.util.LegacyCatalogReader;
 import org.geoserver.catalog.util.LegacyFeatureTypeInfoReader;
@@ -67,9 +69,26 @@ public abstract class GeoServerLoader {
 
     static Logger LOGGER = Logging.getLogger( "org.geoserver" );
     
+    /**
+     * Number of threads used to read the catalog at startup, defaults to 1, reading the catalog
+     * sequentially on the calling thread. Higher values enable the {@link ParallelCatalogReader}.
+     * 
+     * @see ParallelCatalogReader
+     */
+    public static final String LOADER_THREADS = "GEOSERVER_LOADER_THREADS";
+    
+    /**
+     * Set to <tt>true</tt> to keep a binary snapshot of the catalog in the data directory, read 
+     * on startup instead of the xml files when it is up to date.
+     * 
+     * @see CatalogSnapshot
+     */
+    public static final String CATALOG_SNAPSHOT = "GEOSERVER_CATALOG_SNAPSHOT";
+    
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
+    CatalogSnapshot snapshot;
     
     //JD: this is a hack for the moment, it is used only to maintain tests since the test setup relies
     // on the old data directory structure, once the tests have been ported to the new structure
@@ -216,6 +235,7 @@ public abstract class GeoServerLoader {
         // but these two fellas are attached to the new catalog as well
         catalog.removeListeners(ResourcePool.CacheClearingListener.class);
         catalog.removeListeners(GeoServerPersister.class);
+        catalog.removeListeners(CatalogSnapshot.Updater.class);
         List<CatalogListener> listeners = new ArrayList<CatalogListener>(catalog.getListeners());
 
         //look for catalog.xml, if it exists assume we are dealing with 
@@ -223,9 +243,28 @@ public abstract class GeoServerLoader {
         File f = resourceLoader.find( "catalog.xml" );
         if ( f == null ) {
             //assume 2.x style data directory
-            CatalogImpl catalog2 = (CatalogImpl) readCatalog( xp );
+            int threads = getLoaderThreads();
+            CatalogSnapshot snapshot = getSnapshot();
+            CatalogImpl catalog2 = null;
+            if (snapshot != null) {
+                catalog2 = (CatalogImpl) snapshot.read(threads);
+            }
+            boolean fromSnapshot = catalog2 != null;
+            long fingerprint = 0;
+            if (!fromSnapshot) {
+                //take the fingerprint before reading, so that concurrent changes make it stale
+                fingerprint = snapshot != null ? snapshot.fingerprint() : 0;
+                catalog2 = (CatalogImpl) (threads > 1 ? 
+                    new ParallelCatalogReader(this, xp, threads).read() : readCatalog( xp ));
+            }
             // make to remove the old resource pool catalog listener
             ((CatalogImpl)catalog).sync( catalog2 );
+            if (snapshot != null) {
+                if (!fromSnapshot) {
+                    snapshot.schedule(catalog, fingerprint);
+                }
+                listeners.add(snapshot.updater(catalog));
+            }
         } else {
             // import old style catalog, register the persister now so that we start 
             // with a new version of the catalog
@@ -239,6 +278,34 @@ public abstract class GeoServerLoader {
         }
     }
     
+    /**
+     * Returns the catalog snapshot, or <code>null</code> if disabled, see 
+     * {@link #CATALOG_SNAPSHOT}.
+     */
+    CatalogSnapshot getSnapshot() {
+        // writing a snapshot would load all the resources of a lazy catalog
+        if (snapshot == null && Boolean.valueOf(GeoServerExtensions.getProperty(CATALOG_SNAPSHOT))
+                && !"lazy".equalsIgnoreCase(GeoServerExtensions.getProperty(CatalogImpl.FACADE_PROPERTY))) {
+            snapshot = new CatalogSnapshot(resourceLoader, xpf);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Returns the number of threads to read the catalog with, see {@link #LOADER_THREADS}.
+     */
+    int getLoaderThreads() {
+        String value = GeoServerExtensions.getProperty(LOADER_THREADS);
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Ignoring invalid value for " + LOADER_THREADS + ": " + value);
+            }
+        }
+        return 1;
+    }
+    
     /**
      * Reads the catalog from disk.
      */
@@ -373,7 +440,7 @@ public abstract class GeoServerLoader {
                             if( f.exists() ) {
                                 FeatureTypeInfo ft = null;
                                 try {
-                                    ft = depersist(xp,f,FeatureTypeInfo.class);
+                                    ft = depersist(xp,f,FeatureTypeInfo.class,catalog);
                                 }
                                 catch( Exception e ) {
                                     LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.getName() +"'", e);
@@ -387,7 +454,7 @@ public abstract class GeoServerLoader {
                                 f = new File( ftd, "layer.xml" );
                                 if ( f.exists() ) {
                                     try {
-                                        LayerInfo l = depersist(xp, f, LayerInfo.class );
+                                        LayerInfo l = depersist(xp, f, LayerInfo.class, catalog );
                                         catalog.add( l );
                                         
                                         LOGGER.info( "Loaded layer '" + l.getName() + "'" );
@@ -423,7 +490,7 @@ public abstract class GeoServerLoader {
                                 if( f.exists() ) {
                                     CoverageInfo c = null;
                                     try {
-                                        c = depersist(xp,f,CoverageInfo.class);
+                                        c = depersist(xp,f,CoverageInfo.class,catalog);
                                         catalog.add( c );
                                         
                                         LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
@@ -436,7 +503,7 @@ public abstract class GeoServerLoader {
                                     f = new File( cd, "layer.xml" );
                                     if ( f.exists() ) {
                                         try {
-                                            LayerInfo l = depersist(xp, f, LayerInfo.class );
+                                            LayerInfo l = depersist(xp, f, LayerInfo.class, catalog );
                                             catalog.add( l );
                                             
                                             LOGGER.info( "Loaded layer '" + l.getName() + "'" );
@@ -470,7 +537,7 @@ public abstract class GeoServerLoader {
                                     if( f.exists() ) {
                                         WMSLayerInfo wl = null;
                                         try {
-                                            wl = depersist(xp,f,WMSLayerInfo.class);
+                                            wl = depersist(xp,f,WMSLayerInfo.class,catalog);
                                             catalog.add( wl );
                                             
                                             LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
@@ -483,7 +550,7 @@ public abstract class GeoServerLoader {
                                         f = new File( cd, "layer.xml" );
                                         if ( f.exists() ) {
                                             try {
-                                                LayerInfo l = depersist(xp, f, LayerInfo.class );
+                                                LayerInfo l = depersist(xp, f, LayerInfo.class, catalog );
                                                 catalog.add( l );
                                                 
                                                 LOGGER.info( "Loaded layer '" + l.getName() + "'" );
@@ -723,6 +790,21 @@ public abstract class GeoServerLoader {
         out.close();
     }
 
+    /**
+     * Helper method which depersists a resource or a layer, only reading a summary of it when
+     * the catalog loads them on demand, see {@link LazyCatalogFacade}.
+     */
+    <T extends CatalogInfo> T depersist( XStreamPersister xp, File f, Class<T> clazz, 
+            Catalog catalog ) throws IOException {
+        if ( catalog.getFacade() instanceof LazyCatalogFacade ) {
+            T stub = ((LazyCatalogFacade) catalog.getFacade()).stub( f, clazz, catalog );
+            if ( stub != null ) {
+                return stub;
+            }
+        }
+        return depersist( xp, f, clazz );
+    }
+
     /**
      * Helper method which uses xstream to depersist an object as xml from disk.
      */
@@ -0,0 +1,696 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.LazyCatalogFacade;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Reads a 2.x style catalog from the data directory using a pool of threads.
+ * <p>
+ * Loading happens in three phases:
+ * <ol>
+ * <li>The xml files of each workspace and each store directory are parsed in parallel, leaving
+ * references to other catalog objects unresolved</li>
+ * <li>On the calling thread the references are resolved and the objects are added to the catalog,
+ * in the same order {@link GeoServerLoader} would</li>
+ * <li>Enabled data stores are connected to in parallel, disabling the ones that fail</li>
+ * </ol>
+ * The time spent in each phase is logged once the catalog is loaded.
+ * </p>
+ *
+ * @see GeoServerLoader#LOADER_THREADS
+ */
+class ParallelCatalogReader {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver");
+
+    GeoServerLoader loader;
+
+    GeoServerResourceLoader resourceLoader;
+
+    XStreamPersister xp;
+
+    int threads;
+
+    /**
+     * the facade of the catalog being read, if it loads resources and layers on demand
+     */
+    LazyCatalogFacade lazy;
+
+    /**
+     * the data stores added to the catalog, to be connected to
+     */
+    List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+
+    ParallelCatalogReader(GeoServerLoader loader, XStreamPersister xp, int threads) {
+        this.loader = loader;
+        this.resourceLoader = loader.resourceLoader;
+        this.xp = xp;
+        this.threads = threads;
+    }
+
+    /**
+     * Reads the catalog from disk.
+     */
+    Catalog read() throws Exception {
+        Catalog catalog = new CatalogImpl();
+        catalog.setResourceLoader(resourceLoader);
+        if (catalog.getFacade() instanceof LazyCatalogFacade) {
+            lazy = (LazyCatalogFacade) catalog.getFacade();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new LoaderThreadFactory());
+        try {
+            long start = System.currentTimeMillis();
+
+            // phase 1, parse with no catalog so that references are left as proxies
+            xp.setCatalog(null);
+            Future<List<Parsed<StyleInfo>>> styles =
+                executor.submit(new StylesTask(resourceLoader.find("styles")));
+            Future<List<Parsed<LayerGroupInfo>>> layerGroups =
+                executor.submit(new LayerGroupsTask(resourceLoader.find("layergroups")));
+
+            File workspaces = resourceLoader.find("workspaces");
+            Parsed<WorkspaceInfo> defaultWorkspace = null;
+            List<WorkspaceDir> workspaceDirs = new ArrayList<WorkspaceDir>();
+            if (workspaces != null) {
+                File dws = new File(workspaces, "default.xml");
+                if (dws.exists()) {
+                    defaultWorkspace = parse(dws, WorkspaceInfo.class);
+                }
+                for (File wsd : loader.list(workspaces, DirectoryFileFilter.INSTANCE)) {
+                    WorkspaceDir dir = new WorkspaceDir(wsd);
+                    dir.contents = executor.submit(new WorkspaceTask(wsd));
+                    for (File sd : loader.list(wsd, DirectoryFileFilter.INSTANCE)) {
+                        dir.stores.add(executor.submit(new StoreTask(sd)));
+                    }
+                    workspaceDirs.add(dir);
+                }
+            }
+
+            // wait for all parsing to complete
+            styles.get();
+            layerGroups.get();
+            for (WorkspaceDir dir : workspaceDirs) {
+                dir.contents.get();
+                for (Future<StoreDir> store : dir.stores) {
+                    store.get();
+                }
+            }
+            long parsed = System.currentTimeMillis();
+
+            // phase 2, resolve and add
+            xp.setCatalog(catalog);
+            addStyles(catalog, styles.get());
+            if (workspaces != null) {
+                addWorkspaces(catalog, workspaces, defaultWorkspace, workspaceDirs);
+            } else {
+                LOGGER.warning("No 'workspaces' directory found, unable to load any stores.");
+            }
+            addLayerGroups(catalog, layerGroups.get());
+            long resolved = System.currentTimeMillis();
+
+            // phase 3, check the data stores can be connected to
+            List<Future<?>> checks = new ArrayList<Future<?>>();
+            for (DataStoreInfo ds : dataStores) {
+                if (ds.isEnabled()) {
+                    checks.add(executor.submit(new ConnectTask(ds)));
+                }
+            }
+            for (Future<?> check : checks) {
+                check.get();
+            }
+            long connected = System.currentTimeMillis();
+
+            LOGGER.info("Loaded catalog in " + (connected - start) + "ms using " + threads
+                    + " threads: parsing " + (parsed - start) + "ms, resolving "
+                    + (resolved - parsed) + "ms, connecting to data stores "
+                    + (connected - resolved) + "ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+            xp.setCatalog(catalog);
+        }
+
+        return catalog;
+    }
+
+    void addWorkspaces(Catalog catalog, File workspaces, Parsed<WorkspaceInfo> dws,
+            List<WorkspaceDir> workspaceDirs) throws Exception {
+        WorkspaceInfo defaultWorkspace = null;
+        if (dws != null) {
+            if (dws.error != null) {
+                LOGGER.log(Level.WARNING, "Failed to load default workspace", dws.error);
+            } else {
+                defaultWorkspace = dws.object;
+                LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
+            }
+        } else {
+            LOGGER.warning("No default workspace was found.");
+        }
+
+        for (WorkspaceDir dir : workspaceDirs) {
+            WorkspaceContents contents = dir.contents.get();
+            if (contents == null) {
+                continue;
+            }
+            WorkspaceInfo ws = null;
+            try {
+                if (contents.workspace.error != null) {
+                    throw contents.workspace.error;
+                }
+                ws = contents.workspace.object;
+                catalog.add(ws);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load workspace '" + dir.dir.getName() + "'", e);
+                continue;
+            }
+
+            LOGGER.info("Loaded workspace '" + ws.getName() + "'");
+
+            NamespaceInfo ns = null;
+            if (contents.namespace != null) {
+                try {
+                    if (contents.namespace.error != null) {
+                        throw contents.namespace.error;
+                    }
+                    ns = contents.namespace.object;
+                    catalog.add(ns);
+                } catch (Exception e) {
+                    ns = null;
+                    LOGGER.log(Level.WARNING, "Failed to load namespace for '" + dir.dir.getName()
+                            + "'", e);
+                }
+            }
+
+            // set the default workspace, this value might be null in the case of coming from a
+            // 2.0.0 data directory. See http://jira.codehaus.org/browse/GEOS-3440
+            if (defaultWorkspace != null) {
+                if (ws.getName().equals(defaultWorkspace.getName())) {
+                    catalog.setDefaultWorkspace(ws);
+                    if (ns != null) {
+                        catalog.setDefaultNamespace(ns);
+                    }
+                }
+            } else {
+                // create the default.xml file
+                defaultWorkspace = catalog.getDefaultWorkspace();
+                if (defaultWorkspace != null) {
+                    try {
+                        loader.persist(xp, defaultWorkspace, new File(workspaces, "default.xml"));
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to persist default workspace '"
+                                + dir.dir.getName() + "'", e);
+                    }
+                }
+            }
+
+            addStyles(catalog, contents.styles);
+        }
+
+        for (WorkspaceDir dir : workspaceDirs) {
+            for (Future<StoreDir> store : dir.stores) {
+                addStore(catalog, store.get());
+            }
+            WorkspaceContents contents = dir.contents.get();
+            if (contents != null) {
+                addLayerGroups(catalog, contents.layerGroups);
+            }
+        }
+    }
+
+    void addStore(Catalog catalog, StoreDir dir) {
+        if (dir.store == null) {
+            LOGGER.warning("Ignoring store directory '" + dir.dir.getName() + "'");
+            return;
+        }
+
+        StoreInfo store = null;
+        try {
+            if (dir.store.error != null) {
+                throw dir.store.error;
+            }
+            store = dir.store.object;
+            resolve(catalog, store);
+            catalog.add(store);
+            if (store instanceof DataStoreInfo) {
+                dataStores.add((DataStoreInfo) store);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + storeKind(dir.store.clazz) + " '"
+                    + dir.dir.getName() + "'", e);
+            return;
+        }
+        LOGGER.info("Loaded " + storeKind(dir.store.clazz) + " '" + store.getName() + "'");
+
+        for (ResourceDir rd : dir.resources) {
+            if (rd.resource == null) {
+                LOGGER.warning("Ignoring " + resourceKind(dir.store.clazz) + " directory "
+                        + rd.dir.getAbsolutePath());
+                continue;
+            }
+
+            ResourceInfo resource = null;
+            try {
+                if (rd.resource.error != null) {
+                    throw rd.resource.error;
+                }
+                resource = rd.resource.object;
+                resolve(catalog, resource);
+                catalog.add(resource);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + resourceKind(dir.store.clazz) + " '"
+                        + rd.dir.getName() + "'", e);
+                continue;
+            }
+            LOGGER.info("Loaded " + resourceKind(dir.store.clazz) + " '" + resource.getName() + "'");
+
+            if (rd.layer != null) {
+                try {
+                    if (rd.layer.error != null) {
+                        throw rd.layer.error;
+                    }
+                    LayerInfo l = rd.layer.object;
+                    resolve(catalog, l);
+                    catalog.add(l);
+
+                    LOGGER.info("Loaded layer '" + l.getName() + "'");
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load layer for "
+                            + resourceKind(dir.store.clazz) + " '" + resource.getName() + "'", e);
+                }
+            }
+        }
+    }
+
+    void addStyles(Catalog catalog, List<Parsed<StyleInfo>> styles) {
+        for (Parsed<StyleInfo> p : styles) {
+            try {
+                if (p.error != null) {
+                    throw p.error;
+                }
+                StyleInfo s = p.object;
+                s.setWorkspace(ref(catalog, s.getWorkspace()));
+                catalog.add(s);
+
+                LOGGER.info("Loaded style '" + s.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load style from file '" + p.file.getName()
+                        + "'", e);
+            }
+        }
+    }
+
+    void addLayerGroups(Catalog catalog, List<Parsed<LayerGroupInfo>> layerGroups) {
+        for (Parsed<LayerGroupInfo> p : layerGroups) {
+            try {
+                if (p.error != null) {
+                    throw p.error;
+                }
+                LayerGroupInfo lg = p.object;
+                resolve(catalog, lg);
+                if (lg.getLayers() == null || lg.getLayers().size() == 0) {
+                    LOGGER.warning("Skipping empty layer group '" + lg.getName()
+                            + "', it is invalid");
+                    continue;
+                }
+                catalog.add(lg);
+
+                LOGGER.info("Loaded layer group '" + lg.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load layer group '" + p.file.getName() + "'",
+                        e);
+            }
+        }
+    }
+
+    //
+    // reference resolution, replaces the proxies left by parsing with the actual objects, or
+    // null if not found, exactly as parsing with the catalog set would have done
+    //
+    <T> T ref(Catalog catalog, T object) {
+        if (object == null) {
+            return null;
+        }
+        return (T) CatalogImpl.unwrap(ResolvingProxy.resolve(catalog, object));
+    }
+
+    void resolve(Catalog catalog, StoreInfo store) {
+        store.setWorkspace(ref(catalog, store.getWorkspace()));
+    }
+
+    void resolve(Catalog catalog, ResourceInfo resource) {
+        resource.setStore(ref(catalog, resource.getStore()));
+        resource.setNamespace(ref(catalog, resource.getNamespace()));
+    }
+
+    void resolve(Catalog catalog, LayerInfo layer) {
+        layer.setResource(ref(catalog, layer.getResource()));
+        layer.setDefaultStyle(ref(catalog, layer.getDefaultStyle()));
+        if (layer.getStyles() != null) {
+            List<StyleInfo> styles = new ArrayList<StyleInfo>(layer.getStyles());
+            layer.getStyles().clear();
+            for (StyleInfo s : styles) {
+                s = ref(catalog, s);
+                if (s != null) {
+                    layer.getStyles().add(s);
+                }
+            }
+        }
+    }
+
+    void resolve(Catalog catalog, LayerGroupInfo lg) {
+        lg.setWorkspace(ref(catalog, lg.getWorkspace()));
+        lg.setRootLayer(ref(catalog, lg.getRootLayer()));
+        lg.setRootLayerStyle(ref(catalog, lg.getRootLayerStyle()));
+        if (lg.getLayers() != null) {
+            for (int i = 0; i < lg.getLayers().size(); i++) {
+                PublishedInfo p = lg.getLayers().get(i);
+                lg.getLayers().set(i, ref(catalog, p));
+            }
+        }
+        if (lg.getStyles() != null) {
+            for (int i = 0; i < lg.getStyles().size(); i++) {
+                lg.getStyles().set(i, ref(catalog, lg.getStyles().get(i)));
+            }
+        }
+    }
+
+    static String storeKind(Class<?> clazz) {
+        if (DataStoreInfo.class.equals(clazz)) {
+            return "data store";
+        }
+        if (CoverageStoreInfo.class.equals(clazz)) {
+            return "coverage store";
+        }
+        return "wms store";
+    }
+
+    static String resourceKind(Class<?> clazz) {
+        if (DataStoreInfo.class.equals(clazz)) {
+            return "feature type";
+        }
+        if (CoverageStoreInfo.class.equals(clazz)) {
+            return "coverage";
+        }
+        return "wms layer";
+    }
+
+    //
+    // parsing
+    //
+    <T> Parsed<T> parse(File f, Class<T> clazz) {
+        Parsed<T> p = new Parsed<T>(f, clazz);
+        try {
+            p.object = loader.depersist(xp, f, clazz);
+        } catch (Exception e) {
+            p.error = e;
+        }
+        return p;
+    }
+
+    /**
+     * Parses a resource or a layer, only reading a summary of it when the catalog loads them on
+     * demand, see {@link LazyCatalogFacade}.
+     */
+    <T extends CatalogInfo> Parsed<T> summarize(File f, Class<T> clazz) {
+        if (lazy == null) {
+            return parse(f, clazz);
+        }
+        Parsed<T> p = new Parsed<T>(f, clazz);
+        try {
+            p.object = lazy.stub(f, clazz, null);
+            if (p.object == null) {
+                p.object = loader.depersist(xp, f, clazz);
+            }
+        } catch (Exception e) {
+            p.error = e;
+        }
+        return p;
+    }
+
+    List<Parsed<StyleInfo>> parseStyles(File styles) {
+        List<Parsed<StyleInfo>> parsed = new ArrayList<Parsed<StyleInfo>>();
+        for (File sf : loader.list(styles, new SuffixFileFilter(".xml"))) {
+            // handle the .xml.xml case
+            if (new File(styles, sf.getName() + ".xml").exists()) {
+                continue;
+            }
+            parsed.add(parse(sf, StyleInfo.class));
+        }
+        return parsed;
+    }
+
+    List<Parsed<LayerGroupInfo>> parseLayerGroups(File layergroups) {
+        List<Parsed<LayerGroupInfo>> parsed = new ArrayList<Parsed<LayerGroupInfo>>();
+        for (File lgf : loader.list(layergroups, new SuffixFileFilter(".xml"))) {
+            parsed.add(parse(lgf, LayerGroupInfo.class));
+        }
+        return parsed;
+    }
+
+    /**
+     * Result of parsing a single file.
+     */
+    static class Parsed<T> {
+        final File file;
+
+        final Class<T> clazz;
+
+        T object;
+
+        Exception error;
+
+        Parsed(File file, Class<T> clazz) {
+            this.file = file;
+            this.clazz = clazz;
+        }
+    }
+
+    static class WorkspaceDir {
+        final File dir;
+
+        Future<WorkspaceContents> contents;
+
+        List<Future<StoreDir>> stores = new ArrayList<Future<StoreDir>>();
+
+        WorkspaceDir(File dir) {
+            this.dir = dir;
+        }
+    }
+
+    static class WorkspaceContents {
+        Parsed<WorkspaceInfo> workspace;
+
+        Parsed<NamespaceInfo> namespace;
+
+        List<Parsed<StyleInfo>> styles = new ArrayList<Parsed<StyleInfo>>();
+
+        List<Parsed<LayerGroupInfo>> layerGroups = new ArrayList<Parsed<LayerGroupInfo>>();
+    }
+
+    static class StoreDir {
+        final File dir;
+
+        Parsed<? extends StoreInfo> store;
+
+        List<ResourceDir> resources = new ArrayList<ResourceDir>();
+
+        StoreDir(File dir) {
+            this.dir = dir;
+        }
+    }
+
+    static class ResourceDir {
+        final File dir;
+
+        Parsed<? extends ResourceInfo> resource;
+
+        Parsed<LayerInfo> layer;
+
+        ResourceDir(File dir) {
+            this.dir = dir;
+        }
+    }
+
+    class StylesTask implements Callable<List<Parsed<StyleInfo>>> {
+        File dir;
+
+        StylesTask(File dir) {
+            this.dir = dir;
+        }
+
+        public List<Parsed<StyleInfo>> call() throws Exception {
+            return parseStyles(dir);
+        }
+    }
+
+    class LayerGroupsTask implements Callable<List<Parsed<LayerGroupInfo>>> {
+        File dir;
+
+        LayerGroupsTask(File dir) {
+            this.dir = dir;
+        }
+
+        public List<Parsed<LayerGroupInfo>> call() throws Exception {
+            return parseLayerGroups(dir);
+        }
+    }
+
+    /**
+     * Parses the workspace, namespace, styles and layer groups of a workspace directory, returns
+     * <code>null</code> if the directory has no workspace.xml file.
+     */
+    class WorkspaceTask implements Callable<WorkspaceContents> {
+        File wsd;
+
+        WorkspaceTask(File wsd) {
+            this.wsd = wsd;
+        }
+
+        public WorkspaceContents call() throws Exception {
+            File f = new File(wsd, "workspace.xml");
+            if (!f.exists()) {
+                return null;
+            }
+
+            WorkspaceContents contents = new WorkspaceContents();
+            contents.workspace = parse(f, WorkspaceInfo.class);
+            File nsf = new File(wsd, "namespace.xml");
+            if (nsf.exists()) {
+                contents.namespace = parse(nsf, NamespaceInfo.class);
+            }
+
+            File styles = resourceLoader.find(wsd, "styles");
+            if (styles != null) {
+                contents.styles = parseStyles(styles);
+            }
+            File layergroups = resourceLoader.find(wsd, "layergroups");
+            if (layergroups != null) {
+                contents.layerGroups = parseLayerGroups(layergroups);
+            }
+            return contents;
+        }
+    }
+
+    /**
+     * Parses a store directory along with its resources and layers.
+     */
+    class StoreTask implements Callable<StoreDir> {
+        File sd;
+
+        StoreTask(File sd) {
+            this.sd = sd;
+        }
+
+        public StoreDir call() throws Exception {
+            StoreDir dir = new StoreDir(sd);
+            File f;
+            if ((f = new File(sd, "datastore.xml")).exists()) {
+                dir.store = parse(f, DataStoreInfo.class);
+                parseResources(dir, "featuretype.xml", FeatureTypeInfo.class);
+            } else if ((f = new File(sd, "coveragestore.xml")).exists()) {
+                dir.store = parse(f, CoverageStoreInfo.class);
+                parseResources(dir, "coverage.xml", CoverageInfo.class);
+            } else if ((f = new File(sd, "wmsstore.xml")).exists()) {
+                dir.store = parse(f, WMSStoreInfo.class);
+                parseResources(dir, "wmslayer.xml", WMSLayerInfo.class);
+            }
+            return dir;
+        }
+
+        void parseResources(StoreDir dir, String filename, Class<? extends ResourceInfo> clazz) {
+            if (dir.store.error != null) {
+                return;
+            }
+            for (File rd : loader.list(sd, DirectoryFileFilter.INSTANCE)) {
+                ResourceDir resource = new ResourceDir(rd);
+                File f = new File(rd, filename);
+                if (f.exists()) {
+                    resource.resource = summarize(f, clazz);
+                    File lf = new File(rd, "layer.xml");
+                    if (resource.resource.error == null && lf.exists()) {
+                        resource.layer = summarize(lf, LayerInfo.class);
+                    }
+                }
+                dir.resources.add(resource);
+            }
+        }
+    }
+
+    /**
+     * Connects to a data store, disabling it if the connection fails.
+     */
+    static class ConnectTask implements Callable<Object> {
+        DataStoreInfo ds;
+
+        ConnectTask(DataStoreInfo ds) {
+            this.ds = ds;
+        }
+
+        public Object call() throws Exception {
+            try {
+                ds.getDataStore(null);
+            } catch (Throwable t) {
+                LOGGER.warning("Error connecting to '" + ds.getName() + "'. Disabling.");
+                LOGGER.log(Level.INFO, "", t);
+
+                ds.setError(t);
+                ds.setEnabled(false);
+            }
+            return null;
+        }
+    }
+
+    static class LoaderThreadFactory implements ThreadFactory {
+        AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "GeoServer catalog loader " + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -63,6 +63,7 @@ import org.geoserver.catalog.impl.FeatureTypeInfoImpl;
 import org.geoserver.catalog.impl.LayerGroupInfoImpl;
 import org.geoserver.catalog.impl.LayerIdentifier;
 import org.geoserver.catalog.impl.LayerInfoImpl;
+import org.geoserver.catalog.impl.LazyCatalogFacade;
 import org.geoserver.catalog.impl.MetadataLinkInfoImpl;
 import org.geoserver.catalog.impl.NamespaceInfoImpl;
 import org.geoserver.catalog.impl.ResolvingProxy;
@@ -132,6 +133,7 @@ import com.thoughtworks.xstream.io.ExtendedHierarchicalStreamWriterHelper;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
 import com.thoughtworks.xstream.mapper.ClassAliasingMapper;
 import com.thoughtworks.xstream.mapper.Mapper;
 import com.vividsolutions.jts.geom.Geometry;
@@ -239,6 +241,11 @@ public class XStreamPersister {
      */
     boolean encryptPasswordFields = true;
 
+    /**
+     * Flag indicating the stream driver writes bytes rather than characters
+     */
+    boolean binary = false;
+
     /**
      * Constructs the persister and underlying xstream.
      */
@@ -261,6 +268,7 @@ public class XStreamPersister {
             //new Sun14ReflectionProvider( new FieldDictionary( sorter  ) ); 
         if ( streamDriver != null ) {
             xs = new XStream( reflectionProvider, streamDriver );
+            binary = streamDriver instanceof BinaryStreamDriver;
         }
         else {
             xs = new XStream( reflectionProvider );    
@@ -521,7 +529,12 @@ public class XStreamPersister {
     public void save(Object obj, OutputStream out) throws IOException {
         //unwrap dynamic proxies
         obj = unwrapProxies( obj );
-        xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        if ( binary ) {
+            xs.toXML(obj, out);
+        }
+        else {
+            xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        }
     }
     
     /**
@@ -534,6 +547,7 @@ public class XStreamPersister {
         obj = SecureCatalogImpl.unwrap( obj );
         obj = GeoServerImpl.unwrap( obj );
         obj = CatalogImpl.unwrap( obj );
+        obj = LazyCatalogFacade.unwrap( obj );
         return obj;
     }
     
@@ -11,6 +11,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
@@ -27,12 +28,23 @@ public class AlternativesResponseStream extends ServletOutputStream {
     HttpServletResponse myResponse;
     ServletOutputStream myStream;
     Set myCompressibleTypes;
+    int myCompressionLevel;
+    int myMinSize;
+    boolean myStreaming;
     Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
 
     public AlternativesResponseStream(HttpServletResponse response, Set compressible) throws IOException {
+        this(response, compressible, Deflater.DEFAULT_COMPRESSION, 0, true);
+    }
+
+    public AlternativesResponseStream(HttpServletResponse response, Set compressible,
+            int compressionLevel, int minSize, boolean streaming) throws IOException {
         super();
         myResponse = response;
         myCompressibleTypes = compressible;
+        myCompressionLevel = compressionLevel;
+        myMinSize = minSize;
+        myStreaming = streaming;
     }
 
     public void close() throws IOException {
@@ -67,7 +79,8 @@ public class AlternativesResponseStream extends ServletOutputStream {
 
         if (type != null && isCompressible(type)){
             logger.log(Level.FINE, "Compressing output for mimetype: {0}", type);
-            myStream = new GZIPResponseStream(myResponse);
+            myStream = new GZIPResponseStream(myResponse, myCompressionLevel, myMinSize,
+                    myStreaming);
         } else {
             logger.log(Level.FINE, "Not compressing output for mimetype: {0}", type);
             myStream = myResponse.getOutputStream();
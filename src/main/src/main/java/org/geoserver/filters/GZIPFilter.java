@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -30,6 +31,12 @@ public class GZIPFilter implements Filter {
 
     private Set myCompressedTypes;
 
+    private int myCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private int myMinSize = 0;
+
+    private boolean myStreaming = true;
+
     public void doFilter(ServletRequest req, ServletResponse res,
             FilterChain chain) throws IOException, ServletException {
         if (req instanceof HttpServletRequest) {
@@ -38,7 +45,8 @@ public class GZIPFilter implements Filter {
             String ae = request.getHeader("accept-encoding");
             if (ae != null && ae.indexOf("gzip") != -1) {
                 GZIPResponseWrapper wrappedResponse =
-                    new GZIPResponseWrapper(response, myCompressedTypes, request.getRequestURL().toString());
+                    new GZIPResponseWrapper(response, myCompressedTypes, request.getRequestURL().toString(),
+                            myCompressionLevel, myMinSize, myStreaming);
                 chain.doFilter(req, wrappedResponse);
                 wrappedResponse.finishResponse();
                 return;
@@ -58,6 +66,23 @@ public class GZIPFilter implements Filter {
             for (int i = 0; i < typeNames.length; i++){
                 myCompressedTypes.add(Pattern.compile(typeNames[i]));
             }
+
+            String level = filterConfig.getInitParameter("compression-level");
+            if (level != null) {
+                int parsed = Integer.parseInt(level.trim());
+                if (parsed < Deflater.DEFAULT_COMPRESSION || parsed > Deflater.BEST_COMPRESSION) {
+                    throw new IllegalArgumentException("Invalid compression level: " + level);
+                }
+                myCompressionLevel = parsed;
+            }
+            String minSize = filterConfig.getInitParameter("min-size");
+            if (minSize != null) {
+                myMinSize = Integer.parseInt(minSize.trim());
+            }
+            String streaming = filterConfig.getInitParameter("streaming");
+            if (streaming != null) {
+                myStreaming = Boolean.valueOf(streaming.trim());
+            }
         } catch (Exception e){
             System.out.println("Error while setting up GZIPFilter; " + e);
         }
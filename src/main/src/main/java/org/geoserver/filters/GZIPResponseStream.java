@@ -13,37 +13,121 @@ package org.geoserver.filters;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
-
+/**
+ * Output stream compressing the response with gzip.
+ * <p>
+ * The first <code>minSize</code> bytes are held in memory: if the response ends before reaching
+ * that size it is sent uncompressed, as compressing it would not pay off. Past that point the
+ * response is compressed and, in streaming mode, the compressed data is written to the servlet
+ * output as soon as the deflater produces it, without a content length. Otherwise the whole
+ * compressed response is buffered and sent on close along with its length.
+ * </p>
+ * <p>
+ * Deflaters hold native memory, they are kept around and reused by the next response compressed
+ * in the same thread.
+ * </p>
+ */
 public class GZIPResponseStream extends ServletOutputStream {
+
+    /**
+     * Size of the buffer the deflater output is collected into before being written out
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Header of a gzip member with no optional fields, see RFC 1952
+     */
+    static final byte[] HEADER = { (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0,
+            0 };
+
+    static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>();
+
     protected ByteArrayOutputStream baos = null;
-    protected GZIPOutputStream gzipstream = null;
+    protected DeflaterOutputStream gzipstream = null;
     protected boolean closed = false;
     protected HttpServletResponse response = null;
     protected ServletOutputStream output = null;
 
+    protected int level;
+    protected int minSize;
+    protected boolean streaming;
+
+    /**
+     * The uncompressed bytes held until reaching the minimum size
+     */
+    protected byte[] pending;
+    protected int pendingCount;
+
+    protected Deflater deflater;
+    protected CRC32 crc;
+
     public GZIPResponseStream(HttpServletResponse response) throws IOException {
+        this(response, Deflater.DEFAULT_COMPRESSION, 0, true);
+    }
+
+    /**
+     * @param response the response to write to
+     * @param level the compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param minSize the size in bytes below which the response is not compressed
+     * @param streaming whether to write the compressed data as it is produced, or buffer it
+     *        all and send it on close with its length
+     */
+    public GZIPResponseStream(HttpServletResponse response, int level, int minSize,
+            boolean streaming) throws IOException {
         super();
         closed = false;
         this.response = response;
         this.output = response.getOutputStream();
-        baos = new ByteArrayOutputStream();
-        gzipstream = new GZIPOutputStream(baos);
+        this.level = level;
+        this.minSize = Math.max(0, minSize);
+        this.streaming = streaming;
+        if (this.minSize > 0) {
+            pending = new byte[Math.min(this.minSize, BUFFER_SIZE)];
+        }
     }
 
     public void close() throws IOException {
         if (closed) {
             throw new IOException("This output stream has already been closed");
         }
-        gzipstream.finish();
+        closed = true;
+
+        if (gzipstream == null) {
+            // did not reach the minimum size, send as is
+            setContentLength(pendingCount);
+            output.write(pending, 0, pendingCount);
+            pending = null;
+        } else {
+            try {
+                gzipstream.finish();
+                OutputStream out = baos != null ? baos : output;
+                writeInt(out, (int) crc.getValue());
+                writeInt(out, deflater.getTotalIn());
+            } finally {
+                releaseDeflater();
+            }
+
+            if (baos != null) {
+                setContentLength(baos.size());
+                baos.writeTo(output);
+                baos = null;
+            }
+        }
+        output.flush();
+        output.close();
+    }
+
+    void setContentLength(int length) {
+        String contentLength = Integer.toString(length);
 
-        byte[] bytes = baos.toByteArray();
-        String contentLength = Integer.toString(bytes.length);
-        
         //JD: we need to be careful about how we set the header, checking first if it has 
         // already been set, if we don't the result will be two values for the content lenght
         // header which will throw off most http clients
@@ -53,26 +137,20 @@ public class GZIPResponseStream extends ServletOutputStream {
         else {
             response.addHeader("Content-Length", contentLength);
         }
-         
-        response.addHeader("Content-Encoding", "gzip");
-        output.write(bytes);
-        output.flush();
-        output.close();
-        closed = true;
     }
 
     public void flush() throws IOException {
         if (closed) {
             throw new IOException("Cannot flush a closed output stream");
         }
-        gzipstream.flush();
+        // below the minimum size there is nothing we can send yet
+        if (gzipstream != null) {
+            gzipstream.flush();
+        }
     }
 
     public void write(int b) throws IOException {
-        if (closed) {
-            throw new IOException("Cannot write to a closed output stream");
-        }
-        gzipstream.write((byte)b);
+        write(new byte[] { (byte) b }, 0, 1);
     }
 
     public void write(byte b[]) throws IOException {
@@ -83,9 +161,87 @@ public class GZIPResponseStream extends ServletOutputStream {
         if (closed) {
             throw new IOException("Cannot write to a closed output stream");
         }
+        if (gzipstream == null) {
+            if (pendingCount + len < minSize) {
+                if (pendingCount + len > pending.length) {
+                    byte[] grown = new byte[Math.min(minSize,
+                            Math.max(pendingCount + len, pending.length * 2))];
+                    System.arraycopy(pending, 0, grown, 0, pendingCount);
+                    pending = grown;
+                }
+                System.arraycopy(b, off, pending, pendingCount, len);
+                pendingCount += len;
+                return;
+            }
+            startCompression();
+        }
+        crc.update(b, off, len);
         gzipstream.write(b, off, len);
     }
 
+    /**
+     * Switches to compressed output, writing out the gzip header and the bytes held so far
+     */
+    protected void startCompression() throws IOException {
+        response.addHeader("Content-Encoding", "gzip");
+
+        OutputStream out = output;
+        if (!streaming) {
+            baos = new ByteArrayOutputStream();
+            out = baos;
+        }
+        out.write(HEADER);
+
+        deflater = acquireDeflater(level);
+        crc = new CRC32();
+        gzipstream = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+        if (pendingCount > 0) {
+            crc.update(pending, 0, pendingCount);
+            gzipstream.write(pending, 0, pendingCount);
+        }
+        pending = null;
+    }
+
+    /**
+     * Takes the deflater of the current thread, or creates a new one if it is already in use
+     * by another response, as it happens with nested requests
+     */
+    static Deflater acquireDeflater(int level) {
+        Deflater deflater = DEFLATERS.get();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        } else {
+            DEFLATERS.remove();
+            deflater.reset();
+            deflater.setLevel(level);
+        }
+        return deflater;
+    }
+
+    /**
+     * Gives the deflater back to the current thread, or frees it if the thread already has one
+     */
+    void releaseDeflater() {
+        if (deflater == null) {
+            return;
+        }
+        if (DEFLATERS.get() == null) {
+            deflater.reset();
+            DEFLATERS.set(deflater);
+        } else {
+            deflater.end();
+        }
+        deflater = null;
+    }
+
+    static void writeInt(OutputStream out, int value) throws IOException {
+        // gzip uses little endian
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
     public boolean closed() {
         return (this.closed);
     }
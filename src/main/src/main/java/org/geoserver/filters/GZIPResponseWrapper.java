@@ -16,6 +16,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Set;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
@@ -26,6 +27,9 @@ public class GZIPResponseWrapper extends HttpServletResponseWrapper {
     protected AlternativesResponseStream stream = null;
     protected PrintWriter writer = null;
     protected Set formatsToCompress;
+    protected int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    protected int minSize = 0;
+    protected boolean streaming = true;
     protected String requestedURL;
     protected Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
 
@@ -37,8 +41,17 @@ public class GZIPResponseWrapper extends HttpServletResponseWrapper {
         formatsToCompress = toCompress;
     }
 
+    public GZIPResponseWrapper(HttpServletResponse response, Set toCompress, String url,
+            int compressionLevel, int minSize, boolean streaming) {
+        this(response, toCompress, url);
+        this.compressionLevel = compressionLevel;
+        this.minSize = minSize;
+        this.streaming = streaming;
+    }
+
     protected AlternativesResponseStream createOutputStream() throws IOException {
-        return new AlternativesResponseStream(origResponse, formatsToCompress);
+        return new AlternativesResponseStream(origResponse, formatsToCompress,
+                compressionLevel, minSize, streaming);
     }
 
     public void setContentType(String type){
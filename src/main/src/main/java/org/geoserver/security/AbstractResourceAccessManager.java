@@ -4,17 +4,20 @@
  */
 package org.geoserver.security;
 
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.opengis.filter.Filter;
 import org.springframework.security.core.Authentication;
 
 /**
  * Abstract base class for {@link ResourceAccessManager} implementations.
  * <p>
- * This base class returns null from every method meaning no limits.
+ * This base class returns null from every method meaning no limits, and does not narrow down
+ * catalog queries.
  * </p>
  * @author Justin Deoliveira, OpenGeo
  *
@@ -47,4 +50,15 @@ public class AbstractResourceAccessManager implements ResourceAccessManager {
         return null;
     }
 
+    /**
+     * Returns a filter matching at least all the objects of the given type the user can see, that
+     * the {@link SecureCatalogImpl} adds to the catalog queries so that the catalog backend can
+     * skip the hidden objects on its own. The objects matched are still checked one by one, the
+     * filter just needs not to leave out any visible one.
+     * 
+     * @return the filter, or {@link Filter#INCLUDE} if the objects cannot be narrowed down
+     */
+    public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
+        return Filter.INCLUDE;
+    }
 }
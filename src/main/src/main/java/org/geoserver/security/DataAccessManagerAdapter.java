@@ -7,6 +7,7 @@ package org.geoserver.security;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
@@ -15,6 +16,7 @@ import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.security.impl.DefaultDataAccessManager;
 import org.geotools.util.logging.Logging;
 import org.opengis.filter.Filter;
 import org.springframework.security.core.Authentication;
@@ -95,4 +97,19 @@ public class DataAccessManagerAdapter extends AbstractResourceAccessManager {
         }
         return new WorkspaceAccessLimits(mode, readable, writable, adminable);
     }
+
+    /**
+     * Turns the rules of the {@link DefaultDataAccessManager} into a filter on the workspace and
+     * layer names. That is only possible in {@link CatalogMode#HIDE} mode, as in the other modes
+     * unreadable objects are still listed, and outside of admin requests, which look at the
+     * admin rather than read rules for workspaces.
+     */
+    @Override
+    public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
+        if (delegate instanceof DefaultDataAccessManager && delegate.getMode() == CatalogMode.HIDE
+                && AdminRequest.get() == null) {
+            return ((DefaultDataAccessManager) delegate).getReadFilter(user, clazz);
+        }
+        return Filter.INCLUDE;
+    }
 }
@@ -12,6 +12,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.springframework.security.core.Authentication;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
@@ -224,4 +225,14 @@ public abstract class ResourceAccessManagerWrapper implements ResourceAccessMana
     public LayerGroupAccessLimits getAccessLimits(Authentication user, LayerGroupInfo layerGroup) {
         return delegate.getAccessLimits(user, layerGroup);
     }
+
+    /**
+     * Returns the security filter of the delegate. Subclasses granting access to objects the
+     * delegate hides must override this method
+     * 
+     * @see AbstractResourceAccessManager#getSecurityFilter(Authentication, Class)
+     */
+    public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
+        return SecureCatalogImpl.securityFilter(delegate, user, clazz);
+    }
 }
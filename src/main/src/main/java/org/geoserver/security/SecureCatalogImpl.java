@@ -1425,12 +1425,18 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
      * at least encode the "well known" part of the resulting filter, and separate out the
      * in-process evaluation of access credentials from the construction of the security wrapper for
      * each object.
+     * <p>
+     * Access managers able to express their rules in terms of the object properties provide such a
+     * "well known" predicate through
+     * {@link AbstractResourceAccessManager#getSecurityFilter(Authentication, Class)}, it is
+     * and'ed before the in-process check so that the backend can skip most hidden objects.
+     * </p>
      * 
      * @return a catalog Predicate that evaluates if an object of the required type is accessible to
      *         the given user
      */
     private <T extends CatalogInfo> Filter securityFilter(final Class<T> infoType,
-            final Filter filter) {
+            Filter filter) {
 
         final Authentication user = user();
         if (isAdmin(user)) {
@@ -1443,6 +1449,15 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
             return filter;
         }
 
+        // narrow down the objects to the ones the access manager may let the user see, the
+        // catalog can evaluate this part on its own, possibly in its native query language
+        Filter accessFilter = securityFilter(accessManager, user, infoType);
+        if (accessFilter == Filter.EXCLUDE) {
+            return Filter.EXCLUDE;
+        } else if (accessFilter != Filter.INCLUDE) {
+            filter = Predicates.and(filter, accessFilter);
+        }
+
         org.opengis.filter.expression.Function visible = new InternalVolatileFunction() {
             /**
              * Returns {@code false} if the catalog info shall be hidden, {@code true} otherwise.
@@ -1463,6 +1478,22 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
         return Predicates.and(filter, securityFilter);
     }
 
+    /**
+     * Returns the filter matching at least all the objects of the given type the access manager
+     * lets the user see, or {@link Filter#INCLUDE} if the access manager cannot tell
+     * 
+     * @see AbstractResourceAccessManager#getSecurityFilter(Authentication, Class)
+     */
+    static Filter securityFilter(ResourceAccessManager manager, Authentication user,
+            Class<? extends CatalogInfo> clazz) {
+        if (manager instanceof AbstractResourceAccessManager) {
+            return ((AbstractResourceAccessManager) manager).getSecurityFilter(user, clazz);
+        } else if (manager instanceof ResourceAccessManagerWrapper) {
+            return ((ResourceAccessManagerWrapper) manager).getSecurityFilter(user, clazz);
+        }
+        return Filter.INCLUDE;
+    }
+
     /**
      * Checks if the current user is authenticated and is the administrator
      */
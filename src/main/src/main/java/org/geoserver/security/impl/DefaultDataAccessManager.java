@@ -6,18 +6,26 @@ package org.geoserver.security.impl;
 
 import static org.geoserver.security.impl.DataAccessRule.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.springframework.security.core.Authentication;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
 import org.geoserver.security.DataAccessManager;
 import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
 
 /**
  * Default implementation of {@link DataAccessManager}, loads simple access
@@ -103,6 +111,77 @@ public class DefaultDataAccessManager implements DataAccessManager {
         return node.canAccess(user, mode);
     }
 
+    /**
+     * Returns a filter matching the objects of the given type the user can read according to the
+     * rules, based only on the workspace and layer names the rules refer to. Types the rules do
+     * not apply to get {@link Filter#INCLUDE}.
+     * <p>
+     * The filter is meant to be handed to the catalog queries so that objects the user cannot
+     * read are skipped by the catalog backend, where possible without loading them at all.
+     * </p>
+     */
+    public Filter getReadFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
+        checkPropertyFile();
+
+        // properties holding the workspace and layer names the rules are matched against
+        String wsProperty;
+        String nameProperty = null;
+        if (WorkspaceInfo.class.isAssignableFrom(clazz)) {
+            wsProperty = "name";
+        } else if (NamespaceInfo.class.isAssignableFrom(clazz)) {
+            wsProperty = "prefix";
+        } else if (StoreInfo.class.isAssignableFrom(clazz)) {
+            wsProperty = "workspace.name";
+        } else if (ResourceInfo.class.isAssignableFrom(clazz)) {
+            wsProperty = "store.workspace.name";
+            nameProperty = "name";
+        } else if (LayerInfo.class.isAssignableFrom(clazz)) {
+            wsProperty = "resource.store.workspace.name";
+            nameProperty = "resource.name";
+        } else {
+            return Filter.INCLUDE;
+        }
+
+        SecureTreeNode root = this.root;
+        List<Filter> readable = new ArrayList<Filter>();
+        List<Filter> ruled = new ArrayList<Filter>();
+        for (Map.Entry<String, SecureTreeNode> ws : root.children.entrySet()) {
+            Filter inWorkspace = Predicates.equal(wsProperty, ws.getKey());
+            ruled.add(inWorkspace);
+            boolean wsReadable = ws.getValue().canAccess(user, AccessMode.READ);
+            if (nameProperty == null) {
+                if (wsReadable) {
+                    readable.add(inWorkspace);
+                }
+                continue;
+            }
+
+            // layers whose rules contradict the workspace ones
+            List<Filter> exceptions = new ArrayList<Filter>();
+            for (Map.Entry<String, SecureTreeNode> layer : ws.getValue().children.entrySet()) {
+                if (layer.getValue().canAccess(user, AccessMode.READ) != wsReadable) {
+                    exceptions.add(Predicates.equal(nameProperty, layer.getKey()));
+                }
+            }
+            if (wsReadable) {
+                readable.add(exceptions.isEmpty() ? inWorkspace : Predicates.and(inWorkspace,
+                        Predicates.factory.not(or(exceptions))));
+            } else if (!exceptions.isEmpty()) {
+                readable.add(Predicates.and(inWorkspace, or(exceptions)));
+            }
+        }
+        if (root.canAccess(user, AccessMode.READ)) {
+            // the workspaces without rules of their own
+            readable.add(ruled.isEmpty() ? Filter.INCLUDE : Predicates.factory.not(or(ruled)));
+        }
+
+        return readable.isEmpty() ? Filter.EXCLUDE : or(readable);
+    }
+
+    static Filter or(List<Filter> filters) {
+        return filters.size() == 1 ? filters.get(0) : Predicates.factory.or(filters);
+    }
+
     void checkPropertyFile() {
         long daoLastModified = dao.getLastModified();
         if(lastLoaded < daoLastModified) {
@@ -13,7 +13,18 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -239,4 +250,183 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
                 MockData.LAKES.getLocalPart());
         assertEquals("foo", lakes.getTitle());
     }
+
+    @Test public void testConcurrentLoadsShareSingleFlight() throws Exception {
+        final Map<String, Object> cache = new HashMap<String, Object>();
+        final ResourcePool.CacheLoader<String, Object> loader = 
+            new ResourcePool.CacheLoader<String, Object>();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> slow = new Callable<Object>() {
+            public Object call() throws Exception {
+                loads.incrementAndGet();
+                loading.countDown();
+                release.await();
+                return new Object();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        return loader.get(cache, "key", slow);
+                    }
+                }));
+            }
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+            // a different key is not blocked by the pending load
+            Object other = loader.get(cache, "other", new Callable<Object>() {
+                public Object call() throws Exception {
+                    return "other";
+                }
+            });
+            assertEquals("other", other);
+
+            release.countDown();
+            Object first = results.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<Object> result : results) {
+                assertSame(first, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+            assertSame(first, cache.get("key"));
+            assertTrue(loader.loading.isEmpty());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test public void testLoadNotCachedWhenClearedMeanwhile() throws Exception {
+        final Map<String, Object> cache = new HashMap<String, Object>();
+        final ResourcePool.CacheLoader<String, Object> loader = 
+            new ResourcePool.CacheLoader<String, Object>();
+        final AtomicInteger loads = new AtomicInteger();
+        Object value = loader.get(cache, "key", new Callable<Object>() {
+            public Object call() throws Exception {
+                if (loads.incrementAndGet() == 1) {
+                    // the configuration changes while the first load is running
+                    synchronized (cache) {
+                        loader.invalidate();
+                        cache.remove("key");
+                    }
+                    return "stale";
+                }
+                return "fresh";
+            }
+        });
+        assertEquals("fresh", value);
+        assertEquals(2, loads.get());
+        assertEquals("fresh", cache.get("key"));
+    }
+
+    @Test public void testBoundedCacheEviction() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        ResourcePool.CatalogResourceCache<String, List<AttributeTypeInfo>> cache = 
+            (ResourcePool.CatalogResourceCache<String, List<AttributeTypeInfo>>) 
+                pool.getFeatureTypeAttributeCache();
+        List<AttributeTypeInfo> atts = new ArrayList<AttributeTypeInfo>();
+        atts.add(getCatalog().getFactory().createAttribute());
+        
+        cache.setMaxEntries(2);
+        cache.put("a", atts);
+        cache.put("b", atts);
+        assertNotNull(cache.get("a"));
+        cache.put("c", atts);
+        
+        // b is the least recently used
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        
+        cache.setMaxEntries(0);
+        cache.setMaxIdleTime(1);
+        Thread.sleep(10);
+        cache.put("d", atts);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("d"));
+        
+        ResourceCacheStatistics stats = 
+            pool.getCacheStatistics().get("featureTypeAttribute");
+        assertEquals(3, stats.getEvictionCount());
+        assertEquals(1, stats.getSize());
+        assertEquals(1, stats.getWeight());
+    }
+
+    @Test public void testBoundedCacheWeight() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        ResourcePool.CatalogResourceCache<String, List<AttributeTypeInfo>> cache = 
+            (ResourcePool.CatalogResourceCache<String, List<AttributeTypeInfo>>) 
+                pool.getFeatureTypeAttributeCache();
+        List<AttributeTypeInfo> atts = new ArrayList<AttributeTypeInfo>();
+        atts.add(getCatalog().getFactory().createAttribute());
+        atts.add(getCatalog().getFactory().createAttribute());
+        
+        // attribute lists weigh their size
+        cache.setMaxWeight(5);
+        cache.put("a", atts);
+        cache.put("b", atts);
+        assertEquals(4, cache.getWeight());
+        cache.put("c", atts);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals(4, cache.getWeight());
+    }
+
+    @Test public void testDisposeOutsideCacheLock() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        final List<String> disposed = new ArrayList<String>();
+        ResourcePool.CatalogResourceCache<String, Object> cache = 
+            pool.new CatalogResourceCache<String, Object>() {
+                @Override
+                protected void dispose(String key, Object object) {
+                    assertFalse(Thread.holdsLock(this));
+                    disposed.add(key);
+                }
+            };
+        
+        cache.setMaxEntries(1);
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+        cache.remove("c");
+        cache.put("d", "d");
+        cache.clear();
+        assertEquals(Arrays.asList("a", "b", "c", "d"), disposed);
+    }
+
+    @Test public void testPinsOutsideCacheLock() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        ResourcePool.CatalogResourceCache<String, Object> cache = 
+            pool.new CatalogResourceCache<String, Object>() {
+                @Override
+                protected boolean isPinned(String key) {
+                    assertFalse(Thread.holdsLock(this));
+                    return key.startsWith("pinned");
+                }
+                
+                @Override
+                protected void dispose(String key, Object object) {
+                }
+            };
+        
+        cache.setMaxEntries(2);
+        cache.put("pinned", "p");
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("pinned"));
+        assertNotNull(cache.get("c"));
+        
+        // bounded caches keep their values strongly referenced, no limit means soft references
+        assertEquals(2, cache.strong.size());
+        cache.setMaxEntries(0);
+        assertEquals(0, cache.strong.size());
+    }
 }
@@ -0,0 +1,121 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+/**
+ * Runs the catalog tests against the {@link IndexedCatalogFacade}, plus some checks on index
+ * maintenance.
+ */
+public class IndexedCatalogFacadeTest extends CatalogImplTest {
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalogImpl = new CatalogImpl();
+        catalogImpl.setFacade(new IndexedCatalogFacade(catalogImpl));
+        return catalogImpl;
+    }
+
+    @Test
+    public void testLayerIndexFollowsResourceRename() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName("ftRenamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getLayerByName("ftName"));
+        LayerInfo l2 = catalog.getLayerByName("ftRenamed");
+        assertNotNull(l2);
+        assertEquals(l.getId(), l2.getId());
+        assertNotNull(catalog.getLayerByName("wsName:ftRenamed"));
+    }
+
+    @Test
+    public void testStyleIndexFollowsLayerSave() {
+        addLayer();
+
+        StyleInfo s2 = catalog.getFactory().createStyle();
+        s2.setName("styleName2");
+        s2.setFilename("styleFilename2");
+        catalog.add(s2);
+        s2 = catalog.getStyleByName("styleName2");
+
+        LayerInfo l2 = catalog.getLayerByName(l.getName());
+        l2.setDefaultStyle(s2);
+        catalog.save(l2);
+
+        assertTrue(catalog.getLayers(s).isEmpty());
+        assertEquals(1, catalog.getLayers(s2).size());
+    }
+
+    @Test
+    public void testWorkspaceIndexFollowsRename() {
+        addDataStore();
+
+        WorkspaceInfo ws2 = catalog.getWorkspaceByName(ws.getName());
+        ws2.setName("wsRenamed");
+        catalog.save(ws2);
+
+        assertNull(catalog.getFacade().getWorkspaceByName("wsName"));
+        ws2 = catalog.getWorkspaceByName("wsRenamed");
+        assertNotNull(ws2);
+        assertEquals(1, catalog.getStoresByWorkspace(ws2, DataStoreInfo.class).size());
+    }
+
+    @Test
+    public void testQueryPlannerUsesIndexes() {
+        addLayer();
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) catalog.getFacade();
+
+        Filter filter = Predicates.equal("resource.id", ft.getId());
+        assertEquals(1, facade.candidates(LayerInfo.class, filter).size());
+
+        filter = Predicates.and(Predicates.equal("enabled", Boolean.TRUE),
+                Predicates.equal("name", "notThere"));
+        assertTrue(facade.candidates(LayerInfo.class, filter).isEmpty());
+        assertEquals(0, catalog.count(LayerInfo.class, filter));
+
+        filter = Predicates.or(Predicates.equal("defaultStyle.id", s.getId()),
+                Predicates.equal("styles.id", s.getId()));
+        assertEquals(1, facade.candidates(LayerInfo.class, filter).size());
+
+        filter = Predicates.contains("workspace.name", "SNAM");
+        assertEquals(1, facade.candidates(DataStoreInfo.class, filter).size());
+
+        CloseableIterator<DataStoreInfo> it = catalog.list(DataStoreInfo.class, filter);
+        try {
+            assertTrue(it.hasNext());
+            assertEquals(ds.getId(), it.next().getId());
+        } finally {
+            it.close();
+        }
+    }
+
+    @Test
+    public void testQueryPlannerFallsBackOnUnindexedProperties() {
+        addLayer();
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) catalog.getFacade();
+
+        Filter filter = Predicates.equal("resource.abstract", "ftAbstract");
+        assertEquals(1, facade.candidates(LayerInfo.class, filter).size());
+        assertEquals(1, catalog.count(LayerInfo.class, filter));
+    }
+}
@@ -0,0 +1,167 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogBuilder;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs the catalog tests against the {@link LazyCatalogFacade}, plus some checks on loading
+ * resources and layers on demand.
+ */
+public class LazyCatalogFacadeTest extends CatalogImplTest {
+
+    File dir;
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalogImpl = new CatalogImpl();
+        catalogImpl.setFacade(new LazyCatalogFacade(catalogImpl));
+        return catalogImpl;
+    }
+
+    @After
+    public void deleteFiles() throws Exception {
+        if (dir != null) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    void persist(Object o, File f) throws Exception {
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        try {
+            xp.save(o, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    void addStubs() throws Exception {
+        addDataStore();
+        addNamespace();
+        addStyle();
+        ((FeatureTypeInfoImpl) ft).setId("ftId");
+        ((LayerInfoImpl) l).setId("layerId");
+
+        dir = File.createTempFile("lazy", "catalog", new File("target"));
+        dir.delete();
+        dir.mkdirs();
+        File ftf = new File(dir, "featuretype.xml");
+        persist(ft, ftf);
+        File lf = new File(dir, "layer.xml");
+        persist(l, lf);
+
+        LazyCatalogFacade facade = (LazyCatalogFacade) catalog.getFacade();
+        catalog.add(facade.stub(ftf, FeatureTypeInfo.class, catalog));
+        catalog.add(facade.stub(lf, LayerInfo.class, catalog));
+    }
+
+    @Test
+    public void testLookupsDoNotLoad() throws Exception {
+        addStubs();
+        LazyCatalogFacade facade = (LazyCatalogFacade) catalog.getFacade();
+
+        // stubbing the layer did not load its resource
+        assertEquals(0, facade.getCacheSize());
+        assertNull(LazyCatalogFacade.handler(
+                ModificationProxy.unwrap(catalog.getFeatureType("ftId"))).pinned);
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName("wsName", "ftName");
+        assertNotNull(ft2);
+        assertEquals("ftId", ft2.getId());
+        assertEquals(ds.getId(), ft2.getStore().getId());
+        assertEquals(ns.getId(), ft2.getNamespace().getId());
+        assertTrue(ft2.isEnabled());
+
+        LayerInfo l2 = catalog.getLayerByName("wsName:ftName");
+        assertNotNull(l2);
+        assertEquals("layerId", l2.getId());
+        assertEquals(LayerInfo.Type.VECTOR, l2.getType());
+        assertEquals(s.getId(), l2.getDefaultStyle().getId());
+        assertEquals(1, catalog.getLayers(ft2).size());
+        assertEquals(1, catalog.getLayers(s).size());
+
+        assertEquals(0, facade.getCacheSize());
+    }
+
+    @Test
+    public void testLoadOnDemand() throws Exception {
+        addStubs();
+        LazyCatalogFacade facade = (LazyCatalogFacade) catalog.getFacade();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName("wsName", "ftName");
+        assertEquals("ftAbstract", ft2.getAbstract());
+        assertEquals("ftDescription", ft2.getDescription());
+        assertEquals(1, facade.getCacheSize());
+
+        // references of the loaded object are the catalog ones
+        FeatureTypeInfo real = (FeatureTypeInfo) LazyCatalogFacade.unwrap(ft2);
+        assertTrue(real instanceof FeatureTypeInfoImpl);
+        assertTrue(real.getStore() == ModificationProxy.unwrap(catalog.getDataStore(ds.getId())));
+    }
+
+    @Test
+    public void testModifiedStaysLoaded() throws Exception {
+        addStubs();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName("wsName", "ftName");
+        ft2.setTitle("newTitle");
+        catalog.save(ft2);
+
+        // modified objects are not reloaded from their, now stale, file
+        ((LazyCatalogFacade) catalog.getFacade()).cache.clear();
+        assertEquals("newTitle", catalog.getFeatureTypeByName("wsName", "ftName").getTitle());
+    }
+
+    @Test
+    public void testEqualsByIdDoesNotLoad() throws Exception {
+        addStubs();
+        LazyCatalogFacade facade = (LazyCatalogFacade) catalog.getFacade();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName("wsName", "ftName");
+        FeatureTypeInfo lazy = ModificationProxy.unwrap(ft2);
+        assertTrue(lazy.equals(ModificationProxy.unwrap(catalog.getFeatureType("ftId"))));
+        assertTrue(lazy.equals(ft2));
+        assertFalse(lazy.equals(l));
+        assertEquals("ftId".hashCode(), lazy.hashCode());
+        assertEquals(0, facade.getCacheSize());
+
+        // and does not change once the object is modified
+        ft2.setTitle("newTitle");
+        catalog.save(ft2);
+        assertEquals("ftId".hashCode(), lazy.hashCode());
+    }
+
+    @Test
+    public void testAttach() throws Exception {
+        addStubs();
+
+        // code casting to the implementation classes gets the full object
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName("wsName", "ftName");
+        new CatalogBuilder(catalog).attach(ft2);
+        FeatureTypeInfo lazy = ModificationProxy.unwrap(ft2);
+        assertTrue(LazyCatalogFacade.pinned(lazy) instanceof FeatureTypeInfoImpl);
+        assertTrue(ft2.getCatalog() == catalog);
+    }
+}
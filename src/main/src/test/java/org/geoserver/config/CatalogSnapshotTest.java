@@ -0,0 +1,111 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.After;
+import org.junit.Test;
+
+public class CatalogSnapshotTest extends GeoServerSystemTestSupport {
+
+    CatalogSnapshot snapshot;
+
+    @After
+    public void removeSnapshot() {
+        if (snapshot != null) {
+            snapshot.getFile().delete();
+        }
+    }
+
+    CatalogSnapshot writeSnapshot() throws Exception {
+        snapshot = new CatalogSnapshot(getResourceLoader(), new XStreamPersisterFactory());
+        snapshot.write(getCatalog(), snapshot.fingerprint());
+        assertTrue(snapshot.getFile().exists());
+        return snapshot;
+    }
+
+    @Test
+    public void testReadBack() throws Exception {
+        Catalog expected = getCatalog();
+        Catalog actual = writeSnapshot().read(1);
+        assertNotNull(actual);
+
+        assertEquals(expected.getWorkspaces().size(), actual.getWorkspaces().size());
+        assertEquals(expected.getNamespaces().size(), actual.getNamespaces().size());
+        assertEquals(expected.getStyles().size(), actual.getStyles().size());
+        assertEquals(expected.getStores(StoreInfo.class).size(),
+                actual.getStores(StoreInfo.class).size());
+        assertEquals(expected.getResources(ResourceInfo.class).size(),
+                actual.getResources(ResourceInfo.class).size());
+        assertEquals(expected.getLayers().size(), actual.getLayers().size());
+        assertEquals(expected.getLayerGroups().size(), actual.getLayerGroups().size());
+
+        assertEquals(expected.getDefaultWorkspace().getId(), actual.getDefaultWorkspace().getId());
+        assertEquals(expected.getDefaultNamespace().getId(), actual.getDefaultNamespace().getId());
+        for (WorkspaceInfo ws : expected.getWorkspaces()) {
+            if (expected.getDefaultDataStore(ws) != null) {
+                assertEquals(expected.getDefaultDataStore(ws).getId(),
+                        actual.getDefaultDataStore(actual.getWorkspace(ws.getId())).getId());
+            }
+        }
+        for (LayerInfo l : expected.getLayers()) {
+            LayerInfo l2 = actual.getLayer(l.getId());
+            assertNotNull(l2);
+            assertEquals(l.getResource().getId(), l2.getResource().getId());
+            assertEquals(l.getResource().getStore().getId(), l2.getResource().getStore().getId());
+            assertEquals(l.getDefaultStyle().getId(), l2.getDefaultStyle().getId());
+        }
+        for (StyleInfo s : expected.getStyles()) {
+            assertEquals(s.getFilename(), actual.getStyle(s.getId()).getFilename());
+        }
+        for (LayerGroupInfo lg : expected.getLayerGroups()) {
+            assertEquals(lg.getLayers().size(), actual.getLayerGroup(lg.getId()).getLayers().size());
+        }
+    }
+
+    @Test
+    public void testStaleSnapshotIgnored() throws Exception {
+        writeSnapshot();
+
+        LayerInfo l = getCatalog().getLayers().get(0);
+        File dir = getResourceLoader().find("workspaces", l.getResource().getStore().getWorkspace()
+                .getName(), l.getResource().getStore().getName(), l.getResource().getName());
+        File layer = new File(dir, "layer.xml");
+        assertTrue(layer.exists());
+        layer.setLastModified(layer.lastModified() + 10000);
+
+        assertNull(snapshot.read(1));
+    }
+
+    @Test
+    public void testCorruptedSnapshotIgnored() throws Exception {
+        writeSnapshot();
+
+        RandomAccessFile raf = new RandomAccessFile(snapshot.getFile(), "rw");
+        try {
+            raf.seek(raf.length() - 2);
+            int b = raf.read();
+            raf.seek(raf.length() - 2);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        assertNull(snapshot.read(1));
+    }
+}
@@ -0,0 +1,79 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+public class ParallelCatalogReaderTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        DefaultGeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        
+        Catalog sequential = loader.readCatalog(xp);
+        Catalog parallel = new ParallelCatalogReader(loader, xp, 4).read();
+        
+        assertSameContents(sequential, parallel, WorkspaceInfo.class);
+        assertSameContents(sequential, parallel, NamespaceInfo.class);
+        assertSameContents(sequential, parallel, StoreInfo.class);
+        assertSameContents(sequential, parallel, ResourceInfo.class);
+        assertSameContents(sequential, parallel, LayerInfo.class);
+        assertSameContents(sequential, parallel, StyleInfo.class);
+        assertSameContents(sequential, parallel, LayerGroupInfo.class);
+        
+        assertEquals(sequential.getDefaultWorkspace().getId(), 
+                parallel.getDefaultWorkspace().getId());
+        
+        for (LayerInfo l : parallel.getLayers()) {
+            LayerInfo expected = sequential.getLayer(l.getId());
+            assertEquals(expected.getResource().getId(), l.getResource().getId());
+            assertEquals(expected.getResource().getStore().getId(), 
+                    l.getResource().getStore().getId());
+            assertEquals(expected.getResource().getNamespace().getId(), 
+                    l.getResource().getNamespace().getId());
+            assertEquals(expected.getDefaultStyle().getId(), l.getDefaultStyle().getId());
+            assertEquals(expected.getStyles().size(), l.getStyles().size());
+        }
+        for (LayerGroupInfo lg : parallel.getLayerGroups()) {
+            LayerGroupInfo expected = sequential.getLayerGroup(lg.getId());
+            assertEquals(expected.getLayers().size(), lg.getLayers().size());
+            for (int i = 0; i < lg.getLayers().size(); i++) {
+                assertEquals(expected.getLayers().get(i).getId(), lg.getLayers().get(i).getId());
+            }
+        }
+    }
+    
+    <T extends CatalogInfo> void assertSameContents(Catalog expected, Catalog actual, 
+            Class<T> clazz) {
+        assertEquals(expected.count(clazz, Filter.INCLUDE), actual.count(clazz, Filter.INCLUDE));
+        CloseableIterator<T> it = expected.list(clazz, Filter.INCLUDE);
+        try {
+            while (it.hasNext()) {
+                String id = it.next().getId();
+                assertEquals(id, 1, actual.count(clazz, Predicates.equal("id", id)));
+            }
+        } finally {
+            it.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.security.AccessMode;
+import org.geoserver.security.DataAccessManagerAdapter;
+import org.geoserver.security.SecureCatalogImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class DefaultDataAccessManagerReadFilterTest {
+
+    CatalogImpl catalog;
+
+    DefaultDataAccessManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        catalog = new CatalogImpl();
+        addResource("topp", "states");
+        addResource("topp", "roads");
+        addResource("nurc", "arcgrid");
+        addResource("nurc", "landmarks");
+        addResource("sf", "bases");
+
+        Properties props = new Properties();
+        props.put("mode", "HIDE");
+        props.put("*.*.r", "READER");
+        props.put("*.*.w", "WRITER");
+        // readable workspace with an exception
+        props.put("topp.*.r", "*");
+        props.put("topp.states.r", "MILITARY");
+        // unreadable workspace with an exception
+        props.put("nurc.*.r", "MILITARY");
+        props.put("nurc.arcgrid.r", "*");
+        manager = new DefaultDataAccessManager(new MemoryDataAccessRuleDAO(catalog, props));
+    }
+
+    @After
+    public void clearAuthentication() {
+        SecurityContextHolder.getContext().setAuthentication(null);
+    }
+
+    void addResource(String wsName, String name) {
+        CatalogFactory factory = catalog.getFactory();
+        WorkspaceInfo ws = catalog.getWorkspaceByName(wsName);
+        if (ws == null) {
+            ws = factory.createWorkspace();
+            ws.setName(wsName);
+            catalog.add(ws);
+            NamespaceInfo ns = factory.createNamespace();
+            ns.setPrefix(wsName);
+            ns.setURI("http://www.geoserver.org/" + wsName);
+            catalog.add(ns);
+            DataStoreInfo ds = factory.createDataStore();
+            ds.setName(wsName + "Store");
+            ds.setWorkspace(ws);
+            catalog.add(ds);
+        }
+        FeatureTypeInfo ft = factory.createFeatureType();
+        ft.setName(name);
+        ft.setNativeName(name);
+        ft.setNamespace(catalog.getNamespaceByPrefix(wsName));
+        ft.setStore(catalog.getDataStoreByName(wsName, wsName + "Store"));
+        catalog.add(ft);
+    }
+
+    Authentication user(String name, String... roles) {
+        GrantedAuthority[] authorities = new GrantedAuthority[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            authorities[i] = new GeoServerRole(roles[i]);
+        }
+        return new TestingAuthenticationToken(name, null, Arrays.asList(authorities));
+    }
+
+    <T extends CatalogInfo> Set<String> ids(CloseableIterator<T> it) {
+        Set<String> ids = new HashSet<String>();
+        try {
+            while (it.hasNext()) {
+                ids.add(it.next().getId());
+            }
+        } finally {
+            it.close();
+        }
+        return ids;
+    }
+
+    @Test
+    public void testFilterMatchesDecisions() {
+        for (Authentication user : Arrays.asList(null, user("reader", "READER"),
+                user("military", "MILITARY"), user("root", SecureTreeNode.ROOT_ROLE))) {
+            Set<String> expected = new HashSet<String>();
+            for (FeatureTypeInfo ft : catalog.getFeatureTypes()) {
+                if (manager.canAccess(user, ft, AccessMode.READ)) {
+                    expected.add(ft.getId());
+                }
+            }
+            Filter filter = manager.getReadFilter(user, FeatureTypeInfo.class);
+            assertEquals(expected, ids(catalog.list(FeatureTypeInfo.class, filter)));
+
+            expected.clear();
+            for (WorkspaceInfo ws : catalog.getWorkspaces()) {
+                if (manager.canAccess(user, ws, AccessMode.READ)) {
+                    expected.add(ws.getId());
+                }
+            }
+            filter = manager.getReadFilter(user, WorkspaceInfo.class);
+            assertEquals(expected, ids(catalog.list(WorkspaceInfo.class, filter)));
+
+            expected.clear();
+            for (StoreInfo store : catalog.getStores(StoreInfo.class)) {
+                if (manager.canAccess(user, store.getWorkspace(), AccessMode.READ)) {
+                    expected.add(store.getId());
+                }
+            }
+            filter = manager.getReadFilter(user, StoreInfo.class);
+            assertEquals(expected, ids(catalog.list(StoreInfo.class, filter)));
+        }
+    }
+
+    @Test
+    public void testAnonymous() {
+        // only topp:roads and nurc:arcgrid are open to everybody
+        Filter filter = manager.getReadFilter(null, FeatureTypeInfo.class);
+        Set<String> expected = new HashSet<String>(Arrays.asList(
+                catalog.getFeatureTypeByName("topp", "roads").getId(),
+                catalog.getFeatureTypeByName("nurc", "arcgrid").getId()));
+        assertEquals(expected, ids(catalog.list(FeatureTypeInfo.class, filter)));
+    }
+
+    @Test
+    public void testSecureCatalogList() {
+        SecureCatalogImpl sc = new SecureCatalogImpl(catalog, new DataAccessManagerAdapter(
+                manager));
+        SecurityContextHolder.getContext().setAuthentication(user("military", "MILITARY"));
+
+        Set<String> expected = new HashSet<String>(Arrays.asList(
+                catalog.getFeatureTypeByName("topp", "states").getId(),
+                catalog.getFeatureTypeByName("topp", "roads").getId(),
+                catalog.getFeatureTypeByName("nurc", "arcgrid").getId(),
+                catalog.getFeatureTypeByName("nurc", "landmarks").getId()));
+        assertEquals(expected, ids(sc.list(FeatureTypeInfo.class, Filter.INCLUDE)));
+        assertEquals(4, sc.count(FeatureTypeInfo.class, Filter.INCLUDE));
+    }
+}
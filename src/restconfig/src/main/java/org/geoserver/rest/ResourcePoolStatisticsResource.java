@@ -0,0 +1,37 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceCacheStatistics;
+
+/**
+ * Publishes the usage counters of the resource pool caches, such as hits, misses, load time and
+ * evictions, to help sizing the caches.
+ */
+public class ResourcePoolStatisticsResource extends MapResource {
+
+    Catalog catalog;
+
+    public ResourcePoolStatisticsResource(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, Object> caches = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, ResourceCacheStatistics> e : 
+                catalog.getResourcePool().getCacheStatistics().entrySet()) {
+            caches.put(e.getKey(), e.getValue().toMap());
+        }
+        
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("caches", caches);
+        return map;
+    }
+}
@@ -0,0 +1,32 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.*;
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.geoserver.data.test.MockData;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+
+public class ResourcePoolStatisticsTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        getCatalog().getResourcePool().getFeatureType(getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart()));
+        
+        JSON json = getAsJSON("/rest/resourcepool.json");
+        assertTrue(json instanceof JSONObject);
+        
+        JSONObject caches = ((JSONObject) json).getJSONObject("caches");
+        assertNotNull(caches);
+        JSONObject dataStore = caches.getJSONObject("dataStore");
+        assertTrue(dataStore.getLong("misses") > 0);
+        assertTrue(dataStore.getInt("size") > 0);
+        assertTrue(caches.getJSONObject("featureType").has("evictions"));
+    }
+}
@@ -11,6 +11,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletOutputStream;
@@ -34,6 +37,72 @@ public class GZIPResponseStreamTest  {
         assertEquals("Hello world!", new String(unzip(response.toByteArray())));
     }
 
+    @Test
+    public void testBelowMinSize() throws Exception {
+        ByteStreamCapturingHttpServletResponse response = 
+            new ByteStreamCapturingHttpServletResponse(new MockHttpServletResponse());
+        GZIPResponseStream stream = new GZIPResponseStream(response, Deflater.BEST_SPEED, 100, true);
+        stream.write("Hello world!".getBytes());
+        stream.close();
+        assertEquals("Hello world!", new String(response.toByteArray()));
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("12", response.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        ByteStreamCapturingHttpServletResponse response = 
+            new ByteStreamCapturingHttpServletResponse(new MockHttpServletResponse());
+        GZIPResponseStream stream = new GZIPResponseStream(response, Deflater.BEST_SPEED, 100, true);
+        byte[] data = randomText(1000000);
+        stream.write(data);
+        // compressed data has been sent before the end of the response
+        assertTrue(response.toByteArray().length > 0);
+        stream.close();
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertNull(response.getHeader("Content-Length"));
+        assertTrue(Arrays.equals(data, unzip(response.toByteArray())));
+    }
+
+    @Test
+    public void testBuffered() throws Exception {
+        ByteStreamCapturingHttpServletResponse response = 
+            new ByteStreamCapturingHttpServletResponse(new MockHttpServletResponse());
+        GZIPResponseStream stream = new GZIPResponseStream(response, Deflater.BEST_COMPRESSION, 100, false);
+        byte[] data = randomText(100000);
+        stream.write(data);
+        assertEquals(0, response.toByteArray().length);
+        stream.close();
+        byte[] zipped = response.toByteArray();
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals(String.valueOf(zipped.length), response.getHeader("Content-Length"));
+        assertTrue(Arrays.equals(data, unzip(zipped)));
+    }
+
+    @Test
+    public void testDeflaterReuse() throws Exception {
+        // the same thread deflater is used with different levels in a row
+        for (int level : new int[] { Deflater.BEST_COMPRESSION, Deflater.BEST_SPEED,
+                Deflater.DEFAULT_COMPRESSION }) {
+            ByteStreamCapturingHttpServletResponse response = 
+                new ByteStreamCapturingHttpServletResponse(new MockHttpServletResponse());
+            GZIPResponseStream stream = new GZIPResponseStream(response, level, 0, true);
+            byte[] data = randomText(10000);
+            stream.write(data);
+            stream.close();
+            assertTrue(Arrays.equals(data, unzip(response.toByteArray())));
+        }
+    }
+
+    private byte[] randomText(int length) {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return data;
+    }
+
     private byte[] unzip(byte[] zipped) throws Exception {
         InputStream stream  =
             new GZIPInputStream(new ByteArrayInputStream(zipped));
@@ -81,5 +150,9 @@ public class GZIPResponseStreamTest  {
             public byte[] toByteArray() {
                 return myOutputStream.toByteArray();
             }
+
+            public String getHeader(String name) {
+                return ((MockHttpServletResponse) getResponse()).getHeader(name);
+            }
         }
 }
@@ -0,0 +1,172 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.decorators.SecuredFeatureSource;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.Hints;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Default {@link FeatureCountStrategy}, counting the features matched by the query.
+ * <p>
+ * Two system/context properties tune it for deep paging over large layers:
+ * <ul>
+ * <li>{@link #CACHE_TIMEOUT_KEY}: seconds the counts are kept, so that walking the pages of a
+ * result does not count the matched features again on each page. Counts of a layer are dropped as
+ * soon as a transaction changes it. Disabled by default.</li>
+ * <li>{@link #NATIVE_ONLY_KEY}: if {@code true} only the counts the store computes natively are
+ * used, the count is reported as unknown instead of scanning the features when the store cannot
+ * count them.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Secured feature sources count only the features the user can access, their counts are cached
+ * by user and roles.
+ * </p>
+ */
+public class DefaultFeatureCountStrategy implements FeatureCountStrategy, TransactionListener {
+
+    static final Logger LOGGER = Logging.getLogger(DefaultFeatureCountStrategy.class);
+
+    public static final String CACHE_TIMEOUT_KEY = "WFS_COUNT_CACHE_TIMEOUT";
+
+    public static final String NATIVE_ONLY_KEY = "WFS_COUNT_NATIVE_ONLY";
+
+    static final int MAX_ENTRIES = 1000;
+
+    Cache<String, Integer> cache;
+
+    boolean nativeOnly;
+
+    public DefaultFeatureCountStrategy() {
+        this(getTimeout(), Boolean.valueOf(GeoServerExtensions.getProperty(NATIVE_ONLY_KEY)));
+    }
+
+    /**
+     * @param timeout seconds the counts are cached, {@code 0} or less disables the cache
+     * @param nativeOnly whether to report unknown counts instead of scanning the features
+     */
+    public DefaultFeatureCountStrategy(long timeout, boolean nativeOnly) {
+        if (timeout > 0) {
+            cache = CacheBuilder.newBuilder().expireAfterWrite(timeout, TimeUnit.SECONDS)
+                    .maximumSize(MAX_ENTRIES).build();
+        }
+        this.nativeOnly = nativeOnly;
+    }
+
+    static long getTimeout() {
+        String value = GeoServerExtensions.getProperty(CACHE_TIMEOUT_KEY);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid value for " + CACHE_TIMEOUT_KEY + ", count cache disabled: "
+                    + value);
+            return 0;
+        }
+    }
+
+    public int getCount(FeatureTypeInfo meta,
+            FeatureSource<? extends FeatureType, ? extends Feature> source, Query query)
+            throws IOException {
+        if (cache == null) {
+            return count(source, query);
+        }
+
+        String key = getKey(meta, source, query);
+        Integer count = cache.getIfPresent(key);
+        if (count == null) {
+            count = count(source, query);
+            if (count >= 0) {
+                cache.put(key, count);
+            }
+        }
+        return count;
+    }
+
+    int count(FeatureSource<? extends FeatureType, ? extends Feature> source, Query query)
+            throws IOException {
+        int count = source.getCount(query);
+        if (count < 0 && !nativeOnly) {
+            count = source.getFeatures(query).size();
+        }
+        return count;
+    }
+
+    /**
+     * Keys start with the qualified name of the feature type, the same form of the layer names of
+     * transaction events
+     */
+    String getKey(FeatureTypeInfo meta,
+            FeatureSource<? extends FeatureType, ? extends Feature> source, Query query) {
+        StringBuilder sb = new StringBuilder(layerPrefix(meta.getNamespace().getURI(),
+                meta.getName()));
+        if (source instanceof SecuredFeatureSource) {
+            // the access limits filter the counted features, and depend on who's asking
+            sb.append(getUserKey()).append('|');
+        }
+        sb.append(query.getFilter());
+        sb.append('|').append(query.getJoins());
+        if (query.getHints() != null) {
+            sb.append('|').append(query.getHints().get(Hints.VIRTUAL_TABLE_PARAMETERS));
+        }
+        return sb.toString();
+    }
+
+    static String getUserKey() {
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        if (user == null) {
+            return "";
+        }
+        List<String> roles = new ArrayList<String>();
+        for (GrantedAuthority authority : user.getAuthorities()) {
+            roles.add(authority.getAuthority());
+        }
+        Collections.sort(roles);
+        return user.getName() + roles;
+    }
+
+    static String layerPrefix(String namespaceURI, String localName) {
+        return "{" + namespaceURI + "}" + localName + "|";
+    }
+
+    /**
+     * Drops the cached counts of the layer changed by the transaction
+     */
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        if (cache == null || event.getLayerName() == null) {
+            return;
+        }
+        String prefix = layerPrefix(event.getLayerName().getNamespaceURI(), event.getLayerName()
+                .getLocalPart());
+        for (Iterator<String> it = cache.asMap().keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
+
+/**
+ * Extension point computing the number of features matched by a GetFeature query, reported as
+ * numberMatched in WFS 2.0 responses.
+ * <p>
+ * The first bean implementing this interface found in the application context is used.
+ * </p>
+ */
+public interface FeatureCountStrategy {
+
+    /**
+     * Returns the number of features matched by the query, ignoring paging.
+     * 
+     * @param meta the queried feature type
+     * @param source the feature source of the queried feature type
+     * @param query the query, without start index and max features
+     * @return the number of features, or a negative number if unknown
+     */
+    int getCount(FeatureTypeInfo meta, FeatureSource<? extends FeatureType, ? extends Feature> source,
+            Query query) throws IOException;
+}
@@ -32,6 +32,7 @@ import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.ows.URLMangler.URLType;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geoserver.wfs.request.Lock;
@@ -113,6 +114,16 @@ import org.xml.sax.helpers.NamespaceSupport;
  */
 public class GetFeature {
     public static final String SQL_VIEW_PARAMS = "GS_SQL_VIEW_PARAMS";
+
+    /**
+     * System/context property enabling the WFS 2.0 next links based on {@link PagingCursor}
+     */
+    public static final String CURSOR_PAGING_KEY = "WFS_CURSOR_PAGING";
+
+    /**
+     * Vendor parameter holding the paging cursor
+     */
+    static final String CURSOR = "CURSOR";
     
     /** Standard logging instance for class */
     private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.vfny.geoserver.requests");
@@ -175,6 +186,9 @@ public class GetFeature {
     /** stored query provider */
     StoredQueryProvider storedQueryProvider;
 
+    /** computes the number of features matched */
+    FeatureCountStrategy countStrategy = new DefaultFeatureCountStrategy(0, false);
+
     /**
      * Creates the WFS 1.0/1.1 GetFeature operation.
      */
@@ -226,6 +240,13 @@ public class GetFeature {
         this.storedQueryProvider = storedQueryProvider;
     }
 
+    /**
+     * Sets the strategy computing the number of features matched
+     */
+    public void setCountStrategy(FeatureCountStrategy countStrategy) {
+        this.countStrategy = countStrategy;
+    }
+
     public FeatureCollectionResponse run(GetFeatureRequest request)
         throws WFSException {
         List<Query> queries = request.getQueries();
@@ -317,6 +338,16 @@ public class GetFeature {
             // See GEOS-5085.
             totalOffset = 0;
         }
+        // sorted single type WFS 2.0 queries can be paged seeking to the last key returned
+        // instead of skipping all the previous features, see PagingCursor
+        boolean cursorPaging = isCursorPagingEnabled(request, queries);
+        String token = null;
+        if (cursorPaging) {
+            Request req = Dispatcher.REQUEST.get();
+            token = req != null && req.getRawKvp() != null ? 
+                (String) new KvpMap(req.getRawKvp()).get(CURSOR) : null;
+        }
+        String nextCursor = null;
         int offset = totalOffset;
 
         List results = new ArrayList();
@@ -469,8 +500,40 @@ public class GetFeature {
                     queryMaxFeatures = metaMaxFeatures;
                 }
                 Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
-                org.geotools.data.Query gtQuery = toDataQuery(query, filter, offset, queryMaxFeatures, 
-                    source, request, allPropNames.get(0), viewParam, joins);
+                cursorPaging &= meta.getFeatureType() instanceof SimpleFeatureType;
+                // the primary key, if the store exposes it, makes the sort keys unique
+                List<SortBy> cursorSortBy = null;
+                boolean uniqueKeys = false;
+                PagingCursor cursor = null;
+                if (cursorPaging) {
+                    cursorSortBy = PagingCursor.uniqueSortBy(filterFactory, source, query.getSortBy());
+                    uniqueKeys = cursorSortBy != null;
+                    if (!uniqueKeys) {
+                        cursorSortBy = query.getSortBy();
+                    }
+                    if (token != null) {
+                        try {
+                            cursor = PagingCursor.decode(token, cursorSortBy.size());
+                        } catch (IOException e) {
+                            throw new WFSException(request, e.getMessage(), "InvalidParameterValue")
+                                .locator(CURSOR);
+                        }
+                        totalOffset = cursor.position;
+                        offset = totalOffset;
+                    }
+                }
+                org.geotools.data.Query gtQuery;
+                if (cursor != null) {
+                    Filter seek = cursor.toFilter(filterFactory, cursorSortBy);
+                    gtQuery = toDataQuery(query, filter == null ? seek : filterFactory.and(filter, seek), 
+                        cursor.skip, queryMaxFeatures, source, request, allPropNames.get(0), viewParam, joins);
+                } else {
+                    gtQuery = toDataQuery(query, filter, offset, queryMaxFeatures, 
+                        source, request, allPropNames.get(0), viewParam, joins);
+                }
+                if (uniqueKeys) {
+                    gtQuery.setSortBy(cursorSortBy.toArray(new SortBy[cursorSortBy.size()]));
+                }
 
                 LOGGER.fine("Query is " + query + "\n To gt2: " + gtQuery);
 
@@ -507,6 +570,13 @@ public class GetFeature {
                 
                 //update the count
                 count += size;
+
+                //full page, the next one will seek to the last key of this one
+                if (cursorPaging && size > 0 && size == gtQuery.getMaxFeatures()) {
+                    PagingCursor next = PagingCursor.next(filterFactory, source, gtQuery, 
+                        cursorSortBy, uniqueKeys, size, Math.max(totalOffset, 0));
+                    nextCursor = next != null ? next.encode() : null;
+                }
                 
                 //if offset is present we need to check the size of this returned feature collection
                 // and adjust the offset for the next feature collection accordingly
@@ -540,7 +610,9 @@ public class GetFeature {
                     else {
                         org.geotools.data.Query q2 = toDataQuery(query, filter, 0, Integer.MAX_VALUE, 
                             source, request, allPropNames.get(0), viewParam, joins);
-                        totalCount += source.getFeatures(q2).size();
+                        int matched = countStrategy.getCount(meta, source, q2);
+                        //a negative count means the strategy could not tell
+                        totalCount = matched < 0 ? -1 : totalCount + matched;
                     }
                 }
 
@@ -616,7 +688,17 @@ public class GetFeature {
             lockId = response.getLockId();
         }
 
-        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId);
+        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId,
+            nextCursor);
+    }
+
+    boolean isCursorPagingEnabled(GetFeatureRequest request, List<Query> queries) {
+        if (!request.getVersion().startsWith("2") || queries.size() != 1
+                || queries.get(0).getTypeNames().size() != 1 
+                || !PagingCursor.isSupported(queries.get(0).getSortBy())) {
+            return false;
+        }
+        return Boolean.valueOf(GeoServerExtensions.getProperty(CURSOR_PAGING_KEY));
     }
 
     protected void processStoredQueries(GetFeatureRequest request) {
@@ -650,6 +732,16 @@ public class GetFeature {
      */
     protected FeatureCollectionResponse buildResults(GetFeatureRequest request, int offset, int maxFeatures, 
         int count, int total, List results, String lockId) {
+        return buildResults(request, offset, maxFeatures, count, total, results, lockId, null);
+    }
+
+    /**
+     * Allows subclasses to alter the result generation
+     * 
+     * @param nextCursor the paging cursor of the next page, if any
+     */
+    protected FeatureCollectionResponse buildResults(GetFeatureRequest request, int offset, int maxFeatures, 
+        int count, int total, List results, String lockId, String nextCursor) {
 
         FeatureCollectionResponse result = request.createResponse();
         result.setNumberOfFeatures(BigInteger.valueOf(count));
@@ -679,6 +771,7 @@ public class GetFeature {
                 //generate kvp map from request object
                 kvp = buildKvpFromRequest(request);
             }
+            kvp.remove(CURSOR);
 
             if (offset > 0) {
                 //previous
@@ -696,10 +789,15 @@ public class GetFeature {
             if (count > 0 && offset > -1) {
                 //next
 
-                //calculate the count of the next result set 
-                int nextCount = total - (offset + count);
-                if (nextCount > 0) {
+                //check if there is a next result set, if the total is unknown assume 
+                // there are more features as long as the page is full
+                boolean hasNext = total < 0 ? count >= maxFeatures : total - (offset + count) > 0;
+                if (hasNext) {
                     kvp.put("startIndex", String.valueOf(offset > 0 ? offset + count : count));
+                    if (nextCursor != null) {
+                        //the start index only positions the page, the cursor drives the query
+                        kvp.put(CURSOR, nextCursor);
+                    }
                     //kvp.put("count", String.valueOf(nextCount));
                     kvp.put("count", String.valueOf(maxFeatures));
                     result.setNext(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
@@ -0,0 +1,378 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.QueryCapabilities;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Continuation token for WFS 2.0 paging over sorted results.
+ * <p>
+ * Instead of the offset of the next page, the token holds the sort key of the last feature
+ * returned, so that the next page is read by seeking to the key rather than by skipping all the
+ * previous features. Features sharing that key are still skipped, their number is in the token as
+ * well, along with the position of the page in the whole result.
+ * </p>
+ * <p>
+ * When the store exposes its primary key as attributes and can sort on them, they are added to
+ * the sort properties, so that keys are unique and nothing is skipped. Otherwise the features
+ * sorted before the key are counted to know how many to skip, and stores that cannot count them
+ * natively fall back on offset paging.
+ * </p>
+ * <p>
+ * The key values keep their type in the token, so that they compare in the next page the same
+ * way the store sorted them. Only string, numeric and date keys are supported, other sort keys
+ * fall back on offset paging.
+ * </p>
+ */
+class PagingCursor {
+
+    /**
+     * Position of the page first feature in the whole result
+     */
+    int position;
+
+    /**
+     * Number of features to skip once seeked to the key
+     */
+    int skip;
+
+    /**
+     * Longest string key that is put in a token, longer ones fall back on offset paging
+     */
+    static final int MAX_STRING_KEY = 1024;
+
+    /**
+     * The sort key, one value for each sort property
+     */
+    List<Object> key;
+
+    PagingCursor(int position, int skip, List<Object> key) {
+        this.position = position;
+        this.skip = skip;
+        this.key = key;
+    }
+
+    /**
+     * Returns whether results sorted this way can be paged with a cursor
+     */
+    static boolean isSupported(List<SortBy> sortBy) {
+        if (sortBy == null || sortBy.isEmpty()) {
+            return false;
+        }
+        for (SortBy sb : sortBy) {
+            // natural order has no property to seek on
+            if (sb.getPropertyName() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sort properties followed by the primary key attributes not already among them,
+     * or {@code null} if the store does not expose its primary key or cannot sort on it
+     */
+    static List<SortBy> uniqueSortBy(FilterFactory2 ff,
+            FeatureSource<? extends FeatureType, ? extends Feature> source, List<SortBy> sortBy) {
+        if (!(source.getSchema() instanceof SimpleFeatureType)) {
+            return null;
+        }
+        List<SortBy> unique = new ArrayList<SortBy>(sortBy);
+        boolean primaryKey = false;
+        for (AttributeDescriptor ad : ((SimpleFeatureType) source.getSchema())
+                .getAttributeDescriptors()) {
+            if (!Boolean.TRUE.equals(ad.getUserData().get(JDBCDataStore.JDBC_PRIMARY_KEY_COLUMN))) {
+                continue;
+            }
+            primaryKey = true;
+            boolean sorted = false;
+            for (SortBy sb : sortBy) {
+                sorted |= ad.getLocalName().equals(sb.getPropertyName().getPropertyName());
+            }
+            if (!sorted) {
+                unique.add(ff.sort(ad.getLocalName(), SortOrder.ASCENDING));
+            }
+        }
+        if (!primaryKey) {
+            return null;
+        }
+        QueryCapabilities capabilities = source.getQueryCapabilities();
+        if (capabilities == null
+                || !capabilities.supportsSorting(unique.toArray(new SortBy[unique.size()]))) {
+            return null;
+        }
+        return unique;
+    }
+
+    /**
+     * Decodes a token built by {@link #encode()}
+     * 
+     * @param properties the number of sort properties of the query being paged
+     */
+    static PagingCursor decode(String token, int properties) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = DatatypeConverter.parseBase64Binary(token);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid cursor: " + token);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            int position = in.readInt();
+            int skip = in.readInt();
+            int size = in.readInt();
+            if (position < 0 || skip < 0 || size != properties) {
+                throw new IOException("Invalid cursor: " + token);
+            }
+            List<Object> key = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                key.add(readValue(in));
+            }
+            return new PagingCursor(position, skip, key);
+        } catch (IOException e) {
+            // truncated or tampered with
+            throw new IOException("Invalid cursor: " + token);
+        }
+    }
+
+    String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(position);
+            out.writeInt(skip);
+            out.writeInt(key.size());
+            for (Object value : key) {
+                writeValue(out, value);
+            }
+            out.close();
+            return DatatypeConverter.printBase64Binary(bytes.toByteArray());
+        } catch (IOException e) {
+            // not reached, writing in memory
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns whether the value can be used as a key, see {@link #writeValue}
+     */
+    static boolean isSupportedKey(Object value) {
+        if (value instanceof String) {
+            return ((String) value).length() <= MAX_STRING_KEY;
+        }
+        return value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof Double || value instanceof Float
+                || value instanceof BigDecimal || value instanceof BigInteger
+                || value instanceof Date;
+    }
+
+    static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte('s');
+            out.writeUTF((String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte('i');
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte('l');
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte('d');
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte('f');
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte('D');
+            out.writeUTF(value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte('I');
+            out.writeUTF(value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte('t');
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte('a');
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte('T');
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Date) {
+            out.writeByte('u');
+            out.writeLong(((Date) value).getTime());
+        } else {
+            throw new IllegalArgumentException("Unsupported key value " + value);
+        }
+    }
+
+    static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case 's':
+            return in.readUTF();
+        case 'i':
+            return in.readInt();
+        case 'l':
+            return in.readLong();
+        case 'd':
+            return in.readDouble();
+        case 'f':
+            return in.readFloat();
+        case 'D':
+        case 'I':
+            String number = in.readUTF();
+            try {
+                return type == 'D' ? new BigDecimal(number) : new BigInteger(number);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid number " + number);
+            }
+        case 't':
+            Timestamp timestamp = new Timestamp(in.readLong());
+            int nanos = in.readInt();
+            try {
+                timestamp.setNanos(nanos);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid nanoseconds " + nanos);
+            }
+            return timestamp;
+        case 'a':
+            return new java.sql.Date(in.readLong());
+        case 'T':
+            return new Time(in.readLong());
+        case 'u':
+            return new Date(in.readLong());
+        default:
+            throw new IOException("Unknown key type " + type);
+        }
+    }
+
+    /**
+     * Builds the filter selecting the features at or after the cursor key
+     */
+    Filter toFilter(FilterFactory2 ff, List<SortBy> sortBy) {
+        if (sortBy.size() != key.size()) {
+            throw new IllegalArgumentException("The cursor does not match the sort properties");
+        }
+        return keyFilter(ff, sortBy, key, true);
+    }
+
+    /**
+     * Lexicographic comparison of the sort properties with the key. Selects the features sorted at
+     * or after the key if {@code after} is true, the ones sorted before it otherwise
+     */
+    static Filter keyFilter(FilterFactory2 ff, List<SortBy> sortBy, List<Object> key, boolean after) {
+        List<Filter> alternatives = new ArrayList<Filter>();
+        List<Filter> equals = new ArrayList<Filter>();
+        for (int i = 0; i < sortBy.size(); i++) {
+            SortBy sb = sortBy.get(i);
+            PropertyName property = sb.getPropertyName();
+            Object value = key.get(i);
+            boolean greater = after == (sb.getSortOrder() != SortOrder.DESCENDING);
+            Filter compare = greater ? ff.greater(property, ff.literal(value)) : ff.less(property,
+                    ff.literal(value));
+
+            List<Filter> alternative = new ArrayList<Filter>(equals);
+            alternative.add(compare);
+            alternatives.add(alternative.size() == 1 ? compare : ff.and(alternative));
+            equals.add(ff.equals(property, ff.literal(value)));
+        }
+        if (after) {
+            alternatives.add(equals.size() == 1 ? equals.get(0) : ff.and(equals));
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : ff.or(alternatives);
+    }
+
+    /**
+     * Builds the cursor of the page following the one read with the given query, or returns
+     * {@code null} if there is no key to seek to
+     *
+     * @param pageQuery the query used to read the current page, sorted and paged
+     * @param unique whether the sort keys are unique, see {@link #uniqueSortBy}
+     * @param count the number of features in the page
+     * @param position the position of the page first feature in the whole result
+     */
+    static PagingCursor next(FilterFactory2 ff,
+            FeatureSource<? extends FeatureType, ? extends Feature> source, Query pageQuery,
+            List<SortBy> sortBy, boolean unique, int count, int position) throws IOException {
+        int pageEnd = (pageQuery.getStartIndex() != null ? pageQuery.getStartIndex() : 0) + count;
+
+        // grab the key of the last feature in the page
+        Query lastQuery = new Query(pageQuery);
+        lastQuery.setStartIndex(pageEnd - 1);
+        lastQuery.setMaxFeatures(1);
+        // the sort properties might not be among the requested ones
+        lastQuery.setProperties(Query.ALL_PROPERTIES);
+        List<Object> key = null;
+        FeatureIterator<? extends Feature> it = source.getFeatures(lastQuery).features();
+        try {
+            if (it.hasNext()) {
+                Feature last = it.next();
+                key = new ArrayList<Object>();
+                for (SortBy sb : sortBy) {
+                    Object value = sb.getPropertyName().evaluate(last);
+                    if (value == null || !isSupportedKey(value)) {
+                        // nulls sort differently in each store, cannot seek on them, and other
+                        // types might not survive the round trip through the token
+                        return null;
+                    }
+                    key.add(value);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        if (key == null) {
+            return null;
+        }
+        if (unique) {
+            // only the last feature of the page shares its key
+            return new PagingCursor(position + count, 1, key);
+        }
+
+        // the features of the page not sharing the last key will not be read again, the others
+        // have to be skipped
+        Query beforeQuery = new Query(pageQuery);
+        beforeQuery.setStartIndex(null);
+        beforeQuery.setMaxFeatures(Query.DEFAULT_MAX);
+        beforeQuery.setSortBy(null);
+        beforeQuery.setFilter(ff.and(pageQuery.getFilter(), keyFilter(ff, sortBy, key, false)));
+        int before = source.getCount(beforeQuery);
+        if (before < 0) {
+            // counting would read all the previous features, worse than skipping them
+            return null;
+        }
+
+        return new PagingCursor(position + count, pageEnd - before, key);
+    }
+}
@@ -6,16 +6,13 @@ package org.geoserver.wfs.xml;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.dom.DOMSource;
 
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
@@ -31,7 +28,6 @@ import org.geotools.gml3.v3_2.GMLConfiguration;
 import org.geotools.wfs.v2_0.WFS;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Encoder;
-import org.w3c.dom.Document;
 
 public class GML32OutputFormat extends GML3OutputFormat {
 
@@ -47,22 +43,6 @@ public class GML32OutputFormat extends GML3OutputFormat {
     
     GeoServer geoServer;
 
-    protected static DOMSource xslt;
-
-    static {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        docFactory.setNamespaceAware(true);
-        Document xsdDocument = null;
-        try {
-            xsdDocument = docFactory.newDocumentBuilder().parse(
-                    GML3OutputFormat.class.getResourceAsStream("/ChangeNumberOfFeature32.xslt"));
-            xslt = new DOMSource(xsdDocument);
-        } catch (Exception e) {
-            xslt = null;
-            LOGGER.log(Level.INFO, e.getMessage(), e);
-        }
-    }
-
     public GML32OutputFormat(GeoServer geoServer, WFSConfiguration configuration) {
         super(new HashSet(FORMATS), geoServer, configuration);
         this.geoServer = geoServer;
@@ -119,9 +99,14 @@ public class GML32OutputFormat extends GML3OutputFormat {
         return "wfs/2.0/wfs.xsd";
     }
 
+    /**
+     * The number of features matched computed by the store is not reliable for complex features
+     * either, leave it unspecified
+     */
     @Override
-    protected DOMSource getXSLT() {
-        return GML32OutputFormat.xslt;
+    protected void setComplexFeatureCount(FeatureCollectionResponse results, BigInteger count) {
+        results.setNumberOfFeatures(count);
+        results.setTotalNumberOfFeatures(null);
     }
 
 }
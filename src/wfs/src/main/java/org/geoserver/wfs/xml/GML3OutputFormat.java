@@ -8,16 +8,10 @@ import static org.geoserver.ows.util.ResponseUtils.buildSchemaURL;
 import static org.geoserver.ows.util.ResponseUtils.buildURL;
 import static org.geoserver.ows.util.ResponseUtils.params;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -26,17 +20,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
 
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.ErrorListener;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -55,6 +40,7 @@ import org.geoserver.wfs.request.Query;
 import org.geoserver.wfs.xml.v1_1_0.WFS;
 import org.geoserver.wfs.xml.v1_1_0.WFSConfiguration;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.simple.SimpleFeatureTypeImpl;
 import org.geotools.gml3.GMLConfiguration;
@@ -62,28 +48,12 @@ import org.geotools.xml.Configuration;
 import org.geotools.xml.Encoder;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
-import org.w3c.dom.Document;
 
 public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
     
     GeoServer geoServer;
     Catalog catalog;
     WFSConfiguration configuration;
-    protected static DOMSource xslt;
-    
-    static {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        docFactory.setNamespaceAware(true);
-        Document xsdDocument = null;
-        try {
-            xsdDocument = docFactory.newDocumentBuilder().parse(
-                    GML3OutputFormat.class.getResourceAsStream("/ChangeNumberOfFeature.xslt"));
-            xslt = new DOMSource(xsdDocument);
-        } catch (Exception e) {
-            xslt = null;
-            LOGGER.log(Level.INFO, e.getMessage(), e);
-        }
-    }
 
     public GML3OutputFormat(GeoServer geoServer, WFSConfiguration configuration) {
         this(new HashSet(Arrays.asList(new Object[] {"gml3", "text/xml; subtype=gml/3.1.1"})), 
@@ -249,7 +219,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
 
         setAdditionalSchemaLocations(encoder, request, wfs);
         if (this.isComplexFeature(results)) {
-            complexFeatureStreamIntercept(results, output, encoder);
+            complexFeatureEncode(results, output, encoder);
         } else {
             encode(results, output, encoder);
         }
@@ -270,36 +240,42 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         encoder.encode(results.getAdaptee(), org.geoserver.wfs.xml.v1_1_0.WFS.FEATURECOLLECTION, output);
     }
     
-    protected DOMSource getXSLT() {
-        return GML3OutputFormat.xslt;
-    }
-
-    private void complexFeatureStreamIntercept(FeatureCollectionResponse results, OutputStream output,
+    /**
+     * Encodes complex features straight to the output. The feature count computed by the store is
+     * not reliable for complex features, so the features are counted beforehand by scanning them,
+     * which keeps memory usage constant instead of buffering the whole response.
+     */
+    private void complexFeatureEncode(FeatureCollectionResponse results, OutputStream output,
             Encoder encoder) throws IOException {
-        if (this.getXSLT() == null) {
-            throw new FileNotFoundException("Unable to locate xslt resource file");
+        long count = 0;
+        for (int fcIndex = 0; fcIndex < results.getFeature().size(); fcIndex++) {
+            count += countFeatures((FeatureCollection) results.getFeature().get(fcIndex));
         }
+        setComplexFeatureCount(results, BigInteger.valueOf(count));
+        encode(results, output, encoder);
+    }
 
-        // Create a temporary file for the xml dump. _dump is added to ensure the hash create is
-        // more then 3 char.
-        File featureOut = File.createTempFile(output.hashCode() + "_dump", ".xml");
-        // create a buffered output stream to write the output from encode to disk first
-        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(featureOut));
-        // create a buffered input stream to read the dumped xml file in
-        BufferedInputStream in = new BufferedInputStream(new FileInputStream(featureOut));
+    private long countFeatures(FeatureCollection features) {
+        long count = 0;
+        FeatureIterator it = features.features();
         try {
-            // the output file has to be unique with each Class object to ensure concurrency
-            encode(results, out, encoder);
-            this.transform(in, this.getXSLT(), output);
-        } catch (TransformerException e) {
-            throw (IOException) new IOException(e.getMessage()).initCause(e);           
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
         } finally {
-            out.close();
-            in.close();
-            featureOut.delete();
+            it.close();
         }
+        return count;
     }
-    
+
+    /**
+     * Sets the actual number of complex features returned on the response
+     */
+    protected void setComplexFeatureCount(FeatureCollectionResponse results, BigInteger count) {
+        results.setNumberOfFeatures(count);
+    }
+
     protected String getWfsNamespace() {
         return org.geoserver.wfs.xml.v1_1_0.WFS.NAMESPACE;
     }
@@ -322,32 +298,4 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         }
         return hasComplex;
     }
-
-    public void transform(InputStream in, DOMSource xslt, OutputStream out)
-            throws TransformerException {
-        TransformerFactory factory = TransformerFactory.newInstance();
-        Transformer transformer = (xslt == null ? factory.newTransformer() : factory
-                .newTransformer(xslt));
-        transformer.setErrorListener(new TransformerErrorListener());
-        transformer.transform(new StreamSource(in), new StreamResult(out));
-    }
-
-    // If an application does not register its own custom ErrorListener, the default ErrorListener
-    // is used which reports all warnings and errors to System.err and does not throw any Exceptions
-    private class TransformerErrorListener implements ErrorListener {
-
-        public void error(TransformerException exception) throws TransformerException {
-            throw exception;
-        }
-
-        public void fatalError(TransformerException exception) throws TransformerException {
-            throw exception;
-
-        }
-
-        public void warning(TransformerException exception) throws TransformerException {
-            throw exception;
-        }
-
-    }
 }
@@ -0,0 +1,102 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.CiteTestData;
+import org.geoserver.security.CatalogMode;
+import org.geoserver.security.VectorAccessLimits;
+import org.geoserver.security.WrapperPolicy;
+import org.geoserver.security.decorators.SecuredObjects;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class DefaultFeatureCountStrategyTest extends WFSTestSupport {
+
+    @Test
+    public void testCount() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(
+                getLayerId(CiteTestData.FIFTEEN));
+        FeatureSource source = ft.getFeatureSource(null, null);
+
+        DefaultFeatureCountStrategy strategy = new DefaultFeatureCountStrategy(0, false);
+        assertEquals(15, strategy.getCount(ft, source, Query.ALL));
+    }
+
+    @Test
+    public void testCachedCountInvalidatedByTransaction() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(
+                getLayerId(CiteTestData.FIFTEEN));
+        FeatureStore store = (FeatureStore) ft.getFeatureSource(null, null);
+        store.setTransaction(Transaction.AUTO_COMMIT);
+
+        DefaultFeatureCountStrategy strategy = new DefaultFeatureCountStrategy(60, false);
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        Query query = new Query(ft.getNativeName(), ff.id(Collections.singleton(ff
+                .featureId("Fifteen.1"))));
+        assertEquals(1, strategy.getCount(ft, store, query));
+
+        // changes not going through a WFS transaction go unnoticed until the counts expire
+        store.removeFeatures(query.getFilter());
+        try {
+            assertEquals(1, strategy.getCount(ft, store, query));
+
+            strategy.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE, null,
+                    CiteTestData.FIFTEEN, null));
+            assertEquals(0, strategy.getCount(ft, store, query));
+        } finally {
+            // leave the data as we found it for the other tests
+            revertLayer(CiteTestData.FIFTEEN);
+        }
+    }
+
+    @Test
+    public void testCachedCountBySecuredUser() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(
+                getLayerId(CiteTestData.FIFTEEN));
+        FeatureSource source = ft.getFeatureSource(null, null);
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        Filter limit = ff.id(Collections.singleton(ff.featureId("Fifteen.1")));
+
+        DefaultFeatureCountStrategy strategy = new DefaultFeatureCountStrategy(60, false);
+        try {
+            login("limited", "ROLE_LIMITED");
+            FeatureSource limited = (FeatureSource) SecuredObjects.secure(source,
+                    WrapperPolicy.readOnlyHide(new VectorAccessLimits(CatalogMode.HIDE, null,
+                            limit, null, limit)));
+            assertEquals(1, strategy.getCount(ft, limited, Query.ALL));
+
+            login("admin", "ROLE_ADMINISTRATOR");
+            FeatureSource full = (FeatureSource) SecuredObjects.secure(source,
+                    WrapperPolicy.readOnlyHide(new VectorAccessLimits(CatalogMode.HIDE, null,
+                            Filter.INCLUDE, null, Filter.INCLUDE)));
+            assertEquals(15, strategy.getCount(ft, full, Query.ALL));
+        } finally {
+            SecurityContextHolder.getContext().setAuthentication(null);
+        }
+    }
+
+    void login(String user, String role) {
+        List<GrantedAuthority> roles = Collections
+                .<GrantedAuthority> singletonList(new SimpleGrantedAuthority(role));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, "password", roles));
+    }
+}
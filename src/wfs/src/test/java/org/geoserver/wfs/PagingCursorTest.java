@@ -0,0 +1,121 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.geotools.data.QueryCapabilities;
+import org.geotools.data.collection.CollectionFeatureSource;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+public class PagingCursorTest {
+
+    @Test
+    public void testRoundTripKeepsTypes() throws Exception {
+        Timestamp timestamp = new Timestamp(1234567890123L);
+        timestamp.setNanos(123456789);
+        List<Object> key = new ArrayList<Object>(Arrays.asList("abc", 12, 34L, 5.6d, 7.8f,
+                new BigDecimal("9.01"), timestamp, new java.sql.Date(86400000L), new Date(1000L)));
+
+        PagingCursor cursor = PagingCursor.decode(new PagingCursor(20, 3, key).encode(),
+                key.size());
+        assertEquals(20, cursor.position);
+        assertEquals(3, cursor.skip);
+        assertEquals(key, cursor.key);
+        for (int i = 0; i < key.size(); i++) {
+            assertEquals(key.get(i).getClass(), cursor.key.get(i).getClass());
+        }
+    }
+
+    @Test
+    public void testUnsupportedKeys() {
+        assertFalse(PagingCursor.isSupportedKey(Boolean.TRUE));
+        assertFalse(PagingCursor.isSupportedKey(new Object()));
+        char[] chars = new char[PagingCursor.MAX_STRING_KEY + 1];
+        Arrays.fill(chars, 'a');
+        assertFalse(PagingCursor.isSupportedKey(new String(chars)));
+    }
+
+    @Test
+    public void testSizeMismatch() throws Exception {
+        String token = new PagingCursor(0, 0, Arrays.<Object> asList("a", 1)).encode();
+        assertInvalid(token, 1);
+        assertInvalid(token, 3);
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        String token = new PagingCursor(0, 0, Arrays.<Object> asList("abc")).encode();
+        assertInvalid(token.substring(0, 8), 1);
+    }
+
+    @Test
+    public void testUniqueSortBy() throws Exception {
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        List<SortBy> sortBy = Arrays.asList(ff.sort("name", SortOrder.DESCENDING));
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("things");
+        tb.add("fid", Integer.class);
+        tb.add("name", String.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+        assertNull(PagingCursor.uniqueSortBy(ff, source(schema), sortBy));
+
+        // the exposed primary key breaks the ties
+        schema.getDescriptor("fid").getUserData()
+                .put(JDBCDataStore.JDBC_PRIMARY_KEY_COLUMN, Boolean.TRUE);
+        List<SortBy> unique = PagingCursor.uniqueSortBy(ff, source(schema), sortBy);
+        assertEquals(2, unique.size());
+        assertEquals(sortBy.get(0), unique.get(0));
+        assertEquals("fid", unique.get(1).getPropertyName().getPropertyName());
+        assertEquals(SortOrder.ASCENDING, unique.get(1).getSortOrder());
+
+        // unless already sorted on
+        List<SortBy> byKey = Arrays.asList(ff.sort("fid", SortOrder.DESCENDING));
+        assertEquals(byKey, PagingCursor.uniqueSortBy(ff, source(schema), byKey));
+    }
+
+    CollectionFeatureSource source(SimpleFeatureType schema) {
+        return new CollectionFeatureSource(new ListFeatureCollection(schema)) {
+            @Override
+            public QueryCapabilities getQueryCapabilities() {
+                return new QueryCapabilities() {
+                    @Override
+                    public boolean supportsSorting(SortBy[] sortAttributes) {
+                        return true;
+                    }
+                };
+            }
+        };
+    }
+
+    void assertInvalid(String token, int properties) {
+        try {
+            PagingCursor.decode(token, properties);
+            fail("The cursor should have been rejected");
+        } catch (IOException e) {
+            assertEquals("Invalid cursor: " + token, e.getMessage());
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.wfs.GetFeature;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -39,6 +40,7 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.Id;
 import org.opengis.filter.identity.Identifier;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 
 public class GetFeaturePagingTest extends WFS20TestSupport {
 
@@ -562,4 +564,35 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         XMLAssert.assertXpathEvaluatesTo("0", "/wfs:FeatureCollection/@numberReturned", doc);
     }
 
+    @Test
+    public void testCursorPagingGET() throws Exception {
+        System.setProperty(GetFeature.CURSOR_PAGING_KEY, "true");
+        try {
+            String path = "wfs?service=WFS&version=2.0.0&request=GetFeature&typeName=gs:Fifteen"
+                    + "&sortBy=num ASC&startIndex=0&count=4";
+            int expected = 0;
+            int pages = 0;
+            while (path != null) {
+                Document dom = getAsDOM(path);
+                NodeList nums = dom.getElementsByTagName("gs:num");
+                for (int i = 0; i < nums.getLength(); i++) {
+                    assertEquals(String.valueOf(expected++), nums.item(i).getTextContent());
+                }
+                pages++;
+
+                String next = dom.getDocumentElement().getAttribute("next");
+                if (next.length() > 0) {
+                    assertTrue(toKvpMap(next).containsKey("CURSOR"));
+                    path = next.substring(next.indexOf("wfs?"));
+                } else {
+                    path = null;
+                }
+            }
+            assertEquals(15, expected);
+            assertEquals(4, pages);
+        } finally {
+            System.clearProperty(GetFeature.CURSOR_PAGING_KEY);
+        }
+    }
+
 }
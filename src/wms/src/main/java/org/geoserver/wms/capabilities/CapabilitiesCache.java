@@ -0,0 +1,178 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.ows.LocalLayer;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geoserver.wms.WMS;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Keeps the encoded WMS capabilities documents, so that servers with many layers do not rebuild
+ * them on each GetCapabilities request.
+ * <p>
+ * Documents are cached by the request parameters, the virtual service workspace and layer, the
+ * authenticated user and its roles, and the server update sequence. The latter is bumped on every
+ * catalog and configuration change, so documents are never served after the configuration they
+ * describe changed. The data access rules are not part of the configuration, the time they were
+ * last loaded is in the key as well, so that editing them drops the documents. They also expire
+ * after a timeout, since part of the content, such as the dimension domains, comes from the data.
+ * </p>
+ * <p>
+ * The cache is disabled unless the {@link #TIMEOUT_KEY} system/context property is set to the
+ * number of seconds documents can be served from the cache.
+ * </p>
+ */
+public class CapabilitiesCache {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    /**
+     * Property holding the number of seconds a document is kept, the cache is disabled if missing
+     */
+    public static final String TIMEOUT_KEY = "WMS_CAPABILITIES_CACHE_TIMEOUT";
+
+    /**
+     * Property holding the maximum size of the cached documents, in megabytes
+     */
+    public static final String MAX_SIZE_KEY = "WMS_CAPABILITIES_CACHE_SIZE";
+
+    static final long DEFAULT_MAX_SIZE = 64;
+
+    WMS wms;
+
+    DataAccessRuleDAO dataAccessRuleDAO;
+
+    Cache<String, byte[]> cache;
+
+    public CapabilitiesCache(WMS wms) {
+        this(wms, getLongProperty(TIMEOUT_KEY, 0), getLongProperty(MAX_SIZE_KEY, DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * @param timeout seconds a document is kept, {@code 0} or less disables the cache
+     * @param maxSize the maximum size of the cached documents, in megabytes
+     */
+    public CapabilitiesCache(WMS wms, long timeout, long maxSize) {
+        this.wms = wms;
+        if (timeout > 0) {
+            cache = CacheBuilder.newBuilder().expireAfterWrite(timeout, TimeUnit.SECONDS)
+                    .maximumWeight(maxSize * 1024 * 1024).weigher(new Weigher<String, byte[]>() {
+                        public int weigh(String key, byte[] value) {
+                            return key.length() + value.length;
+                        }
+                    }).build();
+        }
+    }
+
+    static long getLongProperty(String key, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid value for " + key + ", using " + defaultValue + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Sets the data access rules whose changes invalidate the documents
+     */
+    public void setDataAccessRuleDAO(DataAccessRuleDAO dataAccessRuleDAO) {
+        this.dataAccessRuleDAO = dataAccessRuleDAO;
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the cached document for the request, or {@code null} if there is none
+     */
+    public byte[] get(GetCapabilitiesRequest request) {
+        if (cache == null) {
+            return null;
+        }
+        return cache.getIfPresent(getKey(request));
+    }
+
+    /**
+     * Caches the document encoded for the request
+     */
+    public void put(GetCapabilitiesRequest request, byte[] document) {
+        if (cache != null) {
+            cache.put(getKey(request), document);
+        }
+    }
+
+    /**
+     * Drops all the cached documents
+     */
+    public void clear() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    String getKey(GetCapabilitiesRequest request) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(wms.getUpdateSequence());
+        if (dataAccessRuleDAO != null) {
+            // reloads the rules if layers.properties changed, bumping the last modified stamp
+            dataAccessRuleDAO.getRules();
+            sb.append('|').append(dataAccessRuleDAO.getLastModified());
+        }
+        sb.append('|').append(request.getVersion());
+        sb.append('|').append(request.getBaseUrl());
+        sb.append('|').append(request.getNamespace());
+
+        WorkspaceInfo ws = LocalWorkspace.get();
+        sb.append('|').append(ws == null ? null : ws.getName());
+        LayerInfo layer = LocalLayer.get();
+        sb.append('|').append(layer == null ? null : layer.getName());
+
+        // vendor parameters can alter the document too, e.g. tiled=true for WMS-C
+        Map<String, String> rawKvp = request.getRawKvp();
+        if (rawKvp != null) {
+            Map<String, String> sorted = new TreeMap<String, String>(
+                    String.CASE_INSENSITIVE_ORDER);
+            sorted.putAll(rawKvp);
+            sorted.remove("UPDATESEQUENCE");
+            sb.append('|').append(sorted);
+        }
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            sb.append('|').append(auth.getName());
+            TreeSet<String> roles = new TreeSet<String>();
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            sb.append('|').append(roles);
+        }
+        return sb.toString();
+    }
+}
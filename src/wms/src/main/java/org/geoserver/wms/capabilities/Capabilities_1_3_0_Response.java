@@ -4,6 +4,7 @@
  */
 package org.geoserver.wms.capabilities;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -22,8 +23,19 @@ import org.geoserver.wms.GetCapabilitiesRequest;
  */
 public class Capabilities_1_3_0_Response extends Response {
 
+    private CapabilitiesCache cache;
+
     public Capabilities_1_3_0_Response() {
+        this(null);
+    }
+
+    /**
+     * @param cache
+     *            the cache of the encoded documents, may be {@code null}
+     */
+    public Capabilities_1_3_0_Response(CapabilitiesCache cache) {
         super(Capabilities_1_3_0_Transformer.class);
+        this.cache = cache;
     }
 
     /**
@@ -58,9 +70,25 @@ public class Capabilities_1_3_0_Response extends Response {
             throws IOException, ServiceException {
 
         Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
+        GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
+
+        if (cache == null || !cache.isEnabled()) {
+            encode(transformer, request, output);
+            return;
+        }
+        byte[] document = cache.get(request);
+        if (document == null) {
+            ByteArrayOutputStream target = new ByteArrayOutputStream();
+            encode(transformer, request, target);
+            document = target.toByteArray();
+            cache.put(request, document);
+        }
+        output.write(document);
+    }
 
+    private void encode(Capabilities_1_3_0_Transformer transformer,
+            GetCapabilitiesRequest request, OutputStream output) throws ServiceException {
         try {
-            GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
             transformer.transform(request, output);
         } catch (TransformerException e) {
             throw new ServiceException(e);
@@ -79,14 +79,28 @@ public class GetCapabilitiesResponse extends Response {
 
     private WMS wms;
 
+    private CapabilitiesCache cache;
+
     /**
      * @param wms
      *            needed for {@link WMS#getAvailableExtendedCapabilitiesProviders()} in order to
      *            check of internal DTD elements shall be added to the output document
      */
     public GetCapabilitiesResponse(final WMS wms) {
+        this(wms, null);
+    }
+
+    /**
+     * @param wms
+     *            needed for {@link WMS#getAvailableExtendedCapabilitiesProviders()} in order to
+     *            check of internal DTD elements shall be added to the output document
+     * @param cache
+     *            the cache of the encoded documents, may be {@code null}
+     */
+    public GetCapabilitiesResponse(final WMS wms, final CapabilitiesCache cache) {
         super(GetCapabilitiesTransformer.class);
         this.wms = wms;
+        this.cache = cache;
     }
 
     /**
@@ -123,6 +137,23 @@ public class GetCapabilitiesResponse extends Response {
         final GetCapabilitiesTransformer transformer = (GetCapabilitiesTransformer) value;
         final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
 
+        if (cache == null || !cache.isEnabled()) {
+            encode(transformer, request, output);
+            return;
+        }
+        byte[] document = cache.get(request);
+        if (document == null) {
+            ByteArrayOutputStream target = new ByteArrayOutputStream();
+            encode(transformer, request, target);
+            document = target.toByteArray();
+            cache.put(request, document);
+        }
+        output.write(document);
+    }
+
+    private void encode(final GetCapabilitiesTransformer transformer,
+            final GetCapabilitiesRequest request, final OutputStream output) throws IOException,
+            ServiceException {
         final String internalDTDDeclaration = getInternalDTDDeclaration(request);
 
         if (internalDTDDeclaration == null) {
@@ -7,34 +7,65 @@ package org.geoserver.wms.map;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMSInfo;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Caches the tiles of the meta-tiles rendered for tiled GetMap requests, so that the other tiles
+ * of a meta-tile are served without rendering it again.
+ * <p>
+ * The cache is bounded by an estimate of the memory used by the tile images, set by the
+ * {@link #MEMORY_LIMIT} property or {@link #setMemoryLimit(long)}, evicting the least recently
+ * used meta-tiles first. WFS transactions only evict the meta-tiles that show the modified layer
+ * and intersect the modified features, WMS and global configuration changes clear the cache.
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * Property setting the memory used by the cached tiles, in bytes
+     */
+    public static final String MEMORY_LIMIT = "GEOSERVER_METATILE_CACHE_MEMORY";
+
+    static final long DEFAULT_MEMORY_LIMIT = 64 * 1024 * 1024;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -58,22 +89,43 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    /**
+     * The cached meta-tiles, in access order
+     */
+    private LinkedHashMap<MetaTileKey, CacheElement> tileCache = 
+        new LinkedHashMap<MetaTileKey, CacheElement>(16, 0.75f, true);
+
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+    /**
+     * Estimated memory used by the cached tiles
+     */
+    private long weight;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
 
     public QuickTileCache(GeoServer geoServer) {
+        this();
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                // other services do not affect rendering
+                if (service instanceof WMSInfo) {
+                    clear();
+                }
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -82,6 +134,66 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        String limit = GeoServerExtensions.getProperty(MEMORY_LIMIT);
+        if (limit != null) {
+            try {
+                memoryLimit = Long.parseLong(limit.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value " + limit + " for " + MEMORY_LIMIT + ", using "
+                        + DEFAULT_MEMORY_LIMIT);
+            }
+        }
+    }
+
+    /**
+     * The memory the cached tiles may use, in bytes.
+     */
+    public synchronized long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Sets the memory the cached tiles may use, in bytes, evicting meta-tiles if the cache is
+     * over the new limit.
+     */
+    public synchronized void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        evict();
+    }
+
+    /**
+     * Number of lookups that found the meta-tile in the cache.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Number of lookups that did not find the meta-tile in the cache.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Number of meta-tiles evicted to respect the memory limit.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Number of meta-tiles in the cache.
+     */
+    public synchronized int getSize() {
+        return tileCache.size();
+    }
+
+    /**
+     * Estimated memory used by the cached tiles, in bytes.
+     */
+    public synchronized long getWeight() {
+        return weight;
     }
 
     /**
@@ -110,7 +222,8 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoords = getTileCoordinates(bbox, origin);
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope, 
+                getLayerNames(request));
 
         // since this will be used for thread synchronization, we have to make
         // sure two thread asking for the same meta tile will get the same key
@@ -118,6 +231,22 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         return (MetaTileKey) metaTileKeys.unique(key);
     }
 
+    /**
+     * The qualified names of the feature types rendered by the request
+     */
+    Set<QName> getLayerNames(GetMapRequest request) {
+        Set<QName> names = new HashSet<QName>();
+        for (MapLayerInfo layer : request.getLayers()) {
+            FeatureTypeInfo ft = layer.getType() == MapLayerInfo.TYPE_VECTOR ? layer.getFeature() 
+                    : null;
+            if (ft != null) {
+                String uri = ft.getNamespace() != null ? ft.getNamespace().getURI() : null;
+                names.add(uri != null ? new QName(uri, ft.getName()) : new QName(ft.getName()));
+            }
+        }
+        return names;
+    }
+
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
         double minx = bbox.getMinX() + (metaTileCoords.x - tileCoords.x) * bbox.getWidth();
         double miny = bbox.getMinY() + (metaTileCoords.y - tileCoords.y) * bbox.getHeight();
@@ -262,11 +391,41 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
         ReferencedEnvelope metaTileEnvelope;
 
+        /**
+         * the feature types rendered in the meta-tile, not part of the key identity since they
+         * are derived from the map definition
+         */
+        Set<QName> layers;
+
         public MetaTileKey(MapKey mapKey, Point metaTileCoords, ReferencedEnvelope metaTileEnvelope) {
+            this(mapKey, metaTileCoords, metaTileEnvelope, Collections.<QName>emptySet());
+        }
+
+        public MetaTileKey(MapKey mapKey, Point metaTileCoords,
+                ReferencedEnvelope metaTileEnvelope, Set<QName> layers) {
             super();
             this.mapKey = mapKey;
             this.metaTileCoords = metaTileCoords;
             this.metaTileEnvelope = metaTileEnvelope;
+            this.layers = layers;
+        }
+
+        /**
+         * Returns true if the meta-tile shows the specified feature type
+         */
+        boolean renders(QName layerName) {
+            if (layers.contains(layerName)) {
+                return true;
+            }
+            // the transaction may not have qualified the name
+            if (layerName.getNamespaceURI() == null || layerName.getNamespaceURI().length() == 0) {
+                for (QName name : layers) {
+                    if (name.getLocalPart().equals(layerName.getLocalPart())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
         }
 
         public ReferencedEnvelope getMetaTileEnvelope() {
@@ -317,11 +476,13 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @return
      */
     public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+        CacheElement ce = tileCache.get(key);
 
         if (ce == null) {
+            misses++;
             return null;
         }
+        hits++;
 
         return getTile(key, request, ce.tiles);
     }
@@ -346,46 +507,156 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Puts the specified tile array in the cache, and returns the tile the request was looking for
+     * Puts the specified tile array in the cache, evicting the least recently used meta-tiles
+     * if needed to respect the memory limit
      * 
      * @param key
-     * @param request
      * @param tiles
-     * @return
      */
     public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+        CacheElement ce = new CacheElement(tiles);
+        if (ce.weight > memoryLimit) {
+            // would evict everything else and then itself
+            return;
+        }
+        CacheElement previous = tileCache.put(key, ce);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += ce.weight;
+        evict();
+    }
+
+    /**
+     * Evicts the least recently used meta-tiles until the cache is within the memory limit
+     */
+    private void evict() {
+        Iterator<CacheElement> it = tileCache.values().iterator();
+        while (weight > memoryLimit && it.hasNext()) {
+            CacheElement ce = it.next();
+            it.remove();
+            weight -= ce.weight;
+            evictions++;
+        }
     }
 
-    class CacheElement {
+    /**
+     * Removes all the meta-tiles from the cache
+     */
+    public synchronized void clear() {
+        tileCache.clear();
+        weight = 0;
+    }
+
+    static class CacheElement {
         RenderedImage[] tiles;
 
+        long weight;
+
         public CacheElement(RenderedImage[] tiles) {
             this.tiles = tiles;
+            for (RenderedImage tile : tiles) {
+                weight += weight(tile);
+            }
+        }
+
+        /**
+         * Estimates the memory used by the image pixels
+         */
+        static long weight(RenderedImage image) {
+            if (image == null) {
+                return 0;
+            }
+            int bits = 0;
+            for (int size : image.getSampleModel().getSampleSize()) {
+                bits += size;
+            }
+            return (long) image.getWidth() * image.getHeight() * bits / 8;
         }
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        QName layerName = event.getLayerName();
+        if (layerName == null) {
+            clear();
+            return;
+        }
+
+        // find the meta-tiles showing the layer
+        List<MetaTileKey> keys = new ArrayList<MetaTileKey>();
+        synchronized (this) {
+            for (MetaTileKey key : tileCache.keySet()) {
+                if (key.renders(layerName)) {
+                    keys.add(key);
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        // and evict the ones touched by the modified features, computing their bounds might
+        // require a query so do it outside of the lock
+        ReferencedEnvelope bounds = null;
+        try {
+            if (event.getAffectedFeatures() != null) {
+                bounds = event.getAffectedFeatures().getBounds();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Unable to compute the bounds of the modified features, "
+                    + "evicting all the meta-tiles of " + layerName, e);
+        }
+        synchronized (this) {
+            for (MetaTileKey key : keys) {
+                if (bounds == null || intersects(key, bounds)) {
+                    CacheElement ce = tileCache.remove(key);
+                    if (ce != null) {
+                        weight -= ce.weight;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the bounds intersect the meta-tile, or a tile around it since symbols and
+     * labels may extend past the feature geometry
+     */
+    boolean intersects(MetaTileKey key, ReferencedEnvelope bounds) {
+        if (bounds.isNull()) {
+            return false;
+        }
+        ReferencedEnvelope envelope = key.getMetaTileEnvelope();
+        try {
+            if (bounds.getCoordinateReferenceSystem() != null
+                    && envelope.getCoordinateReferenceSystem() != null
+                    && !CRS.equalsIgnoreMetadata(bounds.getCoordinateReferenceSystem(),
+                            envelope.getCoordinateReferenceSystem())) {
+                bounds = bounds.transform(envelope.getCoordinateReferenceSystem(), true);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Unable to reproject the modified features bounds", e);
+            return true;
+        }
+        Envelope buffered = new Envelope(envelope);
+        buffered.expandBy(envelope.getWidth() / key.getMetaFactor(), 
+                envelope.getHeight() / key.getMetaFactor());
+        return buffered.intersects(bounds);
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();        
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
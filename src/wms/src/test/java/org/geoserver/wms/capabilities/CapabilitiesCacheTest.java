@@ -0,0 +1,123 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.config.impl.GeoServerInfoImpl;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geoserver.wms.WMS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class CapabilitiesCacheTest {
+
+    GeoServerInfoImpl geosInfo;
+
+    WMS wms;
+
+    GetCapabilitiesRequest request;
+
+    byte[] document = new byte[] { 1, 2, 3 };
+
+    @Before
+    public void setUp() {
+        GeoServerImpl geoServer = new GeoServerImpl();
+        geosInfo = new GeoServerInfoImpl(geoServer);
+        geoServer.setGlobal(geosInfo);
+        wms = new WMS(geoServer);
+
+        request = new GetCapabilitiesRequest();
+        request.setBaseUrl("http://localhost/geoserver");
+        request.setVersion("1.1.1");
+    }
+
+    @After
+    public void clearAuthentication() {
+        SecurityContextHolder.getContext().setAuthentication(null);
+    }
+
+    @Test
+    public void testDisabled() {
+        CapabilitiesCache cache = new CapabilitiesCache(wms, 0, 1);
+        assertFalse(cache.isEnabled());
+        cache.put(request, document);
+        assertNull(cache.get(request));
+    }
+
+    @Test
+    public void testCached() {
+        CapabilitiesCache cache = new CapabilitiesCache(wms, 60, 1);
+        assertTrue(cache.isEnabled());
+        assertNull(cache.get(request));
+        cache.put(request, document);
+        assertArrayEquals(document, cache.get(request));
+
+        GetCapabilitiesRequest other = new GetCapabilitiesRequest();
+        other.setBaseUrl("http://localhost/geoserver");
+        other.setVersion("1.3.0");
+        assertNull(cache.get(other));
+    }
+
+    @Test
+    public void testConfigurationChange() {
+        CapabilitiesCache cache = new CapabilitiesCache(wms, 60, 1);
+        cache.put(request, document);
+
+        // catalog and configuration changes bump the update sequence
+        geosInfo.setUpdateSequence(geosInfo.getUpdateSequence() + 1);
+        assertNull(cache.get(request));
+    }
+
+    @Test
+    public void testRoles() {
+        CapabilitiesCache cache = new CapabilitiesCache(wms, 60, 1);
+        cache.put(request, document);
+
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken("admin", "geoserver", Collections
+                        .singletonList((GrantedAuthority) new SimpleGrantedAuthority(
+                                "ROLE_ADMINISTRATOR"))));
+        assertNull(cache.get(request));
+    }
+
+    @Test
+    public void testDataAccessRulesChange() throws Exception {
+        File root = File.createTempFile("capabilities", "data");
+        root.delete();
+        root.mkdirs();
+        try {
+            DataAccessRuleDAO rules = new DataAccessRuleDAO(new GeoServerDataDirectory(root),
+                    null);
+            rules.getRules();
+            CapabilitiesCache cache = new CapabilitiesCache(wms, 60, 1);
+            cache.setDataAccessRuleDAO(rules);
+            cache.put(request, document);
+            assertArrayEquals(document, cache.get(request));
+
+            // rules changed or reloaded from layers.properties
+            Thread.sleep(10);
+            rules.clear();
+            assertNull(cache.get(request));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+}
@@ -8,10 +8,27 @@ import static org.junit.Assert.*;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 public class QuickTileCacheTest {
     QuickTileCache cache = new QuickTileCache();
@@ -57,4 +74,76 @@ public class QuickTileCacheTest {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    static final QName ROADS = new QName("http://www.geoserver.org/test", "roads");
+
+    MetaTileKey key(String layer, int x, int y) {
+        MapKey mapKey = new MapKey("LAYERS=" + layer, 10, new Point2D.Double(0, 0));
+        ReferencedEnvelope env = new ReferencedEnvelope(x * 10, x * 10 + 30, y * 10, y * 10 + 30,
+                DefaultGeographicCRS.WGS84);
+        return new MetaTileKey(mapKey, new Point(x, y), env, Collections.singleton(new QName(
+                ROADS.getNamespaceURI(), layer)));
+    }
+
+    RenderedImage[] tiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        }
+        return tiles;
+    }
+
+    GetMapRequest request() {
+        GetMapRequest request = new GetMapRequest();
+        request.setBbox(new Envelope(0, 10, 0, 10));
+        request.setCrs(DefaultGeographicCRS.WGS84);
+        return request;
+    }
+
+    @Test
+    public void testMemoryLimit() {
+        long metaTileWeight = 9 * 256 * 256 * 4;
+        cache.setMemoryLimit(metaTileWeight * 2);
+
+        MetaTileKey k1 = key("roads", 0, 0);
+        MetaTileKey k2 = key("roads", 3, 0);
+        MetaTileKey k3 = key("roads", 6, 0);
+        cache.storeTiles(k1, tiles());
+        cache.storeTiles(k2, tiles());
+        assertEquals(2, cache.getSize());
+        assertEquals(metaTileWeight * 2, cache.getWeight());
+
+        // k1 is the most recently used, k2 gets evicted
+        assertNotNull(cache.getTile(k1, request()));
+        cache.storeTiles(k3, tiles());
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.getTile(k1, request()));
+        assertNull(cache.getTile(k2, request()));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testTransactionEvictsIntersecting() throws Exception {
+        MetaTileKey k1 = key("roads", 0, 0);
+        MetaTileKey k2 = key("roads", 30, 0);
+        MetaTileKey k3 = key("rivers", 0, 0);
+        cache.storeTiles(k1, tiles());
+        cache.storeTiles(k2, tiles());
+        cache.storeTiles(k3, tiles());
+
+        SimpleFeatureType type = DataUtilities.createType("roads", "geom:Point");
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        fb.add(new GeometryFactory().createPoint(new Coordinate(15, 15)));
+        TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_UPDATE, null,
+                ROADS, DataUtilities.collection(fb.buildFeature("roads.1")));
+        cache.dataStoreChange(event);
+
+        // only the meta-tile of roads around the modified feature is gone
+        assertEquals(2, cache.getSize());
+        assertNull(cache.getTile(k1, request()));
+        assertNotNull(cache.getTile(k3, request()));
+    }
 }